@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.api.whitelist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link AppEngineJreWhitelist} with the {@link LegacyAppEngineJreWhitelist} it replaced:
+ * the latency of a lookup, over a mix of whitelisted, rejected and non JRE classes, and the cost
+ * of loading the whitelist. {@link #getViolations()} checks the same names as one batch. Run the
+ * load benchmarks with {@code -prof gc} to see the bytes allocated, and {@link WhitelistFootprint}
+ * for the heap retained.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class AppEngineJreWhitelistBenchmark {
+
+  private static final int LOOKUPS = 1024;
+
+  private final JreWhitelist java7 = JreWhitelistRegistry.get(JreWhitelistRegistry.JAVA7);
+  private String[] classNames;
+  private List<String> classNameList;
+
+  @Setup
+  public void setUp() {
+    List<String> whitelisted = new ArrayList<>(LegacyAppEngineJreWhitelist.newWhitelist());
+    Collections.sort(whitelisted);
+    String[] rejected = {"java.net.CookieManager", "javax.swing.JFrame", "sun.util.Foo",
+        "org.omg.CORBA.ORB", "com.sun.xml.Foo", "java.lang.ProcessBuilder"};
+    String[] notJre = {"com.google.common.base.Strings", "com.example.app.HelloServlet",
+        "org.apache.commons.lang3.StringUtils", "javax.servlet.http.HttpServlet",
+        "com.sun.net.Foo", "org.slf4j.Logger"};
+
+    // half of the lookups are for application and library classes, as in a real scan
+    Random random = new Random(0);
+    classNames = new String[LOOKUPS];
+    for (int i = 0; i < LOOKUPS; i++) {
+      String className;
+      if (i % 2 == 0) {
+        className = notJre[random.nextInt(notJre.length)];
+      } else if (i % 8 == 1) {
+        className = rejected[random.nextInt(rejected.length)];
+      } else {
+        className = whitelisted.get(random.nextInt(whitelisted.size()));
+      }
+      // distinct instances, so no lookup benefits from a hash code cached by an earlier one
+      classNames[i] = new String(className.toCharArray());
+    }
+    classNameList = Arrays.asList(classNames);
+    AppEngineJreWhitelist.contains("java.lang.String");
+    LegacyAppEngineJreWhitelist.contains("java.lang.String");
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  @OperationsPerInvocation(LOOKUPS)
+  public void contains(Blackhole blackhole) {
+    for (String className : classNames) {
+      blackhole.consume(AppEngineJreWhitelist.contains(className));
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  @OperationsPerInvocation(LOOKUPS)
+  public void legacyContains(Blackhole blackhole) {
+    for (String className : classNames) {
+      blackhole.consume(LegacyAppEngineJreWhitelist.contains(className));
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  @OperationsPerInvocation(LOOKUPS)
+  public Set<String> getViolations() {
+    return java7.getViolations(classNameList);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public ClassNameIndex load() {
+    return ClassNameIndex.load("jre-whitelist.txt");
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Set<String> legacyLoad() {
+    return LegacyAppEngineJreWhitelist.newWhitelist();
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.api.whitelist;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Prints the heap retained by the whitelist, for the current and the legacy implementation. JMH
+ * measures allocation rather than retention, so this is a plain program:
+ * <pre>
+ * mvn -Pbenchmarks test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.cloud.tools.appengine.api.whitelist.WhitelistFootprint
+ * </pre>
+ */
+public class WhitelistFootprint {
+
+  private static final int COPIES = 200;
+
+  /**
+   * Measures both implementations.
+   */
+  public static void main(String[] args) throws InterruptedException {
+    System.out.printf("AppEngineJreWhitelist:       %,d bytes%n", measure(new Loader() {
+      @Override
+      public Object load() {
+        return ClassNameIndex.load("jre-whitelist.txt");
+      }
+    }));
+    System.out.printf("LegacyAppEngineJreWhitelist: %,d bytes%n", measure(new Loader() {
+      @Override
+      public Object load() {
+        // copy the interned literals, which every copy of the set would otherwise share
+        Set<String> whitelist = new HashSet<>();
+        for (String className : LegacyAppEngineJreWhitelist.newWhitelist()) {
+          whitelist.add(new String(className.toCharArray()));
+        }
+        return whitelist;
+      }
+    }));
+  }
+
+  private interface Loader {
+    Object load();
+  }
+
+  // Average retained size of a copy, keeping many copies alive to average out the noise.
+  private static long measure(Loader loader) throws InterruptedException {
+    loader.load();
+    long before = usedHeap();
+    List<Object> copies = new ArrayList<>(COPIES);
+    for (int i = 0; i < COPIES; i++) {
+      copies.add(loader.load());
+    }
+    long after = usedHeap();
+    if (copies.size() != COPIES) {
+      throw new AssertionError();
+    }
+    return (after - before) / COPIES;
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import com.google.cloud.tools.appengine.api.debug.DefaultGenRepoInfoFileConfiguration;
+import com.google.cloud.tools.appengine.api.deploy.DefaultDeployConfiguration;
+import com.google.cloud.tools.appengine.api.devserver.DefaultRunConfiguration;
+import com.google.cloud.tools.appengine.api.instances.DefaultInstancesSelectionConfiguration;
+import com.google.cloud.tools.appengine.api.logs.DefaultLogsConfiguration;
+import com.google.cloud.tools.appengine.api.services.DefaultTrafficSplitConfiguration;
+import com.google.cloud.tools.appengine.api.versions.DefaultVersionsListConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.FakeCloudSdk.Behavior;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessOutputLineListener;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessStartListener;
+import com.google.cloud.tools.appengine.cloudsdk.serialization.CloudSdkComponent;
+import com.google.cloud.tools.appengine.cloudsdk.serialization.CloudSdkVersion;
+import com.google.cloud.tools.appengine.experimental.deploy.DeployResult;
+import com.google.cloud.tools.appengine.experimental.internal.cloudsdk.CloudSdkAppEngineRequestFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * End-to-end latency of the public APIs against a {@link FakeCloudSdk} whose commands exit as soon
+ * as they wrote a little output. Besides process creation, this includes the {@code gcloud info}
+ * that validates the SDK before every gcloud and dev_appserver command.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class CloudSdkCommandBenchmark {
+
+  private FakeCloudSdk fake;
+  private CloudSdk sdk;
+  private ProcessOutputLineListener ignore;
+  private final AtomicReference<Process> devServer = new AtomicReference<>();
+
+  private DefaultDeployConfiguration deploy;
+  private DefaultRunConfiguration run;
+
+  @Setup
+  public void setUp() throws IOException {
+    fake = new FakeCloudSdk(Files.createTempDirectory("fake-sdk"));
+    Behavior behavior = new Behavior().stdOutLines(20).stdErrLines(20);
+    fake.setGcloudBehavior(behavior);
+    fake.setAppCfgBehavior(behavior);
+    fake.setDevAppServerBehavior(new Behavior().stdErrLines(20).runUntilKilled());
+
+    ignore = new ProcessOutputLineListener() {
+      @Override
+      public void onOutputLine(String line) {
+      }
+    };
+    sdk = fake.newBuilder().addStdOutLineListener(ignore).addStdErrLineListener(ignore).build();
+
+    File appYaml = fake.getRoot().resolve("app.yaml").toFile();
+    Files.write(appYaml.toPath(), "runtime: java\n".getBytes("UTF-8"));
+    deploy = new DefaultDeployConfiguration();
+    deploy.setDeployables(Collections.singletonList(appYaml));
+    deploy.setVersion("v1");
+    deploy.setProject("my-project");
+    run = new DefaultRunConfiguration();
+    run.setAppYamls(Collections.singletonList(appYaml));
+    run.setPort(8080);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fake.delete();
+  }
+
+  @Benchmark
+  public CloudSdkVersion getVersion() throws Exception {
+    return sdk.getVersion();
+  }
+
+  @Benchmark
+  public List<CloudSdkComponent> getComponents() throws Exception {
+    return sdk.getComponents();
+  }
+
+  @Benchmark
+  public void deploy() {
+    new CloudSdkAppEngineDeployment(sdk).deploy(deploy);
+  }
+
+  @Benchmark
+  public void versionsList() {
+    new CloudSdkAppEngineVersions(sdk).list(new DefaultVersionsListConfiguration());
+  }
+
+  @Benchmark
+  public void logsRead() {
+    new CloudSdkAppEngineLogs(sdk).read(new DefaultLogsConfiguration());
+  }
+
+  @Benchmark
+  public void servicesSetTraffic() {
+    DefaultTrafficSplitConfiguration configuration = new DefaultTrafficSplitConfiguration();
+    configuration.setServices(ImmutableList.of("default"));
+    configuration.setVersionToTrafficSplit(ImmutableMap.of("v1", 1.0));
+    new CloudSdkAppEngineServices(sdk).setTraffic(configuration);
+  }
+
+  @Benchmark
+  public void instancesEnableDebug() {
+    DefaultInstancesSelectionConfiguration configuration =
+        new DefaultInstancesSelectionConfiguration();
+    configuration.setVersion("v1");
+    new CloudSdkAppEngineInstances(sdk).enableDebug(configuration);
+  }
+
+  @Benchmark
+  public void genRepoInfoFile() {
+    new CloudSdkGenRepoInfoFile(sdk).generate(new DefaultGenRepoInfoFileConfiguration());
+  }
+
+  @Benchmark
+  public void appCfg() throws Exception {
+    sdk.runAppCfgCommand(ImmutableList.of("stage", "in", "out"));
+  }
+
+  /**
+   * Starts the dev server and waits until it reports it is running, then kills it. The start wait
+   * of a {@link CloudSdk} only works once, so each run builds a new one.
+   */
+  @Benchmark
+  public void devServerRun() throws InterruptedException {
+    CloudSdk asyncSdk = fake.newBuilder().async(true).runDevAppServerWait(10)
+        .addStdOutLineListener(ignore).addStdErrLineListener(ignore)
+        .startListener(new ProcessStartListener() {
+          @Override
+          public void onStart(Process process) {
+            devServer.set(process);
+          }
+        })
+        .build();
+    new CloudSdkAppEngineDevServer(asyncSdk).run(run);
+    Process process = devServer.get();
+    process.destroy();
+    process.waitFor();
+  }
+
+  @Benchmark
+  public DeployResult experimentalDeploy() throws InterruptedException, ExecutionException {
+    return new CloudSdkAppEngineRequestFactory(fake.getRoot(), null, null, null)
+        .newDeploymentRequest(deploy).execute().get();
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import com.google.cloud.tools.appengine.api.deploy.DefaultDeployConfiguration;
+import com.google.cloud.tools.appengine.api.logs.DefaultLogsConfiguration;
+import com.google.cloud.tools.appengine.api.versions.DefaultVersionsListConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.FakeCloudSdk.Behavior;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessOutputLineListener;
+import com.google.cloud.tools.appengine.experimental.AppEngineRequestFactory;
+import com.google.cloud.tools.appengine.experimental.internal.cloudsdk.CloudSdkAppEngineRequestFactory;
+import com.google.common.base.Charsets;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drives many concurrent deploy, versions, logs and experimental deploy operations against a
+ * {@link FakeCloudSdk}, printing latency percentiles, thread and file descriptor counts, heap use
+ * and JVM shutdown hooks at every interval. At the end it compares the JVM against its state
+ * before the run, reports what grew as leaks, and exits with 1 if there were any:
+ * <pre>
+ * mvn -Pbenchmarks test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.cloud.tools.appengine.cloudsdk.CloudSdkSoak \
+ *     -Dsoak.concurrency=100 -Dsoak.seconds=60 -Dsoak.interval=5
+ * </pre>
+ * Shutdown hooks are only counted on Java 9 and later if {@code java.lang} is open to the
+ * harness, e.g. with {@code MAVEN_OPTS="--add-opens java.base/java.lang=ALL-UNNAMED"}.
+ */
+public class CloudSdkSoak {
+
+  // growth tolerated before calling it a leak
+  private static final int THREAD_SLACK = 8;
+  private static final int FILE_DESCRIPTOR_SLACK = 16;
+
+  // every command is logged at INFO, which would drown the report
+  private static final Logger rootLogger = Logger.getLogger("");
+
+  private final int concurrency;
+  private final FakeCloudSdk fake;
+  private final CloudSdk sdk;
+  private final AppEngineRequestFactory requestFactory;
+  private final DefaultDeployConfiguration deploy = new DefaultDeployConfiguration();
+  private final List<Long> intervalLatencies = new ArrayList<>();
+  private final List<Long> allLatencies = new ArrayList<>();
+  private final AtomicLong errors = new AtomicLong();
+  private volatile boolean running = true;
+
+  private CloudSdkSoak(int concurrency, FakeCloudSdk fake) throws Exception {
+    this.concurrency = concurrency;
+    this.fake = fake;
+    // a short lived command with a little output, like most gcloud app commands
+    fake.setGcloudBehavior(new Behavior().stdOutLines(20).stdErrLines(20).exitDelayMillis(50));
+    ProcessOutputLineListener ignore = new ProcessOutputLineListener() {
+      @Override
+      public void onOutputLine(String line) {
+      }
+    };
+    sdk = fake.newBuilder().addStdOutLineListener(ignore).addStdErrLineListener(ignore).build();
+    requestFactory = new CloudSdkAppEngineRequestFactory(fake.getRoot(), null, null, null);
+    File appYaml = fake.getRoot().resolve("app.yaml").toFile();
+    Files.write(appYaml.toPath(), "runtime: java\n".getBytes(Charsets.UTF_8));
+    deploy.setDeployables(Collections.singletonList(appYaml));
+  }
+
+  /**
+   * Runs the soak test, configured by the {@code soak.concurrency}, {@code soak.seconds} and
+   * {@code soak.interval} system properties.
+   */
+  public static void main(String[] args) throws Exception {
+    rootLogger.setLevel(Level.WARNING);
+    int concurrency = Integer.getInteger("soak.concurrency", 100);
+    int seconds = Integer.getInteger("soak.seconds", 60);
+    int interval = Integer.getInteger("soak.interval", 5);
+
+    FakeCloudSdk fake = new FakeCloudSdk(Files.createTempDirectory("fake-sdk"));
+    boolean leaked;
+    try {
+      leaked = new CloudSdkSoak(concurrency, fake).run(seconds, interval);
+    } finally {
+      fake.delete();
+    }
+    System.exit(leaked ? 1 : 0);
+  }
+
+  private boolean run(int seconds, int interval) throws Exception {
+    Sample before = Sample.take(true);
+    System.out.printf("%d concurrent operations for %ds%n", concurrency, seconds);
+    System.out.println(
+        "  time      ops  errors   p50 ms   p90 ms   p99 ms   max ms  threads   fds  heap MB"
+        + "  hooks");
+
+    ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+    for (int i = 0; i < concurrency; i++) {
+      final int worker = i;
+      workers.submit(new Runnable() {
+        @Override
+        public void run() {
+          for (int operation = worker; running; operation++) {
+            runOperation(operation % 4);
+          }
+        }
+      });
+    }
+
+    long start = System.nanoTime();
+    for (int elapsed = interval; elapsed <= seconds; elapsed += interval) {
+      Thread.sleep(TimeUnit.SECONDS.toMillis(interval));
+      List<Long> latencies;
+      synchronized (intervalLatencies) {
+        latencies = new ArrayList<>(intervalLatencies);
+        intervalLatencies.clear();
+      }
+      print(String.format("%5ds", elapsed), latencies, Sample.take(false));
+    }
+    running = false;
+    workers.shutdown();
+    workers.awaitTermination(1, TimeUnit.MINUTES);
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    // let exiting threads and processes settle before comparing
+    Thread.sleep(3000);
+    Sample after = Sample.take(true);
+    print(" total", allLatencies, after);
+    System.out.printf("%.1f operations/s%n", allLatencies.size() * 1000.0 / millis);
+    return reportLeaks(before, after);
+  }
+
+  private void runOperation(int operation) {
+    long start = System.nanoTime();
+    try {
+      switch (operation) {
+        case 0:
+          new CloudSdkAppEngineDeployment(sdk).deploy(deploy);
+          break;
+        case 1:
+          new CloudSdkAppEngineVersions(sdk).list(new DefaultVersionsListConfiguration());
+          break;
+        case 2:
+          new CloudSdkAppEngineLogs(sdk).read(new DefaultLogsConfiguration());
+          break;
+        default:
+          requestFactory.newDeploymentRequest(deploy).execute().get();
+      }
+    } catch (Exception e) {
+      if (errors.incrementAndGet() <= 10) {
+        e.printStackTrace();
+      }
+    }
+    long latency = System.nanoTime() - start;
+    synchronized (intervalLatencies) {
+      intervalLatencies.add(latency);
+      allLatencies.add(latency);
+    }
+  }
+
+  private void print(String time, List<Long> latencies, Sample sample) {
+    Collections.sort(latencies);
+    System.out.printf("%s %8d %7d %8.1f %8.1f %8.1f %8.1f %8d %5s %8.1f %6s%n", time,
+        latencies.size(), errors.get(), percentile(latencies, 50), percentile(latencies, 90),
+        percentile(latencies, 99), percentile(latencies, 100), sample.threads,
+        orNotAvailable(sample.fileDescriptors), sample.heapBytes / 1048576.0,
+        orNotAvailable(sample.shutdownHooks));
+  }
+
+  private static double percentile(List<Long> sortedLatencies, int percentile) {
+    if (sortedLatencies.isEmpty()) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.size()) - 1;
+    return sortedLatencies.get(Math.max(index, 0)) / 1e6;
+  }
+
+  private static String orNotAvailable(long value) {
+    return value < 0 ? "n/a" : Long.toString(value);
+  }
+
+  private static boolean reportLeaks(Sample before, Sample after) {
+    List<String> leaks = new ArrayList<>();
+    if (after.threads > before.threads + THREAD_SLACK) {
+      leaks.add("threads: " + before.threads + " -> " + after.threads);
+    }
+    if (before.fileDescriptors >= 0
+        && after.fileDescriptors > before.fileDescriptors + FILE_DESCRIPTOR_SLACK) {
+      leaks.add("file descriptors: " + before.fileDescriptors + " -> " + after.fileDescriptors);
+    }
+    if (before.shutdownHooks >= 0 && after.shutdownHooks > before.shutdownHooks) {
+      leaks.add("shutdown hooks: " + before.shutdownHooks + " -> " + after.shutdownHooks);
+    }
+    System.out.printf("heap after GC: %.1f MB -> %.1f MB%n", before.heapBytes / 1048576.0,
+        after.heapBytes / 1048576.0);
+    for (String leak : leaks) {
+      System.out.println("LEAK " + leak);
+    }
+    return !leaks.isEmpty();
+  }
+
+  /**
+   * The JVM resources of interest at one point in time. Counts that cannot be determined are -1.
+   */
+  private static class Sample {
+    private final int threads;
+    private final long fileDescriptors;
+    private final long heapBytes;
+    private final long shutdownHooks;
+
+    private Sample(int threads, long fileDescriptors, long heapBytes, long shutdownHooks) {
+      this.threads = threads;
+      this.fileDescriptors = fileDescriptors;
+      this.heapBytes = heapBytes;
+      this.shutdownHooks = shutdownHooks;
+    }
+
+    static Sample take(boolean collectGarbage) throws InterruptedException {
+      if (collectGarbage) {
+        for (int i = 0; i < 3; i++) {
+          System.gc();
+          Thread.sleep(100);
+        }
+      }
+      return new Sample(ManagementFactory.getThreadMXBean().getThreadCount(),
+          fileDescriptors(), ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(),
+          shutdownHooks());
+    }
+
+    // com.sun.management.UnixOperatingSystemMXBean is not available everywhere
+    private static long fileDescriptors() {
+      OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+      try {
+        Class<?> unix = Class.forName("com.sun.management.UnixOperatingSystemMXBean");
+        if (unix.isInstance(os)) {
+          Method count = unix.getMethod("getOpenFileDescriptorCount");
+          return (Long) count.invoke(os);
+        }
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        // fall through
+      }
+      return -1;
+    }
+
+    private static long shutdownHooks() {
+      try {
+        Class<?> hooksClass = Class.forName("java.lang.ApplicationShutdownHooks");
+        Field hooks = hooksClass.getDeclaredField("hooks");
+        hooks.setAccessible(true);
+        synchronized (hooksClass) {
+          Map<?, ?> registered = (Map<?, ?>) hooks.get(null);
+          return registered == null ? -1 : registered.size();
+        }
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        return -1;
+      }
+    }
+  }
+}
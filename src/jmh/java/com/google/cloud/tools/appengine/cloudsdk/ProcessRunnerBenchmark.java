@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import com.google.cloud.tools.appengine.cloudsdk.FakeCloudSdk.Behavior;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.DefaultProcessRunner;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRunnerException;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessExitListener;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessOutputLineListener;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessStartListener;
+import com.google.cloud.tools.appengine.experimental.OutputHandler;
+import com.google.cloud.tools.appengine.experimental.internal.process.CliProcessManager;
+import com.google.cloud.tools.appengine.experimental.internal.process.io.StringResultConverter;
+import com.google.common.collect.ImmutableList;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The process layer against {@link FakeCloudSdk} commands: the latency of spawning a command
+ * without output, and the output throughput of {@link DefaultProcessRunner} and
+ * {@link CliProcessManager}. Throughput is reported in lines per second, with a {@code bytes}
+ * counter for bytes per second.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProcessRunnerBenchmark {
+
+  private static final int LINES = 100000;
+
+  /**
+   * A fake SDK whose gcloud exits immediately without output.
+   */
+  @State(Scope.Benchmark)
+  public static class SilentSdk {
+    FakeCloudSdk fake;
+    String[] command;
+
+    @Setup
+    public void setUp() throws IOException {
+      fake = new FakeCloudSdk(Files.createTempDirectory("fake-sdk"));
+      command = new String[] {fake.getRoot().resolve("bin/gcloud").toString(), "app"};
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+      fake.delete();
+    }
+  }
+
+  /**
+   * A fake SDK whose gcloud writes {@link #LINES} lines to standard output.
+   */
+  @State(Scope.Benchmark)
+  public static class ChattySdk {
+    @Param({"80", "1000"})
+    public int lineLength;
+
+    FakeCloudSdk fake;
+    String[] command;
+
+    @Setup
+    public void setUp() throws IOException {
+      fake = new FakeCloudSdk(Files.createTempDirectory("fake-sdk"));
+      fake.setGcloudBehavior(new Behavior().stdOutLines(LINES).lineLength(lineLength));
+      command = new String[] {fake.getRoot().resolve("bin/gcloud").toString(), "app"};
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+      fake.delete();
+    }
+  }
+
+  /**
+   * Bytes of output received, reported per second.
+   */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class OutputCounters {
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytes = 0;
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void spawn(SilentSdk sdk) throws ProcessRunnerException {
+    new DefaultProcessRunner(false, ImmutableList.<ProcessExitListener>of(),
+        ImmutableList.<ProcessStartListener>of(), false).run(sdk.command);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @OperationsPerInvocation(LINES)
+  public void defaultProcessRunner(ChattySdk sdk, final OutputCounters counters)
+      throws ProcessRunnerException {
+    ProcessOutputLineListener listener = new ProcessOutputLineListener() {
+      @Override
+      public void onOutputLine(String line) {
+        counters.bytes += line.length() + 1;
+      }
+    };
+    new DefaultProcessRunner(false, ImmutableList.<ProcessExitListener>of(),
+        ImmutableList.<ProcessStartListener>of(), ImmutableList.of(listener),
+        ImmutableList.<ProcessOutputLineListener>of()).run(sdk.command);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @OperationsPerInvocation(LINES)
+  public void cliProcessManager(ChattySdk sdk, OutputCounters counters)
+      throws IOException, InterruptedException, ExecutionException {
+    Process process = new ProcessBuilder(sdk.command).start();
+    String output = new CliProcessManager.Provider<String>().manage(process,
+        new StringResultConverter<String>() {
+          @Override
+          public String getResult(String result) {
+            return result;
+          }
+        },
+        new OutputHandler() {
+          @Override
+          public void handleLine(String line) {
+          }
+        }, 0, 0, CommandTrace.disabled()).get();
+    counters.bytes += output.length();
+  }
+}
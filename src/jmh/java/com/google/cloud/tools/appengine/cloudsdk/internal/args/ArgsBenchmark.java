@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.internal.args;
+
+import com.google.cloud.tools.appengine.api.deploy.DefaultDeployConfiguration;
+import com.google.cloud.tools.appengine.api.devserver.DefaultRunConfiguration;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembling full {@code gcloud app deploy} and {@code dev_appserver.py} command lines, with the
+ * same sequence of {@link GcloudArgs} and {@link DevAppServerArgs} calls as
+ * {@code CloudSdkAppEngineDeployment} and {@code CloudSdkAppEngineDevServer}.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class ArgsBenchmark {
+
+  private DefaultDeployConfiguration deploy;
+  private DefaultRunConfiguration run;
+
+  @Setup
+  public void setUp() {
+    deploy = new DefaultDeployConfiguration();
+    deploy.setDeployables(Arrays.asList(new File("/tmp/app/app.yaml"),
+        new File("/tmp/app/cron.yaml")));
+    deploy.setBucket("gs://my-bucket");
+    deploy.setPromote(true);
+    deploy.setStopPreviousVersion(false);
+    deploy.setVersion("v20161019t120000");
+    deploy.setProject("my-project-123456");
+
+    run = new DefaultRunConfiguration();
+    run.setAppYamls(Collections.singletonList(new File("/tmp/app/WEB-INF/appengine-web.xml")));
+    run.setHost("localhost");
+    run.setPort(8080);
+    run.setAdminPort(8000);
+    run.setStoragePath("/tmp/datastore");
+    run.setLogLevel("info");
+    run.setJvmFlags(Arrays.asList("-Xmx1g", "-Dfoo=bar", "-Xdebug"));
+    run.setAutomaticRestart(false);
+    run.setSkipSdkUpdateCheck(true);
+    run.setDefaultGcsBucketName("my-bucket");
+  }
+
+  @Benchmark
+  public List<String> gcloudDeploy() {
+    List<String> arguments = new ArrayList<>();
+    arguments.add("deploy");
+    for (File deployable : deploy.getDeployables()) {
+      arguments.add(deployable.toPath().toString());
+    }
+    arguments.addAll(GcloudArgs.get("bucket", deploy.getBucket()));
+    arguments.addAll(GcloudArgs.get("image-url", deploy.getImageUrl()));
+    arguments.addAll(GcloudArgs.get("promote", deploy.getPromote()));
+    arguments.addAll(GcloudArgs.get("server", deploy.getServer()));
+    arguments.addAll(GcloudArgs.get("stop-previous-version", deploy.getStopPreviousVersion()));
+    arguments.addAll(GcloudArgs.get("version", deploy.getVersion()));
+    arguments.addAll(GcloudArgs.get(deploy));
+    return arguments;
+  }
+
+  @Benchmark
+  public List<String> devAppServer() {
+    List<String> arguments = new ArrayList<>();
+    for (File appYaml : run.getAppYamls()) {
+      arguments.add(appYaml.toPath().toString());
+    }
+    arguments.addAll(DevAppServerArgs.get("host", run.getHost()));
+    arguments.addAll(DevAppServerArgs.get("port", run.getPort()));
+    arguments.addAll(DevAppServerArgs.get("admin_host", run.getAdminHost()));
+    arguments.addAll(DevAppServerArgs.get("admin_port", run.getAdminPort()));
+    arguments.addAll(DevAppServerArgs.get("auth_domain", run.getAuthDomain()));
+    arguments.addAll(DevAppServerArgs.get("storage_path", run.getStoragePath()));
+    arguments.addAll(DevAppServerArgs.get("log_level", run.getLogLevel()));
+    arguments.addAll(DevAppServerArgs.get("max_module_instances", run.getMaxModuleInstances()));
+    arguments.addAll(DevAppServerArgs.get("use_mtime_file_watcher", run.getUseMtimeFileWatcher()));
+    arguments.addAll(DevAppServerArgs.get("threadsafe_override", run.getThreadsafeOverride()));
+    arguments.addAll(DevAppServerArgs.get("python_startup_script", run.getPythonStartupScript()));
+    arguments.addAll(DevAppServerArgs.get("python_startup_args", run.getPythonStartupArgs()));
+    arguments.addAll(DevAppServerArgs.get("jvm_flag", run.getJvmFlags()));
+    arguments.addAll(DevAppServerArgs.get("custom_entrypoint", run.getCustomEntrypoint()));
+    arguments.addAll(DevAppServerArgs.get("runtime", run.getRuntime()));
+    arguments.addAll(DevAppServerArgs.get("allow_skipped_files", run.getAllowSkippedFiles()));
+    arguments.addAll(DevAppServerArgs.get("api_port", run.getApiPort()));
+    arguments.addAll(DevAppServerArgs.get("automatic_restart", run.getAutomaticRestart()));
+    arguments.addAll(
+        DevAppServerArgs.get("dev_appserver_log_level", run.getDevAppserverLogLevel()));
+    arguments.addAll(DevAppServerArgs.get("skip_sdk_update_check", run.getSkipSdkUpdateCheck()));
+    arguments.addAll(
+        DevAppServerArgs.get("default_gcs_bucket_name", run.getDefaultGcsBucketName()));
+    return arguments;
+  }
+}
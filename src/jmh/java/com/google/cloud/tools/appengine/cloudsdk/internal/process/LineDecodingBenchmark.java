@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.internal.process;
+
+import com.google.common.base.Charsets;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding child process output into lines, per line. {@code scanner} is how
+ * {@link DefaultProcessRunner} reads process streams; {@code bufferedReader} is the usual
+ * alternative, for comparison. The input resembles dev_appserver request logging.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class LineDecodingBenchmark {
+
+  private static final int LINES = 10000;
+
+  private byte[] output;
+
+  @Setup
+  public void setUp() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < LINES; i++) {
+      builder.append("INFO     2016-10-19 12:00:00,").append(i % 1000)
+          .append(" module.py:788] default: \"GET /api/items/").append(i)
+          .append(" HTTP/1.1\" 200 ").append(i % 4096).append('\n');
+    }
+    output = builder.toString().getBytes(Charsets.UTF_8);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LINES)
+  public void scanner(Blackhole blackhole) {
+    Scanner scanner = new Scanner(new ByteArrayInputStream(output), Charsets.UTF_8.name());
+    while (scanner.hasNextLine()) {
+      blackhole.consume(scanner.nextLine());
+    }
+    scanner.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LINES)
+  public void bufferedReader(Blackhole blackhole) throws IOException {
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new ByteArrayInputStream(output), Charsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        blackhole.consume(line);
+      }
+    }
+  }
+}
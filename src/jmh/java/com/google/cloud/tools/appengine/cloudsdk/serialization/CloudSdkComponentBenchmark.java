@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.serialization;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserializing the output of {@code gcloud components list --format=json} with
+ * {@link CloudSdkComponent#fromJsonList(String)}. A current Cloud SDK lists around 60 components.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CloudSdkComponentBenchmark {
+
+  @Param({"1", "60"})
+  public int components;
+
+  private String json;
+
+  @Setup
+  public void setUp() {
+    StringBuilder builder = new StringBuilder("[\n");
+    for (int i = 0; i < components; i++) {
+      if (i > 0) {
+        builder.append(",\n");
+      }
+      builder.append("  {\n")
+          .append("    \"current_version_string\": \"1.9.").append(i).append("\",\n")
+          .append("    \"id\": \"component-").append(i).append("\",\n")
+          .append("    \"is_configuration\": false,\n")
+          .append("    \"is_hidden\": ").append(i % 7 == 0).append(",\n")
+          .append("    \"latest_version_string\": \"1.9.").append(i + 1).append("\",\n")
+          .append("    \"name\": \"Cloud SDK Component ").append(i).append("\",\n")
+          .append("    \"platform_required\": false,\n")
+          .append("    \"size\": ").append(138442691 + i).append(",\n")
+          .append("    \"state\": {\n")
+          .append("      \"name\": \"").append(i % 3 == 0 ? "Installed" : "Not Installed")
+          .append("\"\n")
+          .append("    }\n")
+          .append("  }");
+    }
+    json = builder.append("\n]\n").toString();
+  }
+
+  @Benchmark
+  public List<CloudSdkComponent> fromJsonList() {
+    return CloudSdkComponent.fromJsonList(json);
+  }
+}
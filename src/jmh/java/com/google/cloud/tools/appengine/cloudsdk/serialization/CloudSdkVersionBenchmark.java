@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.cloudsdk.serialization;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parsing and comparing {@link CloudSdkVersion}s, against the regular expression the constructor
+ * used before.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class CloudSdkVersionBenchmark {
+
+  private static final Pattern LEGACY_PATTERN = Pattern.compile(
+      "^(?<major>(?:0|[1-9][0-9]*))\\.(?<minor>(?:0|[1-9][0-9]*))\\.(?<patch>(?:0|[1-9][0-9]*))"
+      + "(?:\\-(?<prerelease>(?:(?:(?:0|[1-9][0-9]*)|[-0-9A-Za-z]*[-A-Za-z]+[-0-9A-Za-z]*)"
+      + "(?:\\.(?:(?:0|[1-9][0-9]*)|[-0-9A-Za-z]*[-A-Za-z]+[-0-9A-Za-z]*))*)))?"
+      + "(?:\\+(?<build>(?:[-0-9A-Za-z]+(?:\\.[-0-9A-Za-z]+)*)))?$");
+
+  private static final String[] VERSIONS = {"133.0.0", "0.9.1", "133.0.0-rc.1",
+      "1.0.0-alpha.beta.11+build.20160101", "131.0.0+20161011"};
+
+  private CloudSdkVersion[] parsed;
+
+  @Setup
+  public void setUp() {
+    parsed = new CloudSdkVersion[VERSIONS.length];
+    for (int i = 0; i < VERSIONS.length; i++) {
+      parsed[i] = new CloudSdkVersion(VERSIONS[i]);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(5)
+  public void parse(Blackhole blackhole) {
+    for (String version : VERSIONS) {
+      blackhole.consume(new CloudSdkVersion(version));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(5)
+  public void parseCached(Blackhole blackhole) {
+    for (String version : VERSIONS) {
+      blackhole.consume(CloudSdkVersion.valueOf(version));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(5)
+  public void legacyParse(Blackhole blackhole) {
+    for (String version : VERSIONS) {
+      Matcher matcher = LEGACY_PATTERN.matcher(version);
+      if (!matcher.matches()) {
+        throw new IllegalArgumentException(version);
+      }
+      blackhole.consume(Integer.parseInt(matcher.group("major")));
+      blackhole.consume(Integer.parseInt(matcher.group("minor")));
+      blackhole.consume(Integer.parseInt(matcher.group("patch")));
+      String preRelease = matcher.group("prerelease");
+      blackhole.consume(preRelease == null ? null : new CloudSdkVersionPreRelease(preRelease));
+      blackhole.consume(matcher.group("build"));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(25)
+  public void compareTo(Blackhole blackhole) {
+    for (CloudSdkVersion first : parsed) {
+      for (CloudSdkVersion second : parsed) {
+        blackhole.consume(first.compareTo(second));
+      }
+    }
+  }
+}
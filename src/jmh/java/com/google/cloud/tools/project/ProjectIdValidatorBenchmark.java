@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.project;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * {@link ProjectIdValidator#validate(String)} against the regular expression it used before.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class ProjectIdValidatorBenchmark {
+
+  private static final Pattern LEGACY_PATTERN = Pattern.compile(
+      "(?:([a-z\\d\\-]{1,100})?\\~)?((?:([a-z\\d\\-\\.]{1,100})?\\:)?([a-z\\d\\-]{1,100}))",
+      Pattern.CASE_INSENSITIVE);
+
+  private static final String[] IDS = {"my-project-123456", "google.com:my-store",
+      "s~google.com:my-store", "Invalid Project", "a-rather-long-project-id-for-a-service"};
+
+  @Benchmark
+  @OperationsPerInvocation(5)
+  public void validate(Blackhole blackhole) {
+    for (String id : IDS) {
+      blackhole.consume(ProjectIdValidator.validate(id));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(5)
+  public void legacyValidate(Blackhole blackhole) {
+    for (String id : IDS) {
+      blackhole.consume(LEGACY_PATTERN.matcher(id).matches());
+    }
+  }
+}
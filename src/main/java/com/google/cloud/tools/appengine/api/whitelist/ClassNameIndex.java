@@ -0,0 +1,256 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.api.whitelist;
+
+import com.google.cloud.tools.appengine.api.AppEngineException;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable set of ASCII class names, stored in a single byte array and indexed by an open
+ * addressing hash table of entry numbers. It takes a fraction of the heap of a
+ * {@code HashSet<String>}, lookups allocate nothing, and loading it creates no strings.
+ *
+ * <p>Sets are read from a text format where unindented lines name packages, indented lines below
+ * them name the classes of that package and lines starting with {@code #} are comments.
+ */
+final class ClassNameIndex {
+
+  private final byte[] names;
+  // entry i is names[offsets[i]] to names[offsets[i + 1]]
+  private final int[] offsets;
+  // String.hashCode() of each entry
+  private final int[] hashes;
+  // entry number + 1 in each slot, 0 for empty slots
+  private final int[] table;
+  private final int size;
+
+  private ClassNameIndex(byte[] names, int[] offsets, int[] hashes, int[] table, int size) {
+    this.names = names;
+    this.offsets = offsets;
+    this.hashes = hashes;
+    this.table = table;
+    this.size = size;
+  }
+
+  /**
+   * Reads an index from a resource next to this class.
+   *
+   * @throws AppEngineException if the resource is missing or cannot be read
+   */
+  static ClassNameIndex load(String resource) {
+    try (InputStream in = ClassNameIndex.class.getResourceAsStream(resource)) {
+      if (in == null) {
+        throw new AppEngineException("Missing resource " + resource);
+      }
+      return read(in);
+    } catch (IOException e) {
+      throw new AppEngineException("Cannot read resource " + resource, e);
+    }
+  }
+
+  static ClassNameIndex read(InputStream in) throws IOException {
+    byte[] text = ByteStreams.toByteArray(in);
+    int lines = 1;
+    for (byte character : text) {
+      if (character == '\n') {
+        lines++;
+      }
+    }
+
+    Builder builder = new Builder(lines, text.length * 2);
+    int packageStart = -1;
+    int packageEnd = -1;
+    int lineStart = 0;
+    while (lineStart < text.length) {
+      int lineEnd = lineStart;
+      while (lineEnd < text.length && text[lineEnd] != '\n') {
+        lineEnd++;
+      }
+      int start = lineStart;
+      int end = lineEnd;
+      while (end > start && isWhitespace(text[end - 1])) {
+        end--;
+      }
+      boolean indented = start < end && isWhitespace(text[start]);
+      while (start < end && isWhitespace(text[start])) {
+        start++;
+      }
+
+      if (start == end || text[start] == '#') {
+        // blank line or comment
+      } else if (indented) {
+        if (packageStart < 0) {
+          throw new IOException("Class name before the first package at line " + lineNumber(
+              text, lineStart));
+        }
+        builder.add(text, packageStart, packageEnd, start, end);
+      } else {
+        packageStart = start;
+        packageEnd = end;
+      }
+      lineStart = lineEnd + 1;
+    }
+    return builder.build();
+  }
+
+  static ClassNameIndex of(Collection<String> classNames) {
+    int length = 0;
+    for (String className : classNames) {
+      length += className.length();
+    }
+    Builder builder = new Builder(classNames.size(), length);
+    for (String className : classNames) {
+      byte[] bytes = new byte[className.length()];
+      for (int i = 0; i < bytes.length; i++) {
+        char character = className.charAt(i);
+        Preconditions.checkArgument(character < 0x80, "Not an ASCII class name: %s", className);
+        bytes[i] = (byte) character;
+      }
+      builder.add(bytes, 0, 0, 0, bytes.length);
+    }
+    return builder.build();
+  }
+
+  boolean contains(String className) {
+    int hash = className.hashCode();
+    int mask = table.length - 1;
+    for (int slot = spread(hash) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+      int entry = table[slot] - 1;
+      if (hashes[entry] == hash && matches(entry, className)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  int size() {
+    return size;
+  }
+
+  private boolean matches(int entry, String className) {
+    int start = offsets[entry];
+    int length = offsets[entry + 1] - start;
+    if (length != className.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (names[start + i] != className.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean isWhitespace(byte character) {
+    return character == ' ' || character == '\t' || character == '\r';
+  }
+
+  private static int lineNumber(byte[] text, int offset) {
+    int line = 1;
+    for (int i = 0; i < offset; i++) {
+      if (text[i] == '\n') {
+        line++;
+      }
+    }
+    return line;
+  }
+
+  /**
+   * Accumulates entries, skipping duplicates, in arrays sized for an expected number of entries.
+   */
+  private static class Builder {
+    private byte[] names;
+    private final int[] offsets;
+    private final int[] hashes;
+    private final int[] table;
+    private int length;
+    private int size;
+
+    Builder(int maxSize, int expectedLength) {
+      names = new byte[Math.max(16, expectedLength)];
+      offsets = new int[maxSize + 1];
+      hashes = new int[maxSize];
+      // keep the load factor at or below 0.5, so probe sequences stay short
+      table = new int[Integer.highestOneBit(Math.max(1, maxSize)) << 2];
+    }
+
+    // Adds the package (if not empty), a dot and the class name.
+    void add(byte[] text, int packageStart, int packageEnd, int classStart, int classEnd) {
+      final int start = length;
+      int packageLength = packageEnd - packageStart;
+      int classLength = classEnd - classStart;
+      if (length + packageLength + 1 + classLength > names.length) {
+        names = Arrays.copyOf(names, Math.max(names.length * 2, length + packageLength + 1
+            + classLength));
+      }
+      if (packageLength > 0) {
+        System.arraycopy(text, packageStart, names, length, packageLength);
+        length += packageLength;
+        names[length++] = '.';
+      }
+      System.arraycopy(text, classStart, names, length, classLength);
+      length += classLength;
+
+      int hash = 0;
+      for (int i = start; i < length; i++) {
+        Preconditions.checkArgument(names[i] >= 0, "Not an ASCII class name");
+        hash = 31 * hash + names[i];
+      }
+      int mask = table.length - 1;
+      int slot = spread(hash) & mask;
+      for (; table[slot] != 0; slot = (slot + 1) & mask) {
+        int entry = table[slot] - 1;
+        if (hashes[entry] == hash && sameBytes(offsets[entry], offsets[entry + 1], start)) {
+          // duplicate
+          length = start;
+          return;
+        }
+      }
+      hashes[size] = hash;
+      offsets[size + 1] = length;
+      table[slot] = ++size;
+    }
+
+    // Compares names[from, to) with the entry being added, names[start, length).
+    private boolean sameBytes(int from, int to, int start) {
+      if (to - from != length - start) {
+        return false;
+      }
+      for (int i = 0; i < to - from; i++) {
+        if (names[from + i] != names[start + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    ClassNameIndex build() {
+      return new ClassNameIndex(Arrays.copyOf(names, length), Arrays.copyOf(offsets, size + 1),
+          Arrays.copyOf(hashes, size), table, size);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.api.whitelist;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The JRE classes that applications of one App Engine runtime may use. Classes outside of the
+ * restricted JRE packages are always allowed. Instances are immutable and thread safe; get them
+ * from {@link JreWhitelistRegistry}.
+ */
+public final class JreWhitelist {
+
+  private final String runtime;
+  private final PrefixTrie restrictedPackages;
+  private final Supplier<ClassNameIndex> allowedClasses;
+
+  JreWhitelist(String runtime, PrefixTrie restrictedPackages,
+      Supplier<ClassNameIndex> allowedClasses) {
+    this.runtime = Preconditions.checkNotNull(runtime);
+    this.restrictedPackages = Preconditions.checkNotNull(restrictedPackages);
+    this.allowedClasses = Preconditions.checkNotNull(allowedClasses);
+  }
+
+  /**
+   * Returns the runtime this whitelist applies to, as used in {@code appengine-web.xml}.
+   */
+  public String getRuntime() {
+    return runtime;
+  }
+
+  /**
+   * Returns whether applications may use the class.
+   *
+   * @param className fully package qualified class name
+   */
+  public boolean contains(String className) {
+    return !restrictedPackages.matches(className) || allowedClasses.get().contains(className);
+  }
+
+  /**
+   * Returns the classes applications may not use, in the order they are first found. Checking a
+   * batch avoids the per call overhead of {@link #contains(String)}, and names repeated back to
+   * back, as in sorted input, are only checked once.
+   *
+   * @param classNames fully package qualified class names
+   */
+  public Set<String> getViolations(Iterable<String> classNames) {
+    Set<String> violations = new LinkedHashSet<>();
+    ClassNameIndex allowed = null;
+    String previous = null;
+    for (String className : classNames) {
+      if (className.equals(previous) || !restrictedPackages.matches(className)) {
+        previous = className;
+        continue;
+      }
+      previous = className;
+      if (allowed == null) {
+        allowed = allowedClasses.get();
+      }
+      if (!allowed.contains(className)) {
+        violations.add(className);
+      }
+    }
+    return violations;
+  }
+
+  @Override
+  public String toString() {
+    return "JreWhitelist[" + runtime + "]";
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.api.whitelist;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * The JRE whitelists of the App Engine runtimes, keyed by the runtime names used in
+ * {@code appengine-web.xml} and
+ * {@link com.google.cloud.tools.appengine.api.deploy.StageStandardConfiguration#getRuntime()}.
+ *
+ * <p>Only the Java 7 runtime restricts JRE classes. Applications on {@code java8}, and on the
+ * {@code java} runtime that staging targets for the flexible environment, may use any class.
+ */
+public class JreWhitelistRegistry {
+
+  public static final String JAVA7 = "java7";
+  public static final String JAVA8 = "java8";
+  public static final String JAVA = "java";
+
+  // Packages bundled in the JRE, whose classes must be on the whitelist. javax, com.sun and
+  // com.oracle packages are tricky. Some are in the JRE. Some aren't.
+  private static final List<String> JAVA7_RESTRICTED_PACKAGES = ImmutableList.of(
+      "java.",
+      "sun.util.",
+      "org.xml.sax.",
+      "org.w3c.dom.",
+      "org.omg.",
+      "org.ietf.jgss.",
+      "com.sun.jmx.",
+      "com.sun.jndi.",
+      "com.sun.media.",
+      "com.sun.management.",
+      "com.sun.beans.",
+      "com.sun.corba.",
+      "com.sun.awt.",
+      "com.sun.swing.",
+      "com.sun.rmi.",
+      "com.sun.xml.",
+      "com.sun.java.",
+      "com.sun.org.",
+      "com.sun.rowset.",
+      "com.oracle.net.",
+      "com.oracle.nio.",
+      "com.oracle.util.",
+      "javax.accessibility.",
+      "javax.activation.",
+      "javax.activity.",
+      "javax.annotation.",
+      "javax.crypto.",
+      "javax.imageio.",
+      "javax.jws.",
+      "javax.lang.model.",
+      "javax.management.",
+      "javax.naming.",
+      "javax.net.",
+      "javax.print.",
+      "javax.rmi.",
+      "javax.script.",
+      "javax.security.",
+      "javax.sound.",
+      "javax.sql.",
+      "javax.swing.",
+      "javax.tools.",
+      "javax.transaction.",
+      "javax.xml.");
+
+  private static final Set<String> RUNTIMES = ImmutableSet.of(JAVA7, JAVA8, JAVA);
+
+  private static final JreWhitelist JAVA7_WHITELIST = new JreWhitelist(JAVA7,
+      new PrefixTrie(JAVA7_RESTRICTED_PACKAGES),
+      // the class names are only read on the first lookup of a restricted class
+      Suppliers.memoize(new Supplier<ClassNameIndex>() {
+        @Override
+        public ClassNameIndex get() {
+          return ClassNameIndex.load("jre-whitelist.txt");
+        }
+      }));
+
+  private static final PrefixTrie NOTHING_RESTRICTED =
+      new PrefixTrie(Collections.<String>emptyList());
+  private static final Supplier<ClassNameIndex> NO_CLASSES =
+      Suppliers.ofInstance(ClassNameIndex.of(Collections.<String>emptyList()));
+  private static final JreWhitelist JAVA8_WHITELIST =
+      new JreWhitelist(JAVA8, NOTHING_RESTRICTED, NO_CLASSES);
+  private static final JreWhitelist JAVA_WHITELIST =
+      new JreWhitelist(JAVA, NOTHING_RESTRICTED, NO_CLASSES);
+
+  private JreWhitelistRegistry() {
+  }
+
+  /**
+   * Returns the whitelist of a runtime.
+   *
+   * @param runtime the runtime, or null for the default {@code java7} runtime of
+   *                {@code appengine-web.xml}
+   * @throws IllegalArgumentException if the runtime is unknown
+   */
+  public static JreWhitelist get(@Nullable String runtime) {
+    if (runtime == null || runtime.isEmpty() || JAVA7.equals(runtime)) {
+      return JAVA7_WHITELIST;
+    }
+    Preconditions.checkArgument(RUNTIMES.contains(runtime), "Unknown runtime: %s", runtime);
+    return JAVA8.equals(runtime) ? JAVA8_WHITELIST : JAVA_WHITELIST;
+  }
+
+  /**
+   * Returns the names of the runtimes with a whitelist.
+   */
+  public static Set<String> getRuntimes() {
+    return RUNTIMES;
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.api.whitelist;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Matches strings against a fixed set of ASCII prefixes in a single pass over the string, however
+ * many prefixes there are. The trie is compiled into a dense transition table over the characters
+ * that occur in the prefixes, so each character costs two array reads.
+ */
+final class PrefixTrie {
+
+  private static final int NO_MATCH = 0;
+  private static final int MATCH = -1;
+
+  // column of each ASCII character in the transition table; 0 for characters in no prefix
+  private final byte[] columns = new byte[128];
+  private final int width;
+  // table[state * width + column] is the next state, NO_MATCH or MATCH; state 0 is the root
+  private final int[] table;
+
+  PrefixTrie(Collection<String> prefixes) {
+    Node root = new Node();
+    int alphabetSize = 0;
+    for (String prefix : prefixes) {
+      Preconditions.checkArgument(!prefix.isEmpty(), "empty prefix");
+      Node node = root;
+      for (int i = 0; i < prefix.length(); i++) {
+        char character = prefix.charAt(i);
+        Preconditions.checkArgument(character < 0x80, "Not an ASCII prefix: %s", prefix);
+        if (columns[character] == 0) {
+          Preconditions.checkArgument(alphabetSize < Byte.MAX_VALUE, "too many characters");
+          columns[character] = (byte) ++alphabetSize;
+        }
+        Node child = node.children.get(character);
+        if (child == null) {
+          child = new Node();
+          node.children.put(character, child);
+        }
+        node = child;
+      }
+      node.accepting = true;
+    }
+    width = alphabetSize + 1;
+
+    // number the states that can still go either way, breadth first from the root
+    Deque<Node> queue = new ArrayDeque<>();
+    int states = 0;
+    queue.add(root);
+    while (!queue.isEmpty()) {
+      Node node = queue.remove();
+      node.state = states++;
+      for (Node child : node.children.values()) {
+        if (!child.accepting) {
+          queue.add(child);
+        }
+      }
+    }
+
+    table = new int[states * width];
+    queue.add(root);
+    while (!queue.isEmpty()) {
+      Node node = queue.remove();
+      for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+        int target = child.getValue().accepting ? MATCH : child.getValue().state;
+        table[node.state * width + columns[child.getKey()]] = target;
+        if (!child.getValue().accepting) {
+          queue.add(child.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns whether {@code value} starts with any of the prefixes.
+   */
+  boolean matches(String value) {
+    int state = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char character = value.charAt(i);
+      int column = character < 0x80 ? columns[character] : 0;
+      state = table[state * width + column];
+      if (state <= NO_MATCH) {
+        return state == MATCH;
+      }
+    }
+    return false;
+  }
+
+  private static class Node {
+    private final Map<Character, Node> children = new TreeMap<>();
+    private int state;
+    private boolean accepting;
+  }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.api.whitelist;
+
+import com.google.cloud.tools.appengine.api.AppEngineException;
+import com.google.cloud.tools.appengine.cloudsdk.classfile.ClassFileReader;
+import com.google.cloud.tools.appengine.cloudsdk.classfile.ScanCache;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Finds the references of an application's classes to JRE classes that are not on the
+ * {@link JreWhitelist} of its runtime, by default the {@link AppEngineJreWhitelist Java 7} one.
+ *
+ * <p>Class files are not loaded: their constant pools are parsed in parallel, and every class
+ * named by a class constant or a member descriptor in a JRE package is checked. The JRE references
+ * of each jar are cached by the SHA-256 of the jar, so checking an application again only parses
+ * the jars that changed. Application classes outside of jars are always parsed.
+ */
+public class WhitelistScanner {
+
+  private static final String CACHE_KIND = "jre-references-v1";
+  private static final Type CACHE_TYPE = new TypeToken<Map<String, List<String>>>() {}.getType();
+  private static final int CLASS_BATCH_SIZE = 64;
+
+  // packages of classes bundled with the JRE, the only ones the whitelist can reject
+  private static final List<String> JRE_PACKAGE_PREFIXES = ImmutableList.of(
+      "java.", "javax.", "sun.", "com.sun.", "com.oracle.", "jdk.", "org.ietf.jgss.", "org.omg.",
+      "org.w3c.dom.", "org.xml.sax.");
+
+  // weighs the class names held by the results of a jar
+  private static final Weigher<HashCode, Map<String, List<String>>> CACHE_WEIGHER =
+      new Weigher<HashCode, Map<String, List<String>>>() {
+        @Override
+        public int weigh(HashCode hash, Map<String, List<String>> references) {
+          int weight = 1;
+          for (List<String> referenced : references.values()) {
+            weight += 1 + referenced.size();
+          }
+          return weight;
+        }
+      };
+
+  private static final ScanCache<Map<String, List<String>>> SHARED_MEMORY_CACHE =
+      new ScanCache<>(CACHE_KIND, CACHE_TYPE, null, CACHE_WEIGHER);
+
+  private final JreWhitelist whitelist;
+  private final ScanCache<Map<String, List<String>>> cache;
+  private final int threads;
+
+  /**
+   * Creates a scanner for the Java 7 runtime that only caches jar results in memory, for the
+   * lifetime of the JVM.
+   */
+  public WhitelistScanner() {
+    this(JreWhitelistRegistry.get(JreWhitelistRegistry.JAVA7));
+  }
+
+  /**
+   * Creates a scanner that only caches jar results in memory, for the lifetime of the JVM.
+   */
+  public WhitelistScanner(JreWhitelist whitelist) {
+    this(whitelist, SHARED_MEMORY_CACHE, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a scanner for the Java 7 runtime that persists jar results.
+   *
+   * @param cacheDirectory where to keep the JRE references of jars
+   * @param threads        number of threads parsing classes
+   */
+  public WhitelistScanner(Path cacheDirectory, int threads) {
+    this(JreWhitelistRegistry.get(JreWhitelistRegistry.JAVA7), cacheDirectory, threads);
+  }
+
+  /**
+   * Creates a scanner that persists jar results.
+   *
+   * @param whitelist      the whitelist of the application's runtime
+   * @param cacheDirectory where to keep the JRE references of jars
+   * @param threads        number of threads parsing classes
+   */
+  public WhitelistScanner(JreWhitelist whitelist, Path cacheDirectory, int threads) {
+    this(whitelist, new ScanCache<>(CACHE_KIND, CACHE_TYPE,
+        Preconditions.checkNotNull(cacheDirectory), CACHE_WEIGHER), threads);
+  }
+
+  private WhitelistScanner(JreWhitelist whitelist, ScanCache<Map<String, List<String>>> cache,
+      int threads) {
+    Preconditions.checkArgument(threads > 0, "threads must be > 0");
+    this.whitelist = Preconditions.checkNotNull(whitelist);
+    this.cache = cache;
+    this.threads = threads;
+  }
+
+  /**
+   * Checks an application.
+   *
+   * @param application a directory, such as a staged or exploded application, in which all
+   *                    {@code .class} and {@code .jar} files are checked; a {@code .war} file; or a
+   *                    single jar
+   * @return the violations, sorted by source, referencing class and class
+   * @throws AppEngineException if the application cannot be read
+   */
+  public List<WhitelistViolation> scan(Path application) {
+    Preconditions.checkArgument(Files.exists(application), application + " does not exist");
+    Scan scan = new Scan();
+    try {
+      if (Files.isDirectory(application)) {
+        scan.addDirectory(application);
+      } else if (application.getFileName().toString().endsWith(".war")) {
+        scan.addWar(application);
+      } else {
+        scan.addJar(application);
+      }
+      return scan.getViolations();
+    } catch (IOException e) {
+      throw new AppEngineException("Cannot scan " + application, e);
+    } finally {
+      scan.close();
+    }
+  }
+
+  /**
+   * Checks a list of jars.
+   *
+   * @return the violations, sorted by source, referencing class and class
+   * @throws AppEngineException if a jar cannot be read
+   */
+  public List<WhitelistViolation> scanJars(Collection<Path> jars) {
+    Scan scan = new Scan();
+    try {
+      for (Path jar : jars) {
+        scan.addJar(jar);
+      }
+      return scan.getViolations();
+    } catch (IOException e) {
+      throw new AppEngineException("Cannot scan " + jars, e);
+    } finally {
+      scan.close();
+    }
+  }
+
+  static boolean isJreClass(String className) {
+    for (String prefix : JRE_PACKAGE_PREFIXES) {
+      if (className.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Maps class names to the JRE classes they reference, omitting classes without any.
+  private static void addReferences(byte[] classBytes, Map<String, List<String>> references)
+      throws IOException {
+    ClassFileReader reader = new ClassFileReader(classBytes);
+    Set<String> jreReferences = new TreeSet<>();
+    for (String referenced : reader.readReferencedTypeNames()) {
+      if (isJreClass(referenced)) {
+        jreReferences.add(referenced);
+      }
+    }
+    if (!jreReferences.isEmpty()) {
+      references.put(reader.readClassName(), new ArrayList<>(jreReferences));
+    }
+  }
+
+  private Map<String, List<String>> jarReferences(Path jar) throws IOException {
+    HashCode hash = ScanCache.hash(jar);
+    Map<String, List<String>> references = cache.get(hash);
+    if (references == null) {
+      try (InputStream in = Files.newInputStream(jar)) {
+        references = readJarReferences(in);
+      }
+      cache.put(hash, references);
+    }
+    return references;
+  }
+
+  // a jar inside a war is read twice, to hash it and, only if it isn't cached, to parse it
+  private Map<String, List<String>> jarReferences(ZipFile war, ZipEntry jar) throws IOException {
+    HashCode hash;
+    try (HashingInputStream in =
+        new HashingInputStream(Hashing.sha256(), war.getInputStream(jar))) {
+      ByteStreams.copy(in, ByteStreams.nullOutputStream());
+      hash = in.hash();
+    }
+    Map<String, List<String>> references = cache.get(hash);
+    if (references == null) {
+      try (InputStream in = war.getInputStream(jar)) {
+        references = readJarReferences(in);
+      }
+      cache.put(hash, references);
+    }
+    return references;
+  }
+
+  private static Map<String, List<String>> readJarReferences(InputStream jar)
+      throws IOException {
+    Map<String, List<String>> references = new TreeMap<>();
+    try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(jar))) {
+      for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+        if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+          addReferences(ByteStreams.toByteArray(in), references);
+        }
+      }
+    }
+    return references;
+  }
+
+  /**
+   * The JRE references of the classes from one source.
+   */
+  private static class SourceReferences {
+    private final String source;
+    private final Map<String, List<String>> references;
+
+    SourceReferences(String source, Map<String, List<String>> references) {
+      this.source = source;
+      this.references = references;
+    }
+  }
+
+  /**
+   * A single scan, submitting a task per jar and per batch of loose classes.
+   */
+  private class Scan {
+    private final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    private final List<Future<SourceReferences>> futures = new ArrayList<>();
+    private final List<ZipFile> openWars = new ArrayList<>();
+
+    void addDirectory(final Path directory) throws IOException {
+      final List<Path> classFiles = new ArrayList<>();
+      Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          String name = file.getFileName().toString();
+          if (name.endsWith(".class")) {
+            classFiles.add(file);
+          } else if (name.endsWith(".jar")) {
+            addJar(file);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+      for (final List<Path> batch : Lists.partition(classFiles, CLASS_BATCH_SIZE)) {
+        futures.add(executor.submit(new Callable<SourceReferences>() {
+          @Override
+          public SourceReferences call() throws IOException {
+            Map<String, List<String>> references = new TreeMap<>();
+            for (Path classFile : batch) {
+              addReferences(Files.readAllBytes(classFile), references);
+            }
+            return new SourceReferences(directory.toString(), references);
+          }
+        }));
+      }
+    }
+
+    void addJar(final Path jar) {
+      futures.add(executor.submit(new Callable<SourceReferences>() {
+        @Override
+        public SourceReferences call() throws IOException {
+          return new SourceReferences(jar.toString(), jarReferences(jar));
+        }
+      }));
+    }
+
+    void addWar(final Path war) throws IOException {
+      final ZipFile zipFile = new ZipFile(war.toFile());
+      openWars.add(zipFile);
+      List<ZipEntry> classEntries = new ArrayList<>();
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        final ZipEntry entry = entries.nextElement();
+        if (entry.isDirectory()) {
+          continue;
+        }
+        if (entry.getName().endsWith(".class")) {
+          classEntries.add(entry);
+        } else if (entry.getName().endsWith(".jar")) {
+          futures.add(executor.submit(new Callable<SourceReferences>() {
+            @Override
+            public SourceReferences call() throws IOException {
+              return new SourceReferences(war + "!/" + entry.getName(),
+                  jarReferences(zipFile, entry));
+            }
+          }));
+        }
+      }
+      for (final List<ZipEntry> batch : Lists.partition(classEntries, CLASS_BATCH_SIZE)) {
+        futures.add(executor.submit(new Callable<SourceReferences>() {
+          @Override
+          public SourceReferences call() throws IOException {
+            Map<String, List<String>> references = new TreeMap<>();
+            for (ZipEntry entry : batch) {
+              addReferences(read(zipFile, entry), references);
+            }
+            return new SourceReferences(war.toString(), references);
+          }
+        }));
+      }
+    }
+
+    List<WhitelistViolation> getViolations() throws IOException {
+      List<SourceReferences> results = new ArrayList<>();
+      try {
+        for (Future<SourceReferences> future : futures) {
+          results.add(future.get());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while scanning", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+
+      // check each distinct JRE class once, in sorted order
+      Set<String> jreClasses = new TreeSet<>();
+      for (SourceReferences result : results) {
+        for (List<String> classNames : result.references.values()) {
+          jreClasses.addAll(classNames);
+        }
+      }
+      Set<String> rejected = whitelist.getViolations(jreClasses);
+
+      List<WhitelistViolation> violations = new ArrayList<>();
+      if (!rejected.isEmpty()) {
+        for (SourceReferences result : results) {
+          for (Map.Entry<String, List<String>> entry : result.references.entrySet()) {
+            for (String className : entry.getValue()) {
+              if (rejected.contains(className)) {
+                violations.add(new WhitelistViolation(className, entry.getKey(), result.source));
+              }
+            }
+          }
+        }
+      }
+      Collections.sort(violations);
+      return violations;
+    }
+
+    void close() {
+      executor.shutdownNow();
+      for (ZipFile war : openWars) {
+        try {
+          war.close();
+        } catch (IOException e) {
+          // nothing was written, so there is nothing to lose
+        }
+      }
+    }
+  }
+
+  private static byte[] read(ZipFile zipFile, ZipEntry entry) throws IOException {
+    try (InputStream in = zipFile.getInputStream(entry)) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+}
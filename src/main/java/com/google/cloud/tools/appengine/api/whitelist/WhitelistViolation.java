@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.api.whitelist;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * A reference from an application class to a JRE class that is not on the App Engine JRE
+ * whitelist.
+ */
+public class WhitelistViolation implements Comparable<WhitelistViolation> {
+
+  private final String className;
+  private final String referencingClassName;
+  private final String source;
+
+  /**
+   * Creates a violation.
+   *
+   * @param className            the JRE class that is not whitelisted
+   * @param referencingClassName the application class that references it
+   * @param source               the directory, jar or WAR entry containing the referencing class
+   */
+  public WhitelistViolation(String className, String referencingClassName, String source) {
+    this.className = Preconditions.checkNotNull(className);
+    this.referencingClassName = Preconditions.checkNotNull(referencingClassName);
+    this.source = Preconditions.checkNotNull(source);
+  }
+
+  public String getClassName() {
+    return className;
+  }
+
+  public String getReferencingClassName() {
+    return referencingClassName;
+  }
+
+  public String getSource() {
+    return source;
+  }
+
+  @Override
+  public int compareTo(WhitelistViolation other) {
+    int result = source.compareTo(other.source);
+    if (result == 0) {
+      result = referencingClassName.compareTo(other.referencingClassName);
+    }
+    if (result == 0) {
+      result = className.compareTo(other.className);
+    }
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof WhitelistViolation)) {
+      return false;
+    }
+    WhitelistViolation other = (WhitelistViolation) obj;
+    return className.equals(other.className)
+        && referencingClassName.equals(other.referencingClassName)
+        && source.equals(other.source);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(className, referencingClassName, source);
+  }
+
+  @Override
+  public String toString() {
+    return referencingClassName + " (" + source + ") references " + className;
+  }
+}
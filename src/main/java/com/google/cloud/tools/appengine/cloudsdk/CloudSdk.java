@@ -17,6 +17,7 @@
 package com.google.cloud.tools.appengine.cloudsdk;
 
 import com.google.cloud.tools.appengine.api.AppEngineException;
+import com.google.cloud.tools.appengine.cloudsdk.internal.args.CommandGroups;
 import com.google.cloud.tools.appengine.cloudsdk.internal.args.GcloudArgs;
 import com.google.cloud.tools.appengine.cloudsdk.internal.process.DefaultProcessRunner;
 import com.google.cloud.tools.appengine.cloudsdk.internal.process.ExitCodeRecorderProcessExitListener;
@@ -24,11 +25,16 @@ import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRunner;
 import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRunnerException;
 import com.google.cloud.tools.appengine.cloudsdk.internal.process.StringBuilderProcessOutputLineListener;
 import com.google.cloud.tools.appengine.cloudsdk.internal.process.WaitingProcessOutputLineListener;
+import com.google.cloud.tools.appengine.cloudsdk.metrics.DevServerRequestLog;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandInstrumentation;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace;
 import com.google.cloud.tools.appengine.cloudsdk.process.ProcessExitListener;
 import com.google.cloud.tools.appengine.cloudsdk.process.ProcessOutputLineListener;
 import com.google.cloud.tools.appengine.cloudsdk.process.ProcessStartListener;
 import com.google.cloud.tools.appengine.cloudsdk.serialization.CloudSdkComponent;
 import com.google.cloud.tools.appengine.cloudsdk.serialization.CloudSdkVersion;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Span;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Tracing;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
@@ -43,12 +49,14 @@ import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -80,6 +88,9 @@ public class CloudSdk {
   private final File appCommandCredentialFile;
   private final String appCommandOutputFormat;
   private final WaitingProcessOutputLineListener runDevAppServerWaitListener;
+  private final long commandTimeoutMillis;
+  private final long commandInactivityTimeoutMillis;
+  private final List<CommandInstrumentation> instrumentations;
 
   private CloudSdk(Path sdkPath,
                    String appCommandMetricsEnvironment,
@@ -87,7 +98,10 @@ public class CloudSdk {
                    @Nullable File appCommandCredentialFile,
                    String appCommandOutputFormat,
                    ProcessRunner processRunner,
-                   WaitingProcessOutputLineListener runDevAppServerWaitListener) {
+                   WaitingProcessOutputLineListener runDevAppServerWaitListener,
+                   long commandTimeoutMillis,
+                   long commandInactivityTimeoutMillis,
+                   List<CommandInstrumentation> instrumentations) {
     this.sdkPath = sdkPath;
     this.appCommandMetricsEnvironment = appCommandMetricsEnvironment;
     this.appCommandMetricsEnvironmentVersion = appCommandMetricsEnvironmentVersion;
@@ -95,6 +109,9 @@ public class CloudSdk {
     this.appCommandOutputFormat = appCommandOutputFormat;
     this.processRunner = processRunner;
     this.runDevAppServerWaitListener = runDevAppServerWaitListener;
+    this.commandTimeoutMillis = commandTimeoutMillis;
+    this.commandInactivityTimeoutMillis = commandInactivityTimeoutMillis;
+    this.instrumentations = ImmutableList.copyOf(instrumentations);
 
     // Populate jar locations.
     // TODO(joaomartins): Consider case where SDK doesn't contain these jars. Only App Engine
@@ -133,7 +150,14 @@ public class CloudSdk {
 
   private void runGcloudCommand(List<String> args, String... topLevelCommand)
       throws ProcessRunnerException {
-    validateCloudSdk();
+    CommandTrace trace =
+        startTrace(CommandGroups.gcloud(Arrays.asList(topLevelCommand), args));
+    try {
+      validateCloudSdk();
+    } catch (RuntimeException e) {
+      throw failTrace(trace, e);
+    }
+    trace.validated();
 
     List<String> command = new ArrayList<>();
     command.add(getGCloudPath().toString());
@@ -164,7 +188,7 @@ public class CloudSdk {
     }
     logCommand(command);
     processRunner.setEnvironment(environment);
-    processRunner.run(command.toArray(new String[command.size()]));
+    processRunner.run(command.toArray(new String[command.size()]), trace);
   }
 
   // Runs a gcloud command synchronously, with a new ProcessRunner. This method is intended to be
@@ -173,19 +197,27 @@ public class CloudSdk {
   // class's main configured ProcessRunner should be used.
   private String runSynchronousGcloudCommand(List<String> args)
       throws ProcessRunnerException {
-    validateCloudSdkLocation();
-    
+    CommandTrace trace =
+        startTrace(CommandGroups.gcloud(Collections.<String>emptyList(), args));
+    try {
+      validateCloudSdkLocation();
+    } catch (RuntimeException e) {
+      throw failTrace(trace, e);
+    }
+    trace.validated();
+
     StringBuilderProcessOutputLineListener stdOutListener =
         new StringBuilderProcessOutputLineListener();
     ExitCodeRecorderProcessExitListener exitListener = new ExitCodeRecorderProcessExitListener();
 
     // instantiate a separate synchronous process runner
-    ProcessRunner runner = new DefaultProcessRunner(
+    DefaultProcessRunner runner = new DefaultProcessRunner(
         false,                                                       /* async */
         ImmutableList.<ProcessExitListener>of(exitListener),         /* exitListeners */
         ImmutableList.<ProcessStartListener>of(),                    /* startListeners */
         ImmutableList.<ProcessOutputLineListener>of(stdOutListener), /* stdOutLineListeners */
         ImmutableList.<ProcessOutputLineListener>of());              /* stdErrLineListeners */
+    runner.setTimeouts(commandTimeoutMillis, commandInactivityTimeoutMillis);
 
     // build and run the command
     List<String> command = new ImmutableList.Builder<String>()
@@ -193,7 +225,7 @@ public class CloudSdk {
         .addAll(args)
         .build();
 
-    runner.run(command.toArray(new String[command.size()]));
+    runner.run(command.toArray(new String[command.size()]), trace);
 
     if (exitListener.getMostRecentExitCode() != null
         && !exitListener.getMostRecentExitCode().equals(0)) {
@@ -229,7 +261,13 @@ public class CloudSdk {
   public void runDevAppServerCommand(List<String> args, Map<String,String> environment)
       throws ProcessRunnerException {
     Preconditions.checkNotNull(environment);
-    validateCloudSdk();
+    CommandTrace trace = startTrace(CommandGroups.DEV_APPSERVER);
+    try {
+      validateCloudSdk();
+    } catch (RuntimeException e) {
+      throw failTrace(trace, e);
+    }
+    trace.validated();
 
     List<String> command = new ArrayList<>();
 
@@ -246,11 +284,19 @@ public class CloudSdk {
     environment.put("CLOUDSDK_CORE_DISABLE_PROMPTS", "1");
 
     processRunner.setEnvironment(environment);
-    processRunner.run(command.toArray(new String[command.size()]));
+    processRunner.run(command.toArray(new String[command.size()]), trace);
 
     // wait for start if configured
     if (runDevAppServerWaitListener != null) {
-      runDevAppServerWaitListener.await();
+      Span wait = Tracing.start(Span.DEV_SERVER, "wait for start");
+      try {
+        runDevAppServerWaitListener.await();
+      } catch (ProcessRunnerException e) {
+        wait.failed(e);
+        throw e;
+      } finally {
+        wait.end();
+      }
     }
   }
 
@@ -261,7 +307,13 @@ public class CloudSdk {
    *     not installed in the Cloud SDK
    */
   public void runAppCfgCommand(List<String> args) throws ProcessRunnerException {
-    validateAppEngineJavaComponents();
+    CommandTrace trace = startTrace(CommandGroups.appCfg(args));
+    try {
+      validateAppEngineJavaComponents();
+    } catch (RuntimeException e) {
+      throw failTrace(trace, e);
+    }
+    trace.validated();
 
     // AppEngineSdk requires this system property to be set.
     System.setProperty("appengine.sdk.root", getJavaAppEngineSdkPath().toString());
@@ -276,7 +328,7 @@ public class CloudSdk {
 
     logCommand(command);
 
-    processRunner.run(command.toArray(new String[command.size()]));
+    processRunner.run(command.toArray(new String[command.size()]), trace);
   }
 
   /**
@@ -293,7 +345,7 @@ public class CloudSdk {
         .addAll(GcloudArgs.get("format", "value(basic.version)"))
         .build();
 
-    return new CloudSdkVersion(runSynchronousGcloudCommand(command));
+    return CloudSdkVersion.valueOf(runSynchronousGcloudCommand(command));
   }
 
   /**
@@ -319,6 +371,19 @@ public class CloudSdk {
     return CloudSdkComponent.fromJsonList(componentsJson);
   }
 
+  private CommandTrace startTrace(String group) {
+    CommandTrace trace = new CommandTrace(group, instrumentations);
+    trace.start();
+    return trace;
+  }
+
+  // Ends the trace of a command that could not even be started.
+  private static RuntimeException failTrace(CommandTrace trace, RuntimeException failure) {
+    trace.failed(failure);
+    trace.finish();
+    return failure;
+  }
+
   private void logCommand(List<String> command) {
     logger.info("submitting command: " + WHITESPACE_JOINER.join(command));
   }
@@ -457,6 +522,9 @@ public class CloudSdk {
     private List<CloudSdkResolver> resolvers;
     private int runDevAppServerWaitSeconds;
     private boolean inheritProcessOutput;
+    private int commandTimeoutSeconds;
+    private int commandInactivityTimeoutSeconds;
+    private List<CommandInstrumentation> instrumentations = new ArrayList<>();
 
     /**
      * The home directory of Google Cloud SDK.
@@ -560,6 +628,32 @@ public class CloudSdk {
       return this;
     }
 
+    /**
+     * Feeds the output and exit of the processes to a readiness check, so it can see the log
+     * message of a development server started with {@link CloudSdkAppEngineDevServer#start}.
+     * Setting this will force process output not to be inherited by the caller. Call it after
+     * {@link #exitListener}, which replaces the exit listeners.
+     */
+    public Builder devServerReadiness(DevServerReadiness readiness) {
+      Preconditions.checkNotNull(readiness);
+      this.stdOutLineListeners.add(readiness);
+      this.stdErrLineListeners.add(readiness);
+      this.exitListeners.add(readiness);
+      return this;
+    }
+
+    /**
+     * Feeds the output of the processes to a request log, which records the requests logged by a
+     * development server. Setting this will force process output not to be inherited by the
+     * caller.
+     */
+    public Builder devServerRequestLog(DevServerRequestLog requestLog) {
+      Preconditions.checkNotNull(requestLog);
+      this.stdOutLineListeners.add(requestLog);
+      this.stdErrLineListeners.add(requestLog);
+      return this;
+    }
+
     /**
      * Causes the generated gcloud or devappserver subprocess to inherit the calling process's
      * stdout and stderr.
@@ -573,6 +667,42 @@ public class CloudSdk {
       return this;
     }
 
+    /**
+     * Limits how long each command may run, including the Dev App Server when it is started
+     * asynchronously. When the limit is reached, the command is terminated with the processes it
+     * started, and synchronous runs fail with a {@link ProcessRunnerException} caused by a
+     * {@link com.google.cloud.tools.appengine.cloudsdk.process.ProcessTimeoutException}
+     * holding the last lines of output.
+     *
+     * @param commandTimeoutSeconds Number of seconds a command may run, or 0 for no limit.
+     */
+    public Builder commandTimeout(int commandTimeoutSeconds) {
+      Preconditions.checkArgument(commandTimeoutSeconds >= 0);
+      this.commandTimeoutSeconds = commandTimeoutSeconds;
+      return this;
+    }
+
+    /**
+     * Limits how long each command may go without writing a line of output, which catches hung
+     * commands well before a wall-clock timeout would. Behaves as {@link #commandTimeout(int)}
+     * otherwise, and cannot be combined with inherited process output.
+     *
+     * @param commandInactivityTimeoutSeconds Number of seconds without output, or 0 for no limit.
+     */
+    public Builder commandInactivityTimeout(int commandInactivityTimeoutSeconds) {
+      Preconditions.checkArgument(commandInactivityTimeoutSeconds >= 0);
+      this.commandInactivityTimeoutSeconds = commandInactivityTimeoutSeconds;
+      return this;
+    }
+
+    /**
+     * Adds an observer of the commands run, which sees their timings, output volume and exit codes.
+     */
+    public Builder addInstrumentation(CommandInstrumentation instrumentation) {
+      this.instrumentations.add(Preconditions.checkNotNull(instrumentation));
+      return this;
+    }
+
     /**
      * Create a new instance of {@link CloudSdk}.
      *
@@ -593,9 +723,18 @@ public class CloudSdk {
         throw new AppEngineException("You cannot specify subprocess output inheritance and"
             + " output listeners.");
       }
-
-      // Construct process runner.
-      ProcessRunner processRunner;
+      if (inheritProcessOutput && commandInactivityTimeoutSeconds > 0) {
+        throw new AppEngineException("You cannot specify subprocess output inheritance and"
+            + " an inactivity timeout.");
+      }
+      long commandTimeoutMillis = TimeUnit.SECONDS.toMillis(commandTimeoutSeconds);
+      long commandInactivityTimeoutMillis =
+          TimeUnit.SECONDS.toMillis(commandInactivityTimeoutSeconds);
+
+      // Construct process runner, which also lets the dev server see the processes it starts.
+      List<ProcessStartListener> allStartListeners = new ArrayList<>(startListeners);
+      allStartListeners.add(StartedProcessCapture.INSTANCE);
+      DefaultProcessRunner processRunner;
       WaitingProcessOutputLineListener runDevAppServerWaitListener = null;
       if (stdOutLineListeners.size() > 0 || stdErrLineListeners.size() > 0) {
         // Configure listeners for async dev app server start with waiting.
@@ -609,16 +748,18 @@ public class CloudSdk {
           exitListeners.add(0, runDevAppServerWaitListener);
         }
 
-        processRunner = new DefaultProcessRunner(async, exitListeners, startListeners,
+        processRunner = new DefaultProcessRunner(async, exitListeners, allStartListeners,
             stdOutLineListeners, stdErrLineListeners);
       } else {
-        processRunner = new DefaultProcessRunner(async, exitListeners, startListeners,
+        processRunner = new DefaultProcessRunner(async, exitListeners, allStartListeners,
             inheritProcessOutput);
       }
+      processRunner.setTimeouts(commandTimeoutMillis, commandInactivityTimeoutMillis);
 
       return new CloudSdk(sdkPath, appCommandMetricsEnvironment,
           appCommandMetricsEnvironmentVersion, appCommandCredentialFile, appCommandOutputFormat,
-          processRunner, runDevAppServerWaitListener);
+          processRunner, runDevAppServerWaitListener, commandTimeoutMillis,
+          commandInactivityTimeoutMillis, instrumentations);
     }
 
     /**
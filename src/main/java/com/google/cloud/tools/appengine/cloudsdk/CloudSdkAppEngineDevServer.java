@@ -21,39 +21,72 @@ import com.google.cloud.tools.appengine.api.devserver.AppEngineDevServer;
 import com.google.cloud.tools.appengine.api.devserver.RunConfiguration;
 import com.google.cloud.tools.appengine.api.devserver.StopConfiguration;
 import com.google.cloud.tools.appengine.cloudsdk.internal.args.DevAppServerArgs;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRegistry;
 import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRunnerException;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessTree;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
 
 /**
  * Cloud SDK based implementation of {@link AppEngineDevServer}.
+ *
+ * <p>Servers started asynchronously are tracked until they are stopped, so that {@link #stop}
+ * can make sure that the server exited with all its processes and released its ports, and so that
+ * {@link #stopAll} can stop every server the library started.
  */
 public class CloudSdkAppEngineDevServer implements AppEngineDevServer {
 
+  private static final Logger logger = Logger.getLogger(CloudSdkAppEngineDevServer.class.getName());
+
   private CloudSdk sdk;
 
+  private static final String DEFAULT_HOST = "localhost";
+  private static final int DEFAULT_PORT = 8080;
   private static final String DEFAULT_ADMIN_HOST = "localhost";
   private static final int DEFAULT_ADMIN_PORT = 8000;
+  private static final long DEFAULT_STOP_TIMEOUT_MILLIS = 10000;
+  private static final int QUIT_TIMEOUT_MILLIS = 4000;
+  // time left for the ports to be released if the stop timeout already expired
+  private static final long PORT_RELEASE_MILLIS = 1000;
+  private static final int PORT_PROBE_TIMEOUT_MILLIS = 200;
+  private static final long POLL_MILLIS = 50;
+
+  // the servers started asynchronously and not stopped yet, by admin endpoint
+  private static final ConcurrentMap<String, RunningServer> running =
+      new ConcurrentHashMap<>();
 
   public CloudSdkAppEngineDevServer(
       CloudSdk sdk) {
     this.sdk = sdk;
   }
 
-  /**
-   * Starts the local development server, synchronous or asynchronously.
-   */
-  @Override
-  public void run(RunConfiguration config) throws AppEngineException {
+  // runs the server, and returns its process if one was started
+  @Nullable
+  private Process launch(RunConfiguration config) throws AppEngineException {
     Preconditions.checkNotNull(config);
     Preconditions.checkNotNull(config.getAppYamls());
     Preconditions.checkArgument(config.getAppYamls().size() > 0);
@@ -95,29 +128,197 @@ public class CloudSdkAppEngineDevServer implements AppEngineDevServer {
     arguments
         .addAll(DevAppServerArgs.get("default_gcs_bucket_name", config.getDefaultGcsBucketName()));
 
+    checkNotRunning(key(adminHost(config), adminPort(config)));
+    StartedProcessCapture.begin();
+    Process process;
     try {
       sdk.runDevAppServerCommand(arguments, env);
     } catch (ProcessRunnerException e) {
       throw new AppEngineException(e);
+    } finally {
+      process = StartedProcessCapture.end();
+    }
+    if (process != null && ProcessTree.isAlive(process)) {
+      RunningServer server = new RunningServer(process, config);
+      if (running.putIfAbsent(server.key, server) != null) {
+        // started concurrently with another server on the same admin endpoint
+        try {
+          ProcessRegistry.getInstance().destroy(process);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        throw alreadyRunning(server.key);
+      }
+    }
+    return process;
+  }
+
+  /**
+   * Starts the local development server, synchronous or asynchronously.
+   */
+  @Override
+  public void run(RunConfiguration config) throws AppEngineException {
+    launch(config);
+  }
+
+  /**
+   * Starts the local development server, synchronous or asynchronously, with the JVM flags that
+   * record a class data sharing archive of the application on the first run, and use it on later
+   * runs.
+   *
+   * @return the archive the run records or uses
+   */
+  public DevServerClassDataSharing.Archive run(RunConfiguration config,
+      DevServerClassDataSharing classDataSharing) throws AppEngineException {
+    Preconditions.checkNotNull(config);
+    DevServerClassDataSharing.Archive archive = classDataSharing.prepare(config);
+    run(archive.getJvmFlags().isEmpty()
+        ? config : new JvmFlagsRunConfiguration(config, archive.getJvmFlags()));
+    return archive;
+  }
+
+  /**
+   * Starts the local development server and watches for it to be ready. The Cloud SDK should run
+   * asynchronously, otherwise this only returns once the server exited.
+   *
+   * @param readiness the signals of readiness to watch for, which should also be registered with
+   *     {@link CloudSdk.Builder#devServerReadiness} to see the log of the server
+   * @return a future that completes with the first signal of readiness, or fails if the server
+   *     exits first
+   */
+  public ListenableFuture<DevServerReadiness.Signal> start(RunConfiguration config,
+      DevServerReadiness readiness) throws AppEngineException {
+    Preconditions.checkNotNull(readiness);
+    ListenableFuture<DevServerReadiness.Signal> ready = readiness.arm(config, true);
+    Process process;
+    try {
+      process = launch(config);
+    } catch (RuntimeException e) {
+      readiness.cancel();
+      throw e;
     }
+    // only the exit of this server fails its readiness, not other processes of the Cloud SDK
+    readiness.watch(process);
+    return ready;
   }
 
   /**
-   * Stops the local development server.
+   * Stops the local development server, waiting up to 10 seconds for it to exit, as {@link
+   * #stop(StopConfiguration, long, TimeUnit)}.
    */
   @Override
   public void stop(StopConfiguration configuration) throws AppEngineException {
+    stop(configuration, DEFAULT_STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the local development server. If the server was started by the library, this waits for
+   * it to exit with its child processes; they are terminated if they do not exit in time, or if
+   * the server does not answer. It then waits for the ports of the server to be released.
+   * Otherwise, this only asks the server to quit.
+   *
+   * @param timeout how long the server may take to exit before it is terminated
+   * @throws AppEngineException if the server cannot be asked to quit and was not started by the
+   *     library, or if its ports are still in use after it stopped
+   */
+  public void stop(StopConfiguration configuration, long timeout, TimeUnit unit)
+      throws AppEngineException {
     Preconditions.checkNotNull(configuration);
+    Preconditions.checkArgument(timeout >= 0, "The stop timeout must not be negative");
 
+    String adminHost =
+        configuration.getAdminHost() != null ? configuration.getAdminHost() : DEFAULT_ADMIN_HOST;
+    int adminPort =
+        configuration.getAdminPort() != null ? configuration.getAdminPort() : DEFAULT_ADMIN_PORT;
+    RunningServer server = running.remove(key(adminHost, adminPort));
+    if (server == null) {
+      quit(adminHost, adminPort);
+    } else {
+      server.stop(unit.toMillis(timeout));
+    }
+  }
+
+  /**
+   * Stops every development server started by the library and not stopped yet, in parallel, as
+   * {@link #stop(StopConfiguration, long, TimeUnit)}. Meant for test teardown, this does not fail:
+   * servers that cannot be stopped are logged.
+   *
+   * @param timeout how long the servers may take to exit before they are terminated
+   * @return whether all servers stopped and released their ports
+   */
+  public static boolean stopAll(long timeout, TimeUnit unit) {
+    Preconditions.checkArgument(timeout >= 0, "The stop timeout must not be negative");
+    final long timeoutMillis = unit.toMillis(timeout);
+    final List<RunningServer> servers = new ArrayList<>();
+    for (String key : new ArrayList<>(running.keySet())) {
+      RunningServer server = running.remove(key);
+      if (server != null) {
+        servers.add(server);
+      }
+    }
+    if (servers.isEmpty()) {
+      return true;
+    }
+
+    final List<RunningServer> failed = new ArrayList<>();
+    ExecutorService stopper = Executors.newFixedThreadPool(servers.size());
+    for (final RunningServer server : servers) {
+      stopper.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            server.stop(timeoutMillis);
+          } catch (AppEngineException e) {
+            logger.warning("Cannot stop " + server + ": " + e.getMessage());
+            synchronized (failed) {
+              failed.add(server);
+            }
+          }
+        }
+      });
+    }
+    stopper.shutdown();
     try {
-      URL adminServerUrl = new URL(
-          "http",
-          configuration.getAdminHost() != null ? configuration.getAdminHost() : DEFAULT_ADMIN_HOST,
-          configuration.getAdminPort() != null ? configuration.getAdminPort() : DEFAULT_ADMIN_PORT,
-          "/quit");
+      // each server is terminated within its grace periods once its timeout expired
+      while (!stopper.awaitTermination(timeoutMillis + PORT_RELEASE_MILLIS,
+          TimeUnit.MILLISECONDS)) {
+        logger.info("Waiting for " + servers.size() + " development servers to stop");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      stopper.shutdownNow();
+      return false;
+    }
+    synchronized (failed) {
+      return failed.isEmpty();
+    }
+  }
+
+  /**
+   * Returns the process of a server started by the library with a configuration, or null if it
+   * was stopped or not started asynchronously.
+   */
+  @Nullable
+  static Process getProcess(RunConfiguration config) {
+    RunningServer server = running.get(key(adminHost(config), adminPort(config)));
+    return server == null ? null : server.process;
+  }
+
+  /**
+   * Returns how many development servers started by the library have not been stopped yet.
+   */
+  @VisibleForTesting
+  static int getRunningCount() {
+    return running.size();
+  }
+
+  // asks the server to quit through its admin server
+  private static void quit(String adminHost, int adminPort) throws AppEngineException {
+    try {
+      URL adminServerUrl = new URL("http", adminHost, adminPort, "/quit");
       HttpURLConnection connection = (HttpURLConnection) adminServerUrl.openConnection();
 
-      connection.setReadTimeout(4000);
+      connection.setReadTimeout(QUIT_TIMEOUT_MILLIS);
       connection.connect();
       connection.disconnect();
       int responseCode = connection.getResponseCode();
@@ -129,4 +330,130 @@ public class CloudSdkAppEngineDevServer implements AppEngineDevServer {
       throw new AppEngineException(e);
     }
   }
+
+  private static String adminHost(RunConfiguration config) {
+    return Strings.isNullOrEmpty(config.getAdminHost())
+        ? DEFAULT_ADMIN_HOST : config.getAdminHost();
+  }
+
+  private static int adminPort(RunConfiguration config) {
+    return config.getAdminPort() != null ? config.getAdminPort() : DEFAULT_ADMIN_PORT;
+  }
+
+  private static String key(String adminHost, int adminPort) {
+    return adminHost + ":" + adminPort;
+  }
+
+  // a server that is still registered but exited by itself is forgotten
+  private static void checkNotRunning(String key) throws AppEngineException {
+    RunningServer server = running.get(key);
+    if (server != null) {
+      if (ProcessTree.isAlive(server.process)) {
+        throw alreadyRunning(key);
+      }
+      running.remove(key, server);
+    }
+  }
+
+  private static AppEngineException alreadyRunning(String key) {
+    return new AppEngineException("A development server started by the library is already running"
+        + " with admin " + key + ", stop it first.");
+  }
+
+  // whether the port accepts connections on any address of the host, like 127.0.0.1 and ::1
+  private static boolean isListening(String host, int port) {
+    InetAddress[] addresses;
+    try {
+      addresses = InetAddress.getAllByName(host);
+    } catch (UnknownHostException e) {
+      return false;
+    }
+    for (InetAddress address : addresses) {
+      try (Socket socket = new Socket()) {
+        socket.connect(new InetSocketAddress(address, port), PORT_PROBE_TIMEOUT_MILLIS);
+        return true;
+      } catch (SocketTimeoutException e) {
+        // bound, but with a full backlog
+        return true;
+      } catch (IOException e) {
+        // not listening on this address
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A server started by the library.
+   */
+  private static class RunningServer {
+    private final Process process;
+    private final String key;
+    private final String adminHost;
+    private final int adminPort;
+    private final String host;
+    private final List<Integer> ports = new ArrayList<>();
+
+    RunningServer(Process process, RunConfiguration config) {
+      this.process = process;
+      this.adminHost = adminHost(config);
+      this.adminPort = adminPort(config);
+      this.key = key(adminHost, adminPort);
+      this.host = Strings.isNullOrEmpty(config.getHost()) ? DEFAULT_HOST : config.getHost();
+      ports.add(config.getPort() != null ? config.getPort() : DEFAULT_PORT);
+      if (config.getApiPort() != null) {
+        ports.add(config.getApiPort());
+      }
+    }
+
+    void stop(long timeoutMillis) throws AppEngineException {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      // before quitting, so that children the server leaves behind are still known
+      ProcessTree tree = ProcessTree.of(process);
+      try {
+        quit(adminHost, adminPort);
+      } catch (AppEngineException e) {
+        logger.fine("Cannot quit " + this + ": " + e.getMessage());
+      }
+      try {
+        while (tree.isAlive() && System.nanoTime() < deadline) {
+          Thread.sleep(POLL_MILLIS);
+        }
+        if (tree.isAlive()) {
+          logger.info("Terminating " + this + ", which did not quit within " + timeoutMillis
+              + " ms");
+          if (!ProcessRegistry.getInstance().destroy(tree)) {
+            throw new AppEngineException("Cannot terminate " + this);
+          }
+        } else {
+          ProcessRegistry.getInstance().unregister(process);
+        }
+        awaitPortsReleased(Math.max(deadline,
+            System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PORT_RELEASE_MILLIS)));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        process.destroy();
+        throw new AppEngineException(e);
+      }
+    }
+
+    private void awaitPortsReleased(long deadline) throws InterruptedException {
+      List<Integer> allPorts = new ArrayList<>(ports);
+      allPorts.add(adminPort);
+      for (int port : allPorts) {
+        String portHost = port == adminPort ? adminHost : host;
+        while (isListening(portHost, port)) {
+          if (System.nanoTime() >= deadline) {
+            throw new AppEngineException("The development server " + this + " stopped, but port "
+                + port + " is still in use");
+          }
+          Thread.sleep(POLL_MILLIS);
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return host + ":" + ports.get(0) + " (admin " + key + ")";
+    }
+  }
 }
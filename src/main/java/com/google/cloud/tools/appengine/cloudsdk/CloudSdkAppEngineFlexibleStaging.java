@@ -22,6 +22,8 @@ import com.google.cloud.tools.appengine.api.AppEngineException;
 import com.google.cloud.tools.appengine.api.deploy.AppEngineFlexibleStaging;
 import com.google.cloud.tools.appengine.api.deploy.StageFlexibleConfiguration;
 import com.google.cloud.tools.appengine.cloudsdk.internal.FileUtil;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Span;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Tracing;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
@@ -63,6 +65,7 @@ public class CloudSdkAppEngineFlexibleStaging implements AppEngineFlexibleStagin
           + config.getStagingDirectory().toPath());
     }
 
+    Span stage = Tracing.start(Span.STAGING, "stage flexible");
     try {
 
       // Copy docker context to staging
@@ -71,8 +74,13 @@ public class CloudSdkAppEngineFlexibleStaging implements AppEngineFlexibleStagin
           throw new AppEngineException("Docker directory " + config.getDockerDirectory().toPath()
               + " does not contain Dockerfile");
         }
-        FileUtil.copyDirectory(config.getDockerDirectory().toPath(),
-            config.getStagingDirectory().toPath());
+        Span copy = Tracing.start(Span.STAGING, "copy docker directory");
+        try {
+          FileUtil.copyDirectory(config.getDockerDirectory().toPath(),
+              config.getStagingDirectory().toPath());
+        } finally {
+          copy.end();
+        }
       }
 
       // Copy app.yaml and other App Engine config files to staging
@@ -103,7 +111,13 @@ public class CloudSdkAppEngineFlexibleStaging implements AppEngineFlexibleStagin
             + "'");
       }
     } catch (IOException e) {
+      stage.failed(e);
       throw new AppEngineException(e);
+    } catch (RuntimeException e) {
+      stage.failed(e);
+      throw e;
+    } finally {
+      stage.end();
     }
   }
 }
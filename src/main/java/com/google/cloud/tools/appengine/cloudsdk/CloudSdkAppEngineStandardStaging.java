@@ -19,8 +19,12 @@ package com.google.cloud.tools.appengine.cloudsdk;
 import com.google.cloud.tools.appengine.api.AppEngineException;
 import com.google.cloud.tools.appengine.api.deploy.AppEngineStandardStaging;
 import com.google.cloud.tools.appengine.api.deploy.StageStandardConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.internal.JarSplitter;
+import com.google.cloud.tools.appengine.cloudsdk.internal.QuickstartGenerator;
 import com.google.cloud.tools.appengine.cloudsdk.internal.args.AppCfgArgs;
 import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRunnerException;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Span;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Tracing;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 
@@ -39,10 +43,24 @@ import java.util.List;
 public class CloudSdkAppEngineStandardStaging implements AppEngineStandardStaging {
 
   private CloudSdk cloudSdk;
+  private final boolean nativeQuickstart;
 
   public CloudSdkAppEngineStandardStaging(
       CloudSdk cloudSdk) {
+    this(cloudSdk, false);
+  }
+
+  /**
+   * Creates a staging that can generate {@code quickstart-web.xml} itself.
+   *
+   * @param nativeQuickstart whether quickstart is generated by {@link QuickstartGenerator}, which
+   *     scans classes in parallel and caches jar results, rather than by AppCfg. It only handles
+   *     {@code @WebServlet}, {@code @WebFilter} and {@code @WebListener}, so it is not suitable
+   *     for applications using JSPs or servlet container initializers
+   */
+  public CloudSdkAppEngineStandardStaging(CloudSdk cloudSdk, boolean nativeQuickstart) {
     this.cloudSdk = cloudSdk;
+    this.nativeQuickstart = nativeQuickstart;
   }
 
   @Override
@@ -54,10 +72,12 @@ public class CloudSdkAppEngineStandardStaging implements AppEngineStandardStagin
 
     List<String> arguments = new ArrayList<>();
 
-    arguments.addAll(AppCfgArgs.get("enable_quickstart", config.getEnableQuickstart()));
+    boolean generateQuickstart =
+        nativeQuickstart && Boolean.TRUE.equals(config.getEnableQuickstart());
+    if (!generateQuickstart) {
+      arguments.addAll(AppCfgArgs.get("enable_quickstart", config.getEnableQuickstart()));
+    }
     arguments.addAll(AppCfgArgs.get("disable_update_check", config.getDisableUpdateCheck()));
-    arguments.addAll(AppCfgArgs.get("enable_jar_splitting", config.getEnableJarSplitting()));
-    arguments.addAll(AppCfgArgs.get("jar_splitting_excludes", config.getJarSplittingExcludes()));
     arguments.addAll(AppCfgArgs.get("compile_encoding", config.getCompileEncoding()));
     arguments.addAll(AppCfgArgs.get("delete_jsps", config.getDeleteJsps()));
     arguments.addAll(AppCfgArgs.get("enable_jar_classes", config.getEnableJarClasses()));
@@ -73,15 +93,46 @@ public class CloudSdkAppEngineStandardStaging implements AppEngineStandardStagin
 
     Path dockerfile = config.getDockerfile() == null ? null : config.getDockerfile().toPath();
 
+    Span stage = Tracing.start(Span.STAGING, "stage standard");
     try {
 
       if (dockerfile != null && dockerfile.toFile().exists()) {
-        Files.copy(dockerfile, config.getSourceDirectory().toPath()
-            .resolve(dockerfile.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        Span copy = Tracing.start(Span.STAGING, "copy Dockerfile");
+        try {
+          Files.copy(dockerfile, config.getSourceDirectory().toPath()
+              .resolve(dockerfile.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+          copy.end();
+        }
       }
 
       cloudSdk.runAppCfgCommand(arguments);
 
+      // Native quickstart generation scans classes in parallel and never rescans unchanged jars.
+      Path webInf = config.getStagingDirectory().toPath().resolve("WEB-INF");
+      if (generateQuickstart && Files.isDirectory(webInf)) {
+        Span quickstart = Tracing.start(Span.STAGING, "generate quickstart");
+        try {
+          new QuickstartGenerator().generate(config.getStagingDirectory().toPath());
+        } finally {
+          quickstart.end();
+        }
+      }
+
+      // Jar splitting is done here rather than by AppCfg, so output jars are written in parallel.
+      if (Boolean.TRUE.equals(config.getEnableJarSplitting())) {
+        JarSplitter jarSplitter = new JarSplitter(JarSplitter.DEFAULT_MAX_SIZE,
+            JarSplitter.parseExcludes(config.getJarSplittingExcludes()),
+            Runtime.getRuntime().availableProcessors());
+        Span split = Tracing.start(Span.STAGING, "split jars");
+        try {
+          jarSplitter.splitDirectory(
+              config.getStagingDirectory().toPath().resolve("WEB-INF/lib"));
+        } finally {
+          split.end();
+        }
+      }
+
       //TODO : Move this fix up the chain (appcfg)
       if (config.getRuntime() != null && config.getRuntime().equals("java")) {
         File appYaml = new File(config.getStagingDirectory(), "app.yaml");
@@ -90,7 +141,10 @@ public class CloudSdkAppEngineStandardStaging implements AppEngineStandardStagin
       }
 
     } catch (IOException | ProcessRunnerException e) {
+      stage.failed(e);
       throw new AppEngineException(e);
+    } finally {
+      stage.end();
     }
 
   }
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import com.google.cloud.tools.appengine.api.devserver.RunConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.internal.FileUtil;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Span;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Tracing;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * A copy of the storage path of a development server, captured once its datastore is seeded and
+ * cloned into the storage path of later servers, so that they start with the data instead of
+ * importing it again.
+ *
+ * <p>On Linux, clones are made with {@code cp --reflink=auto}, which shares the blocks of the
+ * snapshot copy-on-write on filesystems that support it (Btrfs, XFS, ...) and copies them
+ * otherwise. Elsewhere, or if {@code cp} fails, files are copied. Clones never hard link the
+ * snapshot, because the server updates its datastore files in place.
+ *
+ * <p>The server must be stopped while its storage path is captured.
+ */
+public class DatastoreSnapshot {
+
+  private static final Logger logger = Logger.getLogger(DatastoreSnapshot.class.getName());
+  private static final boolean IS_LINUX =
+      System.getProperty("os.name").toLowerCase(Locale.ROOT).contains("linux");
+
+  /**
+   * How a clone was made.
+   */
+  public enum CloneMethod {
+    /**
+     * With {@code cp --reflink=auto}, copy-on-write where the filesystem supports it.
+     */
+    REFLINK_OR_COPY,
+    /** By copying every file. */
+    COPY
+  }
+
+  private final Path directory;
+
+  private DatastoreSnapshot(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Captures the storage path of a stopped server.
+   *
+   * @param storagePath       the storage path to capture
+   * @param snapshotDirectory where to keep the snapshot, which must not exist; it only appears
+   *                          once the capture is complete
+   */
+  public static DatastoreSnapshot capture(Path storagePath, Path snapshotDirectory)
+      throws IOException {
+    Preconditions.checkArgument(Files.isDirectory(storagePath),
+        "Storage path " + storagePath + " is not a directory");
+    Preconditions.checkArgument(!Files.exists(snapshotDirectory),
+        "Snapshot " + snapshotDirectory + " already exists");
+    Path parent = snapshotDirectory.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temporary =
+        Files.createTempDirectory(parent, snapshotDirectory.getFileName().toString());
+    try {
+      copy(storagePath, temporary);
+      Files.move(temporary, snapshotDirectory, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      if (Files.exists(temporary)) {
+        FileUtil.deleteRecursively(temporary);
+      }
+    }
+    return new DatastoreSnapshot(snapshotDirectory);
+  }
+
+  /**
+   * Captures the storage path of a stopped server run with a configuration.
+   *
+   * @see #capture(Path, Path)
+   */
+  public static DatastoreSnapshot capture(RunConfiguration configuration, Path snapshotDirectory)
+      throws IOException {
+    Preconditions.checkArgument(configuration.getStoragePath() != null,
+        "The configuration has no storage path");
+    return capture(Paths.get(configuration.getStoragePath()), snapshotDirectory);
+  }
+
+  /**
+   * Opens a snapshot captured earlier, possibly by another JVM.
+   */
+  public static DatastoreSnapshot open(Path snapshotDirectory) {
+    Preconditions.checkArgument(Files.isDirectory(snapshotDirectory),
+        "Snapshot " + snapshotDirectory + " does not exist");
+    return new DatastoreSnapshot(snapshotDirectory);
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Clones the snapshot into the storage path of a server about to start.
+   *
+   * @param storagePath a nonexistent or empty directory
+   * @return how the clone was made
+   */
+  public CloneMethod cloneTo(Path storagePath) throws IOException {
+    Files.createDirectories(storagePath);
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(storagePath)) {
+      Preconditions.checkArgument(!entries.iterator().hasNext(),
+          "Storage path " + storagePath + " is not empty");
+    }
+    Span span = Tracing.start(Span.DEV_SERVER, "clone datastore")
+        .attribute("snapshot", directory.toString());
+    try {
+      CloneMethod method = copy(directory, storagePath);
+      span.attribute("method", method.name());
+      return method;
+    } catch (IOException | RuntimeException e) {
+      span.failed(e);
+      throw e;
+    } finally {
+      span.end();
+    }
+  }
+
+  // copies the contents of an existing directory into an existing empty one
+  private static CloneMethod copy(Path source, Path destination) throws IOException {
+    if (IS_LINUX && reflinkCopy(source, destination)) {
+      return CloneMethod.REFLINK_OR_COPY;
+    }
+    FileUtil.copyDirectory(source, destination);
+    return CloneMethod.COPY;
+  }
+
+  // copies with cp, cleaning up and returning false if it fails
+  private static boolean reflinkCopy(Path source, Path destination) throws IOException {
+    Process process = new ProcessBuilder("cp", "-R", "-p", "--reflink=auto",
+        source.toString() + "/.", destination.toString())
+        .redirectErrorStream(true)
+        .start();
+    String output;
+    try (InputStream in = process.getInputStream()) {
+      output = new String(ByteStreams.toByteArray(in), Charsets.UTF_8).trim();
+    }
+    try {
+      if (process.waitFor() == 0) {
+        return true;
+      }
+    } catch (InterruptedException e) {
+      process.destroy();
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while copying " + source, e);
+    }
+    logger.info("cp --reflink=auto failed, copying files instead: " + output);
+    deleteContents(destination);
+    return false;
+  }
+
+  private static void deleteContents(Path directory) throws IOException {
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+      for (Path entry : entries) {
+        FileUtil.deleteRecursively(entry);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "DatastoreSnapshot " + directory;
+  }
+}
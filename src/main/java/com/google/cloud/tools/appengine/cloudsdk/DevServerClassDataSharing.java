@@ -0,0 +1,350 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import com.google.cloud.tools.appengine.api.devserver.RunConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessTree;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * Speeds up the startup of the Java process of a development server with a class data sharing
+ * archive: the first run with an application records the classes it loads into an archive, and
+ * later runs map them from the archive instead of loading them from the class path. Archives are
+ * kept in a directory, keyed by the contents of the {@code WEB-INF/lib} of the application and by
+ * the JDK, so adding, removing or updating a library records a new archive.
+ *
+ * <p>The JVM records and reads archives itself, with {@code -XX:ArchiveClassesAtExit} and {@code
+ * -XX:SharedArchiveFile}, which needs JDK 13 or later; with older JDKs the server runs as usual. An
+ * archive is written when the process exits normally, including when it is stopped, but not when
+ * it is killed. The JVM ignores an archive that no longer matches its class path, so a server
+ * whose Cloud SDK was updated still starts, only without the benefit until the archive is deleted.
+ * Only classes loaded from jars by the built-in class loaders are archived. While a server records
+ * an archive, other servers of the same application run without one.
+ *
+ * @see CloudSdkAppEngineDevServer#run(RunConfiguration, DevServerClassDataSharing)
+ */
+public class DevServerClassDataSharing {
+
+  private static final Logger logger = Logger.getLogger(DevServerClassDataSharing.class.getName());
+  private static final int MIN_JAVA_VERSION = 13;
+  private static final Pattern JAVA_VERSION =
+      Pattern.compile("^JAVA_VERSION=\"(?:1\\.)?(\\d+)", Pattern.MULTILINE);
+  private static final String ARCHIVE_EXTENSION = ".jsa";
+  // an archive holds at least its header and the class table; shorter ones were cut off
+  private static final long MIN_ARCHIVE_SIZE = 4096;
+
+  /**
+   * What a run does with the archive.
+   */
+  public enum Mode {
+    /** No archive exists yet: the run records one. */
+    RECORD,
+    /** The run uses the existing archive. */
+    USE,
+    /** The run neither records nor uses an archive. */
+    DISABLED
+  }
+
+  private final Path directory;
+  @Nullable
+  private final Path javaHome;
+  private final int maxArchives;
+  // the content hashes of libraries, by path, reused as long as their size and time are unchanged
+  private final Map<Path, LibraryHash> libraryHashes = new ConcurrentHashMap<>();
+  // the runs that recorded archives not written yet, guarded by itself
+  private final Map<Path, RunConfiguration> recording = new HashMap<>();
+
+  private DevServerClassDataSharing(Builder builder) {
+    this.directory = builder.directory;
+    this.javaHome = builder.javaHome;
+    this.maxArchives = builder.maxArchives;
+  }
+
+  /**
+   * Returns a builder of archives kept in a directory, which is created if needed.
+   */
+  public static Builder builder(Path directory) {
+    return new Builder(directory);
+  }
+
+  /**
+   * Chooses the archive of a run, and the JVM flags that record or use it.
+   */
+  public Archive prepare(RunConfiguration config) {
+    Path home = javaHome(config);
+    Integer javaVersion = javaVersion(home);
+    if (javaVersion == null || javaVersion < MIN_JAVA_VERSION) {
+      return disabled("the JDK in " + home + " is not version " + MIN_JAVA_VERSION + " or later");
+    }
+    if (config.getAppYamls().size() != 1) {
+      // every service runs its own JVM, and they would all write the same archive
+      return disabled("the archive is only recorded for a single service");
+    }
+    Path file;
+    try {
+      HashCode key = key(home, config.getAppYamls().get(0).toPath());
+      file = directory.resolve(key + ARCHIVE_EXTENSION);
+      if (Files.isRegularFile(file) && Files.size(file) < MIN_ARCHIVE_SIZE) {
+        logger.info("Deleting the incomplete class data sharing archive " + file);
+        Files.delete(file);
+      }
+    } catch (IOException e) {
+      return disabled("the application libraries cannot be read: " + e.getMessage());
+    }
+
+    Archive archive;
+    synchronized (recording) {
+      if (Files.isRegularFile(file)) {
+        recording.remove(file);
+        archive = new Archive(file, Mode.USE, ImmutableList.of("-Xshare:auto",
+            "-XX:SharedArchiveFile=" + file.toAbsolutePath()));
+      } else if (!isRunning(recording.get(file))) {
+        // a server that stopped without writing the archive was killed; record again
+        recording.put(file, config);
+        archive = new Archive(file, Mode.RECORD,
+            ImmutableList.of("-XX:ArchiveClassesAtExit=" + file.toAbsolutePath()));
+      } else {
+        return disabled("another server is recording the archive " + file);
+      }
+    }
+    try {
+      Files.createDirectories(directory);
+      if (archive.getMode() == Mode.USE) {
+        // pruning keeps the most recently used archives
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      }
+      prune(file);
+    } catch (IOException e) {
+      logger.warning("Cannot maintain the class data sharing archives in " + directory + ": "
+          + e.getMessage());
+    }
+    logger.fine("Class data sharing: " + archive);
+    return archive;
+  }
+
+  private static boolean isRunning(@Nullable RunConfiguration config) {
+    Process server = config == null ? null : CloudSdkAppEngineDevServer.getProcess(config);
+    return server != null && ProcessTree.isAlive(server);
+  }
+
+  // the content hash of the JDK and the application libraries
+  @VisibleForTesting
+  HashCode key(Path javaHome, Path appDirectory) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(javaHome.toAbsolutePath().normalize().toString(), Charsets.UTF_8);
+    hasher.putBytes(Files.readAllBytes(javaHome.resolve("release")));
+    Path libraries = (Files.isDirectory(appDirectory) ? appDirectory : appDirectory.getParent())
+        .resolve("WEB-INF").resolve("lib");
+    if (Files.isDirectory(libraries)) {
+      List<Path> jars = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(libraries, "*.jar")) {
+        for (Path jar : stream) {
+          jars.add(jar);
+        }
+      }
+      Collections.sort(jars);
+      for (Path jar : jars) {
+        hasher.putString(jar.getFileName().toString(), Charsets.UTF_8);
+        hasher.putBytes(libraryHash(jar).asBytes());
+      }
+    }
+    return hasher.hash();
+  }
+
+  private HashCode libraryHash(Path jar) throws IOException {
+    long size = Files.size(jar);
+    long modified = Files.getLastModifiedTime(jar).toMillis();
+    LibraryHash cached = libraryHashes.get(jar);
+    if (cached == null || cached.size != size || cached.modified != modified) {
+      cached = new LibraryHash(size, modified,
+          com.google.common.io.Files.hash(jar.toFile(), Hashing.sha256()));
+      libraryHashes.put(jar, cached);
+    }
+    return cached.hash;
+  }
+
+  // deletes the least recently used archives beyond the most kept
+  private void prune(Path keep) throws IOException {
+    List<Path> archives = new ArrayList<>();
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(directory, "*" + ARCHIVE_EXTENSION)) {
+      for (Path archive : stream) {
+        if (!archive.equals(keep)) {
+          archives.add(archive);
+        }
+      }
+    }
+    final Map<Path, Long> modified = new HashMap<>();
+    for (Path archive : archives) {
+      modified.put(archive, Files.getLastModifiedTime(archive).toMillis());
+    }
+    Collections.sort(archives, new Comparator<Path>() {
+      @Override
+      public int compare(Path first, Path second) {
+        return Long.compare(modified.get(second), modified.get(first));
+      }
+    });
+    for (Path archive : archives.subList(Math.min(archives.size(), maxArchives - 1),
+        archives.size())) {
+      Files.deleteIfExists(archive);
+    }
+  }
+
+  private Path javaHome(RunConfiguration config) {
+    if (javaHome != null) {
+      return javaHome;
+    }
+    if (!Strings.isNullOrEmpty(config.getJavaHomeDir())) {
+      return Paths.get(config.getJavaHomeDir());
+    }
+    // the server inherits the environment of this process
+    String environment = System.getenv("JAVA_HOME");
+    return Paths.get(Strings.isNullOrEmpty(environment)
+        ? System.getProperty("java.home") : environment);
+  }
+
+  // the feature version of a JDK, from its release file
+  @Nullable
+  @VisibleForTesting
+  static Integer javaVersion(Path javaHome) {
+    try {
+      Matcher matcher = JAVA_VERSION.matcher(
+          new String(Files.readAllBytes(javaHome.resolve("release")), Charsets.UTF_8));
+      return matcher.find() ? Integer.valueOf(matcher.group(1)) : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static Archive disabled(String reason) {
+    logger.info("Not using class data sharing: " + reason);
+    return new Archive(null, Mode.DISABLED, ImmutableList.<String>of());
+  }
+
+  private static class LibraryHash {
+    private final long size;
+    private final long modified;
+    private final HashCode hash;
+
+    private LibraryHash(long size, long modified, HashCode hash) {
+      this.size = size;
+      this.modified = modified;
+      this.hash = hash;
+    }
+  }
+
+  /**
+   * The archive of a run.
+   */
+  public static class Archive {
+    @Nullable
+    private final Path file;
+    private final Mode mode;
+    private final List<String> jvmFlags;
+
+    private Archive(@Nullable Path file, Mode mode, List<String> jvmFlags) {
+      this.file = file;
+      this.mode = mode;
+      this.jvmFlags = jvmFlags;
+    }
+
+    /**
+     * Returns the archive file, or null if disabled.
+     */
+    @Nullable
+    public Path getFile() {
+      return file;
+    }
+
+    public Mode getMode() {
+      return mode;
+    }
+
+    /**
+     * Returns the flags to add to the JVM flags of the server.
+     */
+    public List<String> getJvmFlags() {
+      return jvmFlags;
+    }
+
+    @Override
+    public String toString() {
+      return mode + (file == null ? "" : " " + file);
+    }
+  }
+
+  public static class Builder {
+    private final Path directory;
+    @Nullable
+    private Path javaHome;
+    private int maxArchives = 5;
+
+    private Builder(Path directory) {
+      this.directory = Preconditions.checkNotNull(directory);
+    }
+
+    /**
+     * The JDK that runs the application, which must be the one the archives are used with. By
+     * default, the Java home of the run configuration, or else the {@code JAVA_HOME} of this
+     * process, or else the JDK running the library.
+     */
+    public Builder javaHome(@Nullable Path javaHome) {
+      this.javaHome = javaHome;
+      return this;
+    }
+
+    /**
+     * How many archives to keep in the directory, the most recently used ones; 5 by default.
+     */
+    public Builder maxArchives(int maxArchives) {
+      Preconditions.checkArgument(maxArchives > 0, "At least one archive must be kept");
+      this.maxArchives = maxArchives;
+      return this;
+    }
+
+    public DevServerClassDataSharing build() {
+      return new DevServerClassDataSharing(this);
+    }
+  }
+}
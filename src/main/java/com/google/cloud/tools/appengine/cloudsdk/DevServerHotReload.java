@@ -0,0 +1,633 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import com.google.cloud.tools.appengine.cloudsdk.internal.FileUtil;
+import com.google.cloud.tools.appengine.cloudsdk.metrics.MetricKey;
+import com.google.cloud.tools.appengine.cloudsdk.metrics.MetricsRegistry;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Span;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Tracing;
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Watches the build output of an application run by a development server and keeps the exploded
+ * application directory of the server in sync with it, so that edits show up without staging the
+ * application again.
+ *
+ * <p>Changes are batched: a cycle starts once the build output has been quiet for the debounce
+ * interval, and only the files that changed are copied or deleted. Each cycle then triggers the
+ * cheapest reload that the change needs:
+ * <ul>
+ *   <li>static files are served from disk, so they need no reload</li>
+ *   <li>classes, libraries and anything else under {@code WEB-INF} need the application instance
+ *       restarted, which the server does when {@code WEB-INF/appengine-web.xml} changes, without
+ *       restarting the server itself. A different {@link ReloadAction} may be configured.</li>
+ * </ul>
+ *
+ * <p>The time from the first edit of a cycle to the application being ready again is reported to
+ * {@link CycleListener}s and, if a registry is configured, recorded in the histogram
+ * {@code hot_reload_edit_to_ready_micros}, labelled with the {@code reload}. The histogram
+ * {@code hot_reload_sync_micros} and the counters {@code hot_reload_files_copied_total},
+ * {@code hot_reload_files_deleted_total} and {@code hot_reload_failures_total} are recorded too.
+ * If a ready check URL is configured, an application that was reloaded is ready once the URL
+ * answers; otherwise it is ready once its files are synced.
+ */
+public class DevServerHotReload implements Closeable {
+
+  public static final String SYNC = "hot_reload_sync_micros";
+  public static final String EDIT_TO_READY = "hot_reload_edit_to_ready_micros";
+  public static final String FILES_COPIED = "hot_reload_files_copied_total";
+  public static final String FILES_DELETED = "hot_reload_files_deleted_total";
+  public static final String FAILURES = "hot_reload_failures_total";
+
+  private static final Logger logger = Logger.getLogger(DevServerHotReload.class.getName());
+  private static final String APPENGINE_WEB_XML = "WEB-INF/appengine-web.xml";
+  private static final long READY_POLL_MILLIS = 100;
+
+  /**
+   * The reloads a change may need, from the cheapest.
+   */
+  public enum Reload {
+    /** Static files only, which the server picks up from disk. */
+    NONE,
+    /** Classes, libraries or configuration, which need the application instance restarted. */
+    INSTANCE_RESTART
+  }
+
+  /**
+   * Makes the server pick up a change that needs the application instance restarted.
+   */
+  public interface ReloadAction {
+    void reload(Path appDirectory) throws IOException;
+  }
+
+  /**
+   * Receives the outcome of every cycle, on the watching thread.
+   */
+  public interface CycleListener {
+    void onCycle(Cycle cycle);
+  }
+
+  /**
+   * Touches {@code WEB-INF/appengine-web.xml}, which makes the server restart the application
+   * instance.
+   */
+  public static final ReloadAction TOUCH_APPENGINE_WEB_XML = new ReloadAction() {
+    @Override
+    public void reload(Path appDirectory) throws IOException {
+      Path descriptor = appDirectory.resolve(APPENGINE_WEB_XML);
+      if (Files.exists(descriptor)) {
+        Files.setLastModifiedTime(descriptor, FileTime.fromMillis(System.currentTimeMillis()));
+      } else {
+        logger.warning("Cannot reload the application, " + descriptor + " does not exist");
+      }
+    }
+  };
+
+  private final Path sourceDirectory;
+  private final Path appDirectory;
+  private final long debounceMillis;
+  private final long maxDelayMillis;
+  private final ReloadAction reloadAction;
+  @Nullable
+  private final URL readyCheckUrl;
+  private final long readyTimeoutMillis;
+  @Nullable
+  private final MetricsRegistry registry;
+  private final List<CycleListener> listeners;
+  private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+  private WatchService watchService;
+  private Thread thread;
+  private volatile boolean closed;
+
+  // state of the batch being collected, only used on the watching thread
+  private final Set<Path> pending = new TreeSet<>();
+  private boolean overflowed;
+  private long firstEventMillis;
+  private long lastEventMillis;
+  private long lastCycleMillis;
+
+  private DevServerHotReload(Builder builder) {
+    this.sourceDirectory = builder.sourceDirectory;
+    this.appDirectory = builder.appDirectory;
+    this.debounceMillis = builder.debounceMillis;
+    this.maxDelayMillis = builder.maxDelayMillis;
+    this.reloadAction = builder.reloadAction;
+    this.readyCheckUrl = builder.readyCheckUrl;
+    this.readyTimeoutMillis = builder.readyTimeoutMillis;
+    this.registry = builder.registry;
+    this.listeners = new CopyOnWriteArrayList<>(builder.listeners);
+  }
+
+  /**
+   * Returns a builder for a watcher.
+   *
+   * @param sourceDirectory the build output to watch, laid out like the exploded application
+   * @param appDirectory    the exploded application directory the server runs
+   */
+  public static Builder builder(Path sourceDirectory, Path appDirectory) {
+    return new Builder(sourceDirectory, appDirectory);
+  }
+
+  /**
+   * Brings the application directory up to date with the build output, and starts watching it.
+   */
+  public synchronized void start() throws IOException {
+    Preconditions.checkState(thread == null, "Already started");
+    Preconditions.checkState(!closed, "Closed");
+    watchService = sourceDirectory.getFileSystem().newWatchService();
+    registerAll(sourceDirectory, false);
+    lastCycleMillis = System.currentTimeMillis();
+    fullSync(new Cycle(Reload.NONE, lastCycleMillis));
+
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        watch();
+      }
+    }, "devserver-hot-reload");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stops watching. A cycle in progress is completed first.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Cannot close the watch service", e);
+      }
+    }
+    if (thread != null && thread != Thread.currentThread()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  public void addCycleListener(CycleListener listener) {
+    listeners.add(Preconditions.checkNotNull(listener));
+  }
+
+  public void removeCycleListener(CycleListener listener) {
+    listeners.remove(listener);
+  }
+
+  private void watch() {
+    try {
+      while (!closed) {
+        WatchKey key;
+        if (pending.isEmpty() && !overflowed) {
+          key = watchService.take();
+        } else {
+          long now = System.currentTimeMillis();
+          long wait = Math.min(lastEventMillis + debounceMillis, firstEventMillis + maxDelayMillis)
+              - now;
+          key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+        }
+        if (key != null) {
+          collect(key);
+        } else {
+          cycle();
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      // closed
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void collect(WatchKey key) {
+    Path directory = watchedDirectories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+        overflowed = true;
+        continue;
+      }
+      Path child = directory.resolve((Path) event.context());
+      pending.add(sourceDirectory.relativize(child));
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+          && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+        // files may have been created in the directory before it was watched
+        try {
+          registerAll(child, true);
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "Cannot watch " + child, e);
+          overflowed = true;
+        }
+      }
+    }
+    if (!key.reset()) {
+      watchedDirectories.remove(key);
+    }
+    long now = System.currentTimeMillis();
+    if (firstEventMillis == 0) {
+      firstEventMillis = now;
+    }
+    lastEventMillis = now;
+  }
+
+  private void cycle() {
+    Cycle cycle = new Cycle(Reload.NONE, editMillis());
+    Span span = Tracing.start(Span.DEV_SERVER, "hot reload");
+    try {
+      long syncStart = System.nanoTime();
+      if (overflowed) {
+        // some events were lost, deletions included
+        fullSync(cycle);
+        deleteRemoved(cycle);
+      }
+      for (Path path : pending) {
+        sync(path, cycle);
+      }
+      cycle.syncNanos = System.nanoTime() - syncStart;
+      if (cycle.reload == Reload.INSTANCE_RESTART) {
+        reloadAction.reload(appDirectory);
+        if (readyCheckUrl != null) {
+          awaitReady();
+        }
+      }
+      span.attribute("copied", cycle.copied.size()).attribute("deleted", cycle.deleted.size())
+          .attribute("reload", cycle.reload);
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.WARNING, "Hot reload failed", e);
+      cycle.failure = e;
+      span.failed(e);
+    } finally {
+      span.end();
+    }
+    long now = System.currentTimeMillis();
+    cycle.editToReadyMillis = Math.max(0, now - cycle.editMillis);
+    pending.clear();
+    overflowed = false;
+    firstEventMillis = 0;
+    lastCycleMillis = now;
+    record(cycle);
+  }
+
+  // the earliest modification among the changed files, or when the first change was seen if
+  // the files are gone or were written with older timestamps
+  private long editMillis() {
+    long edit = firstEventMillis;
+    for (Path path : pending) {
+      try {
+        long modified = Files.getLastModifiedTime(sourceDirectory.resolve(path)).toMillis();
+        if (modified >= lastCycleMillis && modified < edit) {
+          edit = modified;
+        }
+      } catch (IOException e) {
+        // deleted
+      }
+    }
+    return edit;
+  }
+
+  private void fullSync(final Cycle cycle) throws IOException {
+    Files.walkFileTree(sourceDirectory, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+          throws IOException {
+        Files.createDirectories(appDirectory.resolve(sourceDirectory.relativize(dir).toString()));
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        sync(sourceDirectory.relativize(file), cycle);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  // deletes what the application directory has and the build output does not have anymore
+  private void deleteRemoved(final Cycle cycle) throws IOException {
+    Files.walkFileTree(appDirectory, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+          throws IOException {
+        if (!dir.equals(appDirectory) && delete(dir)) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      private boolean delete(Path target) throws IOException {
+        Path path = appDirectory.relativize(target);
+        if (Files.exists(sourceDirectory.resolve(path.toString()), LinkOption.NOFOLLOW_LINKS)) {
+          return false;
+        }
+        FileUtil.deleteRecursively(target);
+        cycle.changed(path, false);
+        return true;
+      }
+    });
+  }
+
+  private void sync(Path path, Cycle cycle) throws IOException {
+    Path source = sourceDirectory.resolve(path);
+    Path target = appDirectory.resolve(path.toString());
+    if (Files.isDirectory(source)) {
+      Files.createDirectories(target);
+    } else if (Files.isRegularFile(source)) {
+      if (!isUpToDate(source, target)) {
+        Files.createDirectories(target.getParent());
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.COPY_ATTRIBUTES);
+        cycle.changed(path, true);
+      }
+    } else if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+      FileUtil.deleteRecursively(target);
+      cycle.changed(path, false);
+    }
+  }
+
+  private static boolean isUpToDate(Path source, Path target) throws IOException {
+    return Files.isRegularFile(target)
+        && Files.size(source) == Files.size(target)
+        && Files.getLastModifiedTime(source).equals(Files.getLastModifiedTime(target));
+  }
+
+  private void registerAll(Path root, final boolean addFiles) throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+          throws IOException {
+        WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        watchedDirectories.put(key, dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (addFiles) {
+          pending.add(sourceDirectory.relativize(file));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private void awaitReady() throws IOException {
+    long deadline = System.currentTimeMillis() + readyTimeoutMillis;
+    IOException lastFailure = null;
+    while (System.currentTimeMillis() < deadline && !closed) {
+      try {
+        HttpURLConnection connection = (HttpURLConnection) readyCheckUrl.openConnection();
+        connection.setConnectTimeout((int) READY_POLL_MILLIS);
+        connection.setReadTimeout((int) readyTimeoutMillis);
+        int status = connection.getResponseCode();
+        connection.disconnect();
+        if (status >= 200 && status < 400) {
+          return;
+        }
+        lastFailure = new IOException(readyCheckUrl + " answered " + status);
+      } catch (IOException e) {
+        lastFailure = e;
+      }
+      try {
+        Thread.sleep(READY_POLL_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for " + readyCheckUrl, e);
+      }
+    }
+    throw new IOException("The application was not ready within " + readyTimeoutMillis + " ms",
+        lastFailure);
+  }
+
+  private void record(Cycle cycle) {
+    if (registry != null) {
+      String reload = cycle.reload.name().toLowerCase(Locale.US);
+      registry.histogram(MetricKey.of(SYNC))
+          .record(TimeUnit.NANOSECONDS.toMicros(cycle.syncNanos));
+      registry.counter(MetricKey.of(FILES_COPIED)).addAndGet(cycle.copied.size());
+      registry.counter(MetricKey.of(FILES_DELETED)).addAndGet(cycle.deleted.size());
+      if (cycle.failure == null) {
+        registry.histogram(MetricKey.of(EDIT_TO_READY, "reload", reload))
+            .record(TimeUnit.MILLISECONDS.toMicros(cycle.editToReadyMillis));
+      } else {
+        registry.counter(MetricKey.of(FAILURES)).incrementAndGet();
+      }
+    }
+    for (CycleListener listener : listeners) {
+      try {
+        listener.onCycle(cycle);
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Hot reload listener failed", e);
+      }
+    }
+  }
+
+  static Reload reloadFor(Path path) {
+    String name = path.toString().replace('\\', '/');
+    if (name.startsWith("WEB-INF/") || name.endsWith(".class") || name.endsWith(".jar")) {
+      return Reload.INSTANCE_RESTART;
+    }
+    return Reload.NONE;
+  }
+
+  /**
+   * The outcome of one batch of changes.
+   */
+  public static class Cycle {
+    private final List<Path> copied = new ArrayList<>();
+    private final List<Path> deleted = new ArrayList<>();
+    private final long editMillis;
+    private Reload reload;
+    private long syncNanos;
+    private long editToReadyMillis;
+    @Nullable
+    private Exception failure;
+
+    private Cycle(Reload reload, long editMillis) {
+      this.reload = reload;
+      this.editMillis = editMillis;
+    }
+
+    private void changed(Path path, boolean copy) {
+      (copy ? copied : deleted).add(path);
+      if (reloadFor(path).compareTo(reload) > 0) {
+        reload = reloadFor(path);
+      }
+    }
+
+    /**
+     * Returns the files copied into the application directory, relative to it.
+     */
+    public List<Path> getCopied() {
+      return Collections.unmodifiableList(copied);
+    }
+
+    /**
+     * Returns the files and directories deleted from the application directory, relative to it.
+     */
+    public List<Path> getDeleted() {
+      return Collections.unmodifiableList(deleted);
+    }
+
+    public Reload getReload() {
+      return reload;
+    }
+
+    public long getSyncNanos() {
+      return syncNanos;
+    }
+
+    /**
+     * Returns the time from the first edit of the cycle to the application being ready.
+     */
+    public long getEditToReadyMillis() {
+      return editToReadyMillis;
+    }
+
+    /**
+     * Returns why the cycle failed, or null if it succeeded.
+     */
+    @Nullable
+    public Exception getFailure() {
+      return failure;
+    }
+  }
+
+  public static class Builder {
+    private final Path sourceDirectory;
+    private final Path appDirectory;
+    private long debounceMillis = 200;
+    private long maxDelayMillis = 2000;
+    private ReloadAction reloadAction = TOUCH_APPENGINE_WEB_XML;
+    @Nullable
+    private URL readyCheckUrl;
+    private long readyTimeoutMillis = TimeUnit.SECONDS.toMillis(60);
+    @Nullable
+    private MetricsRegistry registry;
+    private final List<CycleListener> listeners = new ArrayList<>();
+
+    private Builder(Path sourceDirectory, Path appDirectory) {
+      Preconditions.checkArgument(Files.isDirectory(sourceDirectory),
+          sourceDirectory + " is not a directory");
+      this.sourceDirectory = sourceDirectory;
+      this.appDirectory = Preconditions.checkNotNull(appDirectory);
+    }
+
+    /**
+     * How long the build output must be quiet before a cycle starts, 200 milliseconds by default.
+     */
+    public Builder debounce(long interval, TimeUnit unit) {
+      Preconditions.checkArgument(interval >= 0, "The debounce interval must not be negative");
+      this.debounceMillis = unit.toMillis(interval);
+      return this;
+    }
+
+    /**
+     * How long a cycle may be delayed by a build output that keeps changing, 2 seconds by
+     * default.
+     */
+    public Builder maxDelay(long delay, TimeUnit unit) {
+      Preconditions.checkArgument(delay >= 0, "The maximum delay must not be negative");
+      this.maxDelayMillis = unit.toMillis(delay);
+      return this;
+    }
+
+    /**
+     * What restarts the application instance, {@link #TOUCH_APPENGINE_WEB_XML} by default.
+     */
+    public Builder reloadAction(ReloadAction reloadAction) {
+      this.reloadAction = Preconditions.checkNotNull(reloadAction);
+      return this;
+    }
+
+    /**
+     * A URL of the application that answers once it is ready after a reload. None by default.
+     */
+    public Builder readyCheck(@Nullable URL url, long timeout, TimeUnit unit) {
+      Preconditions.checkArgument(timeout > 0, "The ready timeout must be positive");
+      this.readyCheckUrl = url;
+      this.readyTimeoutMillis = unit.toMillis(timeout);
+      return this;
+    }
+
+    /**
+     * Where cycle metrics are recorded. None by default.
+     */
+    public Builder metrics(@Nullable MetricsRegistry registry) {
+      this.registry = registry;
+      return this;
+    }
+
+    public Builder addCycleListener(CycleListener listener) {
+      listeners.add(Preconditions.checkNotNull(listener));
+      return this;
+    }
+
+    /**
+     * Builds the watcher, which watches nothing until {@link DevServerHotReload#start}.
+     */
+    public DevServerHotReload build() {
+      Preconditions.checkArgument(maxDelayMillis >= debounceMillis,
+          "The maximum delay must not be shorter than the debounce interval");
+      return new DevServerHotReload(this);
+    }
+  }
+}
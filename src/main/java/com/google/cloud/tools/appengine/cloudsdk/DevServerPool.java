@@ -0,0 +1,503 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import com.google.cloud.tools.appengine.api.AppEngineException;
+import com.google.cloud.tools.appengine.api.devserver.DefaultStopConfiguration;
+import com.google.cloud.tools.appengine.api.devserver.RunConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.internal.FileUtil;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessStartListener;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps development servers running on free ports and leases them, one client at a time, so that
+ * test suites can run in parallel against servers started ahead of time instead of paying for a
+ * start per suite.
+ *
+ * <p>Every server runs the application of the same {@link RunConfiguration}, with its own host
+ * port, admin port, API port and storage path. When a lease is closed, the datastore of its server
+ * is reset as configured before the server is leased again. With a {@link DatastoreSnapshot}, every
+ * server starts with a clone of the snapshot, and resetting restores it.
+ *
+ * <pre>{@code
+ * DevServerPool pool = DevServerPool.builder(sdkBuilders, configuration).size(4).build();
+ * pool.start();
+ * try (DevServerPool.Lease lease = pool.lease()) {
+ *   runTestsAgainst(lease.getUrl());
+ * }
+ * pool.close();
+ * }</pre>
+ */
+public class DevServerPool implements Closeable {
+
+  private static final Logger logger = Logger.getLogger(DevServerPool.class.getName());
+
+  /**
+   * How the datastore of a server is reset between leases.
+   */
+  public enum DatastoreReset {
+    /** Keep the data, for tests that do not depend on it. */
+    NONE,
+    /**
+     * Clear the datastore stub through the API server, which takes milliseconds, and restart the
+     * server if that fails. Pools with a snapshot restart the server instead, to restore it.
+     */
+    CLEAR,
+    /** Restart the server with an empty storage path. */
+    RESTART
+  }
+
+  private static final String DEFAULT_HOST = "localhost";
+  private static final int CLEAR_TIMEOUT_MILLIS = 5000;
+
+  private final Supplier<CloudSdk.Builder> sdkBuilders;
+  private final RunConfiguration configuration;
+  private final int size;
+  private final DatastoreReset datastoreReset;
+  private final long startTimeoutMillis;
+  private final long stopTimeoutMillis;
+  private final Path storageDirectory;
+  @Nullable
+  private final DatastoreSnapshot snapshot;
+  private final List<Instance> instances = new ArrayList<>();
+  private final BlockingQueue<Instance> idle = new LinkedBlockingQueue<>();
+  private volatile boolean closed;
+
+  private DevServerPool(Builder builder) {
+    this.sdkBuilders = builder.sdkBuilders;
+    this.configuration = builder.configuration;
+    this.size = builder.size;
+    this.datastoreReset = builder.datastoreReset;
+    this.startTimeoutMillis = builder.startTimeoutMillis;
+    this.stopTimeoutMillis = builder.stopTimeoutMillis;
+    this.storageDirectory = builder.storageDirectory;
+    this.snapshot = builder.snapshot;
+  }
+
+  /**
+   * Returns a builder for a pool.
+   *
+   * @param sdkBuilders   supplies a new builder for the Cloud SDK running each server, which the
+   *                      pool configures to run asynchronously and to watch the server output
+   * @param configuration the application to run and the options of the servers, whose ports and
+   *                      storage path are replaced for each server
+   */
+  public static Builder builder(Supplier<CloudSdk.Builder> sdkBuilders,
+      RunConfiguration configuration) {
+    return new Builder(sdkBuilders, configuration);
+  }
+
+  /**
+   * Starts all servers in parallel, and waits for them to be ready.
+   *
+   * @throws AppEngineException if a server fails to start in time, in which case the servers that
+   *     did start are stopped
+   */
+  public synchronized void start() throws AppEngineException {
+    Preconditions.checkState(instances.isEmpty(), "The pool was already started");
+    Preconditions.checkState(!closed, "The pool is closed");
+    try {
+      Files.createDirectories(storageDirectory);
+    } catch (IOException e) {
+      throw new AppEngineException(e);
+    }
+    for (int i = 0; i < size; i++) {
+      instances.add(new Instance(storageDirectory.resolve("instance-" + i)));
+    }
+
+    ExecutorService starter = Executors.newFixedThreadPool(size);
+    List<Future<?>> starts = new ArrayList<>();
+    for (final Instance instance : instances) {
+      starts.add(starter.submit(new Runnable() {
+        @Override
+        public void run() {
+          instance.start();
+        }
+      }));
+    }
+    starter.shutdown();
+
+    // wait for every start, so that no server comes up after a failure stopped the others
+    Throwable failure = null;
+    for (Future<?> start : starts) {
+      try {
+        start.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failure = e;
+        break;
+      } catch (ExecutionException e) {
+        failure = failure == null ? e.getCause() : failure;
+      }
+    }
+    if (failure != null) {
+      close();
+      throw failure instanceof AppEngineException
+          ? (AppEngineException) failure : new AppEngineException(failure);
+    }
+    idle.addAll(instances);
+  }
+
+  /**
+   * Leases a server, waiting for one to be free.
+   */
+  public Lease lease() throws InterruptedException {
+    Preconditions.checkState(!closed, "The pool is closed");
+    return new Lease(idle.take());
+  }
+
+  /**
+   * Leases a server, waiting at most the given time for one to be free.
+   *
+   * @throws AppEngineException if no server became free in time
+   */
+  public Lease lease(long timeout, TimeUnit unit) throws InterruptedException {
+    Preconditions.checkState(!closed, "The pool is closed");
+    Instance instance = idle.poll(timeout, unit);
+    if (instance == null) {
+      throw new AppEngineException("No development server became free within "
+          + unit.toMillis(timeout) + " ms");
+    }
+    return new Lease(instance);
+  }
+
+  /**
+   * Returns the number of servers that are ready and not leased.
+   */
+  public int getIdleCount() {
+    return idle.size();
+  }
+
+  /**
+   * Stops all servers, including leased ones. Waits for the servers being restarted between leases
+   * to be up, and stops them too.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    idle.clear();
+    for (Instance instance : instances) {
+      instance.stop();
+    }
+  }
+
+  // returns the instance to the pool once its datastore is reset, or drops it if that fails
+  private void release(Instance instance) {
+    if (closed) {
+      return;
+    }
+    try {
+      switch (datastoreReset) {
+        case CLEAR:
+          if (snapshot != null || !instance.clearDatastore()) {
+            logger.info("Restarting " + instance + " because its datastore could not be cleared");
+            instance.restart();
+          }
+          break;
+        case RESTART:
+          instance.restart();
+          break;
+        default:
+          break;
+      }
+    } catch (AppEngineException e) {
+      logger.log(Level.WARNING, "Removing " + instance + " from the pool", e);
+      instance.stop();
+      return;
+    }
+    if (closed) {
+      // the pool was closed before the restart began, so close() found nothing to stop
+      instance.stop();
+      return;
+    }
+    idle.add(instance);
+  }
+
+  private static int freePort() {
+    try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      return socket.getLocalPort();
+    } catch (IOException e) {
+      throw new AppEngineException("Cannot allocate a free port", e);
+    }
+  }
+
+  /**
+   * A server leased from the pool. Closing the lease returns the server to the pool.
+   */
+  public class Lease implements Closeable {
+    private final Instance instance;
+    private boolean released;
+
+    private Lease(Instance instance) {
+      this.instance = instance;
+    }
+
+    public String getHost() {
+      return instance.host;
+    }
+
+    public int getPort() {
+      return instance.port;
+    }
+
+    public int getAdminPort() {
+      return instance.adminPort;
+    }
+
+    public int getApiPort() {
+      return instance.apiPort;
+    }
+
+    /**
+     * Returns the root URL of the application, such as {@code http://localhost:37651/}.
+     */
+    public String getUrl() {
+      return "http://" + instance.host + ":" + instance.port + "/";
+    }
+
+    /**
+     * Resets the datastore of the server as configured and returns it to the pool. Only the first
+     * call counts.
+     */
+    @Override
+    public synchronized void close() {
+      if (!released) {
+        released = true;
+        release(instance);
+      }
+    }
+  }
+
+  // one server, restarted in place with new ports; starting and stopping it are serialized, so that
+  // closing the pool waits for a restart in progress
+  private class Instance {
+    private final Path storagePath;
+    private final String host;
+    private volatile int port;
+    private volatile int adminPort;
+    private volatile int apiPort;
+    @Nullable
+    private volatile Process process;
+    @Nullable
+    private volatile CloudSdkAppEngineDevServer devServer;
+
+    Instance(Path storagePath) {
+      this.storagePath = storagePath;
+      this.host = Strings.isNullOrEmpty(configuration.getHost())
+          ? DEFAULT_HOST : configuration.getHost();
+    }
+
+    synchronized void start() {
+      port = freePort();
+      adminPort = freePort();
+      apiPort = freePort();
+      DevServerReadiness readiness = DevServerReadiness.builder().build();
+      CloudSdk sdk = sdkBuilders.get()
+          .async(true)
+          .devServerReadiness(readiness)
+          .startListener(new ProcessStartListener() {
+            @Override
+            public void onStart(Process process) {
+              Instance.this.process = process;
+            }
+          })
+          .build();
+      PooledRunConfiguration instanceConfiguration = new PooledRunConfiguration(configuration,
+          host, port, adminPort, apiPort, storagePath.toString());
+      try {
+        if (snapshot != null && !Files.exists(storagePath)) {
+          snapshot.cloneTo(storagePath);
+        } else {
+          Files.createDirectories(storagePath);
+        }
+        devServer = new CloudSdkAppEngineDevServer(sdk);
+        devServer.start(instanceConfiguration, readiness)
+            .get(startTimeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (IOException | ExecutionException | TimeoutException e) {
+        readiness.cancel();
+        stop();
+        throw new AppEngineException("Development server " + this + " failed to start", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        stop();
+        throw new AppEngineException(e);
+      }
+    }
+
+    synchronized void restart() {
+      stop();
+      try {
+        if (Files.exists(storagePath)) {
+          FileUtil.deleteRecursively(storagePath);
+        }
+      } catch (IOException e) {
+        throw new AppEngineException("Cannot delete " + storagePath, e);
+      }
+      start();
+    }
+
+    // asks the server to quit, and kills it if it does not in time
+    synchronized void stop() {
+      if (process == null) {
+        return;
+      }
+      process = null;
+      DefaultStopConfiguration stopConfiguration = new DefaultStopConfiguration();
+      stopConfiguration.setAdminHost(Strings.isNullOrEmpty(configuration.getAdminHost())
+          ? host : configuration.getAdminHost());
+      stopConfiguration.setAdminPort(adminPort);
+      try {
+        devServer.stop(stopConfiguration, stopTimeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (AppEngineException e) {
+        logger.warning("Cannot stop " + this + ": " + e.getMessage());
+      }
+    }
+
+    // clears the datastore stub through the API server
+    boolean clearDatastore() {
+      HttpURLConnection connection = null;
+      try {
+        URL clear = new URL("http", host, apiPort, "/clear?stub=datastore_v3");
+        connection = (HttpURLConnection) clear.openConnection();
+        connection.setConnectTimeout(CLEAR_TIMEOUT_MILLIS);
+        connection.setReadTimeout(CLEAR_TIMEOUT_MILLIS);
+        int responseCode = connection.getResponseCode();
+        return responseCode >= 200 && responseCode < 300;
+      } catch (IOException e) {
+        return false;
+      } finally {
+        if (connection != null) {
+          connection.disconnect();
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return host + ":" + port + " (" + storagePath.getFileName() + ")";
+    }
+  }
+
+  public static class Builder {
+    private final Supplier<CloudSdk.Builder> sdkBuilders;
+    private final RunConfiguration configuration;
+    private int size = 2;
+    private DatastoreReset datastoreReset = DatastoreReset.CLEAR;
+    private long startTimeoutMillis = TimeUnit.SECONDS.toMillis(60);
+    private long stopTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+    private Path storageDirectory;
+    @Nullable
+    private DatastoreSnapshot snapshot;
+
+    private Builder(Supplier<CloudSdk.Builder> sdkBuilders, RunConfiguration configuration) {
+      this.sdkBuilders = Preconditions.checkNotNull(sdkBuilders);
+      this.configuration = Preconditions.checkNotNull(configuration);
+    }
+
+    /**
+     * The number of servers, 2 by default.
+     */
+    public Builder size(int size) {
+      Preconditions.checkArgument(size > 0, "The pool size must be positive");
+      this.size = size;
+      return this;
+    }
+
+    /**
+     * How the datastore is reset between leases, {@link DatastoreReset#CLEAR} by default.
+     */
+    public Builder datastoreReset(DatastoreReset datastoreReset) {
+      this.datastoreReset = Preconditions.checkNotNull(datastoreReset);
+      return this;
+    }
+
+    /**
+     * How long a server may take to be ready, 60 seconds by default.
+     */
+    public Builder startTimeout(long timeout, TimeUnit unit) {
+      Preconditions.checkArgument(timeout > 0, "The start timeout must be positive");
+      this.startTimeoutMillis = unit.toMillis(timeout);
+      return this;
+    }
+
+    /**
+     * How long a server may take to quit before it is killed, 10 seconds by default.
+     */
+    public Builder stopTimeout(long timeout, TimeUnit unit) {
+      Preconditions.checkArgument(timeout >= 0, "The stop timeout must not be negative");
+      this.stopTimeoutMillis = unit.toMillis(timeout);
+      return this;
+    }
+
+    /**
+     * The directory holding the storage path of each server, a new temporary directory by
+     * default.
+     */
+    public Builder storageDirectory(Path storageDirectory) {
+      this.storageDirectory = Preconditions.checkNotNull(storageDirectory);
+      return this;
+    }
+
+    /**
+     * The data every server starts with, and is reset to between leases. None by default.
+     */
+    public Builder datastoreSnapshot(@Nullable DatastoreSnapshot snapshot) {
+      this.snapshot = snapshot;
+      return this;
+    }
+
+    /**
+     * Builds the pool, which starts no server until {@link DevServerPool#start}.
+     */
+    public DevServerPool build() {
+      if (storageDirectory == null) {
+        try {
+          storageDirectory = Files.createTempDirectory("devserver-pool");
+        } catch (IOException e) {
+          throw new AppEngineException(e);
+        }
+      }
+      return new DevServerPool(this);
+    }
+  }
+}
@@ -0,0 +1,546 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import com.google.cloud.tools.appengine.api.AppEngineException;
+import com.google.cloud.tools.appengine.api.devserver.RunConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessTree;
+import com.google.cloud.tools.appengine.cloudsdk.metrics.MetricKey;
+import com.google.cloud.tools.appengine.cloudsdk.metrics.MetricsRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Profiles the Java process that runs the application of a development server, without restarting
+ * it: Java Flight Recorder recordings are started and stopped on demand through {@code jcmd}, and
+ * garbage collection statistics are sampled periodically through {@code jstat}. Both tools come
+ * from the JDK of the server, which must be 8u40 or later for recordings without commercial
+ * features unlocked (11 or later on OpenJDK).
+ *
+ * <p>The Java process is found among the descendants of the server process, which needs Java 9 or
+ * later for the library; otherwise, or if the server runs several, its id must be given. To
+ * record from the start instead, pass {@link #startupRecordingFlags} as JVM flags of the server.
+ */
+public class DevServerProfiler implements Closeable {
+
+  public static final String HEAP_USED = "devserver_heap_used_bytes";
+  public static final String HEAP_CAPACITY = "devserver_heap_capacity_bytes";
+  public static final String GC_COLLECTIONS = "devserver_gc_collections_total";
+  public static final String GC_TIME = "devserver_gc_millis_total";
+
+  private static final Logger logger = Logger.getLogger(DevServerProfiler.class.getName());
+  private static final int MAX_OUTPUT_BYTES = 1 << 20;
+  private static final long TOOL_POLL_MILLIS = 10;
+  // after the tool exited, to read the rest of its output
+  private static final long OUTPUT_WAIT_MILLIS = 1000;
+  private static final boolean IS_WINDOWS =
+      System.getProperty("os.name").toLowerCase(Locale.ROOT).contains("windows");
+
+  @Nullable
+  private final Process devServer;
+  private volatile long pid;
+  private final Path javaHome;
+  private final long toolTimeoutMillis;
+  private final long sampleIntervalMillis;
+  private final int maxSamples;
+  @Nullable
+  private final MetricsRegistry registry;
+  private final Map<String, Path> recordings = new LinkedHashMap<>();
+  // guarded by itself
+  private final Deque<GcSample> samples = new ArrayDeque<>();
+  private ScheduledExecutorService sampler;
+
+  private DevServerProfiler(Builder builder) {
+    this.devServer = builder.devServer;
+    this.pid = builder.pid;
+    this.javaHome = builder.javaHome;
+    this.toolTimeoutMillis = builder.toolTimeoutMillis;
+    this.sampleIntervalMillis = builder.sampleIntervalMillis;
+    this.maxSamples = builder.maxSamples;
+    this.registry = builder.registry;
+  }
+
+  /**
+   * Returns a builder for the profiler of a server started asynchronously by {@link
+   * CloudSdkAppEngineDevServer} with a configuration. Tools come from the Java home of the
+   * configuration if set.
+   *
+   * @throws AppEngineException if no such server is running
+   */
+  public static Builder builder(RunConfiguration configuration) {
+    Process devServer = CloudSdkAppEngineDevServer.getProcess(configuration);
+    if (devServer == null) {
+      throw new AppEngineException("No running development server was started with this"
+          + " configuration");
+    }
+    Builder builder = new Builder(devServer, 0);
+    if (!Strings.isNullOrEmpty(configuration.getJavaHomeDir())) {
+      builder.javaHome(Paths.get(configuration.getJavaHomeDir()));
+    }
+    return builder;
+  }
+
+  /**
+   * Returns a builder for the profiler of the Java process under a server process.
+   */
+  public static Builder builder(Process devServer) {
+    return new Builder(Preconditions.checkNotNull(devServer), 0);
+  }
+
+  /**
+   * Returns a builder for the profiler of a Java process.
+   */
+  public static Builder builder(long pid) {
+    Preconditions.checkArgument(pid > 0, "Bad process id %s", pid);
+    return new Builder(null, pid);
+  }
+
+  /**
+   * Returns the JVM flags that make the application record from its start, and write the
+   * recording when it exits.
+   *
+   * @param file     where the recording is written
+   * @param settings the recording settings, such as {@code default} or {@code profile}
+   */
+  public static List<String> startupRecordingFlags(Path file, String settings) {
+    return ImmutableList.of("-XX:StartFlightRecording=name=startup,settings=" + settings
+        + ",dumponexit=true,filename=" + file.toAbsolutePath());
+  }
+
+  /**
+   * Returns the id of the Java process, finding it under the server process the first time.
+   *
+   * @throws AppEngineException if the server runs no Java process, or several
+   */
+  public long getPid() {
+    if (pid == 0) {
+      List<Long> pids = ProcessTree.of(devServer).getDescendantPids("java");
+      if (pids.size() != 1) {
+        throw new AppEngineException("Expected one Java process under the development server,"
+            + " found " + pids.size() + (pids.isEmpty() ? "" : ": " + pids));
+      }
+      pid = pids.get(0);
+    }
+    return pid;
+  }
+
+  /**
+   * Starts a flight recording.
+   *
+   * @param name     the name of the recording, to stop it by
+   * @param file     where the recording is written when it stops
+   * @param settings the recording settings, such as {@code default} or {@code profile}
+   */
+  public synchronized void startRecording(String name, Path file, String settings) {
+    Preconditions.checkArgument(name.matches("[\\w.-]+"), "Bad recording name %s", name);
+    Preconditions.checkState(!recordings.containsKey(name), "Recording %s already started", name);
+    jcmd("JFR.start", "name=" + name, "settings=" + settings);
+    recordings.put(name, file.toAbsolutePath());
+  }
+
+  /**
+   * Stops a flight recording, and writes it.
+   *
+   * @return the file the recording was written to
+   */
+  public synchronized Path stopRecording(String name) {
+    Path file = recordings.remove(name);
+    Preconditions.checkArgument(file != null, "No recording %s", name);
+    jcmd("JFR.stop", "name=" + name, "filename=" + file);
+    return file;
+  }
+
+  /**
+   * Starts sampling garbage collection statistics, at the interval of the builder.
+   */
+  public synchronized void startSampling() {
+    Preconditions.checkState(sampler == null, "Already sampling");
+    getPid();
+    sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "devserver-gc-sampler");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    sampler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          sample();
+        } catch (AppEngineException e) {
+          logger.log(Level.FINE, "Cannot sample the garbage collection", e);
+        }
+      }
+    }, 0, sampleIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Takes a sample of the garbage collection statistics now.
+   */
+  public GcSample sample() {
+    String output = runTool("jstat", "-gc", String.valueOf(getPid()));
+    GcSample sample = GcSample.parse(output);
+    synchronized (samples) {
+      samples.add(sample);
+      while (samples.size() > maxSamples) {
+        samples.poll();
+      }
+    }
+    if (registry != null) {
+      registry.gauge(MetricKey.of(HEAP_USED)).set(sample.getHeapUsedBytes());
+      registry.gauge(MetricKey.of(HEAP_CAPACITY)).set(sample.getHeapCapacityBytes());
+      registry.counter(MetricKey.of(GC_COLLECTIONS, "kind", "young"))
+          .set(sample.getYoungCollections());
+      registry.counter(MetricKey.of(GC_COLLECTIONS, "kind", "full"))
+          .set(sample.getFullCollections());
+      registry.counter(MetricKey.of(GC_TIME)).set(sample.getGcTimeMillis());
+    }
+    return sample;
+  }
+
+  /**
+   * Returns the samples taken, oldest first, up to the most kept.
+   */
+  public List<GcSample> getSamples() {
+    synchronized (samples) {
+      return new ArrayList<>(samples);
+    }
+  }
+
+  /**
+   * Returns the last sample taken, or null.
+   */
+  @Nullable
+  public GcSample getLatestSample() {
+    synchronized (samples) {
+      return samples.peekLast();
+    }
+  }
+
+  /**
+   * Stops sampling. Recordings still running are left running.
+   */
+  @Override
+  public synchronized void close() {
+    if (sampler != null) {
+      sampler.shutdownNow();
+      sampler = null;
+    }
+  }
+
+  private void jcmd(String command, String... arguments) {
+    List<String> allArguments = new ArrayList<>();
+    allArguments.add(String.valueOf(getPid()));
+    allArguments.add(command);
+    allArguments.addAll(ImmutableList.copyOf(arguments));
+    runTool("jcmd", allArguments.toArray(new String[allArguments.size()]));
+  }
+
+  // runs a JDK tool, and returns its output
+  private String runTool(String tool, String... arguments) {
+    Path executable = javaHome.resolve("bin").resolve(IS_WINDOWS ? tool + ".exe" : tool);
+    List<String> command = new ArrayList<>();
+    command.add(executable.toString());
+    command.addAll(ImmutableList.copyOf(arguments));
+    Process process;
+    try {
+      process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    } catch (IOException e) {
+      throw new AppEngineException("Cannot run " + executable, e);
+    }
+    OutputReader output = new OutputReader(process.getInputStream());
+    output.start();
+    try {
+      long deadline = System.currentTimeMillis() + toolTimeoutMillis;
+      while (ProcessTree.isAlive(process) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(TOOL_POLL_MILLIS);
+      }
+      if (ProcessTree.isAlive(process)) {
+        throw new AppEngineException(Joiner.on(' ').join(command) + " did not finish within "
+            + toolTimeoutMillis + " ms");
+      }
+      output.join(OUTPUT_WAIT_MILLIS);
+      int exitCode = process.exitValue();
+      if (exitCode != 0) {
+        throw new AppEngineException(Joiner.on(' ').join(command) + " failed with exit code "
+            + exitCode + ": " + output.getOutput().trim());
+      }
+      return output.getOutput();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AppEngineException(e);
+    } finally {
+      // only does something if the tool is still running, which also ends the reader
+      process.destroy();
+    }
+  }
+
+  /**
+   * Reads the output of a tool, keeping at most its first megabyte.
+   */
+  private static class OutputReader extends Thread {
+    private final InputStream in;
+    // guarded by itself
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    OutputReader(InputStream in) {
+      super("devserver-profiler-output");
+      this.in = in;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      byte[] buffer = new byte[8192];
+      try (InputStream stream = in) {
+        for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+          synchronized (output) {
+            output.write(buffer, 0, Math.max(0, Math.min(read, MAX_OUTPUT_BYTES - output.size())));
+          }
+        }
+      } catch (IOException e) {
+        // the tool was destroyed
+      }
+    }
+
+    String getOutput() {
+      synchronized (output) {
+        return new String(output.toByteArray(), Charsets.UTF_8);
+      }
+    }
+  }
+
+  /**
+   * Garbage collection statistics of the Java process at one point.
+   */
+  public static class GcSample {
+    private final long timeMillis;
+    private final Map<String, Double> values;
+
+    private GcSample(long timeMillis, Map<String, Double> values) {
+      this.timeMillis = timeMillis;
+      this.values = values;
+    }
+
+    /**
+     * Parses the output of {@code jstat -gc}: a header line of column names, and a line of
+     * values, in kilobytes for capacities and usages and in seconds for times.
+     */
+    static GcSample parse(String output) {
+      String[] lines = output.trim().split("\\r?\\n");
+      if (lines.length < 2) {
+        throw new AppEngineException("Unexpected jstat output: " + output);
+      }
+      String[] names = lines[0].trim().split("\\s+");
+      String[] numbers = lines[lines.length - 1].trim().split("\\s+");
+      if (names.length != numbers.length) {
+        throw new AppEngineException("Unexpected jstat output: " + output);
+      }
+      ImmutableMap.Builder<String, Double> values = ImmutableMap.builder();
+      for (int i = 0; i < names.length; i++) {
+        try {
+          values.put(names[i], Double.parseDouble(numbers[i]));
+        } catch (NumberFormatException e) {
+          // "-" for collectors the JVM does not use
+          values.put(names[i], 0.0);
+        }
+      }
+      return new GcSample(System.currentTimeMillis(), values.build());
+    }
+
+    /**
+     * Returns when the sample was taken, in milliseconds since the epoch.
+     */
+    public long getTimeMillis() {
+      return timeMillis;
+    }
+
+    /**
+     * Returns the bytes used in the survivor, eden and old spaces.
+     */
+    public long getHeapUsedBytes() {
+      return kilobytes("S0U", "S1U", "EU", "OU");
+    }
+
+    /**
+     * Returns the bytes committed to the survivor, eden and old spaces.
+     */
+    public long getHeapCapacityBytes() {
+      return kilobytes("S0C", "S1C", "EC", "OC");
+    }
+
+    public long getMetaspaceUsedBytes() {
+      return kilobytes("MU");
+    }
+
+    public long getYoungCollections() {
+      return (long) value("YGC");
+    }
+
+    /**
+     * Returns the number of full collections, including the concurrent cycles of collectors such
+     * as G1.
+     */
+    public long getFullCollections() {
+      return (long) (value("FGC") + value("CGC"));
+    }
+
+    /**
+     * Returns the total time spent collecting garbage.
+     */
+    public long getGcTimeMillis() {
+      return Math.round(value("GCT") * 1000);
+    }
+
+    /**
+     * Returns all the columns of {@code jstat -gc}, by name.
+     */
+    public Map<String, Double> getValues() {
+      return values;
+    }
+
+    private double value(String name) {
+      Double value = values.get(name);
+      return value == null ? 0 : value;
+    }
+
+    private long kilobytes(String... names) {
+      double total = 0;
+      for (String name : names) {
+        total += value(name);
+      }
+      return Math.round(total * 1024);
+    }
+
+    @Override
+    public String toString() {
+      return "heap " + getHeapUsedBytes() / 1024 + "K/" + getHeapCapacityBytes() / 1024 + "K, "
+          + getYoungCollections() + " young and " + getFullCollections() + " full collections in "
+          + getGcTimeMillis() + " ms";
+    }
+  }
+
+  public static class Builder {
+    @Nullable
+    private final Process devServer;
+    private final long pid;
+    private Path javaHome = defaultJavaHome();
+    private long toolTimeoutMillis = TimeUnit.SECONDS.toMillis(60);
+    private long sampleIntervalMillis = TimeUnit.SECONDS.toMillis(5);
+    private int maxSamples = 720;
+    @Nullable
+    private MetricsRegistry registry;
+
+    private Builder(@Nullable Process devServer, long pid) {
+      this.devServer = devServer;
+      this.pid = pid;
+    }
+
+    /**
+     * The JDK whose {@code jcmd} and {@code jstat} are used, the one running the library by
+     * default.
+     */
+    public Builder javaHome(Path javaHome) {
+      this.javaHome = Preconditions.checkNotNull(javaHome);
+      return this;
+    }
+
+    /**
+     * How long {@code jcmd} and {@code jstat} may run before they are killed and the call fails,
+     * 60 seconds by default.
+     */
+    public Builder toolTimeout(long timeout, TimeUnit unit) {
+      Preconditions.checkArgument(timeout > 0, "The tool timeout must be positive");
+      this.toolTimeoutMillis = unit.toMillis(timeout);
+      return this;
+    }
+
+    /**
+     * How often to sample garbage collection statistics once sampling started, every 5 seconds by
+     * default.
+     */
+    public Builder sampleInterval(long interval, TimeUnit unit) {
+      Preconditions.checkArgument(interval > 0, "The sample interval must be positive");
+      this.sampleIntervalMillis = unit.toMillis(interval);
+      return this;
+    }
+
+    /**
+     * How many samples to keep, the most recent ones; 720 by default, an hour of samples 5 seconds
+     * apart.
+     */
+    public Builder maxSamples(int maxSamples) {
+      Preconditions.checkArgument(maxSamples > 0, "The samples kept must be positive");
+      this.maxSamples = maxSamples;
+      return this;
+    }
+
+    /**
+     * Where the latest sample is recorded, as gauges {@code devserver_heap_used_bytes} and
+     * {@code devserver_heap_capacity_bytes}, and counters {@code devserver_gc_collections_total},
+     * labelled with the {@code kind}, and {@code devserver_gc_millis_total}. None by default.
+     */
+    public Builder metrics(@Nullable MetricsRegistry registry) {
+      this.registry = registry;
+      return this;
+    }
+
+    public DevServerProfiler build() {
+      return new DevServerProfiler(this);
+    }
+
+    // java.home is the JRE inside the JDK before Java 9
+    private static Path defaultJavaHome() {
+      Path home = Paths.get(System.getProperty("java.home"));
+      if (home.getFileName() != null && home.getFileName().toString().equals("jre")
+          && Files.isDirectory(home.getParent().resolve("bin"))) {
+        return home.getParent();
+      }
+      return home;
+    }
+  }
+}
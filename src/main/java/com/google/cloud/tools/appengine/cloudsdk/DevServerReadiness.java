@@ -0,0 +1,365 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import com.google.cloud.tools.appengine.api.devserver.RunConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRunnerException;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessTree;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessExitListener;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessOutputLineListener;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * Detects when a development server started by {@link CloudSdkAppEngineDevServer#start} is ready,
+ * from whichever configured signal comes first: a line of its log matching a precompiled pattern,
+ * its port or admin port accepting connections, or an HTTP health path answering with a success.
+ *
+ * <p>Log lines only reach this object if it is registered as an output and exit listener of the
+ * {@link CloudSdk}, with {@link CloudSdk.Builder#devServerReadiness}; the other signals are probed
+ * on a background thread. Once the server is ready, probing stops and log lines are ignored, so
+ * a long-running server pays nothing for its readiness check.
+ */
+public class DevServerReadiness implements ProcessOutputLineListener, ProcessExitListener {
+
+  /**
+   * What showed that a development server was ready.
+   */
+  public enum Signal {
+    LOG_MESSAGE, PORT, ADMIN_PORT, HEALTH_CHECK
+  }
+
+  /**
+   * The log messages of the Python and Java development servers once they serve requests.
+   */
+  public static final Pattern DEFAULT_LOG_PATTERN =
+      Pattern.compile("Dev App Server is now running|INFO:oejs\\.Server:main: Started");
+
+  private static final String DEFAULT_HOST = "localhost";
+  private static final int DEFAULT_PORT = 8080;
+  private static final int DEFAULT_ADMIN_PORT = 8000;
+  private static final long DEFAULT_PROBE_INTERVAL_MILLIS = 250;
+  private static final int PROBE_TIMEOUT_MILLIS = 1000;
+  private static final ScheduledThreadPoolExecutor prober = newProber();
+
+  @Nullable
+  private final Pattern logPattern;
+  private final boolean probePort;
+  private final boolean probeAdminPort;
+  @Nullable
+  private final String healthCheckPath;
+  private final long probeIntervalMillis;
+  @Nullable
+  private volatile Attempt attempt;
+
+  private DevServerReadiness(Builder builder) {
+    this.logPattern = builder.logPattern;
+    this.probePort = builder.probePort;
+    this.probeAdminPort = builder.probeAdminPort;
+    this.healthCheckPath = builder.healthCheckPath;
+    this.probeIntervalMillis = builder.probeIntervalMillis;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Starts watching for the readiness of a server about to be run with a configuration, and stops
+   * watching for the previous one.
+   *
+   * @return a future that completes with the first signal of readiness, or fails if the server
+   *     exits first
+   */
+  public ListenableFuture<Signal> arm(RunConfiguration config) {
+    return arm(config, false);
+  }
+
+  /**
+   * Starts watching as {@link #arm(RunConfiguration)}. With {@code ownProcess}, exits are ignored
+   * until the process of the server is given to {@link #watch}, and then only its exit counts.
+   */
+  ListenableFuture<Signal> arm(RunConfiguration config, boolean ownProcess) {
+    Preconditions.checkNotNull(config);
+    cancel();
+
+    String host = probedHost(config.getHost());
+    int port = config.getPort() == null ? DEFAULT_PORT : config.getPort();
+    InetSocketAddress adminAddress = new InetSocketAddress(probedHost(config.getAdminHost()),
+        config.getAdminPort() == null ? DEFAULT_ADMIN_PORT : config.getAdminPort());
+    URL healthCheck = null;
+    if (healthCheckPath != null) {
+      try {
+        healthCheck = new URL("http", host, port, healthCheckPath);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Invalid health check path: " + healthCheckPath, e);
+      }
+    }
+
+    final Attempt current =
+        new Attempt(new InetSocketAddress(host, port), adminAddress, healthCheck);
+    current.ownProcess = ownProcess;
+    attempt = current;
+    if (probePort || probeAdminPort || healthCheck != null) {
+      current.probes = prober.scheduleWithFixedDelay(current, 0, probeIntervalMillis,
+          TimeUnit.MILLISECONDS);
+      current.future.addListener(new Runnable() {
+        @Override
+        public void run() {
+          current.probes.cancel(false);
+        }
+      }, MoreExecutors.sameThreadExecutor());
+    }
+    return current.future;
+  }
+
+  /**
+   * Gives the process of the server the latest {@link #arm} watches for, failing the future if it
+   * already exited. Without a process, any exit fails it.
+   */
+  void watch(@Nullable Process process) {
+    Attempt current = attempt;
+    if (current == null) {
+      return;
+    }
+    if (process == null) {
+      current.ownProcess = false;
+      return;
+    }
+    current.process = process;
+    if (!ProcessTree.isAlive(process)) {
+      current.exited(process.exitValue());
+    }
+  }
+
+  /**
+   * Returns the future of the latest {@link #arm}, or null if it was never armed.
+   */
+  @Nullable
+  public ListenableFuture<Signal> getFuture() {
+    Attempt current = attempt;
+    return current == null ? null : current.future;
+  }
+
+  /**
+   * Stops watching, cancelling the future if it is not complete yet.
+   */
+  public void cancel() {
+    Attempt current = attempt;
+    if (current != null) {
+      current.future.cancel(false);
+    }
+  }
+
+  @Override
+  public void onOutputLine(String line) {
+    Attempt current = attempt;
+    if (current != null && logPattern != null && !current.future.isDone()
+        && logPattern.matcher(line).find()) {
+      current.future.set(Signal.LOG_MESSAGE);
+    }
+  }
+
+  @Override
+  public void onExit(int exitCode) {
+    Attempt current = attempt;
+    if (current == null) {
+      return;
+    }
+    if (!current.ownProcess) {
+      current.exited(exitCode);
+      return;
+    }
+    // the listener hears every process of the Cloud SDK, only the server's own exit counts
+    Process process = current.process;
+    if (process != null && !ProcessTree.isAlive(process)) {
+      current.exited(process.exitValue());
+    }
+  }
+
+  // the servers listen on all interfaces for an empty or wildcard host, including loopback
+  private static String probedHost(@Nullable String host) {
+    if (Strings.isNullOrEmpty(host) || host.equals("0.0.0.0") || host.equals("::")) {
+      return DEFAULT_HOST;
+    }
+    return host;
+  }
+
+  private static boolean accepts(InetSocketAddress address) {
+    try (Socket socket = new Socket()) {
+      socket.connect(address, PROBE_TIMEOUT_MILLIS);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static boolean isHealthy(URL healthCheck) {
+    HttpURLConnection connection = null;
+    try {
+      connection = (HttpURLConnection) healthCheck.openConnection();
+      connection.setConnectTimeout(PROBE_TIMEOUT_MILLIS);
+      connection.setReadTimeout(PROBE_TIMEOUT_MILLIS);
+      int responseCode = connection.getResponseCode();
+      return responseCode >= 200 && responseCode < 300;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+
+  private static ScheduledThreadPoolExecutor newProber() {
+    ScheduledThreadPoolExecutor prober = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "devserver-readiness");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    prober.setRemoveOnCancelPolicy(true);
+    return prober;
+  }
+
+  // the watch of one run of a server, which probes its signals until one fires
+  private class Attempt implements Runnable {
+    private final SettableFuture<Signal> future = SettableFuture.create();
+    private final InetSocketAddress address;
+    private final InetSocketAddress adminAddress;
+    @Nullable
+    private final URL healthCheck;
+    private volatile ScheduledFuture<?> probes;
+    // whether only the exit of the process of the server counts, once it is known
+    private volatile boolean ownProcess;
+    @Nullable
+    private volatile Process process;
+
+    Attempt(InetSocketAddress address, InetSocketAddress adminAddress, @Nullable URL healthCheck) {
+      this.address = address;
+      this.adminAddress = adminAddress;
+      this.healthCheck = healthCheck;
+    }
+
+    void exited(int exitCode) {
+      future.setException(new ProcessRunnerException(
+          "The development server exited with code " + exitCode + " before it was ready"));
+    }
+
+    @Override
+    public void run() {
+      if (!future.isDone() && probePort && accepts(address)) {
+        future.set(Signal.PORT);
+      }
+      if (!future.isDone() && probeAdminPort && accepts(adminAddress)) {
+        future.set(Signal.ADMIN_PORT);
+      }
+      if (!future.isDone() && healthCheck != null && isHealthy(healthCheck)) {
+        future.set(Signal.HEALTH_CHECK);
+      }
+    }
+  }
+
+  public static class Builder {
+    @Nullable
+    private Pattern logPattern = DEFAULT_LOG_PATTERN;
+    private boolean probePort = true;
+    private boolean probeAdminPort;
+    @Nullable
+    private String healthCheckPath;
+    private long probeIntervalMillis = DEFAULT_PROBE_INTERVAL_MILLIS;
+
+    private Builder() {
+    }
+
+    /**
+     * The pattern found in a log line once the server is ready, {@link #DEFAULT_LOG_PATTERN} by
+     * default. Null ignores the log.
+     */
+    public Builder logPattern(@Nullable Pattern logPattern) {
+      this.logPattern = logPattern;
+      return this;
+    }
+
+    /**
+     * Whether the server is ready once its port accepts connections, true by default.
+     */
+    public Builder probePort(boolean probePort) {
+      this.probePort = probePort;
+      return this;
+    }
+
+    /**
+     * Whether the server is ready once its admin port accepts connections, false by default.
+     */
+    public Builder probeAdminPort(boolean probeAdminPort) {
+      this.probeAdminPort = probeAdminPort;
+      return this;
+    }
+
+    /**
+     * A path of the application, such as {@code /_ah/health}, that answers with a 2xx status once
+     * the server is ready. None by default.
+     */
+    public Builder healthCheckPath(@Nullable String healthCheckPath) {
+      Preconditions.checkArgument(healthCheckPath == null || healthCheckPath.startsWith("/"),
+          "The health check path must start with /");
+      this.healthCheckPath = healthCheckPath;
+      return this;
+    }
+
+    /**
+     * How often the ports and health path are probed, every 250 ms by default.
+     */
+    public Builder probeInterval(long interval, TimeUnit unit) {
+      Preconditions.checkArgument(interval > 0, "The probe interval must be positive");
+      this.probeIntervalMillis = Math.max(1, unit.toMillis(interval));
+      return this;
+    }
+
+    /**
+     * Builds the readiness check.
+     *
+     * @throws IllegalStateException if no signal is configured
+     */
+    public DevServerReadiness build() {
+      Preconditions.checkState(
+          logPattern != null || probePort || probeAdminPort || healthCheckPath != null,
+          "No readiness signal is configured");
+      return new DevServerReadiness(this);
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import com.google.cloud.tools.appengine.api.devserver.RunConfiguration;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * A {@link RunConfiguration} with more JVM flags after those of another configuration.
+ */
+class JvmFlagsRunConfiguration implements RunConfiguration {
+
+  private final RunConfiguration configuration;
+  private final List<String> jvmFlags;
+
+  JvmFlagsRunConfiguration(RunConfiguration configuration, List<String> extraJvmFlags) {
+    this.configuration = configuration;
+    ImmutableList.Builder<String> jvmFlags = ImmutableList.builder();
+    if (configuration.getJvmFlags() != null) {
+      jvmFlags.addAll(configuration.getJvmFlags());
+    }
+    this.jvmFlags = jvmFlags.addAll(extraJvmFlags).build();
+  }
+
+  @Override
+  public List<File> getAppYamls() {
+    return configuration.getAppYamls();
+  }
+
+  @Override
+  public String getHost() {
+    return configuration.getHost();
+  }
+
+  @Override
+  public Integer getPort() {
+    return configuration.getPort();
+  }
+
+  @Override
+  public String getAdminHost() {
+    return configuration.getAdminHost();
+  }
+
+  @Override
+  public Integer getAdminPort() {
+    return configuration.getAdminPort();
+  }
+
+  @Override
+  public String getAuthDomain() {
+    return configuration.getAuthDomain();
+  }
+
+  @Override
+  public String getStoragePath() {
+    return configuration.getStoragePath();
+  }
+
+  @Override
+  public String getLogLevel() {
+    return configuration.getLogLevel();
+  }
+
+  @Override
+  public Integer getMaxModuleInstances() {
+    return configuration.getMaxModuleInstances();
+  }
+
+  @Override
+  public Boolean getUseMtimeFileWatcher() {
+    return configuration.getUseMtimeFileWatcher();
+  }
+
+  @Override
+  public String getThreadsafeOverride() {
+    return configuration.getThreadsafeOverride();
+  }
+
+  @Override
+  public String getPythonStartupScript() {
+    return configuration.getPythonStartupScript();
+  }
+
+  @Override
+  public String getPythonStartupArgs() {
+    return configuration.getPythonStartupArgs();
+  }
+
+  @Override
+  public List<String> getJvmFlags() {
+    return jvmFlags;
+  }
+
+  @Override
+  public String getCustomEntrypoint() {
+    return configuration.getCustomEntrypoint();
+  }
+
+  @Override
+  public String getRuntime() {
+    return configuration.getRuntime();
+  }
+
+  @Override
+  public Boolean getAllowSkippedFiles() {
+    return configuration.getAllowSkippedFiles();
+  }
+
+  @Override
+  public Integer getApiPort() {
+    return configuration.getApiPort();
+  }
+
+  @Override
+  public Boolean getAutomaticRestart() {
+    return configuration.getAutomaticRestart();
+  }
+
+  @Override
+  public String getDevAppserverLogLevel() {
+    return configuration.getDevAppserverLogLevel();
+  }
+
+  @Override
+  public Boolean getSkipSdkUpdateCheck() {
+    return configuration.getSkipSdkUpdateCheck();
+  }
+
+  @Override
+  public String getDefaultGcsBucketName() {
+    return configuration.getDefaultGcsBucketName();
+  }
+
+  @Override
+  public String getJavaHomeDir() {
+    return configuration.getJavaHomeDir();
+  }
+}
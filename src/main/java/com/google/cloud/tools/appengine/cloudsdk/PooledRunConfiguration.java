@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import com.google.cloud.tools.appengine.api.devserver.RunConfiguration;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * A {@link RunConfiguration} of a server of a {@link DevServerPool}: the pool configuration with
+ * the host, ports and storage path of the server.
+ */
+class PooledRunConfiguration implements RunConfiguration {
+
+  private final RunConfiguration configuration;
+  private final String host;
+  private final int port;
+  private final int adminPort;
+  private final int apiPort;
+  private final String storagePath;
+
+  PooledRunConfiguration(RunConfiguration configuration, String host, int port, int adminPort,
+      int apiPort, String storagePath) {
+    this.configuration = configuration;
+    this.host = host;
+    this.port = port;
+    this.adminPort = adminPort;
+    this.apiPort = apiPort;
+    this.storagePath = storagePath;
+  }
+
+  @Override
+  public List<File> getAppYamls() {
+    return configuration.getAppYamls();
+  }
+
+  @Override
+  public String getHost() {
+    return host;
+  }
+
+  @Override
+  public Integer getPort() {
+    return port;
+  }
+
+  @Override
+  public String getAdminHost() {
+    return configuration.getAdminHost();
+  }
+
+  @Override
+  public Integer getAdminPort() {
+    return adminPort;
+  }
+
+  @Override
+  public String getAuthDomain() {
+    return configuration.getAuthDomain();
+  }
+
+  @Override
+  public String getStoragePath() {
+    return storagePath;
+  }
+
+  @Override
+  public String getLogLevel() {
+    return configuration.getLogLevel();
+  }
+
+  @Override
+  public Integer getMaxModuleInstances() {
+    return configuration.getMaxModuleInstances();
+  }
+
+  @Override
+  public Boolean getUseMtimeFileWatcher() {
+    return configuration.getUseMtimeFileWatcher();
+  }
+
+  @Override
+  public String getThreadsafeOverride() {
+    return configuration.getThreadsafeOverride();
+  }
+
+  @Override
+  public String getPythonStartupScript() {
+    return configuration.getPythonStartupScript();
+  }
+
+  @Override
+  public String getPythonStartupArgs() {
+    return configuration.getPythonStartupArgs();
+  }
+
+  @Override
+  public List<String> getJvmFlags() {
+    return configuration.getJvmFlags();
+  }
+
+  @Override
+  public String getCustomEntrypoint() {
+    return configuration.getCustomEntrypoint();
+  }
+
+  @Override
+  public String getRuntime() {
+    return configuration.getRuntime();
+  }
+
+  @Override
+  public Boolean getAllowSkippedFiles() {
+    return configuration.getAllowSkippedFiles();
+  }
+
+  @Override
+  public Integer getApiPort() {
+    return apiPort;
+  }
+
+  @Override
+  public Boolean getAutomaticRestart() {
+    return configuration.getAutomaticRestart();
+  }
+
+  @Override
+  public String getDevAppserverLogLevel() {
+    return configuration.getDevAppserverLogLevel();
+  }
+
+  @Override
+  public Boolean getSkipSdkUpdateCheck() {
+    return configuration.getSkipSdkUpdateCheck();
+  }
+
+  @Override
+  public String getDefaultGcsBucketName() {
+    return configuration.getDefaultGcsBucketName();
+  }
+
+  @Override
+  public String getJavaHomeDir() {
+    return configuration.getJavaHomeDir();
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import com.google.cloud.tools.appengine.api.AppEngineException;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Staging post-pass that replaces byte-identical files found across several staging directories
+ * (for example the output of {@link CloudSdkAppEngineStandardStaging} or
+ * {@link CloudSdkAppEngineFlexibleStaging} for multiple services) with hard links to a single
+ * copy.
+ *
+ * <p>Only files of equal size are hashed, and hashing is done in parallel. Files that cannot be
+ * linked (for example because they live on different file stores) are left untouched.
+ */
+public class StagingDeduplicator {
+
+  private static final Logger logger = Logger.getLogger(StagingDeduplicator.class.getName());
+  private static final String TEMPORARY_LINK_SUFFIX = ".dedup-tmp";
+
+  private final int threads;
+
+  public StagingDeduplicator() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a deduplicator that hashes files with the given parallelism.
+   *
+   * @param threads number of threads used to hash candidate files.
+   */
+  public StagingDeduplicator(int threads) {
+    Preconditions.checkArgument(threads > 0, "threads must be > 0");
+    this.threads = threads;
+  }
+
+  /**
+   * Hard links identical regular files found under the provided staging directories.
+   *
+   * @param stagingDirectories existing directories to deduplicate across
+   * @return a summary of the files linked and the bytes saved
+   * @throws AppEngineException when the directories cannot be read or a file cannot be replaced
+   */
+  public Result deduplicate(Collection<Path> stagingDirectories) throws AppEngineException {
+    Preconditions.checkNotNull(stagingDirectories);
+    for (Path directory : stagingDirectories) {
+      Preconditions.checkArgument(Files.isDirectory(directory),
+          directory + " is not a directory");
+    }
+
+    try {
+      ListMultimap<Long, Path> filesBySize = ArrayListMultimap.create();
+      for (Path directory : stagingDirectories) {
+        collectFiles(directory, filesBySize);
+      }
+
+      ListMultimap<HashCode, Path> filesByHash = hashCandidates(filesBySize);
+
+      int linkedFiles = 0;
+      long savedBytes = 0;
+      for (HashCode hash : filesByHash.keySet()) {
+        List<Path> duplicates = filesByHash.get(hash);
+        Path original = duplicates.get(0);
+        Object originalKey = Files.readAttributes(original, BasicFileAttributes.class).fileKey();
+        long size = Files.size(original);
+        // the space of a file is only saved once all of its links point to the original
+        Set<Object> savedKeys = new HashSet<>();
+        for (Path duplicate : duplicates.subList(1, duplicates.size())) {
+          Object duplicateKey =
+              Files.readAttributes(duplicate, BasicFileAttributes.class).fileKey();
+          if (originalKey != null && originalKey.equals(duplicateKey)) {
+            // already linked, most likely by a previous run
+            continue;
+          }
+          if (replaceWithLink(duplicate, original)) {
+            linkedFiles++;
+            if (duplicateKey == null || savedKeys.add(duplicateKey)) {
+              savedBytes += size;
+            }
+          }
+        }
+      }
+      return new Result(linkedFiles, savedBytes);
+
+    } catch (IOException e) {
+      throw new AppEngineException(e);
+    }
+  }
+
+  private static void collectFiles(Path directory, final ListMultimap<Long, Path> filesBySize)
+      throws IOException {
+    Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        // empty files don't take up any space worth saving, and temporary links left by an
+        // interrupted run are replaced when their file is linked again
+        if (attrs.isRegularFile() && attrs.size() > 0
+            && !file.getFileName().toString().endsWith(TEMPORARY_LINK_SUFFIX)) {
+          filesBySize.put(attrs.size(), file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  // Hashes every file that shares its size with at least one other file, returning only hashes
+  // that are shared by more than one file. Within a hash group, files keep their discovery order so
+  // that the file kept is the one from the first staging directory.
+  private ListMultimap<HashCode, Path> hashCandidates(ListMultimap<Long, Path> filesBySize)
+      throws IOException {
+    List<Path> candidates = new ArrayList<>();
+    for (Long size : filesBySize.keySet()) {
+      List<Path> sameSize = filesBySize.get(size);
+      if (sameSize.size() > 1) {
+        candidates.addAll(sameSize);
+      }
+    }
+    if (candidates.isEmpty()) {
+      return ArrayListMultimap.create();
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, candidates.size()));
+    try {
+      Map<Path, Future<HashCode>> hashes = new LinkedHashMap<>();
+      for (final Path candidate : candidates) {
+        hashes.put(candidate, executor.submit(new Callable<HashCode>() {
+          @Override
+          public HashCode call() throws IOException {
+            return com.google.common.io.Files.hash(candidate.toFile(), Hashing.sha256());
+          }
+        }));
+      }
+
+      ListMultimap<HashCode, Path> filesByHash = ArrayListMultimap.create();
+      for (Map.Entry<Path, Future<HashCode>> entry : hashes.entrySet()) {
+        filesByHash.put(entry.getValue().get(), entry.getKey());
+      }
+
+      Set<HashCode> unique = new HashSet<>();
+      for (HashCode hash : filesByHash.keySet()) {
+        if (filesByHash.get(hash).size() < 2) {
+          unique.add(hash);
+        }
+      }
+      for (HashCode hash : unique) {
+        filesByHash.removeAll(hash);
+      }
+      return filesByHash;
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while hashing staged files", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new AppEngineException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  // Links through a temporary file in the same directory, so the duplicate is never missing if
+  // linking fails half way.
+  private static boolean replaceWithLink(Path duplicate, Path original) throws IOException {
+    Path temporaryLink =
+        duplicate.resolveSibling(duplicate.getFileName() + TEMPORARY_LINK_SUFFIX);
+    try {
+      // left behind by an interrupted run
+      Files.deleteIfExists(temporaryLink);
+      Files.createLink(temporaryLink, original);
+    } catch (UnsupportedOperationException | FileSystemException e) {
+      logger.fine("cannot link " + duplicate + " to " + original + ": " + e.getMessage());
+      Files.deleteIfExists(temporaryLink);
+      return false;
+    }
+    Files.move(temporaryLink, duplicate, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    return true;
+  }
+
+  /**
+   * Outcome of {@link StagingDeduplicator#deduplicate(Collection)}.
+   */
+  public static class Result {
+    private final int linkedFiles;
+    private final long savedBytes;
+
+    Result(int linkedFiles, long savedBytes) {
+      this.linkedFiles = linkedFiles;
+      this.savedBytes = savedBytes;
+    }
+
+    /**
+     * Number of files that were replaced with a hard link.
+     */
+    public int getLinkedFiles() {
+      return linkedFiles;
+    }
+
+    /**
+     * Number of bytes that no longer take up separate space on disk.
+     */
+    public long getSavedBytes() {
+      return savedBytes;
+    }
+
+    @Override
+    public String toString() {
+      return "linked " + linkedFiles + " files, saved " + savedBytes + " bytes";
+    }
+  }
+}
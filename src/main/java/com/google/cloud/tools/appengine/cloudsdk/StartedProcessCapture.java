@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessStartListener;
+
+import javax.annotation.Nullable;
+
+/**
+ * Hands the process started by a dev server command to the code that ran the command on the same
+ * thread, which the process runners do not otherwise return. Every {@link CloudSdk} built by
+ * {@link CloudSdk.Builder} reports its started processes here.
+ */
+final class StartedProcessCapture implements ProcessStartListener {
+
+  static final StartedProcessCapture INSTANCE = new StartedProcessCapture();
+
+  // the process started since begin() on each thread, if capturing
+  private static final ThreadLocal<Process[]> captured = new ThreadLocal<>();
+
+  private StartedProcessCapture() {
+  }
+
+  /**
+   * Starts capturing the first process started by this thread.
+   */
+  static void begin() {
+    captured.set(new Process[1]);
+  }
+
+  /**
+   * Stops capturing, and returns the process started since {@link #begin}, if any.
+   */
+  @Nullable
+  static Process end() {
+    Process[] process = captured.get();
+    captured.remove();
+    return process == null ? null : process[0];
+  }
+
+  @Override
+  public void onStart(Process process) {
+    Process[] capture = captured.get();
+    if (capture != null && capture[0] == null) {
+      capture[0] = process;
+    }
+  }
+}
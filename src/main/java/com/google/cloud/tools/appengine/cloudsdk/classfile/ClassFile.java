@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.cloudsdk.classfile;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The parts of a parsed class file used by the staging and whitelist tools. Class names use the
+ * binary (dotted) form, e.g. {@code java.util.Map$Entry}.
+ */
+public class ClassFile {
+
+  private final String className;
+  private final String superClassName;
+  private final List<String> interfaceNames;
+  private final Set<String> referencedClassNames;
+  private final List<Annotation> annotations;
+
+  ClassFile(String className, String superClassName, List<String> interfaceNames,
+      Set<String> referencedClassNames, List<Annotation> annotations) {
+    this.className = className;
+    this.superClassName = superClassName;
+    this.interfaceNames = ImmutableList.copyOf(interfaceNames);
+    this.referencedClassNames = ImmutableSet.copyOf(referencedClassNames);
+    this.annotations = ImmutableList.copyOf(annotations);
+  }
+
+  public String getClassName() {
+    return className;
+  }
+
+  /**
+   * Returns the super class name, or null for {@code java.lang.Object}.
+   */
+  public String getSuperClassName() {
+    return superClassName;
+  }
+
+  public List<String> getInterfaceNames() {
+    return interfaceNames;
+  }
+
+  /**
+   * Returns every class named by a {@code CONSTANT_Class} entry of the constant pool, excluding
+   * array types and the class itself.
+   */
+  public Set<String> getReferencedClassNames() {
+    return referencedClassNames;
+  }
+
+  /**
+   * Returns the runtime visible annotations of the class itself.
+   */
+  public List<Annotation> getAnnotations() {
+    return annotations;
+  }
+
+  /**
+   * Returns the runtime visible annotation of the given type, or null.
+   */
+  public Annotation getAnnotation(String typeName) {
+    for (Annotation annotation : annotations) {
+      if (annotation.getTypeName().equals(typeName)) {
+        return annotation;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * A runtime visible annotation. Element values are represented as: {@link String} for constants,
+   * enum constant names and class names; {@link Annotation} for nested annotations; and
+   * {@link List} for arrays.
+   */
+  public static class Annotation {
+    private final String typeName;
+    private final Map<String, Object> values;
+
+    Annotation(String typeName, Map<String, Object> values) {
+      this.typeName = typeName;
+      this.values = ImmutableMap.copyOf(values);
+    }
+
+    public String getTypeName() {
+      return typeName;
+    }
+
+    /**
+     * Returns the explicitly specified element values. Defaults are not included.
+     */
+    public Map<String, Object> getValues() {
+      return values;
+    }
+
+    /**
+     * Returns a single valued element, or null if it wasn't specified.
+     */
+    public String getString(String name) {
+      Object value = values.get(name);
+      return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * Returns an array element, or an empty list if it wasn't specified. A single value given for
+     * an array element is returned as a one element list.
+     */
+    public List<Object> getList(String name) {
+      Object value = values.get(name);
+      if (value == null) {
+        return ImmutableList.of();
+      }
+      if (value instanceof List) {
+        @SuppressWarnings("unchecked")
+        List<Object> list = (List<Object>) value;
+        return list;
+      }
+      return ImmutableList.of(value);
+    }
+  }
+}
@@ -0,0 +1,437 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.cloudsdk.classfile;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal class file parser that reads the constant pool, the class hierarchy and the class level
+ * runtime visible annotations straight from the bytes of a {@code .class} file, without loading
+ * the class.
+ *
+ * <p>The constant pool is indexed when the reader is created, which is cheap, and the remaining
+ * structures are only parsed by {@link #read()}. This allows callers to skip classes that cannot
+ * be of interest with {@link #containsUtf8Prefix(String)}.
+ *
+ * @see <a href="https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html">The class File
+ *     Format</a>
+ */
+public class ClassFileReader {
+
+  private static final int MAGIC = 0xCAFEBABE;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_FLOAT = 4;
+  private static final int CONSTANT_LONG = 5;
+  private static final int CONSTANT_DOUBLE = 6;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+  private static final int CONSTANT_METHOD_HANDLE = 15;
+  private static final int CONSTANT_METHOD_TYPE = 16;
+  private static final int CONSTANT_DYNAMIC = 17;
+  private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+  private static final int CONSTANT_MODULE = 19;
+  private static final int CONSTANT_PACKAGE = 20;
+
+  private final byte[] bytes;
+  // offset of each constant pool entry's tag, 0 for unusable slots
+  private final int[] offsets;
+  private final String[] utf8Cache;
+  private final int afterConstantPool;
+
+  /**
+   * Indexes the constant pool of a class file.
+   *
+   * @throws IOException if the bytes are not a well formed class file
+   */
+  public ClassFileReader(byte[] bytes) throws IOException {
+    this.bytes = Preconditions.checkNotNull(bytes);
+    try {
+      if (readInt(0) != MAGIC) {
+        throw new IOException("Not a class file");
+      }
+      int count = readUnsignedShort(8);
+      offsets = new int[count];
+      utf8Cache = new String[count];
+      int offset = 10;
+      for (int i = 1; i < count; i++) {
+        offsets[i] = offset;
+        int tag = bytes[offset] & 0xFF;
+        switch (tag) {
+          case CONSTANT_UTF8:
+            offset += 3 + readUnsignedShort(offset + 1);
+            break;
+          case CONSTANT_CLASS:
+          case CONSTANT_STRING:
+          case CONSTANT_METHOD_TYPE:
+          case CONSTANT_MODULE:
+          case CONSTANT_PACKAGE:
+            offset += 3;
+            break;
+          case CONSTANT_METHOD_HANDLE:
+            offset += 4;
+            break;
+          case CONSTANT_INTEGER:
+          case CONSTANT_FLOAT:
+          case CONSTANT_FIELDREF:
+          case CONSTANT_METHODREF:
+          case CONSTANT_INTERFACE_METHODREF:
+          case CONSTANT_NAME_AND_TYPE:
+          case CONSTANT_DYNAMIC:
+          case CONSTANT_INVOKE_DYNAMIC:
+            offset += 5;
+            break;
+          case CONSTANT_LONG:
+          case CONSTANT_DOUBLE:
+            offset += 9;
+            // takes up two slots
+            i++;
+            break;
+          default:
+            throw new IOException("Unknown constant pool tag " + tag + " at index " + i);
+        }
+      }
+      afterConstantPool = offset;
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Truncated class file", e);
+    }
+  }
+
+  /**
+   * Returns whether any {@code CONSTANT_Utf8} entry starts with {@code prefix}. Useful as a cheap
+   * filter, e.g. with a type descriptor such as {@code "Ljavax/servlet/annotation/"}.
+   */
+  public boolean containsUtf8Prefix(String prefix) {
+    byte[] prefixBytes = prefix.getBytes(Charsets.UTF_8);
+    for (int i = 1; i < offsets.length; i++) {
+      int offset = offsets[i];
+      if (offset == 0 || (bytes[offset] & 0xFF) != CONSTANT_UTF8) {
+        continue;
+      }
+      int length = readUnsignedShort(offset + 1);
+      if (length < prefixBytes.length) {
+        continue;
+      }
+      boolean matches = true;
+      for (int j = 0; j < prefixBytes.length && matches; j++) {
+        matches = bytes[offset + 3 + j] == prefixBytes[j];
+      }
+      if (matches) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the binary name of the class, without parsing anything past the constant pool.
+   *
+   * @throws IOException if the bytes are not a well formed class file
+   */
+  public String readClassName() throws IOException {
+    try {
+      return className(readUnsignedShort(afterConstantPool + 2));
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Truncated class file", e);
+    }
+  }
+
+  /**
+   * Returns every class named in the constant pool, excluding the class itself: by
+   * {@code CONSTANT_Class} entries and by the descriptors of field and method references and of
+   * method types. Unlike {@link ClassFile#getReferencedClassNames()}, this includes types that only
+   * appear in the signatures of accessed members.
+   *
+   * @throws IOException if the bytes are not a well formed class file
+   */
+  public Set<String> readReferencedTypeNames() throws IOException {
+    try {
+      String className = readClassName();
+      Set<String> referenced = new LinkedHashSet<>();
+      for (int i = 1; i < offsets.length; i++) {
+        int offset = offsets[i];
+        if (offset == 0) {
+          continue;
+        }
+        switch (bytes[offset] & 0xFF) {
+          case CONSTANT_CLASS:
+            String referencedName = className(i);
+            if (referencedName != null) {
+              referenced.add(referencedName);
+            }
+            break;
+          case CONSTANT_NAME_AND_TYPE:
+            addDescriptorTypes(utf8(readUnsignedShort(offset + 3)), referenced);
+            break;
+          case CONSTANT_METHOD_TYPE:
+            addDescriptorTypes(utf8(readUnsignedShort(offset + 1)), referenced);
+            break;
+          default:
+            break;
+        }
+      }
+      referenced.remove(className);
+      return referenced;
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Truncated class file", e);
+    }
+  }
+
+  // Adds the classes of a field or method descriptor such as (ILjava/util/List;)Ljava/lang/Object;
+  private static void addDescriptorTypes(String descriptor, Set<String> types) {
+    int index = 0;
+    while (index < descriptor.length()) {
+      if (descriptor.charAt(index) == 'L') {
+        int end = descriptor.indexOf(';', index);
+        if (end < 0) {
+          return;
+        }
+        types.add(descriptor.substring(index + 1, end).replace('/', '.'));
+        index = end + 1;
+      } else {
+        index++;
+      }
+    }
+  }
+
+  /**
+   * Parses the class hierarchy, the referenced classes and the class level annotations.
+   *
+   * @throws IOException if the bytes are not a well formed class file
+   */
+  public ClassFile read() throws IOException {
+    try {
+      int offset = afterConstantPool;
+      String className = className(readUnsignedShort(offset + 2));
+      int superIndex = readUnsignedShort(offset + 4);
+      final String superClassName = superIndex == 0 ? null : className(superIndex);
+      int interfaceCount = readUnsignedShort(offset + 6);
+      offset += 8;
+      List<String> interfaceNames = new ArrayList<>(interfaceCount);
+      for (int i = 0; i < interfaceCount; i++) {
+        interfaceNames.add(className(readUnsignedShort(offset)));
+        offset += 2;
+      }
+
+      // skip fields and methods, which share the same layout
+      for (int member = 0; member < 2; member++) {
+        int count = readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < count; i++) {
+          offset = skipAttributes(offset + 6);
+        }
+      }
+
+      List<ClassFile.Annotation> annotations = new ArrayList<>();
+      int attributeCount = readUnsignedShort(offset);
+      offset += 2;
+      for (int i = 0; i < attributeCount; i++) {
+        String name = utf8(readUnsignedShort(offset));
+        int length = readInt(offset + 2);
+        if ("RuntimeVisibleAnnotations".equals(name)) {
+          int annotationCount = readUnsignedShort(offset + 6);
+          int annotationOffset = offset + 8;
+          for (int j = 0; j < annotationCount; j++) {
+            annotationOffset = readAnnotation(annotationOffset, annotations);
+          }
+        }
+        offset += 6 + length;
+      }
+
+      Set<String> referenced = new LinkedHashSet<>();
+      for (int i = 1; i < offsets.length; i++) {
+        if (offsets[i] != 0 && (bytes[offsets[i]] & 0xFF) == CONSTANT_CLASS) {
+          String referencedName = className(i);
+          if (referencedName != null && !referencedName.equals(className)) {
+            referenced.add(referencedName);
+          }
+        }
+      }
+
+      return new ClassFile(className, superClassName, interfaceNames, referenced, annotations);
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Truncated class file", e);
+    }
+  }
+
+  private int skipAttributes(int offset) {
+    int count = readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < count; i++) {
+      offset += 6 + readInt(offset + 2);
+    }
+    return offset;
+  }
+
+  // Reads an annotation structure, adding it to the list, and returns the offset after it.
+  private int readAnnotation(int offset, List<ClassFile.Annotation> annotations)
+      throws IOException {
+    String typeName = descriptorToClassName(utf8(readUnsignedShort(offset)));
+    int pairCount = readUnsignedShort(offset + 2);
+    offset += 4;
+    Map<String, Object> values = new LinkedHashMap<>();
+    for (int i = 0; i < pairCount; i++) {
+      String name = utf8(readUnsignedShort(offset));
+      List<Object> value = new ArrayList<>(1);
+      offset = readElementValue(offset + 2, value);
+      values.put(name, value.get(0));
+    }
+    annotations.add(new ClassFile.Annotation(typeName, values));
+    return offset;
+  }
+
+  private int readElementValue(int offset, List<Object> values) throws IOException {
+    char tag = (char) (bytes[offset] & 0xFF);
+    switch (tag) {
+      case 's':
+        values.add(utf8(readUnsignedShort(offset + 1)));
+        return offset + 3;
+      case 'B':
+      case 'I':
+      case 'S':
+        values.add(Integer.toString(readInt(offsets[readUnsignedShort(offset + 1)] + 1)));
+        return offset + 3;
+      case 'C':
+        values.add(String.valueOf((char) readInt(offsets[readUnsignedShort(offset + 1)] + 1)));
+        return offset + 3;
+      case 'Z':
+        values.add(Boolean.toString(readInt(offsets[readUnsignedShort(offset + 1)] + 1) != 0));
+        return offset + 3;
+      case 'F':
+        values.add(Float.toString(
+            Float.intBitsToFloat(readInt(offsets[readUnsignedShort(offset + 1)] + 1))));
+        return offset + 3;
+      case 'J':
+        values.add(Long.toString(readLong(offsets[readUnsignedShort(offset + 1)] + 1)));
+        return offset + 3;
+      case 'D':
+        values.add(Double.toString(
+            Double.longBitsToDouble(readLong(offsets[readUnsignedShort(offset + 1)] + 1))));
+        return offset + 3;
+      case 'e':
+        // enum constant: only the constant name is kept
+        values.add(utf8(readUnsignedShort(offset + 3)));
+        return offset + 5;
+      case 'c':
+        values.add(descriptorToClassName(utf8(readUnsignedShort(offset + 1))));
+        return offset + 3;
+      case '@':
+        List<ClassFile.Annotation> nested = new ArrayList<>(1);
+        offset = readAnnotation(offset + 1, nested);
+        values.add(nested.get(0));
+        return offset;
+      case '[':
+        int count = readUnsignedShort(offset + 1);
+        offset += 3;
+        List<Object> array = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          offset = readElementValue(offset, array);
+        }
+        values.add(array);
+        return offset;
+      default:
+        throw new IOException("Unknown annotation element tag " + tag);
+    }
+  }
+
+  // Returns the element class name of a CONSTANT_Class entry, or null for primitive arrays.
+  private String className(int index) throws IOException {
+    String internalName = utf8(readUnsignedShort(offsets[index] + 1));
+    if (internalName.startsWith("[")) {
+      return descriptorToClassName(internalName);
+    }
+    return internalName.replace('/', '.');
+  }
+
+  /**
+   * Converts a field descriptor such as {@code Ljava/lang/String;} or {@code [[Ljava/util/Map;}
+   * to the binary name of its (element) class, or returns null for primitive types.
+   */
+  static String descriptorToClassName(String descriptor) {
+    int start = 0;
+    while (start < descriptor.length() && descriptor.charAt(start) == '[') {
+      start++;
+    }
+    if (start >= descriptor.length() || descriptor.charAt(start) != 'L') {
+      return null;
+    }
+    int end = descriptor.indexOf(';', start);
+    return descriptor.substring(start + 1, end < 0 ? descriptor.length() : end).replace('/', '.');
+  }
+
+  private String utf8(int index) throws IOException {
+    String cached = utf8Cache[index];
+    if (cached != null) {
+      return cached;
+    }
+    int offset = offsets[index];
+    if (offset == 0 || (bytes[offset] & 0xFF) != CONSTANT_UTF8) {
+      throw new IOException("Constant pool entry " + index + " is not a Utf8 entry");
+    }
+    String value = decodeModifiedUtf8(offset + 3, readUnsignedShort(offset + 1));
+    utf8Cache[index] = value;
+    return value;
+  }
+
+  private String decodeModifiedUtf8(int offset, int length) throws IOException {
+    char[] chars = new char[length];
+    int count = 0;
+    int end = offset + length;
+    while (offset < end) {
+      int lead = bytes[offset++] & 0xFF;
+      if (lead < 0x80) {
+        chars[count++] = (char) lead;
+      } else if ((lead & 0xE0) == 0xC0 && offset < end) {
+        chars[count++] = (char) (((lead & 0x1F) << 6) | (bytes[offset++] & 0x3F));
+      } else if ((lead & 0xF0) == 0xE0 && offset + 1 < end) {
+        chars[count++] = (char) (((lead & 0x0F) << 12) | ((bytes[offset] & 0x3F) << 6)
+            | (bytes[offset + 1] & 0x3F));
+        offset += 2;
+      } else {
+        throw new IOException("Malformed modified UTF-8 in constant pool");
+      }
+    }
+    return new String(chars, 0, count);
+  }
+
+  private int readUnsignedShort(int offset) {
+    return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+  }
+
+  private int readInt(int offset) {
+    return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+        | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+  }
+
+  private long readLong(int offset) {
+    return ((long) readInt(offset) << 32) | (readInt(offset + 4) & 0xFFFFFFFFL);
+  }
+}
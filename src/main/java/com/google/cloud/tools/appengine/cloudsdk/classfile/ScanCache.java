@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.cloudsdk.classfile;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Cache of per-archive scan results, keyed by the SHA-256 of the archive contents so that
+ * unchanged dependencies are never scanned twice. Results are kept in memory and, if a cache
+ * directory is configured, as JSON files in that directory so they survive across JVMs.
+ *
+ * <p>The results kept in memory are bounded by their total weight, roughly the number of strings
+ * they hold, so a cache shared for the lifetime of the JVM stays small however many archives it
+ * has seen. Results of unknown size weigh {@value #DEFAULT_WEIGHT}.
+ *
+ * @param <T> the scan result type, which must be serializable by Gson
+ */
+public class ScanCache<T> {
+
+  private static final Logger logger = Logger.getLogger(ScanCache.class.getName());
+  private static final long MAX_IN_MEMORY_WEIGHT = 200000;
+  private static final int DEFAULT_WEIGHT = 20;
+  // hits and misses of all caches of a kind, which may be spread over many instances
+  private static final ConcurrentMap<String, Statistics> STATISTICS = new ConcurrentHashMap<>();
+
+  private final String kind;
+  private final Type type;
+  @Nullable
+  private final Path directory;
+  private final Gson gson = new Gson();
+  private final Cache<HashCode, T> memory;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final Statistics statistics;
+
+  /**
+   * Creates a cache.
+   *
+   * @param kind      name of the result format, used to keep different result types (and format
+   *                  versions) apart in a shared directory
+   * @param type      the Gson type of the results
+   * @param directory where results are persisted, or null to only cache in memory
+   */
+  public ScanCache(String kind, Type type, @Nullable Path directory) {
+    this(kind, type, directory, new Weigher<HashCode, T>() {
+      @Override
+      public int weigh(HashCode hash, T result) {
+        return DEFAULT_WEIGHT;
+      }
+    });
+  }
+
+  /**
+   * Creates a cache of results whose size is known.
+   *
+   * @param weigher the weight of a result, roughly the number of strings it holds
+   * @see #ScanCache(String, Type, Path)
+   */
+  public ScanCache(String kind, Type type, @Nullable Path directory,
+      Weigher<HashCode, ? super T> weigher) {
+    this.kind = Preconditions.checkNotNull(kind);
+    this.type = Preconditions.checkNotNull(type);
+    this.directory = directory;
+    this.memory = CacheBuilder.newBuilder()
+        .maximumWeight(MAX_IN_MEMORY_WEIGHT)
+        .<HashCode, T>weigher(Preconditions.checkNotNull(weigher))
+        .build();
+    Statistics created = new Statistics();
+    Statistics existing = STATISTICS.putIfAbsent(kind, created);
+    this.statistics = existing == null ? created : existing;
+  }
+
+  /**
+   * Computes the cache key of a file.
+   */
+  public static HashCode hash(Path file) throws IOException {
+    return com.google.common.io.Files.hash(file.toFile(), Hashing.sha256());
+  }
+
+  /**
+   * Returns the cached result for the given content hash, or null.
+   */
+  @Nullable
+  public T get(HashCode hash) {
+    T result = memory.getIfPresent(hash);
+    if (result == null && directory != null) {
+      Path file = file(hash);
+      if (Files.isRegularFile(file)) {
+        try {
+          result = gson.fromJson(new String(Files.readAllBytes(file), Charsets.UTF_8), type);
+          if (result != null) {
+            memory.put(hash, result);
+          }
+        } catch (IOException | JsonParseException e) {
+          logger.warning("Ignoring unreadable cache entry " + file + ": " + e.getMessage());
+        }
+      }
+    }
+    (result == null ? misses : hits).incrementAndGet();
+    (result == null ? statistics.misses : statistics.hits).incrementAndGet();
+    return result;
+  }
+
+  /**
+   * Stores a result. Failing to persist it is logged and otherwise ignored.
+   */
+  public void put(HashCode hash, T result) {
+    Preconditions.checkNotNull(result);
+    memory.put(hash, result);
+    if (directory != null) {
+      Path file = file(hash);
+      try {
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, kind, ".tmp");
+        Files.write(temporary, gson.toJson(result, type).getBytes(Charsets.UTF_8));
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+        logger.warning("Cannot write cache entry " + file + ": " + e.getMessage());
+      }
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the hits and misses of all caches in this JVM, by kind.
+   */
+  public static SortedMap<String, Statistics> getStatistics() {
+    return new TreeMap<>(STATISTICS);
+  }
+
+  private Path file(HashCode hash) {
+    return directory.resolve(kind + "-" + hash + ".json");
+  }
+
+  /**
+   * Running totals of the lookups in the caches of a kind.
+   */
+  public static class Statistics {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public long getHits() {
+      return hits.get();
+    }
+
+    public long getMisses() {
+      return misses.get();
+    }
+  }
+}
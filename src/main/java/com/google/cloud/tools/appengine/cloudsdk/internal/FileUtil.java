@@ -16,6 +16,8 @@
 
 package com.google.cloud.tools.appengine.cloudsdk.internal;
 
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Span;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Tracing;
 import com.google.common.base.Preconditions;
 
 import java.io.IOException;
@@ -46,6 +48,19 @@ public class FileUtil {
     Preconditions.checkArgument(!source.equals(destination));
     Preconditions.checkArgument(!destination.startsWith(source), "destination is child of source");
 
+    Span span =
+        Tracing.start(Span.STAGING, "copy directory").attribute("source", source.toString());
+    try {
+      walkAndCopy(source, destination);
+    } catch (IOException | RuntimeException e) {
+      span.failed(e);
+      throw e;
+    } finally {
+      span.end();
+    }
+  }
+
+  private static void walkAndCopy(final Path source, final Path destination) throws IOException {
     Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
       final CopyOption[] copyOptions = new CopyOption[] { StandardCopyOption.COPY_ATTRIBUTES };
 
@@ -71,4 +86,29 @@ public class FileUtil {
 
   }
 
+  /**
+   * Deletes a file, or a directory and everything in it.
+   *
+   * @param path an existing file or directory
+   */
+  public static void deleteRecursively(Path path) throws IOException {
+    Preconditions.checkNotNull(path);
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        if (exc != null) {
+          throw exc;
+        }
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
 }
@@ -0,0 +1,395 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.cloudsdk.internal;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Splits jars that are too large to be uploaded into several smaller jars, the same way AppCfg's
+ * {@code --enable_jar_splitting} does: {@code big.jar} becomes {@code big-0000.jar},
+ * {@code big-0001.jar}, ... and entries matching the excluded suffixes are dropped from every jar.
+ *
+ * <p>Split points are computed in a single pass over the jar's central directory, then every
+ * output jar is written concurrently. Entries keep their original order, timestamps and
+ * compression method, so splitting the same input always produces the same output.
+ */
+public class JarSplitter {
+
+  /**
+   * Default maximum size of an output jar, matching AppCfg.
+   */
+  public static final long DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
+
+  // Approximation of the local header, data descriptor and central directory overhead per entry.
+  private static final int ENTRY_OVERHEAD = 128;
+
+  private final long maxSize;
+  private final Set<String> excludedSuffixes;
+  private final int threads;
+
+  /**
+   * Creates a splitter.
+   *
+   * @param maxSize          maximum size in bytes of each output jar
+   * @param excludedSuffixes entry name suffixes to drop from every jar
+   * @param threads          number of output jars written concurrently
+   */
+  public JarSplitter(long maxSize, Set<String> excludedSuffixes, int threads) {
+    Preconditions.checkArgument(maxSize > 0, "maxSize must be > 0");
+    Preconditions.checkArgument(threads > 0, "threads must be > 0");
+    this.maxSize = maxSize;
+    this.excludedSuffixes = ImmutableSet.copyOf(Preconditions.checkNotNull(excludedSuffixes));
+    this.threads = threads;
+  }
+
+  /**
+   * Parses AppCfg's comma separated {@code --jar_splitting_excludes} value.
+   *
+   * @return the set of suffixes, or an empty set if {@code excludes} is null or empty
+   */
+  public static Set<String> parseExcludes(String excludes) {
+    if (Strings.isNullOrEmpty(excludes)) {
+      return Collections.emptySet();
+    }
+    return ImmutableSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(excludes));
+  }
+
+  /**
+   * Splits or filters every jar directly inside {@code libDirectory}, replacing it in place. A jar
+   * that is only filtered keeps its file name. Does nothing if the directory doesn't exist.
+   *
+   * <p>Output jars are written to a temporary directory first, so a failure to read or write a jar
+   * leaves the directory as it was. They are then moved in one jar at a time, and a jar is only
+   * deleted once all of its parts are in place, so every jar is either replaced or left as it was.
+   *
+   * @return the jars that were written
+   * @throws java.nio.file.FileAlreadyExistsException if a part would replace an unrelated file
+   */
+  public List<Path> splitDirectory(Path libDirectory) throws IOException {
+    if (!Files.isDirectory(libDirectory)) {
+      return Collections.emptyList();
+    }
+    List<Path> jars = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(libDirectory, "*.jar")) {
+      for (Path jar : stream) {
+        jars.add(jar);
+      }
+    }
+    Collections.sort(jars);
+
+    // in the same directory, so output jars are moved rather than copied into place
+    Path workDirectory = Files.createTempDirectory(libDirectory, ".split");
+    try {
+      Map<Path, List<Path>> parts = writeParts(jars, workDirectory);
+      Map<Path, List<Path>> outputs = new LinkedHashMap<>();
+      for (Map.Entry<Path, List<Path>> jar : parts.entrySet()) {
+        outputs.put(jar.getKey(), outputs(jar.getKey(), jar.getValue().size(), libDirectory));
+      }
+      // fail before anything was moved
+      for (Map.Entry<Path, List<Path>> jar : outputs.entrySet()) {
+        for (Path output : jar.getValue()) {
+          if (!output.equals(jar.getKey()) && Files.exists(output)) {
+            throw new FileAlreadyExistsException(output.toString(), jar.getKey().toString(),
+                "a part of the jar would replace it");
+          }
+        }
+      }
+
+      List<Path> written = new ArrayList<>();
+      for (Map.Entry<Path, List<Path>> jar : outputs.entrySet()) {
+        written.addAll(install(jar.getKey(), parts.get(jar.getKey()), jar.getValue()));
+      }
+      return written;
+    } finally {
+      deleteDirectory(workDirectory);
+    }
+  }
+
+  /**
+   * Splits or filters a single jar into {@code outputDirectory}. The input jar is left in place,
+   * and if splitting fails, no jar is written.
+   *
+   * @return the jars that were written, or an empty list if the jar needs neither splitting nor
+   *     filtering. A jar that is only filtered keeps its file name.
+   * @throws java.nio.file.FileAlreadyExistsException if an output jar already exists
+   */
+  public List<Path> split(Path jar, Path outputDirectory) throws IOException {
+    Preconditions.checkArgument(Files.isRegularFile(jar), jar + " is not a file");
+    Preconditions.checkArgument(Files.isDirectory(outputDirectory),
+        outputDirectory + " is not a directory");
+
+    Path workDirectory = Files.createTempDirectory(outputDirectory, ".split");
+    try {
+      List<Path> parts = writeParts(ImmutableList.of(jar), workDirectory).get(jar);
+      if (parts == null) {
+        return Collections.emptyList();
+      }
+      return install(null, parts, outputs(jar, parts.size(), outputDirectory));
+    } finally {
+      deleteDirectory(workDirectory);
+    }
+  }
+
+  // Writes the parts of every jar that needs splitting or filtering into the work directory, in
+  // order, under temporary names.
+  private Map<Path, List<Path>> writeParts(List<Path> jars, Path workDirectory)
+      throws IOException {
+    Map<Path, List<Future<List<Path>>>> futures = new LinkedHashMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      for (Path jar : jars) {
+        List<List<String>> chunks = plan(jar);
+        if (chunks == null) {
+          continue;
+        }
+        List<Future<List<Path>>> jarFutures = new ArrayList<>();
+        for (List<String> chunk : chunks) {
+          jarFutures.add(submit(executor, jar, chunk, workDirectory));
+        }
+        futures.put(jar, jarFutures);
+      }
+
+      Map<Path, List<Path>> parts = new LinkedHashMap<>();
+      for (Map.Entry<Path, List<Future<List<Path>>>> jar : futures.entrySet()) {
+        List<Path> jarParts = new ArrayList<>();
+        for (List<Path> chunkParts : await(jar.getValue())) {
+          jarParts.addAll(chunkParts);
+        }
+        parts.put(jar.getKey(), jarParts);
+      }
+      return parts;
+    } finally {
+      shutdown(executor);
+    }
+  }
+
+  // Moves the parts of a jar to their outputs, then deletes the jar, if any, unless it was
+  // replaced by its only part. If a move fails, the parts already moved are deleted again.
+  private static List<Path> install(@Nullable Path jar, List<Path> parts, List<Path> outputs)
+      throws IOException {
+    List<Path> moved = new ArrayList<>();
+    try {
+      for (int i = 0; i < parts.size(); i++) {
+        Path output = outputs.get(i);
+        if (output.equals(jar)) {
+          // a single rename, so the jar is never missing
+          Files.move(parts.get(i), output, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+          Files.move(parts.get(i), output);
+          moved.add(output);
+        }
+      }
+    } catch (IOException e) {
+      for (Path output : moved) {
+        Files.deleteIfExists(output);
+      }
+      throw e;
+    }
+    if (jar != null && !outputs.contains(jar)) {
+      Files.delete(jar);
+    }
+    return outputs;
+  }
+
+  // Returns the entry names of each output jar, or null if the jar can stay as it is.
+  private List<List<String>> plan(Path jar) throws IOException {
+    boolean tooLarge = Files.size(jar) > maxSize;
+    boolean excludedEntries = false;
+
+    List<List<String>> chunks = new ArrayList<>();
+    List<String> current = new ArrayList<>();
+    long currentSize = 0;
+    try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (isExcluded(entry.getName())) {
+          excludedEntries = true;
+          continue;
+        }
+        long entrySize = Math.max(entry.getCompressedSize(), 0) + entry.getName().length()
+            + ENTRY_OVERHEAD;
+        if (!current.isEmpty() && currentSize + entrySize > maxSize) {
+          chunks.add(current);
+          current = new ArrayList<>();
+          currentSize = 0;
+        }
+        current.add(entry.getName());
+        currentSize += entrySize;
+      }
+    }
+    if (!current.isEmpty() || chunks.isEmpty()) {
+      chunks.add(current);
+    }
+
+    if ((!tooLarge || chunks.size() == 1) && !excludedEntries) {
+      // a single oversized entry can't be split any further
+      return null;
+    }
+    if (!tooLarge) {
+      // only filtering, keep everything in a single jar
+      List<String> all = new ArrayList<>();
+      for (List<String> chunk : chunks) {
+        all.addAll(chunk);
+      }
+      return ImmutableList.<List<String>>of(all);
+    }
+    return chunks;
+  }
+
+  private boolean isExcluded(String entryName) {
+    for (String suffix : excludedSuffixes) {
+      if (entryName.endsWith(suffix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // the names AppCfg gives to the parts of a jar; a jar that is only filtered keeps its name
+  private static List<Path> outputs(Path jar, int count, Path outputDirectory) {
+    if (count == 1) {
+      return ImmutableList.of(outputDirectory.resolve(jar.getFileName()));
+    }
+    String fileName = jar.getFileName().toString();
+    String baseName = fileName.substring(0, fileName.length() - ".jar".length());
+    List<Path> outputs = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      outputs.add(outputDirectory.resolve(String.format("%s-%04d.jar", baseName, i)));
+    }
+    return outputs;
+  }
+
+  private Future<List<Path>> submit(ExecutorService executor, final Path jar,
+      final List<String> entryNames, final Path workDirectory) {
+    return executor.submit(new Callable<List<Path>>() {
+      @Override
+      public List<Path> call() throws IOException {
+        return writeBounded(jar, entryNames, workDirectory);
+      }
+    });
+  }
+
+  // Chunks are planned from the compressed sizes in the input, but deflated entries are
+  // recompressed, possibly at a lower level, so a part can come out larger than planned: it is
+  // then halved until every part fits. An entry larger than the maximum gets a jar of its own.
+  private List<Path> writeBounded(Path jar, List<String> entryNames, Path workDirectory)
+      throws IOException {
+    Path output = Files.createTempFile(workDirectory, "part", ".jar");
+    write(jar, entryNames, output);
+    if (Files.size(output) <= maxSize || entryNames.size() < 2) {
+      return ImmutableList.of(output);
+    }
+    Files.delete(output);
+    int half = entryNames.size() / 2;
+    List<Path> parts = new ArrayList<>();
+    parts.addAll(writeBounded(jar, entryNames.subList(0, half), workDirectory));
+    parts.addAll(writeBounded(jar, entryNames.subList(half, entryNames.size()), workDirectory));
+    return parts;
+  }
+
+  private static void write(Path jar, List<String> entryNames, Path output) throws IOException {
+    try (ZipFile zipFile = new ZipFile(jar.toFile());
+        OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(output));
+        ZipOutputStream zipOut = new ZipOutputStream(fileOut)) {
+      for (String entryName : entryNames) {
+        ZipEntry entry = zipFile.getEntry(entryName);
+        ZipEntry copy = new ZipEntry(entry);
+        if (copy.getMethod() != ZipEntry.STORED) {
+          // recompressed, so the original compressed size no longer applies
+          copy.setCompressedSize(-1);
+        }
+        zipOut.putNextEntry(copy);
+        try (InputStream in = zipFile.getInputStream(entry)) {
+          ByteStreams.copy(in, zipOut);
+        }
+        zipOut.closeEntry();
+      }
+    }
+  }
+
+  // stops the writers, and waits for them to close their files
+  private static void shutdown(ExecutorService executor) throws IOException {
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while splitting jars", e);
+    }
+  }
+
+  private static void deleteDirectory(Path directory) throws IOException {
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (Path file : stream) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  private static <T> List<T> await(List<Future<T>> futures) throws IOException {
+    List<T> written = new ArrayList<>();
+    try {
+      for (Future<T> future : futures) {
+        written.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while splitting jars", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+    return written;
+  }
+}
@@ -0,0 +1,571 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.cloudsdk.internal;
+
+import com.google.cloud.tools.appengine.cloudsdk.classfile.ClassFile;
+import com.google.cloud.tools.appengine.cloudsdk.classfile.ClassFileReader;
+import com.google.cloud.tools.appengine.cloudsdk.classfile.ScanCache;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+import com.google.gson.reflect.TypeToken;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * Generates {@code WEB-INF/quickstart-web.xml} for an exploded web application, so the server
+ * doesn't have to scan for servlet annotations at startup.
+ *
+ * <p>{@code WEB-INF/classes} and every jar in {@code WEB-INF/lib} are scanned in parallel for
+ * {@code @WebServlet}, {@code @WebFilter} and {@code @WebListener}. Class files are read directly
+ * from bytes, without loading them, and only classes whose constant pool mentions a servlet
+ * annotation are fully parsed. Results for each jar are cached by content hash.
+ *
+ * <p>The generated descriptor contains everything declared in {@code WEB-INF/web.xml}, plus the
+ * annotated components that {@code web.xml} doesn't already declare, and is marked
+ * {@code metadata-complete}. Servlet container initializers ({@code @HandlesTypes}) are not
+ * scanned for and the container's {@code webdefault.xml} is not merged, so applications relying on
+ * them, such as those using JSPs or Spring's {@code WebApplicationInitializer}, need AppCfg's
+ * quickstart instead. Class files that cannot be read are skipped with a warning.
+ */
+public class QuickstartGenerator {
+
+  public static final String QUICKSTART_WEB_XML = "quickstart-web.xml";
+
+  private static final String ANNOTATION_DESCRIPTOR_PREFIX = "Ljavax/servlet/annotation/Web";
+  private static final String WEB_SERVLET = "javax.servlet.annotation.WebServlet";
+  private static final String WEB_FILTER = "javax.servlet.annotation.WebFilter";
+  private static final String WEB_LISTENER = "javax.servlet.annotation.WebListener";
+  private static final String JAVAEE_NAMESPACE = "http://java.sun.com/xml/ns/javaee";
+  // bump when the cached format or the scanning rules change
+  private static final String CACHE_KIND = "quickstart-v1";
+
+  private static final Logger logger = Logger.getLogger(QuickstartGenerator.class.getName());
+
+  private static final ScanCache<List<WebComponent>> SHARED_MEMORY_CACHE =
+      new ScanCache<>(CACHE_KIND, new TypeToken<List<WebComponent>>() {}.getType(), null);
+
+  private final ScanCache<List<WebComponent>> cache;
+  private final int threads;
+
+  /**
+   * Creates a generator that only caches jar results in memory, for the lifetime of the JVM.
+   */
+  public QuickstartGenerator() {
+    this(SHARED_MEMORY_CACHE, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a generator that persists jar results.
+   *
+   * @param cacheDirectory where to keep scan results for jars
+   * @param threads        number of threads scanning classes
+   */
+  public QuickstartGenerator(Path cacheDirectory, int threads) {
+    this(new ScanCache<List<WebComponent>>(CACHE_KIND,
+        new TypeToken<List<WebComponent>>() {}.getType(),
+        Preconditions.checkNotNull(cacheDirectory)), threads);
+  }
+
+  private QuickstartGenerator(ScanCache<List<WebComponent>> cache, int threads) {
+    Preconditions.checkArgument(threads > 0, "threads must be > 0");
+    this.cache = cache;
+    this.threads = threads;
+  }
+
+  /**
+   * Writes {@code WEB-INF/quickstart-web.xml} for the exploded application.
+   *
+   * @param appDirectory the exploded application, containing {@code WEB-INF}
+   * @return the path of the generated file
+   */
+  public Path generate(Path appDirectory) throws IOException {
+    Path webInf = appDirectory.resolve("WEB-INF");
+    Preconditions.checkArgument(Files.isDirectory(webInf), webInf + " is not a directory");
+
+    Document webXml = readWebXml(webInf.resolve("web.xml"));
+    List<WebComponent> components = Collections.emptyList();
+    if (webXml == null
+        || !"true".equals(webXml.getDocumentElement().getAttribute("metadata-complete"))) {
+      components = scan(webInf);
+    }
+
+    Path output = webInf.resolve(QUICKSTART_WEB_XML);
+    write(merge(webXml, components), output);
+    return output;
+  }
+
+  /**
+   * Returns the annotated web components found in {@code WEB-INF/classes} and
+   * {@code WEB-INF/lib/*.jar}, sorted by class name.
+   */
+  public List<WebComponent> scan(Path webInf) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<List<WebComponent>>> futures = new ArrayList<>();
+
+      Path classes = webInf.resolve("classes");
+      if (Files.isDirectory(classes)) {
+        for (List<Path> batch : Lists.partition(classFiles(classes), 64)) {
+          futures.add(executor.submit(newClassBatchTask(batch)));
+        }
+      }
+      Path lib = webInf.resolve("lib");
+      if (Files.isDirectory(lib)) {
+        try (DirectoryStream<Path> jars = Files.newDirectoryStream(lib, "*.jar")) {
+          for (Path jar : jars) {
+            futures.add(executor.submit(newJarTask(jar)));
+          }
+        }
+      }
+
+      List<WebComponent> components = new ArrayList<>();
+      for (Future<List<WebComponent>> future : futures) {
+        components.addAll(future.get());
+      }
+      Collections.sort(components, new Comparator<WebComponent>() {
+        @Override
+        public int compare(WebComponent first, WebComponent second) {
+          return first.className.compareTo(second.className);
+        }
+      });
+      return components;
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while scanning " + webInf, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static List<Path> classFiles(Path directory) throws IOException {
+    final List<Path> classFiles = new ArrayList<>();
+    Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (file.getFileName().toString().endsWith(".class")) {
+          classFiles.add(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return classFiles;
+  }
+
+  private static Callable<List<WebComponent>> newClassBatchTask(final List<Path> classFiles) {
+    return new Callable<List<WebComponent>>() {
+      @Override
+      public List<WebComponent> call() throws IOException {
+        List<WebComponent> components = new ArrayList<>();
+        for (Path classFile : classFiles) {
+          byte[] bytes;
+          try {
+            bytes = Files.readAllBytes(classFile);
+          } catch (IOException e) {
+            logger.warning("Skipping unreadable class file " + classFile + ": " + e.getMessage());
+            continue;
+          }
+          addComponent(bytes, classFile.toString(), components);
+        }
+        return components;
+      }
+    };
+  }
+
+  private Callable<List<WebComponent>> newJarTask(final Path jar) {
+    return new Callable<List<WebComponent>>() {
+      @Override
+      public List<WebComponent> call() throws IOException {
+        HashCode hash = ScanCache.hash(jar);
+        List<WebComponent> components = cache.get(hash);
+        if (components != null) {
+          return components;
+        }
+        components = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+          Enumeration<? extends ZipEntry> entries = zipFile.entries();
+          while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+              continue;
+            }
+            byte[] bytes;
+            try (InputStream in = zipFile.getInputStream(entry)) {
+              bytes = ByteStreams.toByteArray(in);
+            } catch (IOException e) {
+              logger.warning("Skipping unreadable class file " + entry.getName() + " in " + jar
+                  + ": " + e.getMessage());
+              continue;
+            }
+            addComponent(bytes, jar + "!/" + entry.getName(), components);
+          }
+        }
+        cache.put(hash, components);
+        return components;
+      }
+    };
+  }
+
+  // a class file that cannot be parsed is skipped, as the server would fail to load it anyway
+  private static void addComponent(byte[] bytes, String source, List<WebComponent> components) {
+    try {
+      addComponent(bytes, components);
+    } catch (IOException | RuntimeException e) {
+      logger.warning("Skipping malformed class file " + source + ": " + e);
+    }
+  }
+
+  private static void addComponent(byte[] bytes, List<WebComponent> components)
+      throws IOException {
+    ClassFileReader reader = new ClassFileReader(bytes);
+    if (!reader.containsUtf8Prefix(ANNOTATION_DESCRIPTOR_PREFIX)) {
+      return;
+    }
+    ClassFile classFile = reader.read();
+
+    ClassFile.Annotation servlet = classFile.getAnnotation(WEB_SERVLET);
+    if (servlet != null) {
+      WebComponent component = new WebComponent(WebComponent.SERVLET, classFile.getClassName());
+      component.name = valueOrDefault(servlet.getString("name"), classFile.getClassName());
+      component.urlPatterns = urlPatterns(servlet);
+      String loadOnStartup = servlet.getString("loadOnStartup");
+      if (loadOnStartup != null && Integer.parseInt(loadOnStartup) >= 0) {
+        component.loadOnStartup = Integer.valueOf(loadOnStartup);
+      }
+      component.asyncSupported = Boolean.valueOf(servlet.getString("asyncSupported"));
+      component.initParams = initParams(servlet);
+      components.add(component);
+    }
+
+    ClassFile.Annotation filter = classFile.getAnnotation(WEB_FILTER);
+    if (filter != null) {
+      WebComponent component = new WebComponent(WebComponent.FILTER, classFile.getClassName());
+      component.name = valueOrDefault(filter.getString("filterName"), classFile.getClassName());
+      component.urlPatterns = urlPatterns(filter);
+      component.servletNames = strings(filter.getList("servletNames"));
+      component.dispatcherTypes = strings(filter.getList("dispatcherTypes"));
+      component.asyncSupported = Boolean.valueOf(filter.getString("asyncSupported"));
+      component.initParams = initParams(filter);
+      components.add(component);
+    }
+
+    if (classFile.getAnnotation(WEB_LISTENER) != null) {
+      components.add(new WebComponent(WebComponent.LISTENER, classFile.getClassName()));
+    }
+  }
+
+  private static String valueOrDefault(@Nullable String value, String defaultValue) {
+    return value == null || value.isEmpty() ? defaultValue : value;
+  }
+
+  private static List<String> urlPatterns(ClassFile.Annotation annotation) {
+    List<String> patterns = strings(annotation.getList("urlPatterns"));
+    patterns.addAll(strings(annotation.getList("value")));
+    return patterns;
+  }
+
+  private static Map<String, String> initParams(ClassFile.Annotation annotation) {
+    Map<String, String> initParams = new LinkedHashMap<>();
+    for (Object value : annotation.getList("initParams")) {
+      ClassFile.Annotation initParam = (ClassFile.Annotation) value;
+      initParams.put(initParam.getString("name"), initParam.getString("value"));
+    }
+    return initParams;
+  }
+
+  private static List<String> strings(List<Object> values) {
+    List<String> strings = new ArrayList<>(values.size());
+    for (Object value : values) {
+      strings.add((String) value);
+    }
+    return strings;
+  }
+
+  @Nullable
+  private static Document readWebXml(Path webXml) throws IOException {
+    if (!Files.isRegularFile(webXml)) {
+      return null;
+    }
+    try (InputStream in = Files.newInputStream(webXml)) {
+      return newDocumentBuilder().parse(in);
+    } catch (SAXException e) {
+      throw new IOException("Cannot parse " + webXml, e);
+    }
+  }
+
+  private static DocumentBuilder newDocumentBuilder() throws IOException {
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      // never fetch the web-app DTD of old descriptors: skipped outright by Xerces, resolved to
+      // nothing by other parsers
+      setFeatureIfSupported(factory,
+          "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+      DocumentBuilder builder = factory.newDocumentBuilder();
+      builder.setEntityResolver(new EntityResolver() {
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId) {
+          return new InputSource(new StringReader(""));
+        }
+      });
+      return builder;
+    } catch (ParserConfigurationException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static void setFeatureIfSupported(DocumentBuilderFactory factory, String feature,
+      boolean value) {
+    try {
+      factory.setFeature(feature, value);
+    } catch (ParserConfigurationException e) {
+      logger.fine("XML parser does not support " + feature);
+    }
+  }
+
+  private static Document merge(@Nullable Document webXml, List<WebComponent> components)
+      throws IOException {
+    Document document = newDocumentBuilder().newDocument();
+    Element webApp;
+    if (webXml != null) {
+      webApp = (Element) document.importNode(webXml.getDocumentElement(), true);
+    } else {
+      webApp = document.createElementNS(JAVAEE_NAMESPACE, "web-app");
+      webApp.setAttribute("version", "3.0");
+    }
+    webApp.setAttribute("metadata-complete", "true");
+    document.appendChild(webApp);
+
+    String namespace = webApp.getNamespaceURI();
+    Set<String> declaredServlets = textValues(webApp, namespace, "servlet-name", "servlet");
+    Set<String> declaredFilters = textValues(webApp, namespace, "filter-name", "filter");
+    Set<String> declaredListeners = textValues(webApp, namespace, "listener-class", "listener");
+
+    XmlWriter xml = new XmlWriter(document, namespace);
+    for (WebComponent component : components) {
+      if (WebComponent.LISTENER.equals(component.kind)
+          && !declaredListeners.contains(component.className)) {
+        Element listener = xml.append(webApp, "listener");
+        xml.append(listener, "listener-class", component.className);
+      }
+    }
+    for (WebComponent component : components) {
+      if (WebComponent.FILTER.equals(component.kind) && !declaredFilters.contains(component.name)) {
+        Element filter = xml.append(webApp, "filter");
+        xml.append(filter, "filter-name", component.name);
+        xml.append(filter, "filter-class", component.className);
+        xml.append(filter, "async-supported", component.asyncSupported.toString());
+        xml.appendInitParams(filter, component.initParams);
+        if (!component.urlPatterns.isEmpty() || !component.servletNames.isEmpty()) {
+          Element mapping = xml.append(webApp, "filter-mapping");
+          xml.append(mapping, "filter-name", component.name);
+          for (String urlPattern : component.urlPatterns) {
+            xml.append(mapping, "url-pattern", urlPattern);
+          }
+          for (String servletName : component.servletNames) {
+            xml.append(mapping, "servlet-name", servletName);
+          }
+          for (String dispatcher : component.dispatcherTypes) {
+            xml.append(mapping, "dispatcher", dispatcher);
+          }
+        }
+      }
+    }
+    for (WebComponent component : components) {
+      if (WebComponent.SERVLET.equals(component.kind)
+          && !declaredServlets.contains(component.name)) {
+        Element servlet = xml.append(webApp, "servlet");
+        xml.append(servlet, "servlet-name", component.name);
+        xml.append(servlet, "servlet-class", component.className);
+        xml.appendInitParams(servlet, component.initParams);
+        if (component.loadOnStartup != null) {
+          xml.append(servlet, "load-on-startup", component.loadOnStartup.toString());
+        }
+        xml.append(servlet, "async-supported", component.asyncSupported.toString());
+        if (!component.urlPatterns.isEmpty()) {
+          Element mapping = xml.append(webApp, "servlet-mapping");
+          xml.append(mapping, "servlet-name", component.name);
+          for (String urlPattern : component.urlPatterns) {
+            xml.append(mapping, "url-pattern", urlPattern);
+          }
+        }
+      }
+    }
+    return document;
+  }
+
+  // Collects the text of <child> elements directly under top level <parent> elements.
+  private static Set<String> textValues(Element webApp, String namespace, String child,
+      String parent) {
+    Set<String> values = new HashSet<>();
+    NodeList parents = webApp.getChildNodes();
+    for (int i = 0; i < parents.getLength(); i++) {
+      Node node = parents.item(i);
+      if (node instanceof Element && parent.equals(node.getLocalName())) {
+        NodeList children = ((Element) node).getElementsByTagNameNS(namespace, child);
+        for (int j = 0; j < children.getLength(); j++) {
+          values.add(children.item(j).getTextContent().trim());
+        }
+      }
+    }
+    return values;
+  }
+
+  private static void write(Document document, Path output) throws IOException {
+    try (OutputStream out = Files.newOutputStream(output)) {
+      Transformer transformer = TransformerFactory.newInstance().newTransformer();
+      transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+      transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+      transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+      transformer.transform(new DOMSource(document), new StreamResult(out));
+    } catch (TransformerException e) {
+      throw new IOException("Cannot write " + output, e);
+    }
+  }
+
+  private static class XmlWriter {
+    private final Document document;
+    private final String namespace;
+
+    XmlWriter(Document document, String namespace) {
+      this.document = document;
+      this.namespace = namespace;
+    }
+
+    Element append(Element parent, String name) {
+      Element element = document.createElementNS(namespace, name);
+      parent.appendChild(element);
+      return element;
+    }
+
+    void append(Element parent, String name, String text) {
+      append(parent, name).setTextContent(text);
+    }
+
+    void appendInitParams(Element parent, Map<String, String> initParams) {
+      for (Map.Entry<String, String> initParam : initParams.entrySet()) {
+        Element element = append(parent, "init-param");
+        append(element, "param-name", initParam.getKey());
+        append(element, "param-value", initParam.getValue());
+      }
+    }
+  }
+
+  /**
+   * An annotated servlet, filter or listener class.
+   */
+  public static class WebComponent {
+    static final String SERVLET = "servlet";
+    static final String FILTER = "filter";
+    static final String LISTENER = "listener";
+
+    private String kind;
+    private String className;
+    private String name;
+    private List<String> urlPatterns = new ArrayList<>();
+    private List<String> servletNames = new ArrayList<>();
+    private List<String> dispatcherTypes = new ArrayList<>();
+    private Integer loadOnStartup;
+    private Boolean asyncSupported = Boolean.FALSE;
+    private Map<String, String> initParams = new LinkedHashMap<>();
+
+    // for Gson
+    private WebComponent() {
+    }
+
+    WebComponent(String kind, String className) {
+      this.kind = kind;
+      this.className = className;
+    }
+
+    /**
+     * One of "servlet", "filter" or "listener".
+     */
+    public String getKind() {
+      return kind;
+    }
+
+    public String getClassName() {
+      return className;
+    }
+
+    /**
+     * The servlet or filter name, null for listeners.
+     */
+    public String getName() {
+      return name;
+    }
+
+    public List<String> getUrlPatterns() {
+      return urlPatterns;
+    }
+  }
+}
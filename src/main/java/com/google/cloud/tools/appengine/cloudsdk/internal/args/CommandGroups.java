@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.internal.args;
+
+import com.google.common.base.Joiner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Names commands by what they do, without their arguments, such as {@code app deploy}, {@code
+ * app versions list} or {@code appcfg stage}, so that their metrics can be grouped.
+ */
+public class CommandGroups {
+
+  public static final String DEV_APPSERVER = "dev_appserver";
+  public static final String APPCFG = "appcfg";
+
+  // gcloud app commands are at most two levels deep, e.g. app versions list
+  private static final int MAX_SUBCOMMAND_WORDS = 2;
+  private static final Joiner SPACE = Joiner.on(' ');
+
+  /**
+   * Returns the group of a gcloud command.
+   *
+   * @param topLevelCommand the command group, such as {@code app}
+   * @param arguments       the subcommand, arguments and flags
+   * @return the top level command followed by the subcommand
+   */
+  public static String gcloud(List<String> topLevelCommand, List<String> arguments) {
+    List<String> words = new ArrayList<>(topLevelCommand);
+    for (String argument : arguments) {
+      if (words.size() == topLevelCommand.size() + MAX_SUBCOMMAND_WORDS
+          || !isCommandWord(argument)) {
+        break;
+      }
+      words.add(argument);
+    }
+    return SPACE.join(words);
+  }
+
+  /**
+   * Returns the group of an AppCfg command, whose action is its first argument that is not a flag.
+   */
+  public static String appCfg(List<String> arguments) {
+    for (String argument : arguments) {
+      if (!argument.startsWith("-")) {
+        return APPCFG + " " + argument;
+      }
+    }
+    return APPCFG;
+  }
+
+  // lowercase words and dashes, which excludes flags, paths, files and most version ids
+  private static boolean isCommandWord(String argument) {
+    if (argument.isEmpty() || argument.charAt(0) < 'a' || argument.charAt(0) > 'z') {
+      return false;
+    }
+    for (int i = 1; i < argument.length(); i++) {
+      char character = argument.charAt(i);
+      if ((character < 'a' || character > 'z') && character != '-') {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -16,16 +16,22 @@ package com.google.cloud.tools.appengine.cloudsdk.internal.process;
 
 import static java.lang.ProcessBuilder.Redirect;
 
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace.Stream;
 import com.google.cloud.tools.appengine.cloudsdk.process.ProcessExitListener;
 import com.google.cloud.tools.appengine.cloudsdk.process.ProcessOutputLineListener;
 import com.google.cloud.tools.appengine.cloudsdk.process.ProcessStartListener;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessTimeoutException;
 import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.logging.Logger;
 
 
 /**
@@ -33,14 +39,21 @@ import java.util.Scanner;
  * monitoring output and checking the exit code of the child process.
  */
 public class DefaultProcessRunner implements ProcessRunner {
+  private static final Logger logger = Logger.getLogger(DefaultProcessRunner.class.getName());
+  private static final long OUTPUT_WAIT_MILLIS = 5000;
+  private static final long TIMED_OUT_OUTPUT_WAIT_MILLIS = 1000;
+
   private final boolean async;
   private final List<ProcessOutputLineListener> stdOutLineListeners = new ArrayList<>();
   private final List<ProcessOutputLineListener> stdErrLineListeners = new ArrayList<>();
   private final List<ProcessExitListener> exitListeners;
   private final List<ProcessStartListener> startListeners;
   private final boolean inheritProcessOutput;
+  private final ProcessRegistry registry = ProcessRegistry.getInstance();
 
   private Map<String, String> environment;
+  private long timeoutMillis;
+  private long inactivityTimeoutMillis;
 
   /**
    * Base constructor.
@@ -89,6 +102,15 @@ public class DefaultProcessRunner implements ProcessRunner {
    */
   @Override
   public void run(String[] command) throws ProcessRunnerException {
+    run(command, CommandTrace.disabled());
+  }
+
+  /**
+   * Executes a shell command as {@link #run(String[])}, recording it in a trace. Synchronous runs
+   * finish the trace before returning, asynchronous runs when the process exits.
+   */
+  @Override
+  public void run(String[] command, CommandTrace trace) throws ProcessRunnerException {
     try {
       // Configure process builder.
       final ProcessBuilder processBuilder = new ProcessBuilder();
@@ -107,14 +129,48 @@ public class DefaultProcessRunner implements ProcessRunner {
 
       processBuilder.command(command);
 
+      trace.spawning();
       Process process = processBuilder.start();
+      trace.spawned(Arrays.asList(command));
+
+      ProcessWatchdog watchdog = null;
+      List<ProcessOutputLineListener> stdOutListeners = new ArrayList<>(stdOutLineListeners);
+      List<ProcessOutputLineListener> stdErrListeners = new ArrayList<>(stdErrLineListeners);
+      // the trace only sees the output that is read anyway: reading it for the trace alone would
+      // take it from callers reading the process streams themselves
+      if (trace.isEnabled() && !stdOutListeners.isEmpty()) {
+        stdOutListeners.add(trace.outputListener(Stream.STDOUT));
+      }
+      if (trace.isEnabled() && !stdErrListeners.isEmpty()) {
+        stdErrListeners.add(trace.outputListener(Stream.STDERR));
+      }
+      // the same goes for the watchdog: without any output read, only the run time is limited
+      boolean outputRead = !stdOutListeners.isEmpty() || !stdErrListeners.isEmpty();
+      long watchedInactivityMillis = outputRead ? inactivityTimeoutMillis : 0;
+      if (ProcessWatchdog.isEnabled(timeoutMillis, watchedInactivityMillis)) {
+        watchdog = new ProcessWatchdog(process, timeoutMillis, watchedInactivityMillis);
+        if (!stdOutListeners.isEmpty()) {
+          stdOutListeners.add(watchdog);
+        }
+        if (!stdErrListeners.isEmpty()) {
+          stdErrListeners.add(watchdog);
+        }
+      }
 
       // Only handle stdout or stderr if there are listeners.
-      if (!stdOutLineListeners.isEmpty()) {
-        handleStdOut(process);
+      List<Thread> outputThreads = new ArrayList<>();
+      if (!stdOutListeners.isEmpty()) {
+        outputThreads.add(handleStdOut(process, stdOutListeners));
       }
-      if (!stdErrLineListeners.isEmpty()) {
-        handleErrOut(process);
+      if (!stdErrListeners.isEmpty()) {
+        outputThreads.add(handleErrOut(process, stdErrListeners));
+      }
+
+      // synchronous commands must not outlive the JVM, which is blocked on them
+      registry.register(process, Arrays.asList(command), !async);
+
+      if (watchdog != null) {
+        watchdog.start();
       }
 
       for (ProcessStartListener startListener : startListeners) {
@@ -122,13 +178,23 @@ public class DefaultProcessRunner implements ProcessRunner {
       }
 
       if (async) {
-        asyncRun(process);
+        asyncRun(process, outputThreads, watchdog, trace);
       } else {
-        shutdownProcessHook(process);
-        syncRun(process);
+        try {
+          syncRun(process, outputThreads, watchdog, trace);
+        } catch (InterruptedException | RuntimeException e) {
+          // recorded here, as the trace is finished before the outer handler runs
+          trace.failed(e);
+          throw e;
+        } finally {
+          registry.unregister(process);
+          trace.finish();
+        }
       }
 
     } catch (IOException | InterruptedException | IllegalThreadStateException e) {
+      trace.failed(e);
+      trace.finish();
       throw new ProcessRunnerException(e);
     }
   }
@@ -141,7 +207,30 @@ public class DefaultProcessRunner implements ProcessRunner {
     this.environment = environment;
   }
 
-  private void handleStdOut(final Process process) {
+  /**
+   * Limits how long each command may run and how long it may go without writing a line of output.
+   * When either expires, the process and its descendants are terminated, and synchronous runs
+   * throw a {@link ProcessRunnerException} caused by a {@link ProcessTimeoutException};
+   * asynchronous runs only log it, as there is no caller left to tell. The inactivity timeout needs
+   * the process output, so it cannot be combined with inherited output, and only applies to
+   * commands with output listeners: it only counts the lines of the streams that have listeners,
+   * and is ignored if neither has any.
+   *
+   * @param timeoutMillis           maximum run time in milliseconds, or 0 for no limit
+   * @param inactivityTimeoutMillis maximum time without output in milliseconds, or 0 for no limit
+   */
+  public void setTimeouts(long timeoutMillis, long inactivityTimeoutMillis) {
+    Preconditions.checkArgument(timeoutMillis >= 0, "timeout must not be negative");
+    Preconditions.checkArgument(inactivityTimeoutMillis >= 0,
+        "inactivity timeout must not be negative");
+    Preconditions.checkArgument(inactivityTimeoutMillis == 0 || !inheritProcessOutput,
+        "inactivity timeout requires process output not to be inherited");
+    this.timeoutMillis = timeoutMillis;
+    this.inactivityTimeoutMillis = inactivityTimeoutMillis;
+  }
+
+  private Thread handleStdOut(final Process process,
+      final List<ProcessOutputLineListener> stdOutLineListeners) {
     final Scanner stdOut = new Scanner(process.getInputStream(), Charsets.UTF_8.name());
     Thread stdOutThread = new Thread("standard-out") {
       @Override
@@ -157,9 +246,11 @@ public class DefaultProcessRunner implements ProcessRunner {
     };
     stdOutThread.setDaemon(true);
     stdOutThread.start();
+    return stdOutThread;
   }
 
-  private void handleErrOut(final Process process) {
+  private Thread handleErrOut(final Process process,
+      final List<ProcessOutputLineListener> stdErrLineListeners) {
     final Scanner stdErr = new Scanner(process.getErrorStream(), Charsets.UTF_8.name());
     Thread stdErrThread = new Thread("standard-err") {
       @Override
@@ -175,29 +266,48 @@ public class DefaultProcessRunner implements ProcessRunner {
     };
     stdErrThread.setDaemon(true);
     stdErrThread.start();
+    return stdErrThread;
   }
 
-  private void syncRun(final Process process) throws InterruptedException {
+  private void syncRun(final Process process, List<Thread> outputThreads,
+      ProcessWatchdog watchdog, CommandTrace trace)
+      throws InterruptedException, ProcessRunnerException {
     int exitCode = process.waitFor();
+    stopWatchdog(watchdog);
+    awaitOutput(outputThreads, watchdog);
+    trace.exited(exitCode);
     for (ProcessExitListener exitListener : exitListeners) {
       exitListener.onExit(exitCode);
     }
+    if (watchdog != null && watchdog.getTimeout() != null) {
+      trace.failed(watchdog.getTimeout());
+      throw new ProcessRunnerException(watchdog.getTimeout());
+    }
   }
 
-  private void asyncRun(final Process process) throws InterruptedException {
-    if (exitListeners.size() > 0) {
+  private void asyncRun(final Process process, final List<Thread> outputThreads,
+      final ProcessWatchdog watchdog, final CommandTrace trace) throws InterruptedException {
+    if (exitListeners.size() > 0 || watchdog != null || trace.isEnabled()) {
       Thread exitThread = new Thread("wait-for-exit") {
         @Override
         public void run() {
           try {
             process.waitFor();
+            registry.unregister(process);
+            stopWatchdog(watchdog);
+            awaitOutput(outputThreads, watchdog);
           } catch (InterruptedException e) {
             e.printStackTrace();
           } finally {
             int exitCode = process.exitValue();
+            trace.exited(exitCode);
             for (ProcessExitListener exitListener : exitListeners) {
               exitListener.onExit(exitCode);
             }
+            if (watchdog != null && watchdog.getTimeout() != null) {
+              trace.failed(watchdog.getTimeout());
+            }
+            trace.finish();
           }
         }
       };
@@ -206,14 +316,27 @@ public class DefaultProcessRunner implements ProcessRunner {
     }
   }
 
-  private void shutdownProcessHook(final Process process) {
-    Runtime.getRuntime().addShutdownHook(new Thread("destroy-process") {
-      @Override
-      public void run() {
-        if (process != null) {
-          process.destroy();
-        }
+  private static void stopWatchdog(ProcessWatchdog watchdog) {
+    if (watchdog != null) {
+      watchdog.stop();
+    }
+  }
+
+  // Lets the output listeners see all of the output before the exit listeners are called. A
+  // descendant that outlives the process, such as the JVM of a development server, may hold the
+  // output open, so this gives up after a while, sooner after a timeout.
+  private static void awaitOutput(List<Thread> outputThreads, ProcessWatchdog watchdog)
+      throws InterruptedException {
+    boolean timedOut = watchdog != null && watchdog.getTimeout() != null;
+    long deadline = System.currentTimeMillis()
+        + (timedOut ? TIMED_OUT_OUTPUT_WAIT_MILLIS : OUTPUT_WAIT_MILLIS);
+    for (Thread outputThread : outputThreads) {
+      outputThread.join(Math.max(1, deadline - System.currentTimeMillis()));
+      if (outputThread.isAlive()) {
+        logger.warning("The output of the process is still open after it exited, probably held by"
+            + " a descendant; its listeners may see more lines after the exit listeners");
+        return;
       }
-    });
+    }
   }
 }
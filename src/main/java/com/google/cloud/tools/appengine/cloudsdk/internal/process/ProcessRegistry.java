@@ -0,0 +1,257 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.internal.process;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tracks the child processes started by the library. A single reaper thread drops processes that
+ * exited, and a single shutdown hook terminates those registered to not outlive the JVM, instead
+ * of a hook per process. Processes are terminated with their descendants (where the JVM can tell
+ * them, see {@link ProcessTree}): gracefully first, and forcibly after a grace period.
+ */
+public class ProcessRegistry {
+
+  private static final Logger logger = Logger.getLogger(ProcessRegistry.class.getName());
+  private static final long REAP_INTERVAL_MILLIS = 1000;
+  private static final long GRACE_PERIOD_MILLIS = 2000;
+  private static final ProcessRegistry INSTANCE =
+      new ProcessRegistry(REAP_INTERVAL_MILLIS, GRACE_PERIOD_MILLIS);
+
+  private final long reapIntervalMillis;
+  private final long gracePeriodMillis;
+  private final Map<Process, RunningCommand> running = new ConcurrentHashMap<>();
+  // guarded by this
+  private Thread reaper;
+  private boolean shutdownHookAdded;
+
+  @VisibleForTesting
+  ProcessRegistry(long reapIntervalMillis, long gracePeriodMillis) {
+    this.reapIntervalMillis = reapIntervalMillis;
+    this.gracePeriodMillis = gracePeriodMillis;
+  }
+
+  /**
+   * Returns the registry shared by all process runners.
+   */
+  public static ProcessRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Starts tracking a process until it exits or is unregistered.
+   *
+   * @param process           the started process
+   * @param command           the command line it runs
+   * @param destroyOnShutdown whether to terminate the process when the JVM shuts down, as opposed
+   *                          to letting it run on, like an asynchronously started server
+   */
+  public RunningCommand register(Process process, List<String> command,
+      boolean destroyOnShutdown) {
+    Preconditions.checkNotNull(process);
+    RunningCommand runningCommand = new RunningCommand(process, command, destroyOnShutdown);
+    running.put(process, runningCommand);
+    synchronized (this) {
+      if (destroyOnShutdown && !shutdownHookAdded) {
+        Runtime.getRuntime().addShutdownHook(new Thread("destroy-processes") {
+          @Override
+          public void run() {
+            destroyOnShutdown();
+          }
+        });
+        shutdownHookAdded = true;
+      }
+      if (reaper == null) {
+        reaper = new Thread("process-reaper") {
+          @Override
+          public void run() {
+            reap();
+          }
+        };
+        reaper.setDaemon(true);
+        reaper.start();
+      }
+    }
+    return runningCommand;
+  }
+
+  /**
+   * Stops tracking a process, typically because its owner saw it exit.
+   */
+  public void unregister(Process process) {
+    running.remove(process);
+  }
+
+  /**
+   * Returns the tracked processes that are still running, the longest running first.
+   */
+  public List<RunningCommand> getRunningCommands() {
+    List<RunningCommand> commands = new ArrayList<>();
+    for (RunningCommand command : running.values()) {
+      if (ProcessTree.isAlive(command.getProcess())) {
+        commands.add(command);
+      }
+    }
+    Collections.sort(commands, new Comparator<RunningCommand>() {
+      @Override
+      public int compare(RunningCommand first, RunningCommand second) {
+        return Long.compare(first.startNanos, second.startNanos);
+      }
+    });
+    return commands;
+  }
+
+  /**
+   * Terminates a process and its descendants, waiting for them to exit.
+   *
+   * @return whether all of them exited
+   */
+  public boolean destroy(Process process) throws InterruptedException {
+    return destroyProcesses(Collections.singletonList(process));
+  }
+
+  /**
+   * Terminates the processes of a tree snapshot taken earlier, waiting for them to exit. Unlike
+   * {@link #destroy(Process)}, this reaches descendants that the process left behind, if the
+   * snapshot was taken while they were still its descendants.
+   *
+   * @return whether all of them exited
+   */
+  public boolean destroy(ProcessTree tree) throws InterruptedException {
+    boolean destroyed = ProcessTree.destroy(Collections.singletonList(tree), gracePeriodMillis);
+    unregister(tree.getProcess());
+    return destroyed;
+  }
+
+  /**
+   * Terminates all tracked processes and their descendants, waiting for them to exit.
+   *
+   * @return whether all of them exited
+   */
+  public boolean destroyAll() throws InterruptedException {
+    return destroyProcesses(new ArrayList<>(running.keySet()));
+  }
+
+  private boolean destroyProcesses(Collection<Process> processes) throws InterruptedException {
+    boolean destroyed = ProcessTree.destroy(ProcessTree.of(processes), gracePeriodMillis);
+    for (Process process : processes) {
+      unregister(process);
+    }
+    return destroyed;
+  }
+
+  @VisibleForTesting
+  boolean isTracked(Process process) {
+    return running.containsKey(process);
+  }
+
+  @VisibleForTesting
+  void destroyOnShutdown() {
+    List<Process> processes = new ArrayList<>();
+    for (RunningCommand command : running.values()) {
+      if (command.destroyOnShutdown) {
+        processes.add(command.getProcess());
+      }
+    }
+    try {
+      destroyProcesses(processes);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void reap() {
+    while (true) {
+      try {
+        Thread.sleep(reapIntervalMillis);
+      } catch (InterruptedException e) {
+        logger.log(Level.FINE, "Process reaper interrupted", e);
+      }
+      for (RunningCommand command : running.values()) {
+        if (!ProcessTree.isAlive(command.getProcess())) {
+          unregister(command.getProcess());
+        }
+      }
+      synchronized (this) {
+        if (running.isEmpty()) {
+          // started again by the next registration
+          reaper = null;
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * A tracked process and the command it runs.
+   */
+  public static class RunningCommand {
+    private final Process process;
+    private final List<String> command;
+    private final boolean destroyOnShutdown;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+
+    private RunningCommand(Process process, List<String> command, boolean destroyOnShutdown) {
+      this.process = process;
+      this.command = ImmutableList.copyOf(command);
+      this.destroyOnShutdown = destroyOnShutdown;
+    }
+
+    public Process getProcess() {
+      return process;
+    }
+
+    public List<String> getCommand() {
+      return command;
+    }
+
+    /**
+     * Returns when the process was registered, in milliseconds since the epoch.
+     */
+    public long getStartTimeMillis() {
+      return startMillis;
+    }
+
+    /**
+     * Returns how long the process has been running.
+     */
+    public long getAge(TimeUnit unit) {
+      return unit.convert(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+      return Joiner.on(' ').join(command) + " (running for " + getAge(TimeUnit.SECONDS) + "s)";
+    }
+  }
+}
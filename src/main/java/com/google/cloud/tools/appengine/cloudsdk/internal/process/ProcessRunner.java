@@ -14,6 +14,8 @@
 
 package com.google.cloud.tools.appengine.cloudsdk.internal.process;
 
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace;
+
 import java.util.Map;
 
 /**
@@ -23,6 +25,12 @@ public interface ProcessRunner {
 
   void run(String[] command) throws ProcessRunnerException;
 
+  /**
+   * Runs a command, recording its start, output and exit in {@code trace}, and finishing the trace
+   * once the process exited or failed to start.
+   */
+  void run(String[] command, CommandTrace trace) throws ProcessRunnerException;
+
   void setEnvironment(Map<String, String> environment);
 
 }
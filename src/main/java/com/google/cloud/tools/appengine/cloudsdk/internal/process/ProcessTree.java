@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.internal.process;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A process and the descendants it had when the tree was created. Descendants are only known on
+ * Java 9 and later, through {@code ProcessHandle}, and forced termination needs Java 8; both are
+ * used reflectively so the library still runs on Java 7, where only the process itself is
+ * terminated, gracefully.
+ */
+public final class ProcessTree {
+
+  private static final Logger logger = Logger.getLogger(ProcessTree.class.getName());
+  private static final long POLL_MILLIS = 20;
+
+  private static final Method PROCESS_DESTROY_FORCIBLY = method(Process.class, "destroyForcibly");
+  private static final Method PROCESS_TO_HANDLE = method(Process.class, "toHandle");
+  private static final Method HANDLE_DESCENDANTS = method("java.lang.ProcessHandle", "descendants");
+  private static final Method HANDLE_DESTROY = method("java.lang.ProcessHandle", "destroy");
+  private static final Method HANDLE_DESTROY_FORCIBLY =
+      method("java.lang.ProcessHandle", "destroyForcibly");
+  private static final Method HANDLE_IS_ALIVE = method("java.lang.ProcessHandle", "isAlive");
+  private static final Method HANDLE_PID = method("java.lang.ProcessHandle", "pid");
+  private static final Method HANDLE_INFO = method("java.lang.ProcessHandle", "info");
+  private static final Method INFO_COMMAND = method("java.lang.ProcessHandle$Info", "command");
+  private static final Method OPTIONAL_IS_PRESENT = method("java.util.Optional", "isPresent");
+  private static final Method OPTIONAL_GET = method("java.util.Optional", "get");
+  private static final Method STREAM_ITERATOR = method("java.util.stream.BaseStream", "iterator");
+
+  private final Process process;
+  // ProcessHandles
+  private final List<Object> descendants;
+
+  private ProcessTree(Process process, List<Object> descendants) {
+    this.process = process;
+    this.descendants = descendants;
+  }
+
+  /**
+   * Takes a snapshot of the process tree rooted at a process.
+   */
+  public static ProcessTree of(Process process) {
+    List<Object> descendants = new ArrayList<>();
+    if (PROCESS_TO_HANDLE != null && HANDLE_DESCENDANTS != null && STREAM_ITERATOR != null) {
+      Object stream = invoke(HANDLE_DESCENDANTS, invoke(PROCESS_TO_HANDLE, process));
+      Iterator<?> iterator = stream == null ? null : (Iterator<?>) invoke(STREAM_ITERATOR, stream);
+      while (iterator != null && iterator.hasNext()) {
+        descendants.add(iterator.next());
+      }
+    }
+    return new ProcessTree(process, descendants);
+  }
+
+  /**
+   * Takes snapshots of the process trees rooted at some processes.
+   */
+  static List<ProcessTree> of(Collection<Process> processes) {
+    List<ProcessTree> trees = new ArrayList<>();
+    for (Process process : processes) {
+      trees.add(of(process));
+    }
+    return Collections.unmodifiableList(trees);
+  }
+
+  /**
+   * Asks every process of the trees to terminate, and forcibly terminates those still alive after
+   * the grace period, then waits up to another grace period for them to go away.
+   *
+   * @return whether all processes terminated
+   */
+  static boolean destroy(Collection<ProcessTree> trees, long gracePeriodMillis)
+      throws InterruptedException {
+    for (ProcessTree tree : trees) {
+      tree.terminate(false);
+    }
+    if (awaitTermination(trees, gracePeriodMillis)) {
+      return true;
+    }
+    for (ProcessTree tree : trees) {
+      if (tree.isAlive()) {
+        logger.info("Forcibly terminating " + tree);
+        tree.terminate(true);
+      }
+    }
+    return awaitTermination(trees, gracePeriodMillis);
+  }
+
+  /**
+   * Whether the process or any of its known descendants is alive.
+   */
+  public boolean isAlive() {
+    if (isAlive(process)) {
+      return true;
+    }
+    for (Object descendant : descendants) {
+      if (Boolean.TRUE.equals(invoke(HANDLE_IS_ALIVE, descendant)) && !isZombie(descendant)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether the process itself is alive.
+   */
+  public static boolean isAlive(Process process) {
+    try {
+      process.exitValue();
+      return false;
+    } catch (IllegalThreadStateException e) {
+      return true;
+    }
+  }
+
+  // Orphaned descendants are reaped by init, which is slow or, in some containers, never happens;
+  // until then Java considers them alive. Only Linux tells.
+  private static boolean isZombie(Object handle) {
+    Object pid = invoke(HANDLE_PID, handle);
+    Path stat = Paths.get("/proc", String.valueOf(pid), "stat");
+    if (pid == null || !Files.isReadable(stat)) {
+      return false;
+    }
+    try {
+      String contents = new String(Files.readAllBytes(stat), StandardCharsets.US_ASCII);
+      // pid (command) state ...
+      int state = contents.lastIndexOf(')') + 2;
+      return state < contents.length() && contents.charAt(state) == 'Z';
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the ids of the descendants that were alive when the tree was created and run an
+   * executable of the given name, such as {@code java}; always empty before Java 9.
+   */
+  public List<Long> getDescendantPids(String executable) {
+    List<Long> pids = new ArrayList<>();
+    for (Object descendant : descendants) {
+      Object command = invoke(INFO_COMMAND, invoke(HANDLE_INFO, descendant));
+      if (command == null || !Boolean.TRUE.equals(invoke(OPTIONAL_IS_PRESENT, command))) {
+        continue;
+      }
+      String name = Paths.get((String) invoke(OPTIONAL_GET, command)).getFileName().toString();
+      if (name.equals(executable) || name.equals(executable + ".exe")) {
+        pids.add((Long) invoke(HANDLE_PID, descendant));
+      }
+    }
+    return pids;
+  }
+
+  Process getProcess() {
+    return process;
+  }
+
+  @Override
+  public String toString() {
+    return "process tree of " + process + " with " + descendants.size() + " descendants";
+  }
+
+  private void terminate(boolean forcibly) {
+    // the parent first, so it gets a chance to clean up after its children
+    if (forcibly && PROCESS_DESTROY_FORCIBLY != null) {
+      invoke(PROCESS_DESTROY_FORCIBLY, process);
+    } else {
+      process.destroy();
+    }
+    Method destroy = forcibly ? HANDLE_DESTROY_FORCIBLY : HANDLE_DESTROY;
+    for (Object descendant : descendants) {
+      invoke(destroy, descendant);
+    }
+  }
+
+  private static boolean awaitTermination(Collection<ProcessTree> trees, long timeoutMillis)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    List<ProcessTree> alive = new ArrayList<>(trees);
+    while (true) {
+      for (Iterator<ProcessTree> iterator = alive.iterator(); iterator.hasNext(); ) {
+        if (!iterator.next().isAlive()) {
+          iterator.remove();
+        }
+      }
+      if (alive.isEmpty()) {
+        return true;
+      }
+      if (System.nanoTime() >= deadline) {
+        return false;
+      }
+      Thread.sleep(POLL_MILLIS);
+    }
+  }
+
+  private static Method method(String className, String name) {
+    try {
+      return method(Class.forName(className), name);
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+  private static Method method(Class<?> type, String name) {
+    try {
+      return type.getMethod(name);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static Object invoke(Method method, Object target) {
+    if (method == null) {
+      return null;
+    }
+    try {
+      return method.invoke(target);
+    } catch (IllegalAccessException | InvocationTargetException | RuntimeException e) {
+      logger.log(Level.FINE, "Cannot call " + method, e);
+      return null;
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.internal.process;
+
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessOutputLineListener;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessTimeoutException;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessTimeoutException.Reason;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Enforces a wall-clock and an output-inactivity timeout on a process. When either expires, the
+ * process and its descendants are terminated through the {@link ProcessRegistry}, and {@link
+ * #getTimeout()} describes what happened. The watchdog must see the output of the process, as an
+ * output listener of both streams, for the inactivity timeout and the output tail to work.
+ *
+ * <p>All watchdogs share a single timer thread, which only wakes up when a deadline is due.
+ */
+public class ProcessWatchdog implements ProcessOutputLineListener {
+
+  /** Number of output lines kept for the timeout failure. */
+  public static final int TAIL_LINES = 20;
+
+  private static final Logger logger = Logger.getLogger(ProcessWatchdog.class.getName());
+  private static final ScheduledThreadPoolExecutor timer = newTimer();
+
+  private final Process process;
+  private final ProcessRegistry registry;
+  private final long timeoutNanos;
+  private final long inactivityTimeoutNanos;
+  private final long startNanos = System.nanoTime();
+  private volatile long lastOutputNanos = startNanos;
+  // guarded by itself
+  private final Deque<String> tail = new ArrayDeque<>(TAIL_LINES);
+  // guarded by this
+  private ScheduledFuture<?> check;
+  private boolean stopped;
+  private volatile ProcessTimeoutException timeout;
+
+  /**
+   * Creates a watchdog, which does nothing until started.
+   *
+   * @param process                 the process to watch
+   * @param timeoutMillis           how long the process may run, or 0 for no limit
+   * @param inactivityTimeoutMillis how long the process may go without writing a line, or 0 for
+   *                                no limit
+   */
+  public ProcessWatchdog(Process process, long timeoutMillis, long inactivityTimeoutMillis) {
+    this(process, ProcessRegistry.getInstance(), timeoutMillis, inactivityTimeoutMillis);
+  }
+
+  ProcessWatchdog(Process process, ProcessRegistry registry, long timeoutMillis,
+      long inactivityTimeoutMillis) {
+    Preconditions.checkArgument(timeoutMillis >= 0, "timeout must not be negative");
+    Preconditions.checkArgument(inactivityTimeoutMillis >= 0,
+        "inactivity timeout must not be negative");
+    this.process = Preconditions.checkNotNull(process);
+    this.registry = Preconditions.checkNotNull(registry);
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    this.inactivityTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(inactivityTimeoutMillis);
+  }
+
+  /**
+   * Whether any timeout is set, that is whether starting a watchdog with them does anything.
+   */
+  public static boolean isEnabled(long timeoutMillis, long inactivityTimeoutMillis) {
+    return timeoutMillis > 0 || inactivityTimeoutMillis > 0;
+  }
+
+  /**
+   * Starts timing the process.
+   */
+  public synchronized void start() {
+    Preconditions.checkState(check == null && !stopped, "Already started");
+    scheduleCheck(System.nanoTime());
+  }
+
+  /**
+   * Stops timing the process, typically because it exited. Does not undo a timeout that already
+   * expired.
+   */
+  public synchronized void stop() {
+    stopped = true;
+    if (check != null) {
+      check.cancel(false);
+    }
+  }
+
+  @Override
+  public void onOutputLine(String line) {
+    lastOutputNanos = System.nanoTime();
+    synchronized (tail) {
+      if (tail.size() == TAIL_LINES) {
+        tail.removeFirst();
+      }
+      tail.addLast(line);
+    }
+  }
+
+  /**
+   * Returns the failure to report if a timeout expired, or null.
+   */
+  @Nullable
+  public ProcessTimeoutException getTimeout() {
+    return timeout;
+  }
+
+  private synchronized void check() {
+    if (stopped) {
+      return;
+    }
+    long now = System.nanoTime();
+    if (timeoutNanos > 0 && now - startNanos >= timeoutNanos) {
+      expire(Reason.WALL_CLOCK, timeoutNanos);
+    } else if (inactivityTimeoutNanos > 0 && now - lastOutputNanos >= inactivityTimeoutNanos) {
+      expire(Reason.INACTIVITY, inactivityTimeoutNanos);
+    } else {
+      scheduleCheck(now);
+    }
+  }
+
+  // Wakes up at the nearest deadline; output pushes the inactivity deadline back, which is only
+  // noticed then, so output costs a volatile write rather than a reschedule.
+  private void scheduleCheck(long now) {
+    long delay = Long.MAX_VALUE;
+    if (timeoutNanos > 0) {
+      delay = startNanos + timeoutNanos - now;
+    }
+    if (inactivityTimeoutNanos > 0) {
+      delay = Math.min(delay, lastOutputNanos + inactivityTimeoutNanos - now);
+    }
+    if (delay == Long.MAX_VALUE) {
+      return;
+    }
+    check = timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        check();
+      }
+    }, Math.max(delay, 0), TimeUnit.NANOSECONDS);
+  }
+
+  private void expire(Reason reason, long timeoutNanos) {
+    stopped = true;
+    synchronized (tail) {
+      timeout = new ProcessTimeoutException(reason, TimeUnit.NANOSECONDS.toMillis(timeoutNanos),
+          new ArrayList<>(tail));
+    }
+    logger.warning(timeout.getMessage());
+
+    // terminating waits out a grace period, which must not hold up the other watchdogs
+    Thread terminator = new Thread("process-timeout") {
+      @Override
+      public void run() {
+        try {
+          if (!registry.destroy(process)) {
+            logger.warning("Timed out process did not exit: " + process);
+          }
+        } catch (InterruptedException e) {
+          logger.log(Level.FINE, "Interrupted terminating timed out process", e);
+        }
+      }
+    };
+    terminator.setDaemon(true);
+    terminator.start();
+  }
+
+  private static ScheduledThreadPoolExecutor newTimer() {
+    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "process-watchdog");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    timer.setRemoveOnCancelPolicy(true);
+    return timer;
+  }
+}
@@ -21,6 +21,9 @@ import com.google.cloud.tools.appengine.cloudsdk.process.ProcessOutputLineListen
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
 
 /**
  * Provides a mechanism to wait for a successful start of a process by monitoring the process output
@@ -29,6 +32,8 @@ import java.util.concurrent.TimeUnit;
 public class WaitingProcessOutputLineListener implements ProcessOutputLineListener,
     ProcessExitListener {
   private final String message;
+  @Nullable
+  private final Pattern pattern;
   private final int timeoutSeconds;
   private CountDownLatch waitLatch;
   private volatile boolean exited;
@@ -43,6 +48,7 @@ public class WaitingProcessOutputLineListener implements ProcessOutputLineListen
    */
   public WaitingProcessOutputLineListener(String message, int timeoutSeconds) {
     this.message = message;
+    this.pattern = message == null ? null : Pattern.compile(message);
     this.timeoutSeconds = timeoutSeconds;
     this.waitLatch = new CountDownLatch(1);
   }
@@ -78,11 +84,12 @@ public class WaitingProcessOutputLineListener implements ProcessOutputLineListen
   }
 
   /**
-   * Monitors the output of the process to check whether the wait condition is satisfied.
+   * Monitors the output of the process to check whether the wait condition is satisfied. Once it
+   * is, lines are no longer matched.
    */
   @Override
   public void onOutputLine(String line) {
-    if (waitLatch.getCount() > 0 && message != null && line.matches(message)) {
+    if (pattern != null && waitLatch.getCount() > 0 && pattern.matcher(line).matches()) {
       waitLatch.countDown();
     }
   }
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.loadtest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Incremental parser of HTTP/1.x responses, fed with whatever bytes a non-blocking read returned.
+ * Bodies are skipped, not kept. Supports {@code Content-Length}, chunked and close-delimited
+ * bodies.
+ */
+final class HttpResponseParser {
+
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+  private enum State {
+    STATUS_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, DONE
+  }
+
+  private final StringBuilder line = new StringBuilder();
+  private State state;
+  private boolean head;
+  private int status;
+  private long contentLength;
+  private boolean chunked;
+  private boolean close;
+  private boolean untilClose;
+  private long remaining;
+
+  HttpResponseParser() {
+    reset(false);
+  }
+
+  /**
+   * Prepares for the response to a new request.
+   *
+   * @param head whether the request was a HEAD request, whose response has no body
+   */
+  void reset(boolean head) {
+    this.head = head;
+    state = State.STATUS_LINE;
+    line.setLength(0);
+    status = 0;
+    contentLength = -1;
+    chunked = false;
+    close = false;
+    untilClose = false;
+    remaining = 0;
+  }
+
+  /**
+   * Consumes the available bytes of the buffer, up to the end of the response.
+   *
+   * @return whether the response is complete
+   * @throws IOException if the response is malformed
+   */
+  boolean parse(ByteBuffer buffer) throws IOException {
+    while (state != State.DONE && buffer.hasRemaining()) {
+      switch (state) {
+        case BODY:
+        case CHUNK_DATA:
+          int skipped = (int) Math.min(remaining, buffer.remaining());
+          buffer.position(buffer.position() + skipped);
+          if (!untilClose) {
+            remaining -= skipped;
+          }
+          if (remaining == 0) {
+            state = state == State.BODY ? State.DONE : State.CHUNK_END;
+          }
+          break;
+        default:
+          String complete = readLine(buffer);
+          if (complete != null) {
+            onLine(complete);
+          }
+          break;
+      }
+    }
+    return state == State.DONE;
+  }
+
+  /**
+   * Handles the end of the stream.
+   *
+   * @return whether the response is complete, because its body was delimited by the end of the
+   *     stream
+   * @throws IOException if the stream ended within the response
+   */
+  boolean onEndOfStream() throws IOException {
+    if (state == State.BODY && untilClose) {
+      state = State.DONE;
+      close = true;
+      return true;
+    }
+    if (state == State.DONE) {
+      return true;
+    }
+    throw new IOException("Connection closed in " + state.name().toLowerCase(Locale.US));
+  }
+
+  int getStatus() {
+    return status;
+  }
+
+  /**
+   * Whether the server closes the connection after this response.
+   */
+  boolean isConnectionClose() {
+    return close;
+  }
+
+  private String readLine(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      char next = (char) (buffer.get() & 0xff);
+      if (next == '\n') {
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+          line.setLength(length - 1);
+        }
+        String complete = line.toString();
+        line.setLength(0);
+        return complete;
+      }
+      if (line.length() >= MAX_LINE_LENGTH) {
+        throw new IOException("Response line longer than " + MAX_LINE_LENGTH + " characters");
+      }
+      line.append(next);
+    }
+    return null;
+  }
+
+  private void onLine(String text) throws IOException {
+    switch (state) {
+      case STATUS_LINE:
+        // HTTP/1.1 200 OK
+        String[] parts = text.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+          throw new IOException("Bad status line: " + text);
+        }
+        try {
+          status = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+          throw new IOException("Bad status line: " + text, e);
+        }
+        close = parts[0].equals("HTTP/1.0");
+        state = State.HEADERS;
+        break;
+      case HEADERS:
+        if (text.isEmpty()) {
+          endHeaders();
+        } else {
+          onHeader(text);
+        }
+        break;
+      case CHUNK_SIZE:
+        int extension = text.indexOf(';');
+        String size = (extension >= 0 ? text.substring(0, extension) : text).trim();
+        try {
+          remaining = Long.parseLong(size, 16);
+        } catch (NumberFormatException e) {
+          throw new IOException("Bad chunk size: " + text, e);
+        }
+        state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+        break;
+      case CHUNK_END:
+        if (!text.isEmpty()) {
+          throw new IOException("Missing chunk terminator");
+        }
+        state = State.CHUNK_SIZE;
+        break;
+      case TRAILERS:
+        if (text.isEmpty()) {
+          state = State.DONE;
+        }
+        break;
+      default:
+        throw new IllegalStateException(state.name());
+    }
+  }
+
+  private void onHeader(String header) throws IOException {
+    int colon = header.indexOf(':');
+    if (colon <= 0) {
+      throw new IOException("Bad header: " + header);
+    }
+    String name = header.substring(0, colon).trim().toLowerCase(Locale.US);
+    String value = header.substring(colon + 1).trim().toLowerCase(Locale.US);
+    if (name.equals("content-length")) {
+      try {
+        contentLength = Long.parseLong(value);
+      } catch (NumberFormatException e) {
+        throw new IOException("Bad content length: " + value, e);
+      }
+    } else if (name.equals("transfer-encoding")) {
+      chunked = value.endsWith("chunked");
+    } else if (name.equals("connection")) {
+      if (value.contains("close")) {
+        close = true;
+      } else if (value.contains("keep-alive")) {
+        close = false;
+      }
+    }
+  }
+
+  private void endHeaders() {
+    if (head || status / 100 == 1 || status == 204 || status == 304) {
+      state = State.DONE;
+    } else if (chunked) {
+      state = State.CHUNK_SIZE;
+    } else if (contentLength >= 0) {
+      remaining = contentLength;
+      state = contentLength == 0 ? State.DONE : State.BODY;
+    } else {
+      untilClose = true;
+      remaining = Long.MAX_VALUE;
+      state = State.BODY;
+    }
+  }
+}
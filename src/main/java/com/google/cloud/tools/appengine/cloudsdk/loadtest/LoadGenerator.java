@@ -0,0 +1,584 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.loadtest;
+
+import com.google.cloud.tools.appengine.api.devserver.RunConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.loadtest.LoadReport.Correction;
+import com.google.cloud.tools.appengine.cloudsdk.loadtest.LoadReport.Failure;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Sends HTTP requests to a server, such as a development server, and reports their latencies.
+ *
+ * <pre>{@code
+ * LoadReport report = LoadGenerator.builder(runConfiguration)
+ *     .addRequest(LoadRequest.get("/"), 9)
+ *     .addRequest(LoadRequest.post("/api", "application/json", body), 1)
+ *     .rate(500, 64)
+ *     .warmUp(10, TimeUnit.SECONDS)
+ *     .duration(60, TimeUnit.SECONDS)
+ *     .build()
+ *     .run();
+ * report.write(Paths.get("load.json"));
+ * }</pre>
+ *
+ * <p>The load is either a fixed concurrency, where each connection sends its next request as soon
+ * as it received a response, or a fixed rate, where requests are sent on schedule over as many
+ * connections as needed, up to a limit. Requests are picked from the mix at random, in proportion
+ * to their weights. See {@link LoadReport} for how latencies are corrected for coordinated
+ * omission.
+ *
+ * <p>All connections are served by one thread with non-blocking I/O, using HTTP/1.1 persistent
+ * connections, so a single JVM can sustain thousands of requests per second.
+ */
+public class LoadGenerator {
+
+  private static final Logger logger = Logger.getLogger(LoadGenerator.class.getName());
+  private static final String DEFAULT_HOST = "localhost";
+  private static final int DEFAULT_PORT = 8080;
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final long TIMEOUT_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  /**
+   * How the load is applied.
+   */
+  public enum Mode {
+    /** A fixed number of connections, each sending a request after the other. */
+    CONCURRENCY,
+    /** A fixed number of requests per second. */
+    RATE
+  }
+
+  private final String host;
+  private final int port;
+  private final List<LoadRequest> requests;
+  private final int[] cumulativeWeights;
+  private final Mode mode;
+  private final int concurrency;
+  private final double rate;
+  private final int maxConnections;
+  private final long warmUpNanos;
+  private final long durationNanos;
+  private final long timeoutNanos;
+  private final Random random;
+
+  private LoadGenerator(Builder builder) {
+    this.host = builder.host;
+    this.port = builder.port;
+    this.requests = new ArrayList<>(builder.requests);
+    this.cumulativeWeights = new int[requests.size()];
+    int total = 0;
+    for (int i = 0; i < requests.size(); i++) {
+      total += builder.weights.get(i);
+      cumulativeWeights[i] = total;
+    }
+    this.mode = builder.mode;
+    this.concurrency = builder.concurrency;
+    this.rate = builder.rate;
+    this.maxConnections = builder.maxConnections;
+    this.warmUpNanos = builder.warmUpNanos;
+    this.durationNanos = builder.durationNanos;
+    this.timeoutNanos = builder.timeoutNanos;
+    this.random = builder.seed != null ? new Random(builder.seed) : new Random();
+  }
+
+  /**
+   * Returns a builder for load on the server of a run configuration, at its host and port.
+   */
+  public static Builder builder(RunConfiguration configuration) {
+    return builder(
+        Strings.isNullOrEmpty(configuration.getHost()) ? DEFAULT_HOST : configuration.getHost(),
+        configuration.getPort() != null ? configuration.getPort() : DEFAULT_PORT);
+  }
+
+  /**
+   * Returns a builder for load on a server.
+   */
+  public static Builder builder(String host, int port) {
+    return new Builder(host, port);
+  }
+
+  /**
+   * Applies the load for the warm-up and the duration, and waits for the last responses.
+   */
+  public LoadReport run() throws IOException {
+    Run run = new Run();
+    try {
+      return run.run();
+    } finally {
+      run.close();
+    }
+  }
+
+  // picks the index of the next request of the mix
+  private int pick() {
+    if (requests.size() == 1) {
+      return 0;
+    }
+    int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+    int index = 0;
+    while (value >= cumulativeWeights[index]) {
+      index++;
+    }
+    return index;
+  }
+
+  // the state of one run, only used by the thread calling run()
+  private class Run {
+    private final InetSocketAddress address = new InetSocketAddress(host, port);
+    private final Selector selector;
+    private final byte[][] encoded = new byte[requests.size()][];
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Set<Connection> connections = new HashSet<>();
+    private final Deque<Connection> idle = new ArrayDeque<>();
+    // at a fixed rate, the intended send times of the requests due but not sent yet
+    private final Deque<Long> due = new ArrayDeque<>();
+    private final LoadReport report;
+    private final long start = System.nanoTime();
+    private final long measureStart = start + warmUpNanos;
+    private final long end = measureStart + durationNanos;
+    private final long intervalNanos = mode == Mode.RATE ? (long) (1e9 / rate) : 0;
+    private long nextDue = start;
+    private int connecting;
+    private long nextTimeoutCheck = start;
+    // at a fixed concurrency, the latencies of the warm-up
+    private long warmUpLatencyNanos;
+    private long warmUpResponses;
+    private boolean warmedUp;
+
+    Run() throws IOException {
+      selector = Selector.open();
+      String hostHeader = port == 80 ? host : host + ":" + port;
+      for (int i = 0; i < encoded.length; i++) {
+        encoded[i] = requests.get(i).encode(hostHeader);
+      }
+      report = new LoadReport("http://" + hostHeader, mode,
+          mode == Mode.RATE ? rate : concurrency, TimeUnit.NANOSECONDS.toMillis(warmUpNanos),
+          TimeUnit.NANOSECONDS.toMillis(durationNanos));
+      report.correctWith(mode == Mode.RATE ? Correction.INTENDED_START : Correction.NONE, 0);
+    }
+
+    LoadReport run() throws IOException {
+      if (mode == Mode.CONCURRENCY) {
+        for (int i = 0; i < concurrency; i++) {
+          connect();
+        }
+      }
+      while (true) {
+        long now = System.nanoTime();
+        if (!warmedUp && now >= measureStart) {
+          endWarmUp();
+        }
+        if (mode == Mode.RATE) {
+          schedule(now);
+        }
+        // requests still due at the end are not sent
+        if (now >= end && busyCount() == 0 || now >= end + timeoutNanos) {
+          break;
+        }
+        if (now >= nextTimeoutCheck) {
+          expire(now);
+          nextTimeoutCheck = now + TIMEOUT_CHECK_NANOS;
+        }
+        long wait = Math.min(nextTimeoutCheck, now < end ? end : end + timeoutNanos) - now;
+        if (mode == Mode.RATE && now < end) {
+          wait = Math.min(wait, nextDue - now);
+        }
+        if (wait > TimeUnit.MILLISECONDS.toNanos(1)) {
+          selector.select(TimeUnit.NANOSECONDS.toMillis(wait));
+        } else {
+          selector.selectNow();
+        }
+        for (SelectionKey key : selector.selectedKeys()) {
+          handle((Connection) key.attachment(), key);
+        }
+        selector.selectedKeys().clear();
+      }
+      for (Connection connection : connections) {
+        if (connection.request != null && connection.intendedNanos >= measureStart) {
+          report.recordFailure(connection.request.getName(), Failure.TIMEOUT);
+        }
+      }
+      for (long intended : due) {
+        if (intended >= measureStart) {
+          report.recordFailure(null, Failure.UNSENT);
+        }
+      }
+      report.setMeasuredNanos(Math.max(0, Math.min(System.nanoTime(), end) - measureStart));
+      return report;
+    }
+
+    void close() {
+      for (Connection connection : new ArrayList<>(connections)) {
+        connection.close();
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        logger.fine("Cannot close the selector: " + e.getMessage());
+      }
+    }
+
+    private void endWarmUp() {
+      warmedUp = true;
+      if (mode == Mode.CONCURRENCY && warmUpResponses > 0) {
+        report.correctWith(Correction.EXPECTED_INTERVAL,
+            TimeUnit.NANOSECONDS.toMicros(warmUpLatencyNanos / warmUpResponses));
+      }
+    }
+
+    private int busyCount() {
+      int busy = 0;
+      for (Connection connection : connections) {
+        if (connection.request != null) {
+          busy++;
+        }
+      }
+      return busy;
+    }
+
+    // queues the requests that became due, and sends them on free connections
+    private void schedule(long now) throws IOException {
+      while (nextDue <= now && nextDue < end) {
+        due.add(nextDue);
+        nextDue += intervalNanos;
+      }
+      if (now >= end) {
+        return;
+      }
+      while (!due.isEmpty() && !idle.isEmpty()) {
+        idle.poll().send(due.poll());
+      }
+      // the connections being opened send the first requests due once connected
+      for (int needed = due.size() - connecting;
+          needed > 0 && connections.size() < maxConnections; needed--) {
+        connect();
+      }
+    }
+
+    private void connect() throws IOException {
+      Connection connection = new Connection();
+      connections.add(connection);
+      connection.connect();
+    }
+
+    // fails the requests without a response in time, and the connections not made in time
+    private void expire(long now) {
+      for (Connection connection : new ArrayList<>(connections)) {
+        if (connection.request != null && now - connection.sentNanos > timeoutNanos) {
+          connection.fail(Failure.TIMEOUT, null);
+        } else if (!connection.connected && now - connection.connectNanos > timeoutNanos) {
+          connection.fail(Failure.CONNECT, null);
+        }
+      }
+    }
+
+    private void handle(Connection connection, SelectionKey key) {
+      try {
+        if (!key.isValid()) {
+          return;
+        }
+        if (key.isConnectable()) {
+          connection.finishConnect();
+        } else if (key.isWritable()) {
+          connection.write();
+        } else if (key.isReadable()) {
+          connection.read();
+        }
+      } catch (IOException e) {
+        connection.fail(connection.connected ? Failure.IO : Failure.CONNECT, e);
+      }
+    }
+
+    private void onResponse(Connection connection, LoadRequest request, int status, long now) {
+      long latency = now - (mode == Mode.RATE ? connection.intendedNanos : connection.sentNanos);
+      if (connection.intendedNanos >= measureStart) {
+        report.recordResponse(request.getName(), status, TimeUnit.NANOSECONDS.toMicros(latency));
+      } else if (mode == Mode.CONCURRENCY) {
+        warmUpLatencyNanos += latency;
+        warmUpResponses++;
+      }
+    }
+
+    // sends the next request on a free connection, or leaves it idle
+    private void next(Connection connection, long now) throws IOException {
+      if (mode == Mode.CONCURRENCY) {
+        if (now < end) {
+          connection.send(now);
+        }
+      } else if (!due.isEmpty() && now < end) {
+        connection.send(due.poll());
+      } else {
+        idle.add(connection);
+      }
+    }
+
+    private class Connection {
+      private SocketChannel channel;
+      private SelectionKey key;
+      private boolean connected;
+      private final HttpResponseParser parser = new HttpResponseParser();
+      private ByteBuffer writeBuffer;
+      private LoadRequest request;
+      private long intendedNanos;
+      private long sentNanos;
+      private long connectNanos;
+
+      void connect() throws IOException {
+        connecting++;
+        connectNanos = System.nanoTime();
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        key = channel.register(selector, 0, this);
+        try {
+          if (channel.connect(address)) {
+            onConnected();
+          } else {
+            key.interestOps(SelectionKey.OP_CONNECT);
+          }
+        } catch (IOException e) {
+          fail(Failure.CONNECT, e);
+        }
+      }
+
+      void finishConnect() throws IOException {
+        if (channel.finishConnect()) {
+          onConnected();
+        }
+      }
+
+      private void onConnected() throws IOException {
+        connected = true;
+        connecting--;
+        key.interestOps(0);
+        next(this, System.nanoTime());
+      }
+
+      void send(long intended) throws IOException {
+        int index = pick();
+        request = requests.get(index);
+        intendedNanos = intended;
+        parser.reset(request.getMethod().equals("HEAD"));
+        writeBuffer = ByteBuffer.wrap(encoded[index]);
+        sentNanos = System.nanoTime();
+        write();
+      }
+
+      void write() throws IOException {
+        channel.write(writeBuffer);
+        key.interestOps(writeBuffer.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+      }
+
+      void read() throws IOException {
+        readBuffer.clear();
+        int read = channel.read(readBuffer);
+        boolean complete;
+        if (read < 0) {
+          complete = parser.onEndOfStream();
+          if (!complete) {
+            return;
+          }
+        } else {
+          readBuffer.flip();
+          complete = parser.parse(readBuffer);
+        }
+        if (complete) {
+          long now = System.nanoTime();
+          LoadRequest completed = request;
+          request = null;
+          onResponse(this, completed, parser.getStatus(), now);
+          if (parser.isConnectionClose()) {
+            close();
+            replace();
+          } else {
+            key.interestOps(0);
+            next(this, now);
+          }
+        }
+      }
+
+      void fail(Failure failure, @Nullable IOException cause) {
+        if (request != null) {
+          if (intendedNanos >= measureStart) {
+            report.recordFailure(request.getName(), failure);
+          }
+        } else if (!connected) {
+          // the request the connection was opened for
+          connecting--;
+          long intended = mode == Mode.RATE && !due.isEmpty() ? due.poll() : System.nanoTime();
+          if (intended >= measureStart) {
+            report.recordFailure(null, failure);
+          }
+        }
+        logger.fine("Request to " + address + " failed: " + failure
+            + (cause != null ? " " + cause.getMessage() : ""));
+        request = null;
+        close();
+        try {
+          replace();
+        } catch (IOException e) {
+          logger.fine("Cannot reconnect: " + e.getMessage());
+        }
+      }
+
+      // opens a connection to take over from this one
+      private void replace() throws IOException {
+        if (System.nanoTime() < end && mode == Mode.CONCURRENCY) {
+          connect();
+        }
+      }
+
+      void close() {
+        connections.remove(this);
+        idle.remove(this);
+        if (key != null) {
+          key.cancel();
+        }
+        try {
+          channel.close();
+        } catch (IOException e) {
+          logger.fine("Cannot close a connection: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  public static class Builder {
+    private final String host;
+    private final int port;
+    private final List<LoadRequest> requests = new ArrayList<>();
+    private final List<Integer> weights = new ArrayList<>();
+    private Mode mode = Mode.CONCURRENCY;
+    private int concurrency = 1;
+    private double rate;
+    private int maxConnections;
+    private long warmUpNanos;
+    private long durationNanos = TimeUnit.SECONDS.toNanos(10);
+    private long timeoutNanos = TimeUnit.SECONDS.toNanos(10);
+    private Long seed;
+
+    private Builder(String host, int port) {
+      this.host = Preconditions.checkNotNull(host);
+      Preconditions.checkArgument(port > 0 && port < 65536, "Bad port %s", port);
+      this.port = port;
+    }
+
+    /**
+     * Adds a request to the mix.
+     *
+     * @param weight how often the request is sent relative to the other requests
+     */
+    public Builder addRequest(LoadRequest request, int weight) {
+      Preconditions.checkNotNull(request);
+      Preconditions.checkArgument(weight > 0, "The weight must be positive");
+      requests.add(request);
+      weights.add(weight);
+      return this;
+    }
+
+    /**
+     * Applies the load with a fixed number of connections, each sending its next request as soon
+     * as it received a response. This is the default, with one connection.
+     */
+    public Builder concurrency(int concurrency) {
+      Preconditions.checkArgument(concurrency > 0, "The concurrency must be positive");
+      this.mode = Mode.CONCURRENCY;
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    /**
+     * Applies the load at a fixed rate.
+     *
+     * @param perSecond      the requests to send per second
+     * @param maxConnections the most connections to open to send requests on schedule
+     */
+    public Builder rate(double perSecond, int maxConnections) {
+      Preconditions.checkArgument(perSecond > 0, "The rate must be positive");
+      Preconditions.checkArgument(maxConnections > 0, "The connections must be positive");
+      this.mode = Mode.RATE;
+      this.rate = perSecond;
+      this.maxConnections = maxConnections;
+      return this;
+    }
+
+    /**
+     * How long to apply the load before measuring it, none by default.
+     */
+    public Builder warmUp(long warmUp, TimeUnit unit) {
+      Preconditions.checkArgument(warmUp >= 0, "The warm-up must not be negative");
+      this.warmUpNanos = unit.toNanos(warmUp);
+      return this;
+    }
+
+    /**
+     * How long to measure the load after the warm-up, 10 seconds by default.
+     */
+    public Builder duration(long duration, TimeUnit unit) {
+      Preconditions.checkArgument(duration > 0, "The duration must be positive");
+      this.durationNanos = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * How long to wait for a response, 10 seconds by default.
+     */
+    public Builder requestTimeout(long timeout, TimeUnit unit) {
+      Preconditions.checkArgument(timeout > 0, "The request timeout must be positive");
+      this.timeoutNanos = unit.toNanos(timeout);
+      return this;
+    }
+
+    /**
+     * Seeds the random choice of requests, to send the same sequence in every run.
+     */
+    public Builder seed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    /**
+     * Builds the generator, which sends nothing until {@link LoadGenerator#run}.
+     */
+    public LoadGenerator build() {
+      Preconditions.checkState(!requests.isEmpty(), "No requests to send");
+      return new LoadGenerator(this);
+    }
+  }
+}
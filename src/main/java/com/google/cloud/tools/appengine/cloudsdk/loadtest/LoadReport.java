@@ -0,0 +1,348 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.loadtest;
+
+import com.google.cloud.tools.appengine.cloudsdk.metrics.Histogram;
+import com.google.common.base.Charsets;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * The outcome of a {@link LoadGenerator} run, after its warm-up: the responses by status, the
+ * failures by kind, and the latency percentiles, overall and by request.
+ *
+ * <p>Latencies are corrected for coordinated omission, so that a server that stalls is not
+ * credited with the requests it prevented from being sent. At a fixed rate, the latency of a
+ * request is counted from when it should have been sent, which may be earlier than when a
+ * connection became free to send it. At a fixed concurrency, each latency longer than the mean
+ * latency of the warm-up is also recorded as the latencies the requests that should have been sent
+ * meanwhile would have seen; without a warm-up, latencies are not corrected.
+ */
+public class LoadReport {
+
+  /**
+   * How latencies were corrected for coordinated omission.
+   */
+  public enum Correction {
+    /** Counted from the intended send time of each request. */
+    INTENDED_START,
+    /** Filled in with the latencies of the requests the wait prevented, for an interval. */
+    EXPECTED_INTERVAL,
+    /** Not corrected. */
+    NONE
+  }
+
+  /**
+   * Failures that did not produce a response.
+   */
+  public enum Failure {
+    /** The connection could not be made. */
+    CONNECT,
+    /** The connection failed, or the response was malformed. */
+    IO,
+    /** No response within the request timeout. */
+    TIMEOUT,
+    /** Due during the run, but no connection became free to send it before the run ended. */
+    UNSENT
+  }
+
+  private final String target;
+  private final LoadGenerator.Mode mode;
+  private final double load;
+  private final long warmUpMillis;
+  private final long durationMillis;
+  private final Stats overall = new Stats();
+  private final SortedMap<String, Stats> byRequest = new TreeMap<>();
+  private final SortedMap<Integer, Long> statuses = new TreeMap<>();
+  private final SortedMap<Failure, Long> failures = new TreeMap<>();
+  private Correction correction = Correction.NONE;
+  private long expectedIntervalMicros;
+  private long measuredNanos;
+
+  LoadReport(String target, LoadGenerator.Mode mode, double load, long warmUpMillis,
+      long durationMillis) {
+    this.target = target;
+    this.mode = mode;
+    this.load = load;
+    this.warmUpMillis = warmUpMillis;
+    this.durationMillis = durationMillis;
+  }
+
+  void correctWith(Correction correction, long expectedIntervalMicros) {
+    this.correction = correction;
+    this.expectedIntervalMicros = expectedIntervalMicros;
+  }
+
+  void recordResponse(String request, int status, long latencyMicros) {
+    boolean error = status >= 400;
+    overall.record(latencyMicros, error, correction, expectedIntervalMicros);
+    stats(request).record(latencyMicros, error, correction, expectedIntervalMicros);
+    Long count = statuses.get(status);
+    statuses.put(status, count == null ? 1 : count + 1);
+  }
+
+  void recordFailure(@Nullable String request, Failure failure) {
+    overall.failures++;
+    if (request != null) {
+      stats(request).failures++;
+    }
+    Long count = failures.get(failure);
+    failures.put(failure, count == null ? 1 : count + 1);
+  }
+
+  void setMeasuredNanos(long measuredNanos) {
+    this.measuredNanos = measuredNanos;
+  }
+
+  private Stats stats(String request) {
+    Stats stats = byRequest.get(request);
+    if (stats == null) {
+      stats = new Stats();
+      byRequest.put(request, stats);
+    }
+    return stats;
+  }
+
+  /**
+   * Returns the URL of the server, such as {@code http://localhost:8080}.
+   */
+  public String getTarget() {
+    return target;
+  }
+
+  public LoadGenerator.Mode getMode() {
+    return mode;
+  }
+
+  public Correction getCorrection() {
+    return correction;
+  }
+
+  /**
+   * Returns the statistics of all requests.
+   */
+  public Stats getOverall() {
+    return overall;
+  }
+
+  /**
+   * Returns the statistics of each request, by name.
+   */
+  public SortedMap<String, Stats> getByRequest() {
+    return Collections.unmodifiableSortedMap(byRequest);
+  }
+
+  /**
+   * Returns the number of responses by status.
+   */
+  public SortedMap<Integer, Long> getStatusCounts() {
+    return Collections.unmodifiableSortedMap(statuses);
+  }
+
+  /**
+   * Returns the number of requests without a response, by kind of failure.
+   */
+  public SortedMap<Failure, Long> getFailureCounts() {
+    return Collections.unmodifiableSortedMap(failures);
+  }
+
+  /**
+   * Returns the responses per second over the measured period.
+   */
+  public double getThroughput() {
+    return measuredNanos == 0 ? 0 : overall.getResponses() * 1e9 / measuredNanos;
+  }
+
+  /**
+   * Writes the report to a file, replacing it atomically.
+   */
+  public void write(Path file) throws IOException {
+    Path directory = file.toAbsolutePath().getParent();
+    Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      try (Writer writer = Files.newBufferedWriter(temporary, Charsets.UTF_8)) {
+        write(writer);
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Writes the report as a JSON object. The writer is not closed.
+   */
+  public void write(Writer writer) throws IOException {
+    JsonWriter json = new JsonWriter(writer);
+    json.setIndent("  ");
+    json.beginObject();
+    json.name("target").value(target);
+    json.name("mode").value(mode.name().toLowerCase(Locale.US));
+    if (mode == LoadGenerator.Mode.CONCURRENCY) {
+      json.name("concurrency").value((long) load);
+    } else {
+      json.name("rate_per_second").value(load);
+    }
+    json.name("warm_up_seconds").value(warmUpMillis / 1000.0);
+    json.name("duration_seconds").value(durationMillis / 1000.0);
+    json.name("measured_seconds").value(measuredNanos / 1e9);
+    json.name("throughput_per_second").value(getThroughput());
+    json.name("correction").value(correction.name().toLowerCase(Locale.US));
+    if (correction == Correction.EXPECTED_INTERVAL) {
+      json.name("expected_interval_micros").value(expectedIntervalMicros);
+    }
+    json.name("statuses").beginObject();
+    for (Map.Entry<Integer, Long> status : statuses.entrySet()) {
+      json.name(String.valueOf(status.getKey())).value(status.getValue());
+    }
+    json.endObject();
+    json.name("failures").beginObject();
+    for (Map.Entry<Failure, Long> failure : failures.entrySet()) {
+      json.name(failure.getKey().name().toLowerCase(Locale.US)).value(failure.getValue());
+    }
+    json.endObject();
+    json.name("overall");
+    overall.write(json);
+    json.name("requests").beginObject();
+    for (Map.Entry<String, Stats> request : byRequest.entrySet()) {
+      json.name(request.getKey());
+      request.getValue().write(json);
+    }
+    json.endObject();
+    json.endObject();
+    json.flush();
+  }
+
+  @Override
+  public String toString() {
+    StringWriter writer = new StringWriter();
+    try {
+      write(writer);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return writer.toString();
+  }
+
+  /**
+   * The responses, errors and latencies of some requests.
+   */
+  public static class Stats {
+    // latencies of 1us to about an hour, in buckets 5% apart (1us apart at first)
+    private static final long[] BOUNDS = bounds(1.05, 460);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Histogram latency = new Histogram(BOUNDS);
+    private long responses;
+    private long errors;
+    private long failures;
+
+    void record(long latencyMicros, boolean error, Correction correction,
+        long expectedIntervalMicros) {
+      responses++;
+      if (error) {
+        errors++;
+      }
+      latency.record(latencyMicros);
+      if (correction == Correction.EXPECTED_INTERVAL && expectedIntervalMicros > 0) {
+        for (long missed = latencyMicros - expectedIntervalMicros;
+            missed >= expectedIntervalMicros; missed -= expectedIntervalMicros) {
+          latency.record(missed);
+        }
+      }
+    }
+
+    private static long[] bounds(double factor, int count) {
+      long[] bounds = new long[count];
+      double bound = 1;
+      long previous = 0;
+      for (int i = 0; i < count; i++) {
+        bounds[i] = Math.max(previous + 1, Math.round(bound));
+        previous = bounds[i];
+        bound *= factor;
+      }
+      return bounds;
+    }
+
+    /**
+     * Returns the number of responses, including errors.
+     */
+    public long getResponses() {
+      return responses;
+    }
+
+    /**
+     * Returns the number of responses with a status of 400 or above.
+     */
+    public long getErrors() {
+      return errors;
+    }
+
+    /**
+     * Returns the number of requests without a response.
+     */
+    public long getFailures() {
+      return failures;
+    }
+
+    /**
+     * Returns the latencies in microseconds, with the corrections for coordinated omission.
+     */
+    public Histogram getLatency() {
+      return latency;
+    }
+
+    /**
+     * Returns a latency percentile in microseconds, within 5%.
+     */
+    public long getPercentile(double percentile) {
+      return latency.getPercentile(percentile);
+    }
+
+    private void write(JsonWriter json) throws IOException {
+      json.beginObject();
+      json.name("responses").value(responses);
+      json.name("errors").value(errors);
+      json.name("failures").value(failures);
+      json.name("latency_micros").beginObject();
+      json.name("mean").value(latency.getCount() == 0 ? 0 : latency.getSum() / latency.getCount());
+      for (double percentile : PERCENTILES) {
+        json.name("p" + (percentile == (long) percentile
+            ? String.valueOf((long) percentile) : String.valueOf(percentile).replace(".", "")))
+            .value(latency.getPercentile(percentile));
+      }
+      json.name("max").value(latency.getMax());
+      json.endObject();
+      json.endObject();
+    }
+  }
+}
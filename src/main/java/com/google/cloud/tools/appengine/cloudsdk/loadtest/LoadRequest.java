@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.loadtest;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * A request sent by a {@link LoadGenerator}. Requests are identified by their name in reports,
+ * which is the method and path unless set.
+ */
+public final class LoadRequest {
+
+  private final String name;
+  private final String method;
+  private final String path;
+  private final Map<String, String> headers;
+  private final byte[] body;
+
+  private LoadRequest(String name, String method, String path, Map<String, String> headers,
+      byte[] body) {
+    this.name = name;
+    this.method = method;
+    this.path = path;
+    this.headers = headers;
+    this.body = body;
+  }
+
+  /**
+   * Returns a GET request of a path, such as {@code /index.html?q=1}.
+   */
+  public static LoadRequest get(String path) {
+    return new LoadRequest(null, "GET", checkPath(path), ImmutableMap.<String, String>of(),
+        new byte[0]);
+  }
+
+  /**
+   * Returns a POST request of a path, with a body.
+   */
+  public static LoadRequest post(String path, String contentType, byte[] body) {
+    return new LoadRequest(null, "POST", checkPath(path),
+        ImmutableMap.of("Content-Type", Preconditions.checkNotNull(contentType)), body.clone());
+  }
+
+  /**
+   * Returns a copy of this request with another name.
+   */
+  public LoadRequest named(String name) {
+    Preconditions.checkArgument(!name.isEmpty(), "The request name must not be empty");
+    return new LoadRequest(name, method, path, headers, body);
+  }
+
+  /**
+   * Returns a copy of this request with another method, such as {@code PUT} or {@code HEAD}.
+   */
+  public LoadRequest method(String method) {
+    Preconditions.checkArgument(method.matches("[A-Z]+"), "Bad method %s", method);
+    return new LoadRequest(name, method, path, headers, body);
+  }
+
+  /**
+   * Returns a copy of this request with an additional header.
+   */
+  public LoadRequest header(String name, String value) {
+    Preconditions.checkArgument(name.matches("[!#$%&'*+.^_`|~0-9A-Za-z-]+"), "Bad header %s",
+        name);
+    Preconditions.checkArgument(value.indexOf('\r') < 0 && value.indexOf('\n') < 0,
+        "Header values must not contain line breaks");
+    return new LoadRequest(this.name, method, path,
+        ImmutableMap.<String, String>builder().putAll(headers).put(name, value).build(), body);
+  }
+
+  public String getName() {
+    return name != null ? name : method + " " + path;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  // the bytes sent for this request, which are the same for every request sent
+  byte[] encode(String host) {
+    StringBuilder request = new StringBuilder();
+    request.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+    request.append("Host: ").append(host).append("\r\n");
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+    }
+    if (body.length > 0 || !method.equals("GET") && !method.equals("HEAD")) {
+      request.append("Content-Length: ").append(body.length).append("\r\n");
+    }
+    request.append("\r\n");
+    byte[] head = request.toString().getBytes(Charsets.ISO_8859_1);
+    byte[] encoded = new byte[head.length + body.length];
+    System.arraycopy(head, 0, encoded, 0, head.length);
+    System.arraycopy(body, 0, encoded, head.length, body.length);
+    return encoded;
+  }
+
+  private static String checkPath(String path) {
+    Preconditions.checkArgument(path.startsWith("/") && !path.matches(".*\\s.*"),
+        "Bad path %s", path);
+    return path;
+  }
+
+  @Override
+  public String toString() {
+    return getName();
+  }
+}
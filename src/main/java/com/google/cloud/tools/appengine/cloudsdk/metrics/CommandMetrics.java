@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.metrics;
+
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandInstrumentation;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace.Stream;
+import com.google.common.base.Preconditions;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the commands run into a {@link MetricsRegistry}, labelled with their {@code group}, such
+ * as {@code app deploy}. The metrics are:
+ * <ul>
+ *   <li>histograms {@code command_validation_micros}, {@code command_spawn_micros}, {@code
+ *       command_first_output_micros} and {@code command_duration_micros}</li>
+ *   <li>gauge {@code commands_in_flight}</li>
+ *   <li>counters {@code command_output_bytes_total} and {@code command_output_lines_total}, also
+ *       labelled with the {@code stream}</li>
+ *   <li>counter {@code command_exits_total}, also labelled with the {@code exit_code}</li>
+ *   <li>counter {@code command_failures_total}, for commands that failed to start, timed out or
+ *       were cancelled, also labelled with the exception {@code type}</li>
+ * </ul>
+ */
+public class CommandMetrics implements CommandInstrumentation {
+
+  public static final String VALIDATION = "command_validation_micros";
+  public static final String SPAWN = "command_spawn_micros";
+  public static final String FIRST_OUTPUT = "command_first_output_micros";
+  public static final String DURATION = "command_duration_micros";
+  public static final String IN_FLIGHT = "commands_in_flight";
+  public static final String OUTPUT_BYTES = "command_output_bytes_total";
+  public static final String OUTPUT_LINES = "command_output_lines_total";
+  public static final String EXITS = "command_exits_total";
+  public static final String FAILURES = "command_failures_total";
+
+  private final MetricsRegistry registry;
+
+  public CommandMetrics(MetricsRegistry registry) {
+    this.registry = Preconditions.checkNotNull(registry);
+  }
+
+  public MetricsRegistry getRegistry() {
+    return registry;
+  }
+
+  @Override
+  public void onCommandStart(CommandTrace trace) {
+    registry.gauge(MetricKey.of(IN_FLIGHT, "group", trace.getGroup())).incrementAndGet();
+  }
+
+  @Override
+  public void onCommandFinish(CommandTrace trace) {
+    String group = trace.getGroup();
+    registry.gauge(MetricKey.of(IN_FLIGHT, "group", group)).decrementAndGet();
+
+    recordNanos(VALIDATION, group, trace.getValidationNanos());
+    recordNanos(SPAWN, group, trace.getSpawnNanos());
+    recordNanos(FIRST_OUTPUT, group, trace.getTimeToFirstOutputNanos());
+    recordNanos(DURATION, group, trace.getDurationNanos());
+
+    for (Stream stream : Stream.values()) {
+      String streamName = stream.name().toLowerCase(Locale.US);
+      registry.counter(MetricKey.of(OUTPUT_BYTES, "group", group, "stream", streamName))
+          .addAndGet(trace.getOutputBytes(stream));
+      registry.counter(MetricKey.of(OUTPUT_LINES, "group", group, "stream", streamName))
+          .addAndGet(trace.getOutputLines(stream));
+    }
+
+    if (trace.getExitCode() != null) {
+      registry.counter(MetricKey.of(EXITS, "group", group,
+          "exit_code", String.valueOf(trace.getExitCode()))).incrementAndGet();
+    }
+    if (trace.getFailure() != null) {
+      registry.counter(MetricKey.of(FAILURES, "group", group,
+          "type", trace.getFailure().getClass().getSimpleName())).incrementAndGet();
+    }
+  }
+
+  // phases the command did not reach are not recorded
+  private void recordNanos(String name, String group, long nanos) {
+    if (nanos >= 0) {
+      registry.histogram(MetricKey.of(name, "group", group))
+          .record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+  }
+}
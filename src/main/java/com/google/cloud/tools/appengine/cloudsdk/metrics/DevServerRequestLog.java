@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.metrics;
+
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessOutputLineListener;
+import com.google.common.base.Preconditions;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * Parses the request log of a development server from its output, and records the requests into a
+ * {@link MetricsRegistry}, labelled with their {@code module} and {@code path}. The metrics are:
+ * <ul>
+ *   <li>counter {@code devserver_requests_total}, also labelled with the {@code status}</li>
+ *   <li>counter {@code devserver_request_errors_total}, for statuses of 500 and above</li>
+ *   <li>histogram {@code devserver_request_latency_micros}, for requests logged with their
+ *       latency</li>
+ * </ul>
+ *
+ * <p>Both the log of the Python server ({@code default: "GET /path HTTP/1.1" 200 1234}) and the
+ * NCSA request log of the Java server are understood; requests without a module are counted in
+ * the {@code default} module. The Python server does not log latencies, so requests only get one
+ * if the line ends with it, in milliseconds or with a unit ({@code 12}, {@code 12ms}, {@code
+ * 0.012s}, {@code 12000us}), as with the Jetty request log latency option.
+ *
+ * <p>Paths are logged without their query string. To bound the number of metrics, paths beyond
+ * the first {@value #DEFAULT_MAX_PATHS} (by default) are counted as {@value #OTHER_PATH}.
+ *
+ * <p>Register it with {@code CloudSdk.Builder.devServerRequestLog}. The metrics can be read while
+ * the server runs.
+ */
+public class DevServerRequestLog implements ProcessOutputLineListener {
+
+  public static final String REQUESTS = "devserver_requests_total";
+  public static final String ERRORS = "devserver_request_errors_total";
+  public static final String LATENCY = "devserver_request_latency_micros";
+  public static final String DEFAULT_MODULE = "default";
+  public static final String OTHER_PATH = "(other)";
+  public static final int DEFAULT_MAX_PATHS = 500;
+
+  private static final Logger logger = Logger.getLogger(DevServerRequestLog.class.getName());
+
+  // [module: ]"METHOD resource HTTP/x.y" status size[ ... latency[unit]]
+  private static final Pattern REQUEST = Pattern.compile(
+      "(?:([\\w.-]+): )?\"([A-Z]+) (\\S+) HTTP/[\\d.]+\" (\\d{3}) (?:\\d+|-)"
+          + "(?:.*\\s(\\d+(?:\\.\\d+)?)(ms|us|s)?)?\\s*$");
+
+  private final MetricsRegistry registry;
+  private final int maxPaths;
+  private final Set<String> paths =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final AtomicInteger pathCount = new AtomicInteger();
+  private final List<RequestListener> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Creates a request log recording into a registry, with at most {@value #DEFAULT_MAX_PATHS}
+   * paths.
+   */
+  public DevServerRequestLog(MetricsRegistry registry) {
+    this(registry, DEFAULT_MAX_PATHS);
+  }
+
+  /**
+   * Creates a request log recording into a registry.
+   *
+   * @param maxPaths how many distinct paths get their own metrics
+   */
+  public DevServerRequestLog(MetricsRegistry registry, int maxPaths) {
+    Preconditions.checkArgument(maxPaths > 0, "maxPaths must be positive");
+    this.registry = Preconditions.checkNotNull(registry);
+    this.maxPaths = maxPaths;
+  }
+
+  public MetricsRegistry getRegistry() {
+    return registry;
+  }
+
+  /**
+   * Receives every request parsed, on the thread reading the server output.
+   */
+  public interface RequestListener {
+    void onRequest(Request request);
+  }
+
+  public void addRequestListener(RequestListener listener) {
+    listeners.add(Preconditions.checkNotNull(listener));
+  }
+
+  public void removeRequestListener(RequestListener listener) {
+    listeners.remove(listener);
+  }
+
+  @Override
+  public void onOutputLine(String line) {
+    Request request = parse(line);
+    if (request == null) {
+      return;
+    }
+    String path = pathLabel(request.getPath());
+    registry.counter(MetricKey.of(REQUESTS, "module", request.getModule(), "path", path,
+        "status", String.valueOf(request.getStatus()))).incrementAndGet();
+    if (request.getStatus() >= 500) {
+      registry.counter(MetricKey.of(ERRORS, "module", request.getModule(), "path", path))
+          .incrementAndGet();
+    }
+    if (request.getLatencyMicros() >= 0) {
+      latency(request.getModule(), path).record(request.getLatencyMicros());
+    }
+    for (RequestListener listener : listeners) {
+      try {
+        listener.onRequest(request);
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Request listener failed", e);
+      }
+    }
+  }
+
+  /**
+   * Returns the latency histogram of a path, which is empty if it was never requested.
+   */
+  public Histogram getLatency(String module, String path) {
+    return latency(module, path);
+  }
+
+  /**
+   * Returns how many requests of a path failed with a server error.
+   */
+  public long getErrorCount(String module, String path) {
+    Long errors = registry.getCounters().get(MetricKey.of(ERRORS, "module", module, "path", path));
+    return errors == null ? 0 : errors;
+  }
+
+  /**
+   * Parses a request log line.
+   *
+   * @return the request, or null if the line is not a request log line
+   */
+  @Nullable
+  public static Request parse(String line) {
+    // most lines are not requests; skip them before matching
+    if (line.indexOf(" HTTP/") < 0) {
+      return null;
+    }
+    Matcher matcher = REQUEST.matcher(line);
+    if (!matcher.find()) {
+      return null;
+    }
+    String module = matcher.group(1) != null ? matcher.group(1) : DEFAULT_MODULE;
+    String resource = matcher.group(3);
+    int query = resource.indexOf('?');
+    String path = query >= 0 ? resource.substring(0, query) : resource;
+    long latencyMicros = -1;
+    if (matcher.group(5) != null) {
+      double latency = Double.parseDouble(matcher.group(5));
+      String unit = matcher.group(6) != null ? matcher.group(6) : "ms";
+      if (unit.equals("s")) {
+        latencyMicros = Math.round(latency * TimeUnit.SECONDS.toMicros(1));
+      } else if (unit.equals("ms")) {
+        latencyMicros = Math.round(latency * TimeUnit.MILLISECONDS.toMicros(1));
+      } else {
+        latencyMicros = Math.round(latency);
+      }
+    }
+    return new Request(module, matcher.group(2), path, Integer.parseInt(matcher.group(4)),
+        latencyMicros);
+  }
+
+  private Histogram latency(String module, String path) {
+    return registry.histogram(MetricKey.of(LATENCY, "module", module, "path", path));
+  }
+
+  private String pathLabel(String path) {
+    if (paths.contains(path)) {
+      return path;
+    }
+    // reserve a slot first, so concurrent readers never go over the limit
+    if (pathCount.incrementAndGet() <= maxPaths) {
+      if (!paths.add(path)) {
+        pathCount.decrementAndGet();
+      }
+      return path;
+    }
+    pathCount.decrementAndGet();
+    return OTHER_PATH;
+  }
+
+  /**
+   * A request from the log.
+   */
+  public static final class Request {
+    private final String module;
+    private final String method;
+    private final String path;
+    private final int status;
+    private final long latencyMicros;
+
+    Request(String module, String method, String path, int status, long latencyMicros) {
+      this.module = module;
+      this.method = method;
+      this.path = path;
+      this.status = status;
+      this.latencyMicros = latencyMicros;
+    }
+
+    public String getModule() {
+      return module;
+    }
+
+    public String getMethod() {
+      return method;
+    }
+
+    /**
+     * Returns the requested path, without the query string.
+     */
+    public String getPath() {
+      return path;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    /**
+     * Returns the latency of the request, or -1 if it was not logged.
+     */
+    public long getLatencyMicros() {
+      return latencyMicros;
+    }
+
+    @Override
+    public String toString() {
+      return module + ": " + method + " " + path + " " + status
+          + (latencyMicros >= 0 ? " " + latencyMicros + "us" : "");
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.metrics;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values with fixed bucket bounds. Recording is lock-free, so it can
+ * be shared by any number of threads; reads are not atomic across buckets, which only matters
+ * while values are being recorded.
+ */
+public class Histogram {
+
+  /**
+   * Bounds for durations in microseconds: 100us, doubling up to about 2 hours.
+   */
+  public static final long[] DURATION_MICROS_BOUNDS = exponentialBounds(100, 2, 27);
+
+  private final long[] bounds;
+  // one more than bounds, for the values above the last bound
+  private final AtomicLongArray buckets;
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Creates a histogram.
+   *
+   * @param bounds the inclusive upper bounds of the buckets, ascending
+   */
+  public Histogram(long... bounds) {
+    Preconditions.checkArgument(bounds.length > 0, "no bucket bounds");
+    for (int i = 1; i < bounds.length; i++) {
+      Preconditions.checkArgument(bounds[i - 1] < bounds[i], "bucket bounds must ascend");
+    }
+    this.bounds = bounds.clone();
+    this.buckets = new AtomicLongArray(bounds.length + 1);
+  }
+
+  /**
+   * Creates a histogram of durations in microseconds, see {@link #DURATION_MICROS_BOUNDS}.
+   */
+  public static Histogram ofDurationMicros() {
+    return new Histogram(DURATION_MICROS_BOUNDS);
+  }
+
+  /**
+   * Returns {@code count} bounds, starting at {@code first} and growing by {@code factor}.
+   */
+  public static long[] exponentialBounds(long first, double factor, int count) {
+    Preconditions.checkArgument(first > 0 && factor > 1 && count > 0);
+    long[] bounds = new long[count];
+    double bound = first;
+    for (int i = 0; i < count; i++) {
+      bounds[i] = Math.round(bound);
+      bound *= factor;
+    }
+    return bounds;
+  }
+
+  /**
+   * Records a value; negative values count as 0.
+   */
+  public void record(long value) {
+    long recorded = Math.max(value, 0);
+    int bucket = Arrays.binarySearch(bounds, recorded);
+    buckets.incrementAndGet(bucket >= 0 ? bucket : -bucket - 1);
+    count.incrementAndGet();
+    sum.addAndGet(recorded);
+    long currentMax = max.get();
+    while (recorded > currentMax && !max.compareAndSet(currentMax, recorded)) {
+      currentMax = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getSum() {
+    return sum.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the upper bounds of the buckets; the last bucket, which has no bound, holds larger
+   * values.
+   */
+  public long[] getBounds() {
+    return bounds.clone();
+  }
+
+  /**
+   * Returns the number of values in each bucket, one more than there are bounds.
+   */
+  public long[] getBucketCounts() {
+    long[] counts = new long[buckets.length()];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return counts;
+  }
+
+  /**
+   * Estimates a percentile as the upper bound of the bucket it falls in, capped by the largest
+   * value recorded.
+   *
+   * @param percentile between 0 and 100
+   * @return the estimate, or 0 if nothing was recorded
+   */
+  public long getPercentile(double percentile) {
+    Preconditions.checkArgument(percentile >= 0 && percentile <= 100);
+    long[] counts = getBucketCounts();
+    long total = 0;
+    for (long bucketCount : counts) {
+      total += bucketCount;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < bounds.length; i++) {
+      seen += counts[i];
+      if (seen >= rank && seen > 0) {
+        return Math.min(bounds[i], getMax());
+      }
+    }
+    return getMax();
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount() + " p50=" + getPercentile(50) + " p99=" + getPercentile(99)
+        + " max=" + getMax();
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.metrics;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Identifies a metric by its name and labels, such as {@code command_duration_micros} with {@code
+ * group="app deploy"}.
+ */
+public final class MetricKey implements Comparable<MetricKey> {
+
+  private static final Joiner.MapJoiner LABEL_JOINER = Joiner.on(',').withKeyValueSeparator("=");
+
+  private final String name;
+  private final ImmutableSortedMap<String, String> labels;
+  private final String string;
+
+  private MetricKey(String name, Map<String, String> labels) {
+    this.name = name;
+    this.labels = ImmutableSortedMap.copyOf(labels);
+    this.string = this.labels.isEmpty() ? name : name + "{" + LABEL_JOINER.join(this.labels) + "}";
+  }
+
+  /**
+   * Creates a key.
+   *
+   * @param name   the metric name, made of letters, digits and underscores
+   * @param labels label names and values, alternating
+   */
+  public static MetricKey of(String name, String... labels) {
+    Preconditions.checkArgument(name.matches("[a-zA-Z_][a-zA-Z0-9_]*"), "bad metric name %s",
+        name);
+    Preconditions.checkArgument(labels.length % 2 == 0, "labels must be name and value pairs");
+    ImmutableSortedMap.Builder<String, String> labelMap = ImmutableSortedMap.naturalOrder();
+    for (int i = 0; i < labels.length; i += 2) {
+      labelMap.put(labels[i], labels[i + 1]);
+    }
+    return new MetricKey(name, labelMap.build());
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the labels, sorted by name.
+   */
+  public Map<String, String> getLabels() {
+    return labels;
+  }
+
+  @Override
+  public int compareTo(MetricKey other) {
+    int result = name.compareTo(other.name);
+    Iterator<Map.Entry<String, String>> otherLabels = other.labels.entrySet().iterator();
+    for (Map.Entry<String, String> label : labels.entrySet()) {
+      if (result != 0) {
+        return result;
+      }
+      if (!otherLabels.hasNext()) {
+        return 1;
+      }
+      Map.Entry<String, String> otherLabel = otherLabels.next();
+      result = ComparisonChain.start()
+          .compare(label.getKey(), otherLabel.getKey())
+          .compare(label.getValue(), otherLabel.getValue())
+          .result();
+    }
+    return result != 0 || !otherLabels.hasNext() ? result : -1;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof MetricKey)) {
+      return false;
+    }
+    MetricKey key = (MetricKey) other;
+    return name.equals(key.name) && labels.equals(key.labels);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(name, labels);
+  }
+
+  @Override
+  public String toString() {
+    return string;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.metrics;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory metrics: monotonic counters, gauges that go up and down, and histograms, each
+ * identified by a {@link MetricKey}. Metrics are created on first use and live as long as the
+ * registry; all operations are thread-safe.
+ *
+ * <p>By convention, histogram names end with the unit of their values, like {@code
+ * command_duration_micros}, and counter names with {@code _total}.
+ */
+public class MetricsRegistry {
+
+  private final ConcurrentMap<MetricKey, AtomicLong> counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<MetricKey, AtomicLong> gauges = new ConcurrentHashMap<>();
+  private final ConcurrentMap<MetricKey, Histogram> histograms = new ConcurrentHashMap<>();
+
+  /**
+   * Returns a counter, creating it at 0 if needed. Counters should only be incremented.
+   */
+  public AtomicLong counter(MetricKey key) {
+    return getOrCreate(counters, key);
+  }
+
+  /**
+   * Returns a gauge, creating it at 0 if needed.
+   */
+  public AtomicLong gauge(MetricKey key) {
+    return getOrCreate(gauges, key);
+  }
+
+  /**
+   * Returns a histogram of durations in microseconds, creating it if needed.
+   */
+  public Histogram histogram(MetricKey key) {
+    Preconditions.checkNotNull(key);
+    Histogram histogram = histograms.get(key);
+    if (histogram == null) {
+      Histogram created = Histogram.ofDurationMicros();
+      histogram = histograms.putIfAbsent(key, created);
+      if (histogram == null) {
+        histogram = created;
+      }
+    }
+    return histogram;
+  }
+
+  /**
+   * Returns the current values of the counters, sorted by key.
+   */
+  public SortedMap<MetricKey, Long> getCounters() {
+    return snapshot(counters);
+  }
+
+  /**
+   * Returns the current values of the gauges, sorted by key.
+   */
+  public SortedMap<MetricKey, Long> getGauges() {
+    return snapshot(gauges);
+  }
+
+  /**
+   * Returns the histograms, sorted by key. The histograms are live, not copies.
+   */
+  public SortedMap<MetricKey, Histogram> getHistograms() {
+    return new TreeMap<>(histograms);
+  }
+
+  private static AtomicLong getOrCreate(ConcurrentMap<MetricKey, AtomicLong> metrics,
+      MetricKey key) {
+    Preconditions.checkNotNull(key);
+    AtomicLong metric = metrics.get(key);
+    if (metric == null) {
+      AtomicLong created = new AtomicLong();
+      metric = metrics.putIfAbsent(key, created);
+      if (metric == null) {
+        metric = created;
+      }
+    }
+    return metric;
+  }
+
+  private static SortedMap<MetricKey, Long> snapshot(Map<MetricKey, AtomicLong> metrics) {
+    SortedMap<MetricKey, Long> values = new TreeMap<>();
+    for (Map.Entry<MetricKey, AtomicLong> metric : metrics.entrySet()) {
+      values.put(metric.getKey(), metric.getValue().get());
+    }
+    return values;
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.metrics;
+
+import com.google.cloud.tools.appengine.cloudsdk.classfile.ScanCache;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Renders a {@link MetricsRegistry}, and the state of the library, in the Prometheus text
+ * exposition format, either served over HTTP or written to a file for the node exporter's textfile
+ * collector.
+ *
+ * <p>Metric names get a namespace prefix, {@code appengine_} by default. Histograms named with a
+ * {@code _micros} suffix are exported in seconds, as Prometheus expects. Besides the registry, the
+ * output has the number of child processes running and the hits and misses of the scan caches.
+ */
+public class PrometheusExporter {
+
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  public static final String DEFAULT_NAMESPACE = "appengine";
+
+  private static final Logger logger = Logger.getLogger(PrometheusExporter.class.getName());
+  private static final String MICROS_SUFFIX = "_micros";
+
+  private final MetricsRegistry registry;
+  private final String prefix;
+
+  public PrometheusExporter(MetricsRegistry registry) {
+    this(registry, DEFAULT_NAMESPACE);
+  }
+
+  /**
+   * Creates an exporter.
+   *
+   * @param registry  the metrics to export
+   * @param namespace prefixed to all metric names, or empty for none
+   */
+  public PrometheusExporter(MetricsRegistry registry, String namespace) {
+    this.registry = Preconditions.checkNotNull(registry);
+    this.prefix = namespace.isEmpty() ? "" : namespace + "_";
+  }
+
+  /**
+   * Renders all metrics.
+   */
+  public String render() {
+    StringBuilder out = new StringBuilder();
+    renderValues(out, registry.getCounters(), "counter");
+    renderValues(out, registry.getGauges(), "gauge");
+    renderHistograms(out);
+
+    header(out, prefix + "processes_running", "gauge",
+        "Child processes started by the library that are still running.");
+    sample(out, prefix + "processes_running", "",
+        ProcessRegistry.getInstance().getRunningCommands().size());
+
+    SortedMap<String, ScanCache.Statistics> caches = ScanCache.getStatistics();
+    if (!caches.isEmpty()) {
+      header(out, prefix + "scan_cache_hits_total", "counter", "Scan cache hits, by cache kind.");
+      for (Map.Entry<String, ScanCache.Statistics> cache : caches.entrySet()) {
+        sample(out, prefix + "scan_cache_hits_total", labels("kind", cache.getKey()),
+            cache.getValue().getHits());
+      }
+      header(out, prefix + "scan_cache_misses_total", "counter",
+          "Scan cache misses, by cache kind.");
+      for (Map.Entry<String, ScanCache.Statistics> cache : caches.entrySet()) {
+        sample(out, prefix + "scan_cache_misses_total", labels("kind", cache.getKey()),
+            cache.getValue().getMisses());
+      }
+      header(out, prefix + "scan_cache_hit_ratio", "gauge",
+          "Share of scan cache lookups that hit, by cache kind.");
+      for (Map.Entry<String, ScanCache.Statistics> cache : caches.entrySet()) {
+        long lookups = cache.getValue().getHits() + cache.getValue().getMisses();
+        out.append(prefix).append("scan_cache_hit_ratio").append(labels("kind", cache.getKey()))
+            .append(' ')
+            .append(lookups == 0 ? "NaN" : String.valueOf((double) cache.getValue().getHits()
+                / lookups))
+            .append('\n');
+      }
+    }
+    return out.toString();
+  }
+
+  /**
+   * Starts an HTTP server answering {@code GET /metrics}. Closing the returned server stops it and
+   * its thread.
+   *
+   * @param address where to listen, such as {@code new InetSocketAddress("localhost", 9464)}; port
+   *                0 picks a free port, see {@link MetricsServer#getAddress()}
+   */
+  public MetricsServer serve(InetSocketAddress address) throws IOException {
+    HttpServer server = HttpServer.create(address, 0);
+    server.createContext("/metrics", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          byte[] body = render().getBytes(Charsets.UTF_8);
+          exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+          if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+          }
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+          }
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    ExecutorService executor = Executors.newSingleThreadExecutor(daemonThreads("metrics-http"));
+    server.setExecutor(executor);
+    server.start();
+    return new MetricsServer(server, executor);
+  }
+
+  /**
+   * Writes all metrics to a file, atomically replacing it so collectors never read a partial file.
+   * The node exporter only reads files named {@code *.prom}.
+   */
+  public void writeTextFile(Path file) throws IOException {
+    Path directory = file.toAbsolutePath().getParent();
+    Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      Files.write(temporary, render().getBytes(Charsets.UTF_8));
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Rewrites a file with {@link #writeTextFile} periodically, on a daemon thread, until the
+   * returned future is cancelled. Failures to write are logged.
+   */
+  public ScheduledFuture<?> writeTextFilePeriodically(final Path file, long period,
+      TimeUnit unit) {
+    ScheduledThreadPoolExecutor timer =
+        new ScheduledThreadPoolExecutor(1, daemonThreads("metrics-textfile"));
+    timer.setContinueExistingPeriodicTasksAfterShutdownPolicy(true);
+    timer.setRemoveOnCancelPolicy(true);
+    ScheduledFuture<?> task = timer.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          writeTextFile(file);
+        } catch (IOException e) {
+          logger.warning("Cannot write metrics to " + file + ": " + e.getMessage());
+        }
+      }
+    }, 0, period, unit);
+    // lets the timer thread end once the task is cancelled
+    timer.shutdown();
+    return task;
+  }
+
+  private void renderValues(StringBuilder out, SortedMap<MetricKey, Long> values, String type) {
+    String previousName = null;
+    for (Map.Entry<MetricKey, Long> value : values.entrySet()) {
+      String name = prefix + value.getKey().getName();
+      if (!name.equals(previousName)) {
+        header(out, name, type, null);
+        previousName = name;
+      }
+      sample(out, name, labels(value.getKey().getLabels(), null), value.getValue());
+    }
+  }
+
+  private void renderHistograms(StringBuilder out) {
+    String previousName = null;
+    for (Map.Entry<MetricKey, Histogram> entry : registry.getHistograms().entrySet()) {
+      String name = prefix + entry.getKey().getName();
+      boolean micros = name.endsWith(MICROS_SUFFIX);
+      if (micros) {
+        name = name.substring(0, name.length() - MICROS_SUFFIX.length()) + "_seconds";
+      }
+      if (!name.equals(previousName)) {
+        header(out, name, "histogram", null);
+        previousName = name;
+      }
+
+      Histogram histogram = entry.getValue();
+      Map<String, String> labels = entry.getKey().getLabels();
+      long[] bounds = histogram.getBounds();
+      long[] counts = histogram.getBucketCounts();
+      long cumulative = 0;
+      for (int i = 0; i < bounds.length; i++) {
+        cumulative += counts[i];
+        sample(out, name + "_bucket", labels(labels, number(bounds[i], micros)), cumulative);
+      }
+      cumulative += counts[bounds.length];
+      sample(out, name + "_bucket", labels(labels, "+Inf"), cumulative);
+      out.append(name).append("_sum").append(labels(labels, null)).append(' ')
+          .append(number(histogram.getSum(), micros)).append('\n');
+      sample(out, name + "_count", labels(labels, null), cumulative);
+    }
+  }
+
+  private static void header(StringBuilder out, String name, String type, String help) {
+    if (help != null) {
+      out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    }
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void sample(StringBuilder out, String name, String labels, long value) {
+    out.append(name).append(labels).append(' ').append(value).append('\n');
+  }
+
+  private static String labels(String name, String value) {
+    StringBuilder labels = new StringBuilder("{");
+    appendLabel(labels, name, value);
+    return labels.append('}').toString();
+  }
+
+  // the labels of a metric, followed by the le label of a histogram bucket if not null
+  private static String labels(Map<String, String> labels, String bucketBound) {
+    if (labels.isEmpty() && bucketBound == null) {
+      return "";
+    }
+    StringBuilder rendered = new StringBuilder("{");
+    for (Map.Entry<String, String> label : labels.entrySet()) {
+      if (rendered.length() > 1) {
+        rendered.append(',');
+      }
+      appendLabel(rendered, label.getKey(), label.getValue());
+    }
+    if (bucketBound != null) {
+      if (rendered.length() > 1) {
+        rendered.append(',');
+      }
+      appendLabel(rendered, "le", bucketBound);
+    }
+    return rendered.append('}').toString();
+  }
+
+  private static void appendLabel(StringBuilder out, String name, String value) {
+    out.append(name).append("=\"");
+    for (int i = 0; i < value.length(); i++) {
+      char character = value.charAt(i);
+      if (character == '\\' || character == '"') {
+        out.append('\\').append(character);
+      } else if (character == '\n') {
+        out.append("\\n");
+      } else {
+        out.append(character);
+      }
+    }
+    out.append('"');
+  }
+
+  private static String number(long value, boolean micros) {
+    return micros
+        ? BigDecimal.valueOf(value).movePointLeft(6).stripTrailingZeros().toPlainString()
+        : String.valueOf(value);
+  }
+
+  /**
+   * A running HTTP server started by {@link #serve}.
+   */
+  public static class MetricsServer implements Closeable {
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private MetricsServer(HttpServer server, ExecutorService executor) {
+      this.server = server;
+      this.executor = executor;
+    }
+
+    /**
+     * Returns the address the server listens on, with the port it picked if asked for port 0.
+     */
+    public InetSocketAddress getAddress() {
+      return server.getAddress();
+    }
+
+    /**
+     * Stops the server without waiting for exchanges in progress, and ends its thread.
+     */
+    @Override
+    public void close() {
+      server.stop(0);
+      executor.shutdownNow();
+    }
+  }
+
+  private static ThreadFactory daemonThreads(final String name) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+}
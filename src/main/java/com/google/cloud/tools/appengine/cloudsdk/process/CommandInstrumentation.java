@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.process;
+
+/**
+ * Observes the commands the library runs, from before their validation to their exit. Register
+ * implementations with {@link com.google.cloud.tools.appengine.cloudsdk.CloudSdk.Builder} or on an
+ * {@link com.google.cloud.tools.appengine.experimental.AppEngineRequest}.
+ *
+ * <p>Hooks are called on the threads running the commands, possibly concurrently, so they must be
+ * thread-safe and quick. Exceptions thrown by hooks are logged and otherwise ignored.
+ */
+public interface CommandInstrumentation {
+
+  /**
+   * Called when a command is requested, before it is validated and started.
+   *
+   * @param trace the command, which only knows its group and start time at this point
+   */
+  void onCommandStart(CommandTrace trace);
+
+  /**
+   * Called once a command is over: after the process exited and its output was read, or after it
+   * failed to start. Called exactly once per {@link #onCommandStart}, with the same trace.
+   *
+   * @param trace the complete record of the command
+   */
+  void onCommandFinish(CommandTrace trace);
+}
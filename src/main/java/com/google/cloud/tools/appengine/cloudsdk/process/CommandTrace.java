@@ -0,0 +1,351 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.process;
+
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Span;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Tracing;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Utf8;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * The lifecycle of one command: when it was validated, spawned, first wrote output and finished,
+ * how much output it wrote and how it ended. The library records these as the command runs and
+ * reports them to its {@link CommandInstrumentation}s.
+ *
+ * <p>Durations are in nanoseconds, and are -1 for the phases the command did not reach. Output is
+ * only counted when the library reads it, that is when it is not inherited by the caller.
+ *
+ * <p>Every command is also recorded as a {@link Span} of category {@link Span#COMMAND}, named after
+ * its group.
+ */
+public class CommandTrace {
+
+  private static final Logger logger = Logger.getLogger(CommandTrace.class.getName());
+
+  /**
+   * An output stream of a process.
+   */
+  public enum Stream {
+    STDOUT, STDERR
+  }
+
+  private final String group;
+  private final List<CommandInstrumentation> instrumentations;
+  private final Span span;
+  private final long startTimeMillis = System.currentTimeMillis();
+  private final long startNanos = System.nanoTime();
+  private final AtomicLong stdOutBytes = new AtomicLong();
+  private final AtomicLong stdOutLines = new AtomicLong();
+  private final AtomicLong stdErrBytes = new AtomicLong();
+  private final AtomicLong stdErrLines = new AtomicLong();
+  private final AtomicBoolean finished = new AtomicBoolean();
+  private volatile List<String> command = Collections.emptyList();
+  private volatile long validatedNanos;
+  private volatile long spawningNanos;
+  private volatile long spawnedNanos;
+  private volatile long firstOutputNanos;
+  private volatile long finishedNanos;
+  private volatile Integer exitCode;
+  private volatile Throwable failure;
+
+  /**
+   * Creates the trace of a command that is about to be validated.
+   *
+   * @param group            what the command does, without its arguments, such as {@code app
+   *                         deploy} or {@code appcfg stage}
+   * @param instrumentations notified when the command starts and finishes
+   */
+  public CommandTrace(String group, List<CommandInstrumentation> instrumentations) {
+    this(group, instrumentations, Tracing.startDetached(Span.COMMAND, group));
+  }
+
+  private CommandTrace(String group, List<CommandInstrumentation> instrumentations, Span span) {
+    this.group = Preconditions.checkNotNull(group);
+    this.instrumentations = ImmutableList.copyOf(instrumentations);
+    this.span = span;
+  }
+
+  /**
+   * Returns a trace that nobody observes, for commands run without instrumentation.
+   */
+  public static CommandTrace disabled() {
+    return new CommandTrace("", Collections.<CommandInstrumentation>emptyList(),
+        Tracing.disabled());
+  }
+
+  /**
+   * Whether anybody observes this trace. Recording into a disabled trace is harmless, but callers
+   * may skip work, like reading output, that only serves the trace.
+   */
+  public boolean isEnabled() {
+    return !instrumentations.isEmpty() || span.isRecording();
+  }
+
+  /**
+   * Notifies the instrumentations that the command started.
+   */
+  public void start() {
+    for (CommandInstrumentation instrumentation : instrumentations) {
+      try {
+        instrumentation.onCommandStart(this);
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Command instrumentation failed", e);
+      }
+    }
+  }
+
+  /**
+   * Records the end of the validation of the command.
+   */
+  public void validated() {
+    validatedNanos = System.nanoTime();
+  }
+
+  /**
+   * Records that the process is about to be started.
+   */
+  public void spawning() {
+    spawningNanos = System.nanoTime();
+  }
+
+  /**
+   * Records that the process started.
+   *
+   * @param command the command line of the process
+   */
+  public void spawned(List<String> command) {
+    spawnedNanos = System.nanoTime();
+    this.command = ImmutableList.copyOf(command);
+    span.attribute(Span.PROJECT, flag(command, "project"));
+    span.attribute(Span.SERVICE, flag(command, "service"));
+  }
+
+  /**
+   * Records a line of output.
+   */
+  public void outputLine(Stream stream, String line) {
+    if (firstOutputNanos == 0 && stream == Stream.STDOUT) {
+      firstOutputNanos = System.nanoTime();
+    }
+    // the line terminator counts too
+    long bytes = Utf8.encodedLength(line) + 1;
+    if (stream == Stream.STDOUT) {
+      stdOutBytes.addAndGet(bytes);
+      stdOutLines.incrementAndGet();
+    } else {
+      stdErrBytes.addAndGet(bytes);
+      stdErrLines.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns a listener that records the lines of one stream.
+   */
+  public ProcessOutputLineListener outputListener(final Stream stream) {
+    return new ProcessOutputLineListener() {
+      @Override
+      public void onOutputLine(String line) {
+        outputLine(stream, line);
+      }
+    };
+  }
+
+  /**
+   * Records the exit code of the process.
+   */
+  public void exited(int exitCode) {
+    this.exitCode = exitCode;
+  }
+
+  /**
+   * Records why the command failed, if it did not simply exit with an error code: it could not be
+   * started, timed out or was cancelled. The first failure recorded wins.
+   */
+  public void failed(Throwable failure) {
+    if (this.failure == null) {
+      this.failure = failure;
+    }
+  }
+
+  /**
+   * Notifies the instrumentations that the command is over. Only the first call counts.
+   */
+  public void finish() {
+    if (!finished.compareAndSet(false, true)) {
+      return;
+    }
+    finishedNanos = System.nanoTime();
+    if (span.isRecording()) {
+      span.attribute(Span.EXIT_CODE, exitCode);
+      span.attribute(Span.VALIDATION_NANOS, getValidationNanos());
+      span.attribute(Span.SPAWN_NANOS, getSpawnNanos());
+      span.attribute(Span.FIRST_OUTPUT_NANOS, getTimeToFirstOutputNanos());
+      if (failure != null) {
+        span.failed(failure);
+      }
+      span.end();
+    }
+    for (CommandInstrumentation instrumentation : instrumentations) {
+      try {
+        instrumentation.onCommandFinish(this);
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Command instrumentation failed", e);
+      }
+    }
+  }
+
+  public String getGroup() {
+    return group;
+  }
+
+  /**
+   * Returns the command line, which is empty until the process is started.
+   */
+  public List<String> getCommand() {
+    return command;
+  }
+
+  /**
+   * Returns when the command started, in milliseconds since the epoch.
+   */
+  public long getStartTimeMillis() {
+    return startTimeMillis;
+  }
+
+  /**
+   * Returns when the command started, on the {@link System#nanoTime()} scale.
+   */
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  /**
+   * Returns how long the command was validated before being started, which includes locating the
+   * Cloud SDK and checking its version.
+   */
+  public long getValidationNanos() {
+    return validatedNanos == 0 ? -1 : validatedNanos - startNanos;
+  }
+
+  /**
+   * Returns how long starting the process (fork and exec) took.
+   */
+  public long getSpawnNanos() {
+    return spawningNanos == 0 || spawnedNanos == 0 ? -1 : spawnedNanos - spawningNanos;
+  }
+
+  /**
+   * Returns how long the process ran before it wrote its first line of standard output, or -1 if
+   * it wrote none or nothing read its standard output.
+   */
+  public long getTimeToFirstOutputNanos() {
+    return spawnedNanos == 0 || firstOutputNanos == 0 ? -1 : firstOutputNanos - spawnedNanos;
+  }
+
+  /**
+   * Returns the wall time of the whole command, or -1 while it runs.
+   */
+  public long getDurationNanos() {
+    return finishedNanos == 0 ? -1 : finishedNanos - startNanos;
+  }
+
+  /**
+   * Returns the wall time of the whole command so far, or in total once it finished.
+   */
+  public long getElapsed(TimeUnit unit) {
+    long end = finishedNanos == 0 ? System.nanoTime() : finishedNanos;
+    return unit.convert(end - startNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the number of bytes the process wrote to a stream, in UTF-8.
+   */
+  public long getOutputBytes(Stream stream) {
+    return (stream == Stream.STDOUT ? stdOutBytes : stdErrBytes).get();
+  }
+
+  /**
+   * Returns the number of lines the process wrote to a stream. Output is only counted for
+   * streams that have line listeners.
+   */
+  public long getOutputLines(Stream stream) {
+    return (stream == Stream.STDOUT ? stdOutLines : stdErrLines).get();
+  }
+
+  /**
+   * Returns the exit code of the process, or null if it did not exit (yet).
+   */
+  @Nullable
+  public Integer getExitCode() {
+    return exitCode;
+  }
+
+  /**
+   * Returns why the command failed other than by exiting with an error code, or null.
+   */
+  @Nullable
+  public Throwable getFailure() {
+    return failure;
+  }
+
+  /**
+   * Whether the command ran to a zero exit code.
+   */
+  public boolean isSuccessful() {
+    return failure == null && exitCode != null && exitCode == 0;
+  }
+
+  /**
+   * Returns the value of a flag given as {@code --name value} or {@code --name=value}, or null if
+   * the command does not have the flag.
+   */
+  @VisibleForTesting
+  @Nullable
+  static String flag(List<String> command, String name) {
+    String flag = "--" + name;
+    for (int i = 0; i < command.size(); i++) {
+      String argument = command.get(i);
+      if (argument.equals(flag) && i + 1 < command.size()) {
+        return command.get(i + 1);
+      }
+      if (argument.startsWith(flag + "=")) {
+        return argument.substring(flag.length() + 1);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return group + " (" + getElapsed(TimeUnit.MILLISECONDS) + " ms"
+        + (exitCode == null ? "" : ", exit code " + exitCode)
+        + (failure == null ? "" : ", " + failure) + ")";
+  }
+}
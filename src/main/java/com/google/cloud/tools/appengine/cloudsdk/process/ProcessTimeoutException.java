@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.process;
+
+import com.google.cloud.tools.appengine.api.AppEngineException;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Thrown when a process was terminated for running longer than allowed, or for not producing any
+ * output for too long. The message ends with the last lines the process wrote.
+ */
+public class ProcessTimeoutException extends AppEngineException {
+
+  /**
+   * Which timeout expired.
+   */
+  public enum Reason {
+    /** The process ran longer than its wall-clock timeout. */
+    WALL_CLOCK,
+    /** The process did not write a line for longer than its inactivity timeout. */
+    INACTIVITY
+  }
+
+  private final Reason reason;
+  private final long timeoutMillis;
+  private final List<String> outputTail;
+
+  /**
+   * Creates the exception.
+   *
+   * @param reason        which timeout expired
+   * @param timeoutMillis the value of that timeout
+   * @param outputTail    the last lines of standard output and error, oldest first
+   */
+  public ProcessTimeoutException(Reason reason, long timeoutMillis, List<String> outputTail) {
+    super(message(reason, timeoutMillis, outputTail));
+    this.reason = reason;
+    this.timeoutMillis = timeoutMillis;
+    this.outputTail = ImmutableList.copyOf(outputTail);
+  }
+
+  public Reason getReason() {
+    return reason;
+  }
+
+  public long getTimeoutMillis() {
+    return timeoutMillis;
+  }
+
+  public List<String> getOutputTail() {
+    return outputTail;
+  }
+
+  private static String message(Reason reason, long timeoutMillis, List<String> outputTail) {
+    StringBuilder message = new StringBuilder(reason == Reason.WALL_CLOCK
+        ? "Process did not finish within " + timeoutMillis + " ms"
+        : "Process produced no output for " + timeoutMillis + " ms");
+    if (outputTail.isEmpty()) {
+      message.append(" and wrote nothing");
+    } else {
+      message.append(", last output:");
+      for (String line : outputTail) {
+        message.append(System.lineSeparator()).append(line);
+      }
+    }
+    return message.toString();
+  }
+}
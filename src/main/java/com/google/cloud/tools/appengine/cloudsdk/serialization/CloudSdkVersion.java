@@ -18,12 +18,10 @@ package com.google.cloud.tools.appengine.cloudsdk.serialization;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableList;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
-import java.util.List;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Represents a Version of the Cloud SDK, which follows the Semantic Version 2.0.0 spec. See
@@ -32,7 +30,11 @@ import java.util.regex.Pattern;
  */
 public class CloudSdkVersion implements Comparable<CloudSdkVersion> {
 
-  private static final Pattern SEMVER_PATTERN = Pattern.compile(getSemVerRegex());
+  private static final int CACHE_SIZE = 256;
+
+  // Parsed versions, shared because they are immutable and a few versions are parsed over and over.
+  private static final Cache<String, CloudSdkVersion> CACHE =
+      CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
 
   private final String version;
 
@@ -51,38 +53,122 @@ public class CloudSdkVersion implements Comparable<CloudSdkVersion> {
   public CloudSdkVersion(String version) throws IllegalArgumentException {
     Preconditions.checkArgument(!Strings.isNullOrEmpty(version));
 
-    Matcher matcher = SEMVER_PATTERN.matcher(version);
-    if (!matcher.matches()) {
-      throw new IllegalArgumentException(
-          String.format("Pattern \"%s\" is not a valid CloudSdkVersion.", version));
+    // major.minor.patch[-pre.release][+build], parsed left to right without regular expressions
+    int majorEnd = endOfNumber(version, 0);
+    int minorEnd = isAt(version, majorEnd, '.') ? endOfNumber(version, majorEnd + 1) : -1;
+    int patchEnd = isAt(version, minorEnd, '.') ? endOfNumber(version, minorEnd + 1) : -1;
+    if (patchEnd < 0) {
+      throw invalid(version);
     }
+    majorVersion = parseInt(version, 0, majorEnd);
+    minorVerion = parseInt(version, majorEnd + 1, minorEnd);
+    patchVersion = parseInt(version, minorEnd + 1, patchEnd);
 
-    majorVersion = Integer.parseInt(matcher.group("major"));
-    minorVerion = Integer.parseInt(matcher.group("minor"));
-    patchVersion = Integer.parseInt(matcher.group("patch"));
+    int buildStart = version.indexOf('+', patchEnd);
+    int preReleaseEnd = buildStart < 0 ? version.length() : buildStart;
+    if (isAt(version, patchEnd, '-')) {
+      if (!areIdentifiers(version, patchEnd + 1, preReleaseEnd, true)) {
+        throw invalid(version);
+      }
+      preRelease = new CloudSdkVersionPreRelease(version.substring(patchEnd + 1, preReleaseEnd));
+    } else if (patchEnd == preReleaseEnd) {
+      preRelease = null;
+    } else {
+      throw invalid(version);
+    }
 
-    preRelease = matcher.group("prerelease") != null
-        ? new CloudSdkVersionPreRelease(matcher.group("prerelease")) : null;
-    buildIdentifier = matcher.group("build");
+    if (buildStart < 0) {
+      buildIdentifier = null;
+    } else if (areIdentifiers(version, buildStart + 1, version.length(), false)) {
+      buildIdentifier = version.substring(buildStart + 1);
+    } else {
+      throw invalid(version);
+    }
 
     this.version = version;
   }
 
-  private static String getSemVerRegex() {
-    // Only digits, with no leading zeros.
-    String digits = "(?:0|[1-9][0-9]*)";
-    // Digits, letters and dashes
-    String alphaNum = "[-0-9A-Za-z]+";
-    // This is an alphanumeric string that must have at least one letter (or else it would be
-    // considered digits).
-    String strictAlphaNum = "[-0-9A-Za-z]*[-A-Za-z]+[-0-9A-Za-z]*";
+  /**
+   * Returns the CloudSdkVersion of a version string. Unlike the constructor, this reuses the
+   * instance parsed from an equal string when it is still cached.
+   *
+   * @param version the semantic version string
+   * @throws IllegalArgumentException if the argument is not a valid semantic version string
+   */
+  public static CloudSdkVersion valueOf(String version) throws IllegalArgumentException {
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(version));
+    CloudSdkVersion parsed = CACHE.getIfPresent(version);
+    if (parsed == null) {
+      parsed = new CloudSdkVersion(version);
+      CACHE.put(version, parsed);
+    }
+    return parsed;
+  }
+
+  private static IllegalArgumentException invalid(String version) {
+    return new IllegalArgumentException(
+        String.format("Pattern \"%s\" is not a valid CloudSdkVersion.", version));
+  }
+
+  private static boolean isAt(String version, int index, char expected) {
+    return index >= 0 && index < version.length() && version.charAt(index) == expected;
+  }
+
+  private static boolean isDigit(char character) {
+    return character >= '0' && character <= '9';
+  }
+
+  // Returns the end of the number without leading zeros that starts at start, or -1 if none does.
+  private static int endOfNumber(String version, int start) {
+    if (start >= version.length() || !isDigit(version.charAt(start))) {
+      return -1;
+    }
+    if (version.charAt(start) == '0') {
+      return start + 1;
+    }
+    int end = start + 1;
+    while (end < version.length() && isDigit(version.charAt(end))) {
+      end++;
+    }
+    return end;
+  }
 
-    String preReleaseIdentifier = "(?:" + digits + "|" + strictAlphaNum + ")";
-    String preRelease = "(?:" + preReleaseIdentifier + "(?:\\." + preReleaseIdentifier + ")*)";
-    String build = "(?:" + alphaNum + "(?:\\." + alphaNum + ")*)";
+  private static int parseInt(String version, int start, int end) {
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      value = value * 10 + (version.charAt(i) - '0');
+      if (value > Integer.MAX_VALUE) {
+        throw invalid(version);
+      }
+    }
+    return (int) value;
+  }
 
-    return "^(?<major>" + digits + ")\\.(?<minor>" + digits + ")\\.(?<patch>" + digits + ")"
-        + "(?:\\-(?<prerelease>" + preRelease + "))?(?:\\+(?<build>" + build + "))?$";
+  // Checks for dot separated, non-empty identifiers of [-0-9A-Za-z], where pre-release
+  // identifiers that are only digits must not have leading zeros.
+  private static boolean areIdentifiers(String version, int start, int end, boolean preRelease) {
+    int identifierStart = start;
+    boolean numeric = true;
+    for (int i = start; i <= end; i++) {
+      char character = i < end ? version.charAt(i) : '.';
+      if (character == '.') {
+        int length = i - identifierStart;
+        if (length == 0
+            || (preRelease && numeric && length > 1 && version.charAt(identifierStart) == '0')) {
+          return false;
+        }
+        identifierStart = i + 1;
+        numeric = true;
+      } else if (isDigit(character)) {
+        continue;
+      } else if (character == '-' || (character >= 'a' && character <= 'z')
+          || (character >= 'A' && character <= 'Z')) {
+        numeric = false;
+      } else {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
@@ -102,14 +188,15 @@ public class CloudSdkVersion implements Comparable<CloudSdkVersion> {
     Preconditions.checkNotNull(other);
 
     // First, compare required fields
-    List<Integer> mine = ImmutableList.of(majorVersion, minorVerion, patchVersion);
-    List<Integer> others = ImmutableList.of(other.getMajorVersion(), other.getMinorVerion(),
-        other.getPatchVersion());
-    for (int i = 0; i < mine.size(); i++) {
-      int result = mine.get(i).compareTo(others.get(i));
-      if (result != 0) {
-        return result;
-      }
+    int result = Integer.compare(majorVersion, other.getMajorVersion());
+    if (result == 0) {
+      result = Integer.compare(minorVerion, other.getMinorVerion());
+    }
+    if (result == 0) {
+      result = Integer.compare(patchVersion, other.getPatchVersion());
+    }
+    if (result != 0) {
+      return result;
     }
 
     // Compare pre-release components
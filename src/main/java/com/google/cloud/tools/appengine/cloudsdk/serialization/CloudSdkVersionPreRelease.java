@@ -45,10 +45,12 @@ class CloudSdkVersionPreRelease implements Comparable<CloudSdkVersionPreRelease>
     this.segments = new ArrayList<>();
     this.preRelease = preRelease;
 
-    String[] segmentParts = preRelease.split("\\.");
-    for (String segment : segmentParts) {
-      segments.add(new PreReleaseSegment(segment));
+    int start = 0;
+    for (int dot = preRelease.indexOf('.'); dot >= 0; dot = preRelease.indexOf('.', start)) {
+      segments.add(new PreReleaseSegment(preRelease.substring(start, dot)));
+      start = dot + 1;
     }
+    segments.add(new PreReleaseSegment(preRelease.substring(start)));
   }
 
   /**
@@ -170,14 +172,33 @@ class CloudSdkVersionPreRelease implements Comparable<CloudSdkVersionPreRelease>
       return first.segment.compareTo(second.segment);
     }
 
+    // Compares the digits as numbers of any size: without leading zeros, the longer number is
+    // larger, and numbers of the same length compare like strings.
     private static int compareNumericOnly(PreReleaseSegment first, PreReleaseSegment second) {
-      Integer firstInt = Integer.parseInt(first.segment);
-      Integer secondInt = Integer.parseInt(second.segment);
-      return firstInt.compareTo(secondInt);
+      String firstDigits = stripLeadingZeros(first.segment);
+      String secondDigits = stripLeadingZeros(second.segment);
+      int result = Integer.compare(firstDigits.length(), secondDigits.length());
+      return result != 0 ? result : firstDigits.compareTo(secondDigits);
+    }
+
+    private static String stripLeadingZeros(String digits) {
+      int start = 0;
+      while (start < digits.length() - 1 && digits.charAt(start) == '0') {
+        start++;
+      }
+      return digits.substring(start);
     }
 
     private boolean isNumericOnly(String num) {
-      return num.matches("[0-9]+");
+      if (num.isEmpty()) {
+        return false;
+      }
+      for (int i = 0; i < num.length(); i++) {
+        if (num.charAt(i) < '0' || num.charAt(i) > '9') {
+          return false;
+        }
+      }
+      return true;
     }
 
   }
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.tracing;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the spans that end while it is registered with {@link Tracing#addListener}, and writes them
+ * in the Chrome trace event format, which {@code chrome://tracing} and Perfetto show as a timeline.
+ *
+ * <p>Spans that end on the thread that started them, within their parent, are written as complete
+ * events nested under their parent on that thread's track. The others, such as commands whose
+ * process outlives the call that started it, are written as asynchronous events on their own
+ * track. Every event carries the attributes of its span, its id and the id of its parent.
+ *
+ * <p>To bound its memory, a recorder keeps at most a fixed number of spans and counts the others
+ * as dropped.
+ */
+public class ChromeTraceRecorder implements SpanListener {
+
+  public static final int DEFAULT_MAX_SPANS = 100000;
+
+  private final int maxSpans;
+  private final long originNanos = System.nanoTime();
+  private final long originMillis = System.currentTimeMillis();
+  private final ConcurrentLinkedQueue<Span> spans = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicLong dropped = new AtomicLong();
+
+  public ChromeTraceRecorder() {
+    this(DEFAULT_MAX_SPANS);
+  }
+
+  /**
+   * Creates a recorder that keeps at most {@code maxSpans} spans.
+   */
+  public ChromeTraceRecorder(int maxSpans) {
+    Preconditions.checkArgument(maxSpans > 0, "maxSpans must be positive");
+    this.maxSpans = maxSpans;
+  }
+
+  @Override
+  public void onSpanStart(Span span) {
+  }
+
+  @Override
+  public void onSpanEnd(Span span) {
+    if (size.incrementAndGet() > maxSpans) {
+      size.decrementAndGet();
+      dropped.incrementAndGet();
+      return;
+    }
+    spans.add(span);
+  }
+
+  /**
+   * Returns the spans kept so far, in the order they ended.
+   */
+  public List<Span> getSpans() {
+    return new ArrayList<>(spans);
+  }
+
+  /**
+   * Returns the number of spans that ended after the recorder was full.
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Writes the spans kept so far to a file, atomically replacing it.
+   */
+  public void write(Path file) throws IOException {
+    Path directory = file.toAbsolutePath().getParent();
+    Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      try (Writer writer = Files.newBufferedWriter(temporary, Charsets.UTF_8)) {
+        write(writer);
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Writes the spans kept so far as a JSON trace object. The writer is not closed.
+   */
+  public void write(Writer writer) throws IOException {
+    final List<Span> ended = getSpans();
+    long pid = processId();
+    JsonWriter json = new JsonWriter(writer);
+    json.beginObject();
+    json.name("displayTimeUnit").value("ms");
+    json.name("otherData").beginObject();
+    json.name("startTimeMillis").value(originMillis);
+    json.name("droppedSpans").value(dropped.get());
+    json.endObject();
+
+    json.name("traceEvents").beginArray();
+    Map<Long, String> threads = new LinkedHashMap<>();
+    for (Span span : ended) {
+      if (!threads.containsKey(span.getThreadId())) {
+        threads.put(span.getThreadId(), span.getThreadName());
+      }
+    }
+    for (Map.Entry<Long, String> thread : threads.entrySet()) {
+      json.beginObject();
+      json.name("name").value("thread_name");
+      json.name("ph").value("M");
+      json.name("pid").value(pid);
+      json.name("tid").value(thread.getKey());
+      json.name("args").beginObject().name("name").value(thread.getValue()).endObject();
+      json.endObject();
+    }
+    for (Span span : ended) {
+      double start = micros(span.getStartNanos());
+      double end = micros(span.getStartNanos() + span.getDurationNanos());
+      if (isNested(span)) {
+        writeEvent(json, span, "X", pid, start);
+        json.name("dur").value(end - start);
+        writeArgs(json, span);
+        json.endObject();
+      } else {
+        writeEvent(json, span, "b", pid, start);
+        json.name("id").value(span.getId());
+        writeArgs(json, span);
+        json.endObject();
+        writeEvent(json, span, "e", pid, end);
+        json.name("id").value(span.getId());
+        json.endObject();
+      }
+    }
+    json.endArray();
+    json.endObject();
+    json.flush();
+  }
+
+  // whether the span can be drawn as a slice of its thread, inside the slice of its parent
+  private static boolean isNested(Span span) {
+    if (span.getEndThreadId() != span.getThreadId()) {
+      return false;
+    }
+    Span parent = span.getParent();
+    if (parent == null || parent.getThreadId() != span.getThreadId()) {
+      return true;
+    }
+    long parentDuration = parent.getDurationNanos();
+    return parentDuration < 0 || parent.getStartNanos() + parentDuration
+        >= span.getStartNanos() + span.getDurationNanos();
+  }
+
+  // opens the event object and writes the fields common to all phases
+  private static void writeEvent(JsonWriter json, Span span, String phase, long pid, double time)
+      throws IOException {
+    json.beginObject();
+    json.name("name").value(span.getName());
+    json.name("cat").value(span.getCategory());
+    json.name("ph").value(phase);
+    json.name("ts").value(time);
+    json.name("pid").value(pid);
+    json.name("tid").value(span.getThreadId());
+  }
+
+  private static void writeArgs(JsonWriter json, Span span) throws IOException {
+    json.name("args").beginObject();
+    json.name("span_id").value(span.getId());
+    if (span.getParent() != null) {
+      json.name("parent_id").value(span.getParent().getId());
+    }
+    for (Map.Entry<String, Object> attribute : span.getAttributes().entrySet()) {
+      json.name(attribute.getKey());
+      if (attribute.getValue() instanceof Number) {
+        json.value((Number) attribute.getValue());
+      } else {
+        json.value(attribute.getValue().toString());
+      }
+    }
+    if (span.getFailure() != null) {
+      json.name("failure").value(span.getFailure().toString());
+    }
+    json.endObject();
+  }
+
+  private double micros(long nanos) {
+    return (nanos - originNanos) / 1000.0;
+  }
+
+  // the pid of this JVM, from its management name "pid@host", or 1 if it does not follow that form
+  private static long processId() {
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    int at = name.indexOf('@');
+    try {
+      return at > 0 ? Long.parseLong(name.substring(0, at)) : 1;
+    } catch (NumberFormatException e) {
+      return 1;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ChromeTraceRecorder (" + size.get() + " spans, " + dropped.get() + " dropped)";
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.tracing;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Emits spans as Java Flight Recorder events named {@value #EVENT_NAME}, so that recordings show
+ * which command or staging phase the threads of the library were busy with.
+ *
+ * <p>The library is compiled for JVMs that may lack Flight Recorder, so the event type is defined
+ * at runtime with {@code jdk.jfr.EventFactory} and every Flight Recorder API is called
+ * reflectively. Events are only created while a recording enables them. Fields that do not apply
+ * to an operation are left empty, and the exit code is -1 for operations that are not commands.
+ */
+class FlightRecorderSpanListener implements SpanListener {
+
+  static final String EVENT_NAME = "com.google.cloud.tools.appengine.Operation";
+
+  private static final Logger logger =
+      Logger.getLogger(FlightRecorderSpanListener.class.getName());
+
+  // indexes of the event fields, in the order they are declared in create()
+  private static final int CATEGORY = 0;
+  private static final int NAME = 1;
+  private static final int PROJECT = 2;
+  private static final int SERVICE = 3;
+  private static final int EXIT_CODE = 4;
+  private static final int VALIDATION = 5;
+  private static final int SPAWN = 6;
+  private static final int FIRST_OUTPUT = 7;
+  private static final int FAILURE = 8;
+  private static final int ATTRIBUTES = 9;
+
+  // Flight Recorder shows Long.MIN_VALUE timespans as missing
+  private static final long NO_TIMESPAN = Long.MIN_VALUE;
+  private static final Joiner.MapJoiner ATTRIBUTE_JOINER =
+      Joiner.on(", ").withKeyValueSeparator("=");
+
+  private final Object eventFactory;
+  private final Object eventType;
+  private final Method isEventTypeEnabled;
+  private final Method newEvent;
+  private final Method isEnabled;
+  private final Method begin;
+  private final Method end;
+  private final Method shouldCommit;
+  private final Method commit;
+  private final Method set;
+  private final ConcurrentMap<Span, Object> events = new ConcurrentHashMap<>();
+
+  private FlightRecorderSpanListener(Object eventFactory, Class<?> eventClass)
+      throws ReflectiveOperationException {
+    this.eventFactory = eventFactory;
+    this.eventType = eventFactory.getClass().getMethod("getEventType").invoke(eventFactory);
+    this.isEventTypeEnabled = eventType.getClass().getMethod("isEnabled");
+    this.newEvent = eventFactory.getClass().getMethod("newEvent");
+    this.isEnabled = eventClass.getMethod("isEnabled");
+    this.begin = eventClass.getMethod("begin");
+    this.end = eventClass.getMethod("end");
+    this.shouldCommit = eventClass.getMethod("shouldCommit");
+    this.commit = eventClass.getMethod("commit");
+    this.set = eventClass.getMethod("set", int.class, Object.class);
+  }
+
+  /**
+   * Defines the event type and returns a listener emitting it, or null if this JVM does not
+   * support Flight Recorder.
+   */
+  @Nullable
+  static FlightRecorderSpanListener create() {
+    try {
+      Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+      Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+      Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+      Class<?> eventClass = Class.forName("jdk.jfr.Event");
+      Constructor<?> newAnnotation = annotationElement.getConstructor(Class.class, Object.class);
+      Constructor<?> newField =
+          valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+      List<Object> eventAnnotations = ImmutableList.of(
+          newAnnotation.newInstance(annotation("Name"), EVENT_NAME),
+          newAnnotation.newInstance(annotation("Label"), "App Engine Operation"),
+          newAnnotation.newInstance(annotation("Category"), new String[] {"App Engine"}),
+          newAnnotation.newInstance(annotation("Description"),
+              "A command, staging phase or development server operation"));
+      Object nanoseconds = newAnnotation.newInstance(annotation("Timespan"), "NANOSECONDS");
+
+      List<Object> fields = ImmutableList.of(
+          field(newField, newAnnotation, String.class, "category", "Category"),
+          field(newField, newAnnotation, String.class, "name", "Name"),
+          field(newField, newAnnotation, String.class, "project", "Project"),
+          field(newField, newAnnotation, String.class, "service", "Service"),
+          field(newField, newAnnotation, int.class, "exitCode", "Exit Code"),
+          field(newField, newAnnotation, long.class, "validation", "Validation", nanoseconds),
+          field(newField, newAnnotation, long.class, "spawn", "Spawn", nanoseconds),
+          field(newField, newAnnotation, long.class, "firstOutput", "Time To First Output",
+              nanoseconds),
+          field(newField, newAnnotation, String.class, "failure", "Failure"),
+          field(newField, newAnnotation, String.class, "attributes", "Attributes"));
+
+      Object factory = eventFactory.getMethod("create", List.class, List.class)
+          .invoke(null, eventAnnotations, fields);
+      return new FlightRecorderSpanListener(factory, eventClass);
+    } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+      logger.log(Level.FINE, "Flight Recorder events are not available", e);
+      return null;
+    }
+  }
+
+  /**
+   * Whether a running recording enables the event.
+   */
+  boolean isEventEnabled() {
+    try {
+      return (Boolean) isEventTypeEnabled.invoke(eventType);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public void onSpanStart(Span span) {
+    try {
+      Object event = newEvent.invoke(eventFactory);
+      if ((Boolean) isEnabled.invoke(event)) {
+        begin.invoke(event);
+        events.put(span, event);
+      }
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      logger.log(Level.FINE, "Cannot create a Flight Recorder event", e);
+    }
+  }
+
+  @Override
+  public void onSpanEnd(Span span) {
+    Object event = events.remove(span);
+    if (event == null) {
+      return;
+    }
+    try {
+      end.invoke(event);
+      if (!(Boolean) shouldCommit.invoke(event)) {
+        return;
+      }
+      Map<String, Object> attributes = new LinkedHashMap<>(span.getAttributes());
+      set.invoke(event, CATEGORY, span.getCategory());
+      set.invoke(event, NAME, span.getName());
+      set.invoke(event, PROJECT, string(attributes.remove(Span.PROJECT)));
+      set.invoke(event, SERVICE, string(attributes.remove(Span.SERVICE)));
+      Object exitCode = attributes.remove(Span.EXIT_CODE);
+      set.invoke(event, EXIT_CODE,
+          exitCode instanceof Number ? ((Number) exitCode).intValue() : -1);
+      set.invoke(event, VALIDATION, timespan(attributes.remove(Span.VALIDATION_NANOS)));
+      set.invoke(event, SPAWN, timespan(attributes.remove(Span.SPAWN_NANOS)));
+      set.invoke(event, FIRST_OUTPUT, timespan(attributes.remove(Span.FIRST_OUTPUT_NANOS)));
+      set.invoke(event, FAILURE, string(span.getFailure()));
+      set.invoke(event, ATTRIBUTES,
+          attributes.isEmpty() ? null : ATTRIBUTE_JOINER.join(attributes));
+      commit.invoke(event);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      logger.log(Level.FINE, "Cannot commit a Flight Recorder event", e);
+    }
+  }
+
+  private static Class<? extends Annotation> annotation(String name)
+      throws ClassNotFoundException {
+    return Class.forName("jdk.jfr." + name).asSubclass(Annotation.class);
+  }
+
+  // creates the ValueDescriptor of an event field
+  private static Object field(Constructor<?> newField, Constructor<?> newAnnotation,
+      Class<?> type, String name, String label, Object... annotations)
+      throws ReflectiveOperationException {
+    List<Object> fieldAnnotations = new ArrayList<>();
+    fieldAnnotations.add(newAnnotation.newInstance(annotation("Label"), label));
+    fieldAnnotations.addAll(Arrays.asList(annotations));
+    return newField.newInstance(type, name, fieldAnnotations);
+  }
+
+  @Nullable
+  private static String string(@Nullable Object value) {
+    return value == null ? null : value.toString();
+  }
+
+  private static long timespan(@Nullable Object nanos) {
+    return nanos instanceof Number && ((Number) nanos).longValue() >= 0
+        ? ((Number) nanos).longValue() : NO_TIMESPAN;
+  }
+}
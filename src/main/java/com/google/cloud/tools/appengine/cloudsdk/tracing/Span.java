@@ -0,0 +1,279 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.tracing;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * One operation of the library, such as a command, a staging phase or a wait for the development
+ * server, from its start to its end. Spans are created with {@link Tracing#start} and must be
+ * ended, usually in a {@code finally} block.
+ *
+ * <p>A span started with {@link Tracing#start} is the parent of the spans its thread starts until
+ * it ends, so spans form a tree such as a deployment running a staging phase running a command.
+ * Spans started with {@link Tracing#startDetached} have a parent too, but no children, and may end
+ * on another thread.
+ *
+ * <p>A span that nobody observes records nothing, so instrumented code costs next to nothing
+ * until a {@link SpanListener} is registered.
+ */
+public class Span {
+
+  private static final Logger logger = Logger.getLogger(Span.class.getName());
+  private static final AtomicLong ids = new AtomicLong();
+
+  /** Category of the commands run through the Cloud SDK. */
+  public static final String COMMAND = "command";
+  /** Category of the phases of staging an application. */
+  public static final String STAGING = "staging";
+  /** Category of the operations on a local development server. */
+  public static final String DEV_SERVER = "devserver";
+
+  /** Attribute holding the Cloud project an operation works on. */
+  public static final String PROJECT = "project";
+  /** Attribute holding the App Engine service an operation works on. */
+  public static final String SERVICE = "service";
+  /** Attribute holding the exit code of a command. */
+  public static final String EXIT_CODE = "exit_code";
+  /** Attribute holding how long a command was validated, in nanoseconds. */
+  public static final String VALIDATION_NANOS = "validation_nanos";
+  /** Attribute holding how long a command took to spawn, in nanoseconds. */
+  public static final String SPAWN_NANOS = "spawn_nanos";
+  /** Attribute holding how long a command ran before its first output, in nanoseconds. */
+  public static final String FIRST_OUTPUT_NANOS = "first_output_nanos";
+
+  private final String category;
+  private final String name;
+  private final List<SpanListener> listeners;
+  private final long id = ids.incrementAndGet();
+  @Nullable
+  private final Span parent;
+  private final boolean scoped;
+  private final long threadId = Thread.currentThread().getId();
+  private final String threadName = Thread.currentThread().getName();
+  private final long startTimeMillis = System.currentTimeMillis();
+  private final long startNanos = System.nanoTime();
+  // guarded by itself, in insertion order
+  private final Map<String, Object> attributes = new LinkedHashMap<>();
+  private final AtomicBoolean ended = new AtomicBoolean();
+  private volatile long endNanos;
+  private volatile long endThreadId;
+  private volatile Throwable failure;
+
+  Span(String category, String name, List<SpanListener> listeners, @Nullable Span parent,
+      boolean scoped) {
+    this.category = Preconditions.checkNotNull(category);
+    this.name = Preconditions.checkNotNull(name);
+    this.listeners = ImmutableList.copyOf(listeners);
+    this.parent = parent;
+    this.scoped = scoped;
+  }
+
+  /**
+   * Whether anybody observes this span. Recording into a span that is not recording is harmless,
+   * but callers may skip work that only serves the span.
+   */
+  public boolean isRecording() {
+    return !listeners.isEmpty();
+  }
+
+  /**
+   * Records an attribute of the operation. Null values are ignored.
+   *
+   * @param value a string or a number
+   * @return this span
+   */
+  public Span attribute(String key, @Nullable Object value) {
+    Preconditions.checkNotNull(key);
+    if (value != null && isRecording()) {
+      synchronized (attributes) {
+        attributes.put(key, value);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Records why the operation failed. The first failure recorded wins.
+   */
+  public void failed(Throwable failure) {
+    if (this.failure == null && isRecording()) {
+      this.failure = failure;
+    }
+  }
+
+  /**
+   * Ends the operation and notifies the listeners. Only the first call counts.
+   */
+  public void end() {
+    if (!ended.compareAndSet(false, true)) {
+      return;
+    }
+    endNanos = System.nanoTime();
+    endThreadId = Thread.currentThread().getId();
+    if (scoped) {
+      Tracing.exit(this);
+    }
+    for (SpanListener listener : listeners) {
+      try {
+        listener.onSpanEnd(this);
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Span listener failed", e);
+      }
+    }
+  }
+
+  // called by Tracing once the span is fully constructed
+  void start() {
+    for (SpanListener listener : listeners) {
+      try {
+        listener.onSpanStart(this);
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Span listener failed", e);
+      }
+    }
+  }
+
+  public String getCategory() {
+    return category;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns an identifier of the span, unique in this JVM.
+   */
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * Returns the span that was current on the thread that started this one, or null.
+   */
+  @Nullable
+  public Span getParent() {
+    return parent;
+  }
+
+  /**
+   * Whether this span was the parent of the spans its thread started until it ended.
+   */
+  public boolean isScoped() {
+    return scoped;
+  }
+
+  /**
+   * Returns the id of the thread that started the operation.
+   */
+  public long getThreadId() {
+    return threadId;
+  }
+
+  /**
+   * Returns the id of the thread that ended the operation, or 0 while it runs.
+   */
+  public long getEndThreadId() {
+    return endThreadId;
+  }
+
+  /**
+   * Returns the name of the thread that started the operation.
+   */
+  public String getThreadName() {
+    return threadName;
+  }
+
+  /**
+   * Returns when the operation started, in milliseconds since the epoch.
+   */
+  public long getStartTimeMillis() {
+    return startTimeMillis;
+  }
+
+  /**
+   * Returns when the operation started, on the {@link System#nanoTime()} scale.
+   */
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  /**
+   * Returns the wall time of the operation, or -1 while it runs.
+   */
+  public long getDurationNanos() {
+    return endNanos == 0 ? -1 : endNanos - startNanos;
+  }
+
+  /**
+   * Returns the wall time of the operation so far, or in total once it ended.
+   */
+  public long getElapsed(TimeUnit unit) {
+    long end = endNanos == 0 ? System.nanoTime() : endNanos;
+    return unit.convert(end - startNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the attributes recorded so far, in the order they were first recorded.
+   */
+  public Map<String, Object> getAttributes() {
+    synchronized (attributes) {
+      return attributes.isEmpty()
+          ? Collections.<String, Object>emptyMap() : ImmutableMap.copyOf(attributes);
+    }
+  }
+
+  /**
+   * Returns an attribute, or null if it was not recorded.
+   */
+  @Nullable
+  public Object getAttribute(String key) {
+    synchronized (attributes) {
+      return attributes.get(key);
+    }
+  }
+
+  /**
+   * Returns why the operation failed, or null.
+   */
+  @Nullable
+  public Throwable getFailure() {
+    return failure;
+  }
+
+  @Override
+  public String toString() {
+    return category + ":" + name + " (" + getElapsed(TimeUnit.MILLISECONDS) + " ms"
+        + (failure == null ? "" : ", " + failure) + ")";
+  }
+}
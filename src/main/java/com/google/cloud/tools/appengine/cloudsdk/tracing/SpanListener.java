@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.tracing;
+
+/**
+ * Observes the spans the library records. Register implementations with {@link
+ * Tracing#addListener}.
+ *
+ * <p>Hooks are called on the threads doing the work, possibly concurrently, so they must be
+ * thread-safe and quick. Exceptions thrown by hooks are logged and otherwise ignored.
+ */
+public interface SpanListener {
+
+  /**
+   * Called when an operation starts.
+   *
+   * @param span the operation, which only knows its name, start time and the attributes known
+   *     upfront at this point
+   */
+  void onSpanStart(Span span);
+
+  /**
+   * Called once an operation is over. Called exactly once per {@link #onSpanStart}, with the same
+   * span.
+   *
+   * @param span the complete record of the operation
+   */
+  void onSpanEnd(Span span);
+}
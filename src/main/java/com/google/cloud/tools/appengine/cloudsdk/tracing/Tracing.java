@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.tracing;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Entry point for recording the operations of the library as {@link Span}s.
+ *
+ * <p>Listeners are registered for the whole JVM, because operations such as staging have no
+ * configuration of their own to carry them. When the JVM supports Java Flight Recorder, a listener
+ * emitting its spans as flight recorder events is registered automatically, unless the {@link
+ * #FLIGHT_RECORDER_PROPERTY} system property is {@code false}. That listener only counts as
+ * recording while a flight recording enables its event, so that spans cost nothing otherwise.
+ *
+ * <p>Setting the {@link #TRACE_FILE_PROPERTY} system property to a file records every span of the
+ * JVM with a {@link ChromeTraceRecorder}, written to that file when the JVM exits.
+ */
+public class Tracing {
+
+  /**
+   * System property that disables the Java Flight Recorder events when set to {@code false}.
+   */
+  public static final String FLIGHT_RECORDER_PROPERTY =
+      "com.google.cloud.tools.appengine.flightRecorder";
+
+  /**
+   * System property naming a Chrome trace file to record all spans to.
+   */
+  public static final String TRACE_FILE_PROPERTY = "com.google.cloud.tools.appengine.traceFile";
+
+  private static final Logger logger = Logger.getLogger(Tracing.class.getName());
+  private static final List<SpanListener> listeners = new CopyOnWriteArrayList<>();
+  private static final Span DISABLED =
+      new Span("", "", Collections.<SpanListener>emptyList(), null, false);
+  private static final ThreadLocal<Span> current = new ThreadLocal<>();
+  @Nullable
+  private static final FlightRecorderSpanListener flightRecorder =
+      "false".equals(System.getProperty(FLIGHT_RECORDER_PROPERTY))
+          ? null : FlightRecorderSpanListener.create();
+
+  static {
+    if (flightRecorder != null) {
+      listeners.add(flightRecorder);
+    }
+    String traceFile = System.getProperty(TRACE_FILE_PROPERTY);
+    if (traceFile != null && !traceFile.isEmpty()) {
+      recordUntilExit(Paths.get(traceFile));
+    }
+  }
+
+  private Tracing() {
+  }
+
+  /**
+   * Starts a span, which is the parent of the spans this thread starts until it ends. It must be
+   * ended by this thread. The listeners registered at this point are the ones notified of its end.
+   *
+   * @param category the kind of operation, such as {@link Span#STAGING}
+   * @param name     what the operation does, such as {@code copy directory}
+   */
+  public static Span start(String category, String name) {
+    if (!isEnabled()) {
+      return DISABLED;
+    }
+    Span span = new Span(category, name, listeners, current.get(), true);
+    current.set(span);
+    span.start();
+    return span;
+  }
+
+  /**
+   * Starts a span that may outlive the current operation and end on another thread, such as an
+   * asynchronous command. It is a child of the current span, but never the parent of other spans.
+   *
+   * @param category the kind of operation, such as {@link Span#COMMAND}
+   * @param name     what the operation does, such as {@code app deploy}
+   */
+  public static Span startDetached(String category, String name) {
+    if (!isEnabled()) {
+      return DISABLED;
+    }
+    Span span = new Span(category, name, listeners, current.get(), false);
+    span.start();
+    return span;
+  }
+
+  /**
+   * Returns the innermost span started by this thread with {@link #start} and not yet ended, or
+   * null.
+   */
+  @Nullable
+  public static Span current() {
+    return current.get();
+  }
+
+  // called when a scoped span ends, to make its parent current again
+  static void exit(Span span) {
+    if (current.get() == span) {
+      if (span.getParent() == null) {
+        current.remove();
+      } else {
+        current.set(span.getParent());
+      }
+    }
+  }
+
+  /**
+   * Returns a span that records nothing.
+   */
+  public static Span disabled() {
+    return DISABLED;
+  }
+
+  /**
+   * Whether any listener is registered and recording, that is whether spans started now record
+   * anything.
+   */
+  public static boolean isEnabled() {
+    for (SpanListener listener : listeners) {
+      if (listener != flightRecorder || flightRecorder.isEventEnabled()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // whether this JVM supports Flight Recorder, and its events were not disabled
+  static boolean isFlightRecorderAvailable() {
+    return flightRecorder != null;
+  }
+
+  /**
+   * Records all spans from now on, and writes them to a Chrome trace file when the JVM exits.
+   *
+   * @return the recorder, which can also be written on demand
+   */
+  public static ChromeTraceRecorder recordUntilExit(final Path traceFile) {
+    Preconditions.checkNotNull(traceFile);
+    final ChromeTraceRecorder recorder = new ChromeTraceRecorder();
+    listeners.add(recorder);
+    Runtime.getRuntime().addShutdownHook(new Thread("trace-writer") {
+      @Override
+      public void run() {
+        try {
+          recorder.write(traceFile);
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "Cannot write trace file " + traceFile, e);
+        }
+      }
+    });
+    return recorder;
+  }
+
+  public static void addListener(SpanListener listener) {
+    listeners.add(Preconditions.checkNotNull(listener));
+  }
+
+  public static void removeListener(SpanListener listener) {
+    listeners.remove(listener);
+  }
+}
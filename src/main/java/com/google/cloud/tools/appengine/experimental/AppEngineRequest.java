@@ -16,7 +16,11 @@
 
 package com.google.cloud.tools.appengine.experimental;
 
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandInstrumentation;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessTimeoutException;
+
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Interface for remote App Engine Requests.
@@ -26,5 +30,21 @@ public interface AppEngineRequest<T> {
 
   AppEngineRequest<T> outputHandler(OutputHandler outputHandler);
 
+  /**
+   * Limits how long the request may run; when exceeded, it is terminated and its future fails
+   * with a {@link ProcessTimeoutException} cause. A timeout of 0 means no limit.
+   */
+  AppEngineRequest<T> timeout(long timeout, TimeUnit unit);
+
+  /**
+   * Limits how long the request may go without producing any output, as {@link #timeout}.
+   */
+  AppEngineRequest<T> inactivityTimeout(long timeout, TimeUnit unit);
+
+  /**
+   * Adds an observer of the command the request runs.
+   */
+  AppEngineRequest<T> instrumentation(CommandInstrumentation instrumentation);
+
   Future<T> execute();
 }
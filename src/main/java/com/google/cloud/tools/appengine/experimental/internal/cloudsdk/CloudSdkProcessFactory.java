@@ -16,6 +16,8 @@
 
 package com.google.cloud.tools.appengine.experimental.internal.cloudsdk;
 
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRegistry;
+
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +38,10 @@ public class CloudSdkProcessFactory {
     this.environment = environment;
   }
 
+  public List<String> getCommand() {
+    return command;
+  }
+
   /**
    * Create a new raw process.
    */
@@ -45,6 +51,8 @@ public class CloudSdkProcessFactory {
     processBuilder.command(command);
     processBuilder.environment().putAll(environment);
 
-    return processBuilder.start();
+    Process process = processBuilder.start();
+    ProcessRegistry.getInstance().register(process, command, false /* destroyOnShutdown */);
+    return process;
   }
 }
@@ -17,6 +17,9 @@
 package com.google.cloud.tools.appengine.experimental.internal.cloudsdk;
 
 import com.google.cloud.tools.appengine.api.AppEngineException;
+import com.google.cloud.tools.appengine.cloudsdk.internal.args.CommandGroups;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandInstrumentation;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace;
 import com.google.cloud.tools.appengine.experimental.AppEngineRequest;
 import com.google.cloud.tools.appengine.experimental.OutputHandler;
 import com.google.cloud.tools.appengine.experimental.internal.process.CliProcessManagerProvider;
@@ -25,7 +28,10 @@ import com.google.cloud.tools.appengine.experimental.internal.process.io.StringR
 import com.google.common.base.Preconditions;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The CloudSdkRequest template, all requests will essentially be instances of this class
@@ -38,6 +44,9 @@ public class CloudSdkRequest<R> implements AppEngineRequest<R> {
   private final CliProcessManagerProvider<R> processManagerProvider;
   private final StringResultConverter<R> resultConverter;
   private OutputHandler outputHandler;
+  private long timeoutMillis;
+  private long inactivityTimeoutMillis;
+  private final List<CommandInstrumentation> instrumentations = new ArrayList<>();
   private boolean mutable = true;
 
   /**
@@ -55,10 +64,18 @@ public class CloudSdkRequest<R> implements AppEngineRequest<R> {
   @Override
   public Future<R> execute() {
     mutable = false;
+    CommandTrace trace = new CommandTrace(getCommandGroup(), instrumentations);
+    trace.start();
+    trace.validated();
     try {
-      return processManagerProvider
-          .manage(processFactory.newProcess(), resultConverter, outputHandler);
+      trace.spawning();
+      Process process = processFactory.newProcess();
+      trace.spawned(processFactory.getCommand());
+      return processManagerProvider.manage(process, resultConverter, outputHandler, timeoutMillis,
+          inactivityTimeoutMillis, trace);
     } catch (IOException e) {
+      trace.failed(e);
+      trace.finish();
       // maybe this should be checked, we designed with runtime exceptions with
       // build tools in mind, but presumably, IDEs would want to check them.
       throw new AppEngineException("Error executing request", e);
@@ -72,4 +89,36 @@ public class CloudSdkRequest<R> implements AppEngineRequest<R> {
     return this;
   }
 
+  @Override
+  public AppEngineRequest<R> instrumentation(CommandInstrumentation instrumentation) {
+    Preconditions.checkState(mutable, "Already executed");
+    instrumentations.add(Preconditions.checkNotNull(instrumentation));
+    return this;
+  }
+
+  // the command is the gcloud executable, its top level group, then the subcommand and arguments
+  private String getCommandGroup() {
+    List<String> command = processFactory.getCommand();
+    if (command == null || command.size() < 2) {
+      return "";
+    }
+    return CommandGroups.gcloud(command.subList(1, 2), command.subList(2, command.size()));
+  }
+
+  @Override
+  public AppEngineRequest<R> timeout(long timeout, TimeUnit unit) {
+    Preconditions.checkState(mutable, "Already executed");
+    Preconditions.checkArgument(timeout >= 0, "timeout must not be negative");
+    this.timeoutMillis = unit.toMillis(timeout);
+    return this;
+  }
+
+  @Override
+  public AppEngineRequest<R> inactivityTimeout(long timeout, TimeUnit unit) {
+    Preconditions.checkState(mutable, "Already executed");
+    Preconditions.checkArgument(timeout >= 0, "timeout must not be negative");
+    this.inactivityTimeoutMillis = unit.toMillis(timeout);
+    return this;
+  }
+
 }
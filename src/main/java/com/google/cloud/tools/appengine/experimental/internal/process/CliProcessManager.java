@@ -16,6 +16,10 @@
 
 package com.google.cloud.tools.appengine.experimental.internal.process;
 
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRegistry;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessWatchdog;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace.Stream;
 import com.google.cloud.tools.appengine.experimental.OutputHandler;
 import com.google.cloud.tools.appengine.experimental.internal.process.io.StringResultConverter;
 import com.google.common.util.concurrent.ListenableFutureTask;
@@ -23,6 +27,7 @@ import com.google.common.util.concurrent.MoreExecutors;
 
 import java.util.Scanner;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -48,14 +53,19 @@ public class CliProcessManager<T> implements Future<T> {
   private final OutputHandler outputHandler;
   private final StringResultConverter<T> stringResultConverter;
   private final Process process;
+  private final ProcessWatchdog watchdog;
+  private final CommandTrace trace;
   private ListenableFutureTask<CliProcessResult<T>> processMain;
   private ListenableFutureTask<String> processStdOut;
   private Runnable processStdErr;
 
   private CliProcessManager(Process process, OutputHandler outputHandler,
-      StringResultConverter<T> stringResultConverter) {
+      StringResultConverter<T> stringResultConverter, ProcessWatchdog watchdog,
+      CommandTrace trace) {
 
     this.process = process;
+    this.watchdog = watchdog;
+    this.trace = trace;
     this.executor = MoreExecutors.listeningDecorator(MoreExecutors.getExitingExecutorService(
         (ThreadPoolExecutor) Executors.newFixedThreadPool(3), 2, TimeUnit.SECONDS));
     this.outputHandler = outputHandler;
@@ -72,6 +82,8 @@ public class CliProcessManager<T> implements Future<T> {
         final Scanner stdOut = new Scanner(process.getInputStream(), "UTF-8");
         while (stdOut.hasNextLine() && !Thread.interrupted()) {
           String line = stdOut.nextLine();
+          watchdog.onOutputLine(line);
+          trace.outputLine(Stream.STDOUT, line);
           result.append(line);
           result.append(System.getProperty("line.separator"));
         }
@@ -86,6 +98,8 @@ public class CliProcessManager<T> implements Future<T> {
         final Scanner stdOut = new Scanner(process.getErrorStream(), "UTF-8");
         while (stdOut.hasNextLine() && !Thread.interrupted()) {
           String line = stdOut.nextLine();
+          watchdog.onOutputLine(line);
+          trace.outputLine(Stream.STDERR, line);
           outputHandler.handleLine(line);
         }
       }
@@ -96,12 +110,23 @@ public class CliProcessManager<T> implements Future<T> {
     processMain = ListenableFutureTask.create(new Callable<CliProcessResult<T>>() {
       @Override
       public CliProcessResult<T> call() throws Exception {
-        int exitCode = process.waitFor();
-        T result = stringResultConverter.getResult(processStdOut.get());
-        return new CliProcessResult<T>(exitCode,result);
+        try {
+          int exitCode = process.waitFor();
+          watchdog.stop();
+          trace.exited(exitCode);
+          if (watchdog.getTimeout() != null) {
+            trace.failed(watchdog.getTimeout());
+            throw watchdog.getTimeout();
+          }
+          T result = stringResultConverter.getResult(processStdOut.get());
+          return new CliProcessResult<T>(exitCode,result);
+        } finally {
+          trace.finish();
+        }
       }
     });
 
+    watchdog.start();
     executor.submit(processStdOut);
     executor.submit(processStdErr);
     executor.submit(processMain);
@@ -111,9 +136,19 @@ public class CliProcessManager<T> implements Future<T> {
   @Override
   public boolean cancel(boolean mayInterruptIfRunning) {
     // killing processMain should kill the threads that were simply processing output
-    // as those streams will EOF
-    process.destroy();
-    return processMain.cancel(mayInterruptIfRunning);
+    // as those streams will EOF; gcloud runs its work in child processes, kill those too
+    boolean cancelled = processMain.cancel(mayInterruptIfRunning);
+    watchdog.stop();
+    if (cancelled) {
+      trace.failed(new CancellationException());
+      trace.finish();
+    }
+    try {
+      ProcessRegistry.getInstance().destroy(process);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return cancelled;
   }
 
   @Override
@@ -167,8 +202,12 @@ public class CliProcessManager<T> implements Future<T> {
 
     @Override
     public Future<T> manage(Process process, StringResultConverter<T> stringResultConverter,
-        OutputHandler outputHandler) {
-      return new CliProcessManager<T>(process, outputHandler, stringResultConverter).manage();
+        OutputHandler outputHandler, long timeoutMillis, long inactivityTimeoutMillis,
+        CommandTrace trace) {
+      ProcessWatchdog watchdog =
+          new ProcessWatchdog(process, timeoutMillis, inactivityTimeoutMillis);
+      return new CliProcessManager<T>(process, outputHandler, stringResultConverter, watchdog,
+          trace).manage();
     }
   }
 }
@@ -16,6 +16,7 @@
 
 package com.google.cloud.tools.appengine.experimental.internal.process;
 
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace;
 import com.google.cloud.tools.appengine.experimental.OutputHandler;
 import com.google.cloud.tools.appengine.experimental.internal.process.io.StringResultConverter;
 
@@ -23,6 +24,15 @@ import java.util.concurrent.Future;
 
 public interface CliProcessManagerProvider<T> {
 
+  /**
+   * Manages a started process until it exits.
+   *
+   * @param timeoutMillis           how long the process may run, or 0 for no limit
+   * @param inactivityTimeoutMillis how long the process may go without output, or 0 for no limit
+   * @param trace                   records the output and exit, and is finished once the process
+   *                                exited or was cancelled
+   */
   Future<T> manage(Process process, StringResultConverter<T> stringResultConverter,
-      OutputHandler outputHandler);
+      OutputHandler outputHandler, long timeoutMillis, long inactivityTimeoutMillis,
+      CommandTrace trace);
 }
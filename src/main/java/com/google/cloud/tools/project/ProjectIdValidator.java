@@ -16,9 +16,6 @@
 
 package com.google.cloud.tools.project;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Check if a string is a legal <a href='https://support.google.com/cloud/answer/6158840?hl=en'>Google 
  * Cloud Platform Project ID</a>. Source: com.google.apphosting.base.AppId<p>
@@ -35,16 +32,7 @@ import java.util.regex.Pattern;
 public class ProjectIdValidator {
 
   private static final int MAX_LENGTH = 100;
-  private static final Pattern DISPLAY_PROJECT_ID_REGEX =
-      Pattern.compile("[a-z\\d\\-]{1," + MAX_LENGTH + "}", Pattern.CASE_INSENSITIVE);
-  private static final Pattern DOMAIN_REGEX =
-      Pattern.compile("([a-z\\d\\-\\.]{1," + MAX_LENGTH + "})?\\:", Pattern.CASE_INSENSITIVE);
-  private static final Pattern PARTITION_REGEX =
-      Pattern.compile("([a-z\\d\\-]{1," + MAX_LENGTH + "})?\\~", Pattern.CASE_INSENSITIVE);
-  private static final Pattern PROJECT_ID_REGEX = Pattern.compile(
-      "(?:" + PARTITION_REGEX + ")?((?:" + DOMAIN_REGEX + ")?(" + DISPLAY_PROJECT_ID_REGEX + "))",
-      Pattern.CASE_INSENSITIVE);  
-  
+
   /**
    * Check whether a string is a syntactically correct project ID.
    * This method only checks syntax. It does not check that the ID
@@ -57,8 +45,45 @@ public class ProjectIdValidator {
     if (id == null) {
       return false;
     }
-    Matcher matcher = PROJECT_ID_REGEX.matcher(id);
-    return matcher.matches();
+    // A single pass over the ID. The partition and the domain are optional, but they may be empty
+    // when their separator is present. Letters are matched case insensitively.
+    boolean partitionAllowed = true;
+    boolean domainAllowed = true;
+    boolean dotSeen = false;
+    int partStart = 0;
+    for (int i = 0; i < id.length(); i++) {
+      char character = id.charAt(i);
+      if (character == '~') {
+        if (!partitionAllowed || dotSeen || i - partStart > MAX_LENGTH) {
+          return false;
+        }
+        partitionAllowed = false;
+        partStart = i + 1;
+      } else if (character == ':') {
+        if (!domainAllowed || i - partStart > MAX_LENGTH) {
+          return false;
+        }
+        partitionAllowed = false;
+        domainAllowed = false;
+        dotSeen = false;
+        partStart = i + 1;
+      } else if (character == '.') {
+        if (!domainAllowed) {
+          return false;
+        }
+        dotSeen = true;
+      } else if (!isLetterDigitOrDash(character)) {
+        return false;
+      }
+    }
+    // the remainder is the display project ID, which has no dots
+    int length = id.length() - partStart;
+    return !dotSeen && length >= 1 && length <= MAX_LENGTH;
+  }
+
+  private static boolean isLetterDigitOrDash(char character) {
+    return (character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z')
+        || (character >= '0' && character <= '9') || character == '-';
   }
 
 }
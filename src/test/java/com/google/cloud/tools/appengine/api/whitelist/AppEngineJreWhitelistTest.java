@@ -3,6 +3,9 @@ package com.google.cloud.tools.appengine.api.whitelist;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class AppEngineJreWhitelistTest {
 
   @Test
@@ -39,6 +42,28 @@ public class AppEngineJreWhitelistTest {
   public void testWhitelisted_SwingClass() {
     Assert.assertFalse(AppEngineJreWhitelist.contains("javax.swing.JFrame"));
   }
-  
-}
 
+  @Test
+  public void testSameAsLegacyImplementation() {
+    List<String> classNames = new ArrayList<>();
+    for (String className : LegacyAppEngineJreWhitelist.newWhitelist()) {
+      classNames.add(className);
+      classNames.add(className + "X");
+      classNames.add(className.substring(0, className.lastIndexOf('.') + 1) + "Unknown");
+      classNames.add(className.substring(0, className.length() - 1));
+    }
+    String[] packages = {"java.", "javax.", "javax.servlet.", "javax.swing.", "javax.xml.", "sun.",
+        "sun.util.", "sun.misc.", "com.sun.", "com.sun.xml.", "com.sun.net.", "com.oracle.",
+        "com.oracle.nio.", "org.omg.", "org.w3c.", "org.w3c.dom.", "com.google.", "", "jav.",
+        "javax"};
+    for (String packageName : packages) {
+      classNames.add(packageName + "Foo");
+      classNames.add(packageName);
+    }
+
+    for (String className : classNames) {
+      Assert.assertEquals(className, LegacyAppEngineJreWhitelist.contains(className),
+          AppEngineJreWhitelist.contains(className));
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.api.whitelist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.tools.appengine.api.AppEngineException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link ClassNameIndex}.
+ */
+public class ClassNameIndexTest {
+
+  @Test
+  public void testRead() throws IOException {
+    ClassNameIndex index = ClassNameIndex.read(stream(
+        "# comment\njava.lang\n String\n Thread$State\r\n String\n\njava.util\n\tList \n"));
+
+    assertEquals(3, index.size());
+    assertTrue(index.contains("java.lang.String"));
+    assertTrue(index.contains("java.lang.Thread$State"));
+    assertTrue(index.contains("java.util.List"));
+    assertFalse(index.contains("java.lang.Thread"));
+    assertFalse(index.contains("java.lang.Strin"));
+    assertFalse(index.contains("java.lang.StringX"));
+    assertFalse(index.contains(""));
+  }
+
+  @Test(expected = IOException.class)
+  public void testRead_classWithoutPackage() throws IOException {
+    ClassNameIndex.read(stream(" String\n"));
+  }
+
+  @Test
+  public void testOf_duplicatesAndEmpty() {
+    assertEquals(1, ClassNameIndex.of(ImmutableList.of("a.B", "a.B")).size());
+    assertFalse(ClassNameIndex.of(Collections.<String>emptyList()).contains("a.B"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRead_nonAscii() throws IOException {
+    ClassNameIndex.read(stream("a\n B\u00e9\n"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOf_nonAscii() {
+    ClassNameIndex.of(ImmutableList.of("a.Bé"));
+  }
+
+  @Test
+  public void testLoad_jreWhitelist() {
+    Set<String> legacy = LegacyAppEngineJreWhitelist.newWhitelist();
+    ClassNameIndex index = ClassNameIndex.load("jre-whitelist.txt");
+
+    assertEquals(legacy.size(), index.size());
+    for (String className : legacy) {
+      assertTrue(className, index.contains(className));
+    }
+  }
+
+  @Test(expected = AppEngineException.class)
+  public void testLoad_missing() {
+    ClassNameIndex.load("missing.txt");
+  }
+
+  private static InputStream stream(String text) {
+    return new ByteArrayInputStream(text.getBytes(Charsets.UTF_8));
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.api.whitelist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link JreWhitelistRegistry} and {@link JreWhitelist}.
+ */
+public class JreWhitelistRegistryTest {
+
+  @Test
+  public void testGet_java7() {
+    JreWhitelist whitelist = JreWhitelistRegistry.get("java7");
+    assertEquals("java7", whitelist.getRuntime());
+    assertSame(whitelist, JreWhitelistRegistry.get(null));
+    assertSame(whitelist, JreWhitelistRegistry.get(""));
+  }
+
+  @Test
+  public void testGet_java8AllowsEverything() {
+    JreWhitelist whitelist = JreWhitelistRegistry.get("java8");
+    assertEquals("java8", whitelist.getRuntime());
+    assertTrue(whitelist.contains("java.net.CookieManager"));
+    assertTrue(whitelist.contains("javax.swing.JFrame"));
+    assertTrue(whitelist.getViolations(ImmutableList.of("java.lang.Thread", "org.omg.CORBA.ORB"))
+        .isEmpty());
+  }
+
+  @Test
+  public void testGet_flexibleAllowsEverything() {
+    assertTrue(JreWhitelistRegistry.get("java").contains("javax.swing.JFrame"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGet_unknownRuntime() {
+    JreWhitelistRegistry.get("python27");
+  }
+
+  @Test
+  public void testGetRuntimes() {
+    assertEquals(ImmutableSet.of("java7", "java8", "java"), JreWhitelistRegistry.getRuntimes());
+    for (String runtime : JreWhitelistRegistry.getRuntimes()) {
+      assertEquals(runtime, JreWhitelistRegistry.get(runtime).getRuntime());
+    }
+  }
+
+  @Test
+  public void testContains_java7() {
+    JreWhitelist whitelist = JreWhitelistRegistry.get("java7");
+    assertTrue(whitelist.contains("java.lang.String"));
+    assertTrue(whitelist.contains("com.google.Bar"));
+    assertFalse(whitelist.contains("java.net.CookieManager"));
+  }
+
+  @Test
+  public void testGetViolations_java7() {
+    List<String> classNames = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      classNames.add("java.lang.String");
+      classNames.add("javax.swing.JFrame");
+      classNames.add("com.example.Foo");
+      classNames.add("java.net.CookieManager");
+      classNames.add("java.net.CookieManager");
+    }
+
+    assertEquals(ImmutableList.of("javax.swing.JFrame", "java.net.CookieManager"),
+        ImmutableList.copyOf(JreWhitelistRegistry.get("java7").getViolations(classNames)));
+  }
+
+  @Test
+  public void testGetViolations_sameAsContains() {
+    JreWhitelist whitelist = JreWhitelistRegistry.get("java7");
+    List<String> classNames = new ArrayList<>(LegacyAppEngineJreWhitelist.newWhitelist());
+    classNames.add("java.net.CookieManager");
+    classNames.add("sun.util.Foo");
+    classNames.add("sun.misc.Unsafe");
+
+    List<String> expected = new ArrayList<>();
+    for (String className : classNames) {
+      if (!whitelist.contains(className)) {
+        expected.add(className);
+      }
+    }
+    assertEquals(expected, ImmutableList.copyOf(whitelist.getViolations(classNames)));
+    assertEquals(ImmutableList.of("java.net.CookieManager", "sun.util.Foo"), expected);
+  }
+}
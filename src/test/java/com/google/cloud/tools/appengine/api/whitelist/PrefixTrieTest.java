@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.api.whitelist;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * Unit tests for {@link PrefixTrie}.
+ */
+public class PrefixTrieTest {
+
+  private final PrefixTrie trie =
+      new PrefixTrie(ImmutableList.of("java.", "javax.swing.", "javax.sql.", "com.sun.xml."));
+
+  @Test
+  public void testMatches() {
+    assertTrue(trie.matches("java.lang.String"));
+    assertTrue(trie.matches("java."));
+    assertTrue(trie.matches("javax.swing.JFrame"));
+    assertTrue(trie.matches("javax.sql.DataSource"));
+    assertTrue(trie.matches("com.sun.xml.Foo"));
+  }
+
+  @Test
+  public void testDoesNotMatch() {
+    assertFalse(trie.matches("java"));
+    assertFalse(trie.matches("javax.servlet.Servlet"));
+    assertFalse(trie.matches("javax.swing"));
+    assertFalse(trie.matches("com.sun.net.Foo"));
+    assertFalse(trie.matches(""));
+    assertFalse(trie.matches("Java.lang.String"));
+  }
+
+  @Test
+  public void testEmpty() {
+    assertFalse(new PrefixTrie(Collections.<String>emptyList()).matches("java.lang.String"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyPrefix() {
+    new PrefixTrie(ImmutableList.of(""));
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.api.whitelist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.tools.appengine.api.AppEngineException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Unit tests for {@link WhitelistScanner}.
+ */
+public class WhitelistScannerTest {
+
+  private static final String[][] SOURCES = {
+      {"app/Cookies.java",
+          "package app;\n"
+          + "public class Cookies {\n"
+          + "  public Object manager() { return new java.net.CookieManager(); }\n"
+          + "  public String name() { return \"cookies\"; }\n"
+          + "}\n"},
+      {"app/Helper.java",
+          "package app;\n"
+          + "public class Helper {\n"
+          + "  public java.net.CookieStore store() { return null; }\n"
+          + "}\n"},
+      {"app/Caller.java",
+          "package app;\n"
+          + "public class Caller {\n"
+          + "  // java.net.CookieStore only appears in the descriptor of the call\n"
+          + "  public Object call() { return new Helper().store(); }\n"
+          + "}\n"},
+      {"app/Clean.java",
+          "package app;\n"
+          + "public class Clean {\n"
+          + "  public java.util.List<String> list() { return new java.util.ArrayList<>(); }\n"
+          + "}\n"},
+  };
+
+  @Rule
+  public TemporaryFolder testDir = new TemporaryFolder();
+
+  private Path classes;
+  private byte[] cookies;
+  private byte[] clean;
+  private byte[] caller;
+
+  @Before
+  public void setUp() throws IOException {
+    classes = testDir.newFolder("classes").toPath();
+    compile(testDir.newFolder("src").toPath(), classes);
+    cookies = Files.readAllBytes(classes.resolve("app/Cookies.class"));
+    clean = Files.readAllBytes(classes.resolve("app/Clean.class"));
+    caller = Files.readAllBytes(classes.resolve("app/Caller.class"));
+  }
+
+  @Test
+  public void testScan_directory() {
+    List<WhitelistViolation> violations = new WhitelistScanner().scan(classes);
+
+    assertEquals(ImmutableList.of(
+        new WhitelistViolation("java.net.CookieStore", "app.Caller", classes.toString()),
+        new WhitelistViolation("java.net.CookieManager", "app.Cookies", classes.toString())),
+        violations);
+  }
+
+  @Test
+  public void testScanJars() throws IOException {
+    Path good = createJar(testDir.getRoot().toPath().resolve("good.jar"), "app/Clean.class", clean);
+    Path bad = createJar(testDir.getRoot().toPath().resolve("bad.jar"), "app/Cookies.class",
+        cookies);
+
+    List<WhitelistViolation> violations =
+        new WhitelistScanner().scanJars(ImmutableList.of(good, bad));
+
+    assertEquals(ImmutableList.of(
+        new WhitelistViolation("java.net.CookieManager", "app.Cookies", bad.toString())),
+        violations);
+  }
+
+  @Test
+  public void testScan_war() throws IOException {
+    Path war = testDir.getRoot().toPath().resolve("app.war");
+    try (OutputStream out = Files.newOutputStream(war);
+        ZipOutputStream zipOut = new ZipOutputStream(out)) {
+      addEntry(zipOut, "WEB-INF/classes/app/Clean.class", clean);
+      addEntry(zipOut, "WEB-INF/classes/app/Cookies.class", cookies);
+      ByteArrayOutputStream jar = new ByteArrayOutputStream();
+      try (ZipOutputStream jarOut = new ZipOutputStream(jar)) {
+        addEntry(jarOut, "app/Caller.class", caller);
+      }
+      addEntry(zipOut, "WEB-INF/lib/lib.jar", jar.toByteArray());
+    }
+
+    List<WhitelistViolation> violations = new WhitelistScanner().scan(war);
+
+    assertEquals(ImmutableList.of(
+        new WhitelistViolation("java.net.CookieManager", "app.Cookies", war.toString()),
+        new WhitelistViolation("java.net.CookieStore", "app.Caller",
+            war + "!/WEB-INF/lib/lib.jar")),
+        violations);
+  }
+
+  @Test
+  public void testScan_persistentCache() throws IOException {
+    Path jar = createJar(testDir.getRoot().toPath().resolve("lib.jar"), "app/Cookies.class",
+        cookies);
+    Path cache = testDir.newFolder("cache").toPath();
+
+    assertEquals(1, new WhitelistScanner(cache, 2).scan(jar).size());
+    List<Path> entries = new ArrayList<>();
+    for (Path entry : Files.newDirectoryStream(cache, "jre-references-*.json")) {
+      entries.add(entry);
+    }
+    assertEquals(1, entries.size());
+
+    // a fresh scanner trusts the cached references of the unchanged jar
+    Files.write(entries.get(0), "{}".getBytes(Charsets.UTF_8));
+    assertTrue(new WhitelistScanner(cache, 2).scan(jar).isEmpty());
+  }
+
+  @Test
+  public void testScan_java8() {
+    assertTrue(new WhitelistScanner(JreWhitelistRegistry.get("java8")).scan(classes).isEmpty());
+  }
+
+  @Test(expected = AppEngineException.class)
+  public void testScan_notAClassFile() throws IOException {
+    Files.write(classes.resolve("Broken.class"), new byte[] {1, 2, 3});
+    new WhitelistScanner().scan(classes);
+  }
+
+  @Test
+  public void testIsJreClass() {
+    assertTrue(WhitelistScanner.isJreClass("java.lang.String"));
+    assertTrue(WhitelistScanner.isJreClass("sun.misc.Unsafe"));
+    assertTrue(WhitelistScanner.isJreClass("org.omg.CORBA.ORB"));
+    assertFalse(WhitelistScanner.isJreClass("com.google.common.base.Strings"));
+  }
+
+  private static Path createJar(Path jar, String entryName, byte[] bytes) throws IOException {
+    try (OutputStream out = Files.newOutputStream(jar);
+        ZipOutputStream zipOut = new ZipOutputStream(out)) {
+      addEntry(zipOut, entryName, bytes);
+    }
+    return jar;
+  }
+
+  private static void addEntry(ZipOutputStream zipOut, String name, byte[] bytes)
+      throws IOException {
+    zipOut.putNextEntry(new ZipEntry(name));
+    zipOut.write(bytes);
+    zipOut.closeEntry();
+  }
+
+  private static void compile(Path sourceDirectory, Path classes) throws IOException {
+    List<String> arguments = new ArrayList<>(ImmutableList.of("-d", classes.toString()));
+    for (String[] source : SOURCES) {
+      Path file = sourceDirectory.resolve(source[0]);
+      Files.createDirectories(file.getParent());
+      Files.write(file, source[1].getBytes(Charsets.UTF_8));
+      arguments.add(file.toString());
+    }
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assertNotNull("tests require a JDK", compiler);
+    assertEquals(0, compiler.run(null, null, null, arguments.toArray(new String[0])));
+  }
+}
@@ -18,23 +18,45 @@ package com.google.cloud.tools.appengine.cloudsdk;
 
 import com.google.cloud.tools.appengine.api.AppEngineException;
 import com.google.cloud.tools.appengine.api.devserver.DefaultRunConfiguration;
+import com.google.cloud.tools.appengine.api.devserver.DefaultStopConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.FakeCloudSdk.Behavior;
 import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRunnerException;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessTree;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessStartListener;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
 
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -44,6 +66,9 @@ import static org.mockito.Mockito.verify;
 @RunWith(MockitoJUnitRunner.class)
 public class CloudSdkAppEngineDevServerTest {
 
+  @Rule
+  public TemporaryFolder testDir = new TemporaryFolder();
+
   @Mock
   private CloudSdk sdk;
 
@@ -54,6 +79,11 @@ public class CloudSdkAppEngineDevServerTest {
     devServer = new CloudSdkAppEngineDevServer(sdk);
   }
 
+  @After
+  public void tearDown() {
+    assertTrue(CloudSdkAppEngineDevServer.stopAll(0, TimeUnit.SECONDS));
+  }
+
   @Test
   public void testPrepareCommand_allFlags() throws AppEngineException, ProcessRunnerException {
 
@@ -129,4 +159,192 @@ public class CloudSdkAppEngineDevServerTest {
     verify(sdk, times(1)).runDevAppServerCommand(eq(expected), eq(expectedEnv));
   }
 
+
+  @Test
+  public void testRun_classDataSharing() throws Exception {
+    File appDirectory = testDir.newFolder("app");
+    DefaultRunConfiguration configuration = new DefaultRunConfiguration();
+    configuration.setAppYamls(ImmutableList.of(appDirectory));
+    configuration.setJvmFlags(ImmutableList.of("-Dflag"));
+    File javaHome = testDir.newFolder("jdk");
+    Files.write(javaHome.toPath().resolve("release"), "JAVA_VERSION=\"17\"\n".getBytes());
+    configuration.setJavaHomeDir(javaHome.toString());
+    DevServerClassDataSharing classDataSharing =
+        DevServerClassDataSharing.builder(testDir.getRoot().toPath().resolve("cds")).build();
+
+    DevServerClassDataSharing.Archive recorded = devServer.run(configuration, classDataSharing);
+    Files.write(recorded.getFile(), new byte[8192]);
+    DevServerClassDataSharing.Archive used = devServer.run(configuration, classDataSharing);
+
+    assertEquals(DevServerClassDataSharing.Mode.RECORD, recorded.getMode());
+    assertEquals(DevServerClassDataSharing.Mode.USE, used.getMode());
+    Map<String, String> env = ImmutableMap.of("JAVA_HOME", javaHome.toString());
+    verify(sdk).runDevAppServerCommand(eq(ImmutableList.of(appDirectory.toString(),
+        "--jvm_flag=-Dflag", "--jvm_flag=-XX:ArchiveClassesAtExit=" + recorded.getFile())),
+        eq(env));
+    verify(sdk).runDevAppServerCommand(eq(ImmutableList.of(appDirectory.toString(),
+        "--jvm_flag=-Dflag", "--jvm_flag=-Xshare:auto",
+        "--jvm_flag=-XX:SharedArchiveFile=" + used.getFile())), eq(env));
+  }
+
+  @Test
+  public void testStart() throws Exception {
+    DefaultRunConfiguration configuration = new DefaultRunConfiguration();
+    configuration.setAppYamls(ImmutableList.of(new File("app.yaml")));
+    DevServerReadiness readiness = DevServerReadiness.builder().probePort(false).build();
+
+    ListenableFuture<DevServerReadiness.Signal> ready = devServer.start(configuration, readiness);
+
+    verify(sdk, times(1)).runDevAppServerCommand(eq(ImmutableList.of("app.yaml")),
+        eq(ImmutableMap.<String, String>of()));
+    assertSame(ready, readiness.getFuture());
+    readiness.onOutputLine("INFO:oejs.Server:main: Started @1234ms");
+    assertEquals(DevServerReadiness.Signal.LOG_MESSAGE, ready.get());
+  }
+
+  @Test
+  public void testStart_failureCancelsReadiness() throws Exception {
+    DefaultRunConfiguration configuration = new DefaultRunConfiguration();
+    configuration.setAppYamls(ImmutableList.of(new File("app.yaml")));
+    DevServerReadiness readiness = DevServerReadiness.builder().build();
+    doThrow(new ProcessRunnerException("cannot run")).when(sdk)
+        .runDevAppServerCommand(Matchers.anyListOf(String.class),
+            Matchers.anyMapOf(String.class, String.class));
+
+    try {
+      devServer.start(configuration, readiness);
+      fail();
+    } catch (AppEngineException e) {
+      assertTrue(readiness.getFuture().isCancelled());
+    }
+  }
+
+  @Test
+  public void testStop_terminatesServerThatDoesNotQuit() throws Exception {
+    AtomicReference<Process> process = new AtomicReference<>();
+    DefaultRunConfiguration configuration = runAsync(process);
+    assertEquals(1, CloudSdkAppEngineDevServer.getRunningCount());
+    ProcessTree tree = ProcessTree.of(process.get());
+
+    newDevServer().stop(stopConfiguration(configuration), 100, TimeUnit.MILLISECONDS);
+
+    assertFalse(tree.isAlive());
+    assertEquals(0, CloudSdkAppEngineDevServer.getRunningCount());
+  }
+
+  @Test
+  public void testStop_portStillInUse() throws Exception {
+    AtomicReference<Process> process = new AtomicReference<>();
+    DefaultRunConfiguration configuration = runAsync(process);
+    try (ServerSocket socket = new ServerSocket(configuration.getPort(), 1,
+        InetAddress.getLoopbackAddress())) {
+      assertEquals(configuration.getPort().intValue(), socket.getLocalPort());
+      newDevServer().stop(stopConfiguration(configuration), 0, TimeUnit.MILLISECONDS);
+      fail();
+    } catch (AppEngineException e) {
+      assertTrue(e.getMessage().endsWith(
+          "stopped, but port " + configuration.getPort() + " is still in use"));
+    }
+    assertFalse(ProcessTree.isAlive(process.get()));
+  }
+
+  @Test
+  public void testStop_untrackedServer() throws Exception {
+    DefaultStopConfiguration configuration = new DefaultStopConfiguration();
+    configuration.setAdminHost("localhost");
+    configuration.setAdminPort(freePort());
+    try {
+      devServer.stop(configuration);
+      fail();
+    } catch (AppEngineException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  @Test
+  public void testStopAll() throws Exception {
+    AtomicReference<Process> first = new AtomicReference<>();
+    AtomicReference<Process> second = new AtomicReference<>();
+    runAsync(first);
+    runAsync(second);
+    assertEquals(2, CloudSdkAppEngineDevServer.getRunningCount());
+
+    assertTrue(CloudSdkAppEngineDevServer.stopAll(100, TimeUnit.MILLISECONDS));
+
+    assertFalse(ProcessTree.isAlive(first.get()));
+    assertFalse(ProcessTree.isAlive(second.get()));
+    assertEquals(0, CloudSdkAppEngineDevServer.getRunningCount());
+  }
+
+  @Test
+  public void testRun_adminPortAlreadyRunning() throws Exception {
+    AtomicReference<Process> first = new AtomicReference<>();
+    DefaultRunConfiguration configuration = runAsync(first);
+    AtomicReference<Process> second = new AtomicReference<>();
+    try {
+      newAsyncDevServer(second).run(configuration);
+      fail();
+    } catch (AppEngineException e) {
+      assertEquals("A development server started by the library is already running with admin "
+          + "localhost:" + configuration.getAdminPort() + ", stop it first.", e.getMessage());
+    }
+
+    assertNull(second.get());
+    assertTrue(ProcessTree.isAlive(first.get()));
+    assertEquals(1, CloudSdkAppEngineDevServer.getRunningCount());
+  }
+
+  @Test
+  public void testRun_adminPortOfExitedServer() throws Exception {
+    AtomicReference<Process> first = new AtomicReference<>();
+    DefaultRunConfiguration configuration = runAsync(first);
+    first.get().destroy();
+    first.get().waitFor();
+
+    AtomicReference<Process> second = new AtomicReference<>();
+    newAsyncDevServer(second).run(configuration);
+
+    assertSame(second.get(), CloudSdkAppEngineDevServer.getProcess(configuration));
+    assertEquals(1, CloudSdkAppEngineDevServer.getRunningCount());
+  }
+
+  // runs a fake server that does not answer on its admin port
+  private DefaultRunConfiguration runAsync(AtomicReference<Process> process) throws IOException {
+    DefaultRunConfiguration configuration = new DefaultRunConfiguration();
+    configuration.setAppYamls(ImmutableList.of(new File("app.yaml")));
+    configuration.setPort(freePort());
+    configuration.setAdminPort(freePort());
+    newAsyncDevServer(process).run(configuration);
+    return configuration;
+  }
+
+  private CloudSdkAppEngineDevServer newAsyncDevServer(final AtomicReference<Process> process)
+      throws IOException {
+    assumeFalse(System.getProperty("os.name").contains("Windows"));
+    FakeCloudSdk fake = new FakeCloudSdk(testDir.newFolder().toPath());
+    fake.setDevAppServerBehavior(new Behavior().runUntilKilled());
+    CloudSdk fakeSdk = fake.newBuilder().async(true).startListener(new ProcessStartListener() {
+      @Override
+      public void onStart(Process started) {
+        process.set(started);
+      }
+    }).build();
+    return new CloudSdkAppEngineDevServer(fakeSdk);
+  }
+
+  private CloudSdkAppEngineDevServer newDevServer() {
+    return new CloudSdkAppEngineDevServer(sdk);
+  }
+
+  private static DefaultStopConfiguration stopConfiguration(DefaultRunConfiguration run) {
+    DefaultStopConfiguration configuration = new DefaultStopConfiguration();
+    configuration.setAdminPort(run.getAdminPort());
+    return configuration;
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      return socket.getLocalPort();
+    }
+  }
 }
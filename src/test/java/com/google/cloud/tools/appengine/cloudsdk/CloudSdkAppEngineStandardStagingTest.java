@@ -19,6 +19,9 @@ package com.google.cloud.tools.appengine.cloudsdk;
 import com.google.cloud.tools.appengine.api.AppEngineException;
 import com.google.cloud.tools.appengine.api.deploy.DefaultStageStandardConfiguration;
 import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRunnerException;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.RecordingSpanListener;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Span;
+import com.google.cloud.tools.appengine.cloudsdk.tracing.Tracing;
 import com.google.common.collect.ImmutableList;
 
 import org.junit.Before;
@@ -32,7 +35,17 @@ import org.mockito.runners.MockitoJUnitRunner;
 import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
@@ -89,9 +102,9 @@ public class CloudSdkAppEngineStandardStagingTest {
     configuration.setRuntime("java");
 
     List<String> expected = ImmutableList
-        .of("--enable_quickstart", "--disable_update_check", "--enable_jar_splitting",
-            "--jar_splitting_excludes=suffix1,suffix2", "--compile_encoding=UTF8", "--delete_jsps",
-            "--enable_jar_classes", "--disable_jar_jsps", "--allow_any_runtime", "--runtime=java",
+        .of("--enable_quickstart", "--disable_update_check", "--compile_encoding=UTF8",
+            "--delete_jsps", "--enable_jar_classes", "--disable_jar_jsps", "--allow_any_runtime",
+            "--runtime=java",
             "stage",
             source.toPath().toString(),
             destination.toPath().toString());
@@ -140,6 +153,68 @@ public class CloudSdkAppEngineStandardStagingTest {
     verify(sdk, times(1)).runAppCfgCommand(eq(expected));
   }
 
+  @Test
+  public void testStageStandard_jarSplittingExcludes()
+      throws IOException, AppEngineException, ProcessRunnerException {
+    Path lib = Files.createDirectories(destination.toPath().resolve("WEB-INF/lib"));
+    Path jar = lib.resolve("lib.jar");
+    try (ZipOutputStream zipOut = new ZipOutputStream(Files.newOutputStream(jar))) {
+      zipOut.putNextEntry(new ZipEntry("Keep.class"));
+      zipOut.closeEntry();
+      zipOut.putNextEntry(new ZipEntry("readme.txt"));
+      zipOut.closeEntry();
+    }
+
+    DefaultStageStandardConfiguration configuration = new DefaultStageStandardConfiguration();
+    configuration.setSourceDirectory(source);
+    configuration.setStagingDirectory(destination);
+    configuration.setEnableJarSplitting(true);
+    configuration.setJarSplittingExcludes(".txt");
+
+    staging.stageStandard(configuration);
+
+    try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+      assertNotNull(zipFile.getEntry("Keep.class"));
+      assertNull(zipFile.getEntry("readme.txt"));
+    }
+  }
+
+  @Test
+  public void testStageStandard_nativeQuickstart()
+      throws IOException, AppEngineException, ProcessRunnerException {
+    Files.createDirectories(destination.toPath().resolve("WEB-INF"));
+    DefaultStageStandardConfiguration configuration = new DefaultStageStandardConfiguration();
+    configuration.setSourceDirectory(source);
+    configuration.setStagingDirectory(destination);
+    configuration.setEnableQuickstart(true);
+
+    new CloudSdkAppEngineStandardStaging(sdk, true).stageStandard(configuration);
+
+    verify(sdk, times(1)).runAppCfgCommand(eq(ImmutableList.of("stage",
+        source.toPath().toString(), destination.toPath().toString())));
+    assertTrue(Files.isRegularFile(destination.toPath().resolve("WEB-INF/quickstart-web.xml")));
+  }
+
+  @Test
+  public void testStageStandard_spans() throws AppEngineException, ProcessRunnerException {
+    DefaultStageStandardConfiguration configuration = new DefaultStageStandardConfiguration();
+    configuration.setSourceDirectory(source);
+    configuration.setStagingDirectory(destination);
+    configuration.setDockerfile(dockerfile);
+
+    RecordingSpanListener listener = new RecordingSpanListener();
+    Tracing.addListener(listener);
+    try {
+      staging.stageStandard(configuration);
+    } finally {
+      Tracing.removeListener(listener);
+    }
+
+    assertEquals(ImmutableList.of("copy Dockerfile", "stage standard"),
+        listener.getEndedNames());
+    assertEquals(Span.STAGING, listener.getEnded().get(1).getCategory());
+  }
+
   @Test
   public void testStop() throws IOException {
 
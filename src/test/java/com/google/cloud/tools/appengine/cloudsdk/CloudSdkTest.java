@@ -111,6 +111,11 @@ public class CloudSdkTest {
     builder.inheritProcessOutput(true).addStdErrLineListener(outputListener).build();
   }
 
+  @Test(expected = AppEngineException.class)
+  public void testNewCloudSdk_inheritOutputAndInactivityTimeout() {
+    builder.inheritProcessOutput(true).commandInactivityTimeout(60).build();
+  }
+
   @Test
   public void testResolversOrdering() {
     CloudSdkResolver r1 = Mockito.mock(CloudSdkResolver.class, "r1");
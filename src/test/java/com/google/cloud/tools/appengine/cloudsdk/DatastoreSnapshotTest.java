@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.tools.appengine.api.devserver.DefaultRunConfiguration;
+import com.google.common.base.Charsets;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests for {@link DatastoreSnapshot}.
+ */
+public class DatastoreSnapshotTest {
+
+  @Rule
+  public TemporaryFolder testDir = new TemporaryFolder();
+
+  private Path storage;
+  private Path snapshotDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    storage = testDir.newFolder("storage").toPath();
+    Files.write(storage.resolve("datastore.db"), "entities".getBytes(Charsets.UTF_8));
+    Files.createDirectories(storage.resolve("blobs/a"));
+    Files.write(storage.resolve("blobs/a/blob"), new byte[] {1, 2, 3});
+    snapshotDirectory = testDir.getRoot().toPath().resolve("snapshots/seeded");
+  }
+
+  @Test
+  public void testCaptureAndClone() throws IOException {
+    DefaultRunConfiguration configuration = new DefaultRunConfiguration();
+    configuration.setStoragePath(storage.toString());
+    DatastoreSnapshot snapshot = DatastoreSnapshot.capture(configuration, snapshotDirectory);
+    assertEquals(snapshotDirectory, snapshot.getDirectory());
+    // only the snapshot is left in its parent directory
+    assertEquals(1, snapshotDirectory.getParent().toFile().list().length);
+
+    Path clone = testDir.getRoot().toPath().resolve("clone");
+    DatastoreSnapshot.CloneMethod method = snapshot.cloneTo(clone);
+
+    assertEquals(System.getProperty("os.name").toLowerCase().contains("linux")
+        ? DatastoreSnapshot.CloneMethod.REFLINK_OR_COPY : DatastoreSnapshot.CloneMethod.COPY,
+        method);
+    assertArrayEquals("entities".getBytes(Charsets.UTF_8),
+        Files.readAllBytes(clone.resolve("datastore.db")));
+    assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(clone.resolve("blobs/a/blob")));
+
+    // writes to a clone do not reach the snapshot
+    Files.write(clone.resolve("datastore.db"), "changed".getBytes(Charsets.UTF_8));
+    Files.delete(clone.resolve("blobs/a/blob"));
+    assertArrayEquals("entities".getBytes(Charsets.UTF_8),
+        Files.readAllBytes(snapshotDirectory.resolve("datastore.db")));
+    assertTrue(Files.exists(snapshotDirectory.resolve("blobs/a/blob")));
+  }
+
+  @Test
+  public void testOpen() throws IOException {
+    DatastoreSnapshot.capture(storage, snapshotDirectory);
+    Path clone = testDir.newFolder("clone").toPath();
+
+    DatastoreSnapshot.open(snapshotDirectory).cloneTo(clone);
+
+    assertTrue(Files.exists(clone.resolve("datastore.db")));
+  }
+
+  @Test
+  public void testCapture_existingSnapshot() throws IOException {
+    DatastoreSnapshot.capture(storage, snapshotDirectory);
+    try {
+      DatastoreSnapshot.capture(storage, snapshotDirectory);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Snapshot " + snapshotDirectory + " already exists", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testCloneTo_notEmpty() throws IOException {
+    DatastoreSnapshot snapshot = DatastoreSnapshot.capture(storage, snapshotDirectory);
+    try {
+      snapshot.cloneTo(storage);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Storage path " + storage + " is not empty", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testOpen_missing() {
+    try {
+      DatastoreSnapshot.open(snapshotDirectory);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertFalse(Files.exists(snapshotDirectory));
+    }
+  }
+}
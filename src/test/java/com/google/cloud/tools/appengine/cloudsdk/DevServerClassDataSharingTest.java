@@ -0,0 +1,253 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.cloud.tools.appengine.api.devserver.DefaultRunConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.DevServerClassDataSharing.Archive;
+import com.google.cloud.tools.appengine.cloudsdk.DevServerClassDataSharing.Mode;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Tests for {@link DevServerClassDataSharing}.
+ */
+public class DevServerClassDataSharingTest {
+
+  @Rule
+  public TemporaryFolder testDir = new TemporaryFolder();
+
+  private Path javaHome;
+  private Path appDirectory;
+  private Path libraries;
+  private Path archives;
+  private DefaultRunConfiguration configuration;
+
+  @Before
+  public void setUp() throws IOException {
+    javaHome = testDir.newFolder("jdk").toPath();
+    writeRelease(javaHome, "17.0.9");
+    appDirectory = testDir.newFolder("app").toPath();
+    libraries = Files.createDirectories(appDirectory.resolve("WEB-INF").resolve("lib"));
+    Files.write(libraries.resolve("a.jar"), new byte[] {1, 2, 3});
+    archives = testDir.getRoot().toPath().resolve("archives");
+    configuration = new DefaultRunConfiguration();
+    configuration.setAppYamls(ImmutableList.of(appDirectory.toFile()));
+    configuration.setJavaHomeDir(javaHome.toString());
+  }
+
+  @Test
+  public void testJavaVersion() throws IOException {
+    assertEquals(Integer.valueOf(17), DevServerClassDataSharing.javaVersion(javaHome));
+    writeRelease(javaHome, "1.8.0_292");
+    assertEquals(Integer.valueOf(8), DevServerClassDataSharing.javaVersion(javaHome));
+    assertNull(DevServerClassDataSharing.javaVersion(testDir.getRoot().toPath()));
+  }
+
+  @Test
+  public void testPrepare_recordsThenUses() throws IOException {
+    DevServerClassDataSharing classDataSharing =
+        DevServerClassDataSharing.builder(archives).build();
+
+    Archive recorded = classDataSharing.prepare(configuration);
+    writeArchive(recorded.getFile());
+    Archive used = classDataSharing.prepare(configuration);
+
+    assertEquals(Mode.RECORD, recorded.getMode());
+    assertEquals(archives, recorded.getFile().getParent());
+    assertEquals(ImmutableList.of("-XX:ArchiveClassesAtExit=" + recorded.getFile()),
+        recorded.getJvmFlags());
+    assertEquals(Mode.USE, used.getMode());
+    assertEquals(recorded.getFile(), used.getFile());
+    assertEquals(ImmutableList.of("-Xshare:auto", "-XX:SharedArchiveFile=" + used.getFile()),
+        used.getJvmFlags());
+  }
+
+  @Test
+  public void testPrepare_recordingInterrupted() throws IOException {
+    DevServerClassDataSharing classDataSharing =
+        DevServerClassDataSharing.builder(archives).build();
+    Archive recorded = classDataSharing.prepare(configuration);
+    Files.write(recorded.getFile(), new byte[100]);
+
+    Archive again = classDataSharing.prepare(configuration);
+
+    assertEquals(Mode.RECORD, again.getMode());
+    assertFalse(Files.exists(again.getFile()));
+  }
+
+  @Test
+  public void testKey_followsLibraries() throws IOException {
+    DevServerClassDataSharing classDataSharing =
+        DevServerClassDataSharing.builder(archives).build();
+    HashCode key = classDataSharing.key(javaHome, appDirectory);
+
+    assertEquals(key, classDataSharing.key(javaHome, appDirectory));
+    Files.write(libraries.resolve("b.jar"), new byte[] {4});
+    HashCode added = classDataSharing.key(javaHome, appDirectory);
+    assertNotEquals(key, added);
+    Files.write(libraries.resolve("a.jar"), new byte[] {1, 2, 4});
+    Files.setLastModifiedTime(libraries.resolve("a.jar"), FileTime.fromMillis(1000));
+    HashCode updated = classDataSharing.key(javaHome, appDirectory);
+    assertNotEquals(added, updated);
+    // classes of the application change on every edit, and are not part of the key
+    Files.createDirectories(appDirectory.resolve("WEB-INF").resolve("classes"));
+    Files.write(appDirectory.resolve("WEB-INF").resolve("classes").resolve("A.class"),
+        new byte[] {5});
+    assertEquals(updated, classDataSharing.key(javaHome, appDirectory.resolve("app.yaml")));
+  }
+
+  @Test
+  public void testKey_followsJdk() throws IOException {
+    DevServerClassDataSharing classDataSharing =
+        DevServerClassDataSharing.builder(archives).build();
+    HashCode key = classDataSharing.key(javaHome, appDirectory);
+
+    writeRelease(javaHome, "17.0.10");
+
+    assertNotEquals(key, classDataSharing.key(javaHome, appDirectory));
+  }
+
+  @Test
+  public void testPrepare_oldJdk() throws IOException {
+    writeRelease(javaHome, "11.0.2");
+
+    Archive archive = DevServerClassDataSharing.builder(archives).build().prepare(configuration);
+
+    assertEquals(Mode.DISABLED, archive.getMode());
+    assertTrue(archive.getJvmFlags().isEmpty());
+  }
+
+  @Test
+  public void testPrepare_severalServices() throws IOException {
+    configuration.setAppYamls(ImmutableList.of(appDirectory.toFile(),
+        testDir.newFolder("other").getAbsoluteFile()));
+
+    Archive archive = DevServerClassDataSharing.builder(archives).build().prepare(configuration);
+
+    assertEquals(Mode.DISABLED, archive.getMode());
+  }
+
+  @Test
+  public void testPrepare_prunesLeastRecentlyUsed() throws IOException {
+    Files.createDirectories(archives);
+    List<Path> old = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      Path archive = archives.resolve(i + ".jsa");
+      writeArchive(archive);
+      Files.setLastModifiedTime(archive, FileTime.fromMillis(1000 * (i + 1)));
+      old.add(archive);
+    }
+
+    Archive archive = DevServerClassDataSharing.builder(archives).maxArchives(3).build()
+        .prepare(configuration);
+
+    assertEquals(Mode.RECORD, archive.getMode());
+    assertFalse(Files.exists(old.get(0)));
+    assertTrue(Files.exists(old.get(1)));
+    assertTrue(Files.exists(old.get(2)));
+  }
+
+  @Test
+  public void testRecordAndUseWithJvm() throws Exception {
+    Path realJavaHome = Paths.get(System.getProperty("java.home"));
+    Integer version = DevServerClassDataSharing.javaVersion(realJavaHome);
+    assumeTrue(version != null && version >= 13);
+    // archives only hold classes loaded from jars
+    Path jar = libraries.resolve("application.jar");
+    String entry = Application.class.getName().replace('.', '/') + ".class";
+    try (OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = new JarOutputStream(out);
+        InputStream in = Application.class.getClassLoader().getResourceAsStream(entry)) {
+      jarOut.putNextEntry(new JarEntry(entry));
+      ByteStreams.copy(in, jarOut);
+    }
+    configuration.setJavaHomeDir(realJavaHome.toString());
+    DevServerClassDataSharing classDataSharing =
+        DevServerClassDataSharing.builder(archives).build();
+
+    Archive recorded = classDataSharing.prepare(configuration);
+    assertEquals(0, runJava(realJavaHome, jar, recorded.getJvmFlags()));
+    assertTrue(Files.size(recorded.getFile()) > 0);
+    Archive used = classDataSharing.prepare(configuration);
+    List<String> flags = new ArrayList<>(used.getJvmFlags());
+    // fails rather than running without the archive
+    flags.add("-Xshare:on");
+
+    assertEquals(Mode.USE, used.getMode());
+    assertEquals(0, runJava(realJavaHome, jar, flags));
+  }
+
+  private static int runJava(Path javaHome, Path jar, List<String> flags) throws Exception {
+    List<String> command = new ArrayList<>();
+    command.add(javaHome.resolve("bin").resolve("java").toString());
+    command.addAll(flags);
+    command.add("-cp");
+    command.add(jar.toString());
+    command.add(Application.class.getName());
+    return new ProcessBuilder(command).redirectErrorStream(true)
+        .redirectOutput(new File(System.getProperty("os.name").startsWith("Windows")
+            ? "NUL" : "/dev/null")).start().waitFor();
+  }
+
+  private static void writeRelease(Path javaHome, String version) throws IOException {
+    Files.write(javaHome.resolve("release"),
+        ("IMPLEMENTOR=\"Test\"\nJAVA_VERSION=\"" + version + "\"\n").getBytes(Charsets.UTF_8));
+  }
+
+  private static void writeArchive(Path file) throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.write(file, new byte[8192]);
+  }
+
+  /**
+   * A minimal application, recorded into an archive, which only uses the JDK.
+   */
+  public static class Application {
+    public static void main(String[] args) {
+      System.out.println(new ArrayList<>(Arrays.asList(args)).size());
+    }
+  }
+}
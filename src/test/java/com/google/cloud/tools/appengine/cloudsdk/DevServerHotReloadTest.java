@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.tools.appengine.cloudsdk.DevServerHotReload.Cycle;
+import com.google.cloud.tools.appengine.cloudsdk.DevServerHotReload.CycleListener;
+import com.google.cloud.tools.appengine.cloudsdk.DevServerHotReload.Reload;
+import com.google.cloud.tools.appengine.cloudsdk.DevServerHotReload.ReloadAction;
+import com.google.cloud.tools.appengine.cloudsdk.metrics.MetricKey;
+import com.google.cloud.tools.appengine.cloudsdk.metrics.MetricsRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link DevServerHotReload}.
+ */
+public class DevServerHotReloadTest {
+
+  @Rule
+  public TemporaryFolder testDir = new TemporaryFolder();
+
+  private Path buildOutput;
+  private Path appDirectory;
+  private final BlockingQueue<Cycle> cycles = new LinkedBlockingQueue<>();
+  private final AtomicInteger reloads = new AtomicInteger();
+  // holds the watching thread in the reload of the instance while set
+  private volatile CountDownLatch reloadGate;
+  private final CountDownLatch reloadHeld = new CountDownLatch(1);
+  private final MetricsRegistry registry = new MetricsRegistry();
+  private DevServerHotReload hotReload;
+
+  @Before
+  public void setUp() throws IOException {
+    buildOutput = testDir.newFolder("build").toPath();
+    appDirectory = testDir.getRoot().toPath().resolve("exploded");
+    write("index.html", "hello");
+    write("WEB-INF/appengine-web.xml", "<appengine-web-app/>");
+    write("WEB-INF/classes/Servlet.class", "v1");
+
+    hotReload = DevServerHotReload.builder(buildOutput, appDirectory)
+        .debounce(100, TimeUnit.MILLISECONDS)
+        .reloadAction(new ReloadAction() {
+          @Override
+          public void reload(Path directory) {
+            reloads.incrementAndGet();
+            CountDownLatch gate = reloadGate;
+            if (gate != null) {
+              reloadHeld.countDown();
+              Uninterruptibles.awaitUninterruptibly(gate);
+            }
+          }
+        })
+        .metrics(registry)
+        .addCycleListener(new CycleListener() {
+          @Override
+          public void onCycle(Cycle cycle) {
+            cycles.add(cycle);
+          }
+        })
+        .build();
+    hotReload.start();
+  }
+
+  @After
+  public void tearDown() {
+    hotReload.close();
+  }
+
+  @Test
+  public void testStart_syncsBuildOutput() throws IOException {
+    assertEquals("hello", read("index.html"));
+    assertEquals("v1", read("WEB-INF/classes/Servlet.class"));
+    assertEquals(0, reloads.get());
+  }
+
+  @Test
+  public void testStaticChange_noReload() throws Exception {
+    write("index.html", "hello again");
+
+    Cycle cycle = nextCycle();
+    assertEquals("hello again", read("index.html"));
+    assertEquals(Reload.NONE, cycle.getReload());
+    assertEquals(1, cycle.getCopied().size());
+    assertEquals(Paths.get("index.html"), cycle.getCopied().get(0));
+    assertNull(cycle.getFailure());
+    assertEquals(0, reloads.get());
+  }
+
+  @Test
+  public void testClassChange_restartsInstance() throws Exception {
+    write("WEB-INF/classes/Servlet.class", "v2");
+
+    Cycle cycle = nextCycle();
+    assertEquals("v2", read("WEB-INF/classes/Servlet.class"));
+    assertEquals(Reload.INSTANCE_RESTART, cycle.getReload());
+    assertEquals(1, reloads.get());
+    assertTrue(cycle.getEditToReadyMillis() >= 0);
+    assertEquals(1, registry.histogram(
+        MetricKey.of(DevServerHotReload.EDIT_TO_READY, "reload", "instance_restart")).getCount());
+    assertEquals(1L, (long) registry.getCounters()
+        .get(MetricKey.of(DevServerHotReload.FILES_COPIED)));
+  }
+
+  @Test
+  public void testChanges_batched() throws Exception {
+    write("a.css", "a");
+    write("b.css", "b");
+    write("c.css", "c");
+
+    Cycle cycle = nextCycle();
+    assertEquals(3, cycle.getCopied().size());
+    assertNull(cycles.poll(300, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testDelete() throws Exception {
+    Files.delete(buildOutput.resolve("index.html"));
+
+    Cycle cycle = nextCycle();
+    assertFalse(Files.exists(appDirectory.resolve("index.html")));
+    assertEquals(1, cycle.getDeleted().size());
+    assertEquals(Reload.NONE, cycle.getReload());
+  }
+
+  @Test
+  public void testOverflow_deletesRemovedFiles() throws Exception {
+    reloadGate = new CountDownLatch(1);
+    write("WEB-INF/classes/Servlet.class", "v2");
+    assertTrue(reloadHeld.await(10, TimeUnit.SECONDS));
+    // the watch service keeps 512 events per directory until they are taken, then only reports
+    // an overflow, so the deletion that follows the burst is lost
+    for (int i = 0; i < 1000; i++) {
+      write("burst-" + i + ".css", "");
+    }
+    Files.delete(buildOutput.resolve("index.html"));
+    Thread.sleep(500);
+    reloadGate.countDown();
+    nextCycle();
+
+    Cycle cycle = nextCycle();
+    assertFalse(Files.exists(appDirectory.resolve("index.html")));
+    assertTrue(cycle.getDeleted().contains(Paths.get("index.html")));
+    assertTrue(Files.exists(appDirectory.resolve("burst-999.css")));
+    assertTrue(Files.exists(appDirectory.resolve("WEB-INF/classes/Servlet.class")));
+  }
+
+  @Test
+  public void testNewDirectory() throws Exception {
+    Path directory = buildOutput.resolve("WEB-INF/lib");
+    Files.createDirectories(directory);
+    Files.write(directory.resolve("library.jar"), new byte[] {1, 2});
+
+    Cycle cycle = nextCycle();
+    assertTrue(Files.exists(appDirectory.resolve("WEB-INF/lib/library.jar")));
+    assertEquals(Reload.INSTANCE_RESTART, cycle.getReload());
+
+    // files in a new directory are watched too
+    Files.write(directory.resolve("library.jar"), new byte[] {1, 2, 3});
+    nextCycle();
+    assertEquals(3, Files.size(appDirectory.resolve("WEB-INF/lib/library.jar")));
+  }
+
+  @Test
+  public void testTouchAppEngineWebXml() throws IOException {
+    Path descriptor = appDirectory.resolve("WEB-INF/appengine-web.xml");
+    Files.setLastModifiedTime(descriptor, FileTime.fromMillis(0));
+
+    DevServerHotReload.TOUCH_APPENGINE_WEB_XML.reload(appDirectory);
+
+    assertTrue(Files.getLastModifiedTime(descriptor).toMillis() > 0);
+  }
+
+  @Test
+  public void testReloadFor() {
+    assertEquals(Reload.NONE, DevServerHotReload.reloadFor(Paths.get("css/site.css")));
+    assertEquals(Reload.NONE, DevServerHotReload.reloadFor(Paths.get("index.jsp")));
+    assertEquals(Reload.INSTANCE_RESTART,
+        DevServerHotReload.reloadFor(Paths.get("WEB-INF/web.xml")));
+    assertEquals(Reload.INSTANCE_RESTART,
+        DevServerHotReload.reloadFor(Paths.get("WEB-INF/classes/a/B.class")));
+  }
+
+  private Cycle nextCycle() throws InterruptedException {
+    Cycle cycle = cycles.poll(10, TimeUnit.SECONDS);
+    assertNotNull("No hot reload cycle", cycle);
+    return cycle;
+  }
+
+  private void write(String path, String content) throws IOException {
+    Path file = buildOutput.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(Charsets.UTF_8));
+  }
+
+  private String read(String path) throws IOException {
+    return new String(Files.readAllBytes(appDirectory.resolve(path)), Charsets.UTF_8);
+  }
+}
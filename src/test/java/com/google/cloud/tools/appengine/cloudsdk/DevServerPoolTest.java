@@ -0,0 +1,237 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+import com.google.cloud.tools.appengine.api.AppEngineException;
+import com.google.cloud.tools.appengine.api.devserver.DefaultRunConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.FakeCloudSdk.Behavior;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRegistry;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link DevServerPool}, with servers faked by {@link FakeCloudSdk}.
+ */
+public class DevServerPoolTest {
+
+  @Rule
+  public TemporaryFolder testDir = new TemporaryFolder();
+
+  private FakeCloudSdk fake;
+  private Supplier<CloudSdk.Builder> sdkBuilders;
+  private DefaultRunConfiguration configuration;
+  private Path storage;
+  private DevServerPool pool;
+
+  @Before
+  public void setUp() throws IOException {
+    assumeFalse(System.getProperty("os.name").contains("Windows"));
+    fake = new FakeCloudSdk(testDir.getRoot().toPath().resolve("sdk"));
+    fake.setDevAppServerBehavior(new Behavior().runUntilKilled());
+    sdkBuilders = new Supplier<CloudSdk.Builder>() {
+      @Override
+      public CloudSdk.Builder get() {
+        return fake.newBuilder();
+      }
+    };
+    configuration = new DefaultRunConfiguration();
+    configuration.setAppYamls(ImmutableList.of(new File("app.yaml")));
+    storage = testDir.newFolder("storage").toPath();
+  }
+
+  @After
+  public void tearDown() {
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
+  @Test
+  public void testLease() throws Exception {
+    pool = DevServerPool.builder(sdkBuilders, configuration).size(2)
+        .datastoreReset(DevServerPool.DatastoreReset.NONE).storageDirectory(storage)
+        .stopTimeout(0, TimeUnit.SECONDS).build();
+    pool.start();
+    assertEquals(2, pool.getIdleCount());
+    assertEquals(2, countDevServers());
+
+    DevServerPool.Lease first = pool.lease();
+    DevServerPool.Lease second = pool.lease(1, TimeUnit.SECONDS);
+    assertEquals(0, pool.getIdleCount());
+    assertNotEquals(first.getPort(), second.getPort());
+    assertNotEquals(first.getAdminPort(), second.getAdminPort());
+    assertNotEquals(first.getApiPort(), second.getApiPort());
+    assertEquals("http://localhost:" + first.getPort() + "/", first.getUrl());
+    assertTrue(Files.isDirectory(storage.resolve("instance-0")));
+
+    try {
+      pool.lease(10, TimeUnit.MILLISECONDS);
+      fail();
+    } catch (AppEngineException e) {
+      assertEquals("No development server became free within 10 ms", e.getMessage());
+    }
+
+    int port = first.getPort();
+    first.close();
+    first.close();
+    assertEquals(1, pool.getIdleCount());
+    assertEquals(port, pool.lease().getPort());
+  }
+
+  @Test
+  public void testLease_restartResetsDatastore() throws Exception {
+    pool = DevServerPool.builder(sdkBuilders, configuration).size(1)
+        .datastoreReset(DevServerPool.DatastoreReset.RESTART).storageDirectory(storage)
+        .stopTimeout(0, TimeUnit.SECONDS).build();
+    pool.start();
+
+    DevServerPool.Lease lease = pool.lease();
+    int port = lease.getPort();
+    Path datastore = Files.createFile(storage.resolve("instance-0").resolve("datastore.db"));
+    lease.close();
+
+    assertFalse(Files.exists(datastore));
+    assertEquals(1, pool.getIdleCount());
+    assertEquals(1, countDevServers());
+    assertNotEquals(port, pool.lease().getPort());
+  }
+
+  @Test
+  public void testLease_clearFallsBackToRestart() throws Exception {
+    // the fake servers have no API server to clear the datastore through
+    pool = DevServerPool.builder(sdkBuilders, configuration).size(1).storageDirectory(storage)
+        .stopTimeout(0, TimeUnit.SECONDS).build();
+    pool.start();
+
+    DevServerPool.Lease lease = pool.lease();
+    Path datastore = Files.createFile(storage.resolve("instance-0").resolve("datastore.db"));
+    lease.close();
+
+    assertFalse(Files.exists(datastore));
+    assertEquals(1, pool.getIdleCount());
+  }
+
+  @Test
+  public void testLease_snapshotRestored() throws Exception {
+    Path seeded = testDir.newFolder("seeded").toPath();
+    Files.createFile(seeded.resolve("datastore.db"));
+    DatastoreSnapshot snapshot =
+        DatastoreSnapshot.capture(seeded, testDir.getRoot().toPath().resolve("snapshot"));
+    pool = DevServerPool.builder(sdkBuilders, configuration).size(1).storageDirectory(storage)
+        .datastoreSnapshot(snapshot).stopTimeout(0, TimeUnit.SECONDS).build();
+    pool.start();
+    Path instanceStorage = storage.resolve("instance-0");
+    assertTrue(Files.exists(instanceStorage.resolve("datastore.db")));
+
+    DevServerPool.Lease lease = pool.lease();
+    Files.delete(instanceStorage.resolve("datastore.db"));
+    Files.createFile(instanceStorage.resolve("written-by-test"));
+    lease.close();
+
+    assertTrue(Files.exists(instanceStorage.resolve("datastore.db")));
+    assertFalse(Files.exists(instanceStorage.resolve("written-by-test")));
+  }
+
+  @Test
+  public void testClose_stopsServers() throws Exception {
+    pool = DevServerPool.builder(sdkBuilders, configuration).size(2).storageDirectory(storage)
+        .stopTimeout(0, TimeUnit.SECONDS).build();
+    pool.start();
+    assertEquals(2, countDevServers());
+
+    pool.close();
+
+    assertEquals(0, countDevServers());
+    try {
+      pool.lease();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("The pool is closed", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testClose_waitsForRestart() throws Exception {
+    pool = DevServerPool.builder(sdkBuilders, configuration).size(1)
+        .datastoreReset(DevServerPool.DatastoreReset.RESTART).storageDirectory(storage)
+        .stopTimeout(0, TimeUnit.SECONDS).build();
+    pool.start();
+    fake.setDevAppServerBehavior(new Behavior().startDelayMillis(1000).runUntilKilled());
+
+    final DevServerPool.Lease lease = pool.lease();
+    Thread release = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        lease.close();
+      }
+    });
+    release.start();
+    Thread.sleep(200);
+    pool.close();
+    release.join();
+
+    assertEquals(0, countDevServers());
+    assertEquals(0, pool.getIdleCount());
+  }
+
+  @Test
+  public void testStart_failure() throws Exception {
+    // the fake servers only log that they are ready after the start timeout
+    fake.setDevAppServerBehavior(new Behavior().startDelayMillis(10000).runUntilKilled());
+    pool = DevServerPool.builder(sdkBuilders, configuration).size(2).storageDirectory(storage)
+        .startTimeout(200, TimeUnit.MILLISECONDS).stopTimeout(0, TimeUnit.SECONDS).build();
+
+    try {
+      pool.start();
+      fail();
+    } catch (AppEngineException e) {
+      assertTrue(e.getMessage().contains("failed to start"));
+    }
+    assertEquals(0, countDevServers());
+  }
+
+  private static int countDevServers() {
+    int count = 0;
+    for (ProcessRegistry.RunningCommand command
+        : ProcessRegistry.getInstance().getRunningCommands()) {
+      if (command.getCommand().toString().contains("dev_appserver.py")) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
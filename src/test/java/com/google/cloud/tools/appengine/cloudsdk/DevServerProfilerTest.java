@@ -0,0 +1,246 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+import com.google.cloud.tools.appengine.api.AppEngineException;
+import com.google.cloud.tools.appengine.api.devserver.DefaultRunConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.DevServerProfiler.GcSample;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRegistry;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessTree;
+import com.google.cloud.tools.appengine.cloudsdk.metrics.MetricKey;
+import com.google.cloud.tools.appengine.cloudsdk.metrics.MetricsRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link DevServerProfiler}.
+ */
+public class DevServerProfilerTest {
+
+  private static final String JSTAT_OUTPUT =
+      " S0C    S1C    S0U    S1U      EC       EU        OC         OU       MC     MU    CCSC"
+      + "   CCSU   YGC     YGCT    FGC    FGCT    CGC    CGCT     GCT   \n"
+      + " 0.0   4096.0  0.0   4096.0 24576.0   8192.0   32768.0    1024.0  512.0  256.0   64.0"
+      + "   32.0      3    0.012   1      0.030     2    0.003    0.045\n";
+
+  @Rule
+  public TemporaryFolder testDir = new TemporaryFolder();
+
+  private Process devServer;
+
+  @Before
+  public void setUp() throws Exception {
+    assumeFalse(System.getProperty("os.name").toLowerCase().contains("windows"));
+    // like dev_appserver.sh, a shell that runs the application in a child JVM
+    String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    String classes = Paths.get(Application.class.getProtectionDomain().getCodeSource()
+        .getLocation().toURI()).toString();
+    devServer = new ProcessBuilder("sh", "-c", "\"$0\" -cp \"$1\" \"$2\"; exit 0", java, classes,
+        Application.class.getName()).redirectErrorStream(true)
+        .redirectOutput(new File("/dev/null")).start();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (devServer != null) {
+      ProcessRegistry.getInstance().destroy(devServer);
+    }
+  }
+
+  @Test
+  public void testParse() {
+    GcSample sample = GcSample.parse(JSTAT_OUTPUT);
+
+    assertEquals((4096 + 8192 + 1024) * 1024, sample.getHeapUsedBytes());
+    assertEquals((4096 + 24576 + 32768) * 1024, sample.getHeapCapacityBytes());
+    assertEquals(256 * 1024, sample.getMetaspaceUsedBytes());
+    assertEquals(3, sample.getYoungCollections());
+    assertEquals(3, sample.getFullCollections());
+    assertEquals(45, sample.getGcTimeMillis());
+    assertEquals(0.012, sample.getValues().get("YGCT"), 0);
+  }
+
+  @Test
+  public void testParse_unusedCollector() {
+    GcSample sample = GcSample.parse(JSTAT_OUTPUT.replace("    2    0.003", "    -        -"));
+
+    assertEquals(1, sample.getFullCollections());
+  }
+
+  @Test(expected = AppEngineException.class)
+  public void testParse_unexpectedOutput() {
+    GcSample.parse("12345 not found");
+  }
+
+  @Test
+  public void testStartupRecordingFlags() {
+    Path file = testDir.getRoot().toPath().resolve("startup.jfr");
+
+    assertEquals("-XX:StartFlightRecording=name=startup,settings=profile,dumponexit=true,filename="
+        + file, DevServerProfiler.startupRecordingFlags(file, "profile").get(0));
+  }
+
+  @Test
+  public void testGetPid() throws Exception {
+    DevServerProfiler profiler = DevServerProfiler.builder(devServer).build();
+
+    assertEquals(awaitApplication(), profiler.getPid());
+  }
+
+  @Test
+  public void testRecording() throws Exception {
+    long pid = awaitApplication();
+    DevServerProfiler profiler = DevServerProfiler.builder(devServer).build();
+    Path file = testDir.getRoot().toPath().resolve("recording.jfr");
+
+    awaitAttachable(profiler);
+    profiler.startRecording("test", file, "default");
+    Thread.sleep(500);
+    assertEquals(file, profiler.stopRecording("test"));
+
+    assertEquals(pid, profiler.getPid());
+    assertTrue(Files.size(file) > 0);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testRecording_alreadyStarted() throws Exception {
+    awaitApplication();
+    DevServerProfiler profiler = DevServerProfiler.builder(devServer).build();
+    Path file = testDir.getRoot().toPath().resolve("recording.jfr");
+    awaitAttachable(profiler);
+    profiler.startRecording("test", file, "default");
+
+    try {
+      profiler.startRecording("test", file, "default");
+    } finally {
+      profiler.stopRecording("test");
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testStopRecording_unknown() {
+    DevServerProfiler.builder(12345).build().stopRecording("missing");
+  }
+
+  @Test
+  public void testSampling() throws Exception {
+    awaitApplication();
+    MetricsRegistry registry = new MetricsRegistry();
+    try (DevServerProfiler profiler = DevServerProfiler.builder(devServer)
+        .sampleInterval(50, TimeUnit.MILLISECONDS).maxSamples(2).metrics(registry).build()) {
+      awaitAttachable(profiler);
+      profiler.startSampling();
+      long deadline = System.currentTimeMillis() + 20000;
+      while (profiler.getSamples().size() < 3 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+
+      List<GcSample> samples = profiler.getSamples();
+      assertEquals(2, samples.size());
+      GcSample latest = profiler.getLatestSample();
+      assertNotNull(latest);
+      assertTrue(latest.getHeapCapacityBytes() > 0);
+      assertTrue(registry.getGauges().get(MetricKey.of(DevServerProfiler.HEAP_CAPACITY)) > 0);
+    }
+  }
+
+  @Test
+  public void testSample_toolTimeout() throws Exception {
+    Path javaHome = testDir.newFolder("jdk").toPath();
+    Path jstat = Files.createDirectory(javaHome.resolve("bin")).resolve("jstat");
+    Files.write(jstat, "#!/bin/sh\nsleep 30\n".getBytes(StandardCharsets.UTF_8));
+    assertTrue(jstat.toFile().setExecutable(true));
+    DevServerProfiler profiler = DevServerProfiler.builder(12345).javaHome(javaHome)
+        .toolTimeout(200, TimeUnit.MILLISECONDS).build();
+
+    long start = System.currentTimeMillis();
+    try {
+      profiler.sample();
+      fail();
+    } catch (AppEngineException ex) {
+      assertTrue(ex.getMessage().endsWith("did not finish within 200 ms"));
+    }
+    assertTrue(System.currentTimeMillis() - start < 10000);
+  }
+
+  @Test(expected = AppEngineException.class)
+  public void testBuilder_notRunning() {
+    DevServerProfiler.builder(new DefaultRunConfiguration());
+  }
+
+  // waits for the JVM under the shell, and returns its id
+  private long awaitApplication() throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 20000;
+    while (System.currentTimeMillis() < deadline) {
+      List<Long> pids = ProcessTree.of(devServer).getDescendantPids("java");
+      if (!pids.isEmpty()) {
+        return pids.get(0);
+      }
+      Thread.sleep(50);
+    }
+    throw new AssertionError("The application did not start");
+  }
+
+  // the attach listener of a JVM starts with the JVM, so tools may fail right after it forks
+  private static void awaitAttachable(DevServerProfiler profiler) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 20000;
+    while (true) {
+      try {
+        profiler.sample();
+        return;
+      } catch (AppEngineException e) {
+        if (System.currentTimeMillis() > deadline) {
+          throw e;
+        }
+        Thread.sleep(100);
+      }
+    }
+  }
+
+  /**
+   * The application profiled, which allocates a little to give the collector work.
+   */
+  public static class Application {
+    public static void main(String[] args) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2);
+      byte[][] garbage = new byte[64][];
+      for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+        garbage[i % garbage.length] = new byte[64 * 1024];
+        Thread.sleep(1);
+      }
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+import com.google.cloud.tools.appengine.api.devserver.DefaultRunConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRunnerException;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for {@link DevServerReadiness}.
+ */
+public class DevServerReadinessTest {
+
+  private DefaultRunConfiguration configuration;
+  private ServerSocket closedPort;
+
+  @Before
+  public void setUp() throws IOException {
+    // a port that nothing listens on, unless a test binds it
+    closedPort = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    configuration = new DefaultRunConfiguration();
+    configuration.setHost("127.0.0.1");
+    configuration.setPort(closedPort.getLocalPort());
+    configuration.setAdminHost("127.0.0.1");
+    configuration.setAdminPort(closedPort.getLocalPort());
+    closedPort.close();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    closedPort.close();
+  }
+
+  @Test
+  public void testLogMessage() throws Exception {
+    DevServerReadiness readiness = DevServerReadiness.builder().probePort(false).build();
+    ListenableFuture<DevServerReadiness.Signal> ready = readiness.arm(configuration);
+
+    readiness.onOutputLine("INFO: starting");
+    assertFalse(ready.isDone());
+    readiness.onOutputLine("[INFO] Dev App Server is now running");
+
+    assertEquals(DevServerReadiness.Signal.LOG_MESSAGE, ready.get(0, TimeUnit.SECONDS));
+    // lines after readiness are ignored, and so is the exit
+    readiness.onOutputLine("Dev App Server is now running");
+    readiness.onExit(1);
+    assertEquals(DevServerReadiness.Signal.LOG_MESSAGE, ready.get());
+  }
+
+  @Test
+  public void testLogMessage_customPattern() throws Exception {
+    DevServerReadiness readiness = DevServerReadiness.builder()
+        .logPattern(Pattern.compile("^Listening")).probePort(false).build();
+    ListenableFuture<DevServerReadiness.Signal> ready = readiness.arm(configuration);
+
+    readiness.onOutputLine("Not Listening");
+    assertFalse(ready.isDone());
+    readiness.onOutputLine("Listening on 8080");
+    assertEquals(DevServerReadiness.Signal.LOG_MESSAGE, ready.get(0, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testPort() throws Exception {
+    DevServerReadiness readiness = DevServerReadiness.builder().logPattern(null)
+        .probeInterval(10, TimeUnit.MILLISECONDS).build();
+    ListenableFuture<DevServerReadiness.Signal> ready = readiness.arm(configuration);
+    Thread.sleep(50);
+    assertFalse(ready.isDone());
+
+    try (ServerSocket server = new ServerSocket(configuration.getPort(), 1,
+        InetAddress.getLoopbackAddress())) {
+      assertEquals(configuration.getPort().intValue(), server.getLocalPort());
+      assertEquals(DevServerReadiness.Signal.PORT, ready.get(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testAdminPort() throws Exception {
+    try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      configuration.setAdminPort(server.getLocalPort());
+      DevServerReadiness readiness = DevServerReadiness.builder().logPattern(null)
+          .probePort(false).probeAdminPort(true).build();
+
+      assertEquals(DevServerReadiness.Signal.ADMIN_PORT,
+          readiness.arm(configuration).get(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testHealthCheck() throws Exception {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/_ah/health", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(200, -1);
+        exchange.close();
+      }
+    });
+    server.start();
+    try {
+      configuration.setPort(server.getAddress().getPort());
+      DevServerReadiness readiness = DevServerReadiness.builder().logPattern(null)
+          .probePort(false).healthCheckPath("/_ah/health").build();
+
+      assertEquals(DevServerReadiness.Signal.HEALTH_CHECK,
+          readiness.arm(configuration).get(5, TimeUnit.SECONDS));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testHealthCheck_notHealthy() throws Exception {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.start();
+    try {
+      configuration.setPort(server.getAddress().getPort());
+      DevServerReadiness readiness = DevServerReadiness.builder().logPattern(null)
+          .probePort(false).healthCheckPath("/_ah/health")
+          .probeInterval(10, TimeUnit.MILLISECONDS).build();
+      ListenableFuture<DevServerReadiness.Signal> ready = readiness.arm(configuration);
+      Thread.sleep(100);
+
+      // the server answers 404
+      assertFalse(ready.isDone());
+      readiness.cancel();
+      assertTrue(ready.isCancelled());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testExitBeforeReady() throws Exception {
+    DevServerReadiness readiness = DevServerReadiness.builder().build();
+    ListenableFuture<DevServerReadiness.Signal> ready = readiness.arm(configuration);
+
+    readiness.onExit(1);
+
+    try {
+      ready.get(0, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof ProcessRunnerException);
+      assertEquals("The development server exited with code 1 before it was ready",
+          e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void testExitBeforeReady_otherProcess() throws Exception {
+    assumeFalse(System.getProperty("os.name").contains("Windows"));
+    DevServerReadiness readiness = DevServerReadiness.builder().probePort(false).build();
+    ListenableFuture<DevServerReadiness.Signal> ready = readiness.arm(configuration, true);
+    // exits before the server process is known are not the server's
+    readiness.onExit(2);
+    Process server = new ProcessBuilder("sh", "-c", "read line; exit 3").start();
+    readiness.watch(server);
+
+    readiness.onExit(2);
+    assertFalse(ready.isDone());
+
+    server.getOutputStream().close();
+    server.waitFor();
+    readiness.onExit(3);
+    try {
+      ready.get(0, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertEquals("The development server exited with code 3 before it was ready",
+          e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void testWatch_serverAlreadyExited() throws Exception {
+    assumeFalse(System.getProperty("os.name").contains("Windows"));
+    DevServerReadiness readiness = DevServerReadiness.builder().probePort(false).build();
+    ListenableFuture<DevServerReadiness.Signal> ready = readiness.arm(configuration, true);
+    Process server = new ProcessBuilder("sh", "-c", "exit 3").start();
+    server.waitFor();
+    readiness.onExit(3);
+    assertFalse(ready.isDone());
+
+    readiness.watch(server);
+
+    try {
+      ready.get(0, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertEquals("The development server exited with code 3 before it was ready",
+          e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void testArm_cancelsPreviousRun() {
+    DevServerReadiness readiness = DevServerReadiness.builder().build();
+    ListenableFuture<DevServerReadiness.Signal> first = readiness.arm(configuration);
+    ListenableFuture<DevServerReadiness.Signal> second = readiness.arm(configuration);
+
+    assertTrue(first.isCancelled());
+    assertFalse(second.isDone());
+    readiness.cancel();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testBuild_noSignal() {
+    DevServerReadiness.builder().logPattern(null).probePort(false).build();
+  }
+}
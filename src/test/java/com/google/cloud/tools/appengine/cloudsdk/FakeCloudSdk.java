@@ -0,0 +1,387 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * A stand-in for a Cloud SDK installation, for exercising the process layer without the real SDK
+ * or a network. It lays out {@code bin/gcloud}, {@code bin/dev_appserver.py} and the App Engine
+ * tools jar under a root directory, each of which produces output as described by a
+ * {@link Behavior}.
+ *
+ * <p>{@code gcloud info} prints the configured version and {@code gcloud components list} the
+ * configured components, so {@link CloudSdk#validateCloudSdk()} and
+ * {@link CloudSdk#getComponents()} work. {@code dev_appserver.py} prints the line
+ * {@link CloudSdk.Builder#runDevAppServerWait(int)} waits for before its configured output.
+ *
+ * <p>The scripts need {@code sh}, so the fake does not work on Windows.
+ */
+public class FakeCloudSdk {
+
+  public static final String DEFAULT_VERSION = "150.0.0";
+  public static final String DEV_APPSERVER_READY_LINE =
+      "INFO     2016-10-19 12:00:00,000 dispatcher.py:197] Dev App Server is now running";
+
+  private static final String TOOLS_JAR =
+      "platform/google_appengine/google/appengine/tools/java/lib/appengine-tools-api.jar";
+  private static final String APP_CFG = "com/google/appengine/tools/admin/AppCfg";
+
+  private static final String GCLOUD_SCRIPT = "#!/bin/sh\n"
+      + "FAKE=\"$(dirname \"$0\")/../fake\"\n"
+      + "case \"$1\" in\n"
+      + "  info) cat \"$FAKE/version\"; exit 0 ;;\n"
+      + "  components) cat \"$FAKE/components.json\"; exit 0 ;;\n"
+      + "esac\n"
+      + "exec sh \"$FAKE/emit.sh\" \"$FAKE/gcloud.env\" \"$@\"\n";
+
+  private static final String DEV_APPSERVER_SCRIPT = "#!/bin/sh\n"
+      + "FAKE=\"$(dirname \"$0\")/../fake\"\n"
+      + "exec sh \"$FAKE/emit.sh\" \"$FAKE/dev_appserver.env\" \"$@\"\n";
+
+  private static final String EMIT_SCRIPT = "#!/bin/sh\n"
+      + ". \"$1\"\n"
+      + "shift\n"
+      + "sleep \"$START_DELAY\"\n"
+      + "[ \"$ECHO_ARGS\" = 1 ] && echo \"$*\"\n"
+      + "[ -n \"$READY_LINE\" ] && echo \"$READY_LINE\" 1>&2\n"
+      + "emit() {\n"
+      + "  if [ \"$LINES_PER_SECOND\" -eq 0 ]; then\n"
+      + "    yes \"$LINE\" | head -n \"$1\"\n"
+      + "    return\n"
+      + "  fi\n"
+      // rate limited output is written in batches, ten times a second
+      + "  remaining=$1\n"
+      + "  batch=$(( (LINES_PER_SECOND + 9) / 10 ))\n"
+      + "  while [ \"$remaining\" -gt 0 ]; do\n"
+      + "    [ \"$batch\" -gt \"$remaining\" ] && batch=$remaining\n"
+      + "    yes \"$LINE\" | head -n \"$batch\"\n"
+      + "    remaining=$((remaining - batch))\n"
+      + "    [ \"$remaining\" -gt 0 ] && sleep 0.1\n"
+      + "  done\n"
+      + "}\n"
+      + "emit \"$STDOUT_LINES\" &\n"
+      + "emit \"$STDERR_LINES\" 1>&2 &\n"
+      + "wait\n"
+      + "[ \"$EXIT_DELAY\" = -1 ] && exec sleep 2147483\n"
+      + "sleep \"$EXIT_DELAY\"\n"
+      + "exit \"$EXIT_CODE\"\n";
+
+  private static final String DEFAULT_COMPONENTS = "[\n"
+      + "  {\"current_version_string\": \"" + DEFAULT_VERSION + "\", \"id\": \"core\","
+      + " \"is_configuration\": false, \"is_hidden\": false, \"latest_version_string\": \""
+      + DEFAULT_VERSION + "\", \"name\": \"Cloud SDK Core Libraries\", \"size\": 5861370,"
+      + " \"state\": {\"name\": \"Installed\"}},\n"
+      + "  {\"current_version_string\": \"1.9.50\", \"id\": \"app-engine-java\","
+      + " \"is_configuration\": false, \"is_hidden\": false, \"latest_version_string\":"
+      + " \"1.9.50\", \"name\": \"gcloud app Java Extensions\", \"size\": 138442691,"
+      + " \"state\": {\"name\": \"Installed\"}}\n"
+      + "]\n";
+
+  private static byte[] appCfgClass;
+
+  private final Path root;
+
+  /**
+   * Lays out a fake Cloud SDK. Every command initially exits successfully without output.
+   *
+   * @param root an empty or nonexistent directory
+   */
+  public FakeCloudSdk(Path root) throws IOException {
+    this.root = root;
+    Path bin = Files.createDirectories(root.resolve("bin"));
+    Path fake = Files.createDirectories(root.resolve("fake"));
+    writeScript(bin.resolve("gcloud"), GCLOUD_SCRIPT);
+    writeScript(bin.resolve("dev_appserver.py"), DEV_APPSERVER_SCRIPT);
+    writeScript(fake.resolve("emit.sh"), EMIT_SCRIPT);
+    writeToolsJar(getToolsJar());
+    setVersion(DEFAULT_VERSION);
+    setComponentsJson(DEFAULT_COMPONENTS);
+    setGcloudBehavior(new Behavior());
+    setDevAppServerBehavior(new Behavior());
+    setAppCfgBehavior(new Behavior());
+  }
+
+  public Path getRoot() {
+    return root;
+  }
+
+  public Path getToolsJar() {
+    return root.resolve(TOOLS_JAR);
+  }
+
+  /**
+   * Returns a builder for a {@link CloudSdk} using this installation.
+   */
+  public CloudSdk.Builder newBuilder() {
+    return new CloudSdk.Builder().sdkPath(root);
+  }
+
+  /**
+   * Sets the version printed by {@code gcloud info}.
+   */
+  public void setVersion(String version) throws IOException {
+    write(root.resolve("fake/version"), version + "\n");
+  }
+
+  /**
+   * Sets the output of {@code gcloud components list}.
+   */
+  public void setComponentsJson(String json) throws IOException {
+    write(root.resolve("fake/components.json"), json);
+  }
+
+  /**
+   * Sets the behavior of every gcloud command, other than {@code info} and {@code components}.
+   */
+  public void setGcloudBehavior(Behavior behavior) throws IOException {
+    write(root.resolve("fake/gcloud.env"), behavior.toEnvironment(""));
+  }
+
+  /**
+   * Sets the behavior of {@code dev_appserver.py}, after it printed
+   * {@link #DEV_APPSERVER_READY_LINE} to standard error.
+   */
+  public void setDevAppServerBehavior(Behavior behavior) throws IOException {
+    write(root.resolve("fake/dev_appserver.env"), behavior.toEnvironment(DEV_APPSERVER_READY_LINE));
+  }
+
+  /**
+   * Sets the behavior of the App Engine tools jar.
+   */
+  public void setAppCfgBehavior(Behavior behavior) throws IOException {
+    write(getToolsJar().resolveSibling("appcfg.env"), behavior.toEnvironment(""));
+  }
+
+  /**
+   * Deletes the installation, for users without a temporary folder rule.
+   */
+  public void delete() throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private static void writeScript(Path file, String contents) throws IOException {
+    write(file, contents);
+    try {
+      Files.setPosixFilePermissions(file, EnumSet.of(PosixFilePermission.OWNER_READ,
+          PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE));
+    } catch (UnsupportedOperationException e) {
+      // not a POSIX file system, where the scripts are of no use anyway
+    }
+  }
+
+  private static void write(Path file, String contents) throws IOException {
+    Files.write(file, contents.getBytes(Charsets.UTF_8));
+  }
+
+  // The tools jar holds an AppCfg main class that hands over to FakeSdkEmitter, and a copy of
+  // FakeSdkEmitter itself, so it runs without the test classpath.
+  private static void writeToolsJar(Path jar) throws IOException {
+    Files.createDirectories(jar.getParent());
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    String emitter = FakeSdkEmitter.class.getName().replace('.', '/') + ".class";
+    try (OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = new JarOutputStream(out, manifest);
+        InputStream emitterClass = FakeSdkEmitter.class.getResourceAsStream("/" + emitter)) {
+      jarOut.putNextEntry(new JarEntry(APP_CFG + ".class"));
+      jarOut.write(getAppCfgClass());
+      jarOut.putNextEntry(new JarEntry(emitter));
+      ByteStreams.copy(emitterClass, jarOut);
+    }
+  }
+
+  private static synchronized byte[] getAppCfgClass() throws IOException {
+    if (appCfgClass == null) {
+      Path directory = Files.createTempDirectory("fake-appcfg");
+      Path source = directory.resolve("AppCfg.java");
+      write(source, "package com.google.appengine.tools.admin;\n"
+          + "public class AppCfg {\n"
+          + "  public static void main(String[] args) throws Exception {\n"
+          + "    java.io.File jar = new java.io.File(\n"
+          + "        AppCfg.class.getProtectionDomain().getCodeSource().getLocation().toURI());\n"
+          + "    String[] emitterArgs = new String[args.length + 1];\n"
+          + "    emitterArgs[0] =\n"
+          + "        new java.io.File(jar.getParentFile(), \"appcfg.env\").getPath();\n"
+          + "    System.arraycopy(args, 0, emitterArgs, 1, args.length);\n"
+          + "    " + FakeSdkEmitter.class.getName() + ".main(emitterArgs);\n"
+          + "  }\n"
+          + "}\n");
+      JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+      Preconditions.checkState(compiler != null, "the fake Cloud SDK requires a JDK");
+      int result = compiler.run(null, null, null, "-d", directory.toString(),
+          "-classpath", codeSource().toString(), source.toString());
+      Preconditions.checkState(result == 0, "cannot compile the fake AppCfg");
+      appCfgClass = Files.readAllBytes(directory.resolve(APP_CFG + ".class"));
+    }
+    return appCfgClass;
+  }
+
+  private static Path codeSource() {
+    try {
+      return Paths.get(FakeSdkEmitter.class.getProtectionDomain().getCodeSource().getLocation()
+          .toURI());
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * What a faked command does: wait, print lines to standard output and error (concurrently,
+   * optionally rate limited), wait again and exit.
+   */
+  public static class Behavior {
+    private int stdOutLines;
+    private int stdErrLines;
+    private int lineLength = 80;
+    private int linesPerSecond;
+    private long startDelayMillis;
+    private long exitDelayMillis;
+    private int exitCode;
+    private boolean echoArguments;
+
+    /**
+     * Number of lines written to standard output.
+     */
+    public Behavior stdOutLines(int stdOutLines) {
+      Preconditions.checkArgument(stdOutLines >= 0);
+      this.stdOutLines = stdOutLines;
+      return this;
+    }
+
+    /**
+     * Number of lines written to standard error.
+     */
+    public Behavior stdErrLines(int stdErrLines) {
+      Preconditions.checkArgument(stdErrLines >= 0);
+      this.stdErrLines = stdErrLines;
+      return this;
+    }
+
+    /**
+     * Length of each line, without the line terminator. Defaults to 80.
+     */
+    public Behavior lineLength(int lineLength) {
+      Preconditions.checkArgument(lineLength > 0);
+      this.lineLength = lineLength;
+      return this;
+    }
+
+    /**
+     * Limits the output rate of each stream, or 0 (the default) for as fast as possible.
+     */
+    public Behavior linesPerSecond(int linesPerSecond) {
+      Preconditions.checkArgument(linesPerSecond >= 0);
+      this.linesPerSecond = linesPerSecond;
+      return this;
+    }
+
+    /**
+     * Time to wait before any output.
+     */
+    public Behavior startDelayMillis(long startDelayMillis) {
+      Preconditions.checkArgument(startDelayMillis >= 0);
+      this.startDelayMillis = startDelayMillis;
+      return this;
+    }
+
+    /**
+     * Time to wait between the end of the output and exiting.
+     */
+    public Behavior exitDelayMillis(long exitDelayMillis) {
+      Preconditions.checkArgument(exitDelayMillis >= 0);
+      this.exitDelayMillis = exitDelayMillis;
+      return this;
+    }
+
+    /**
+     * Keeps running after the output until killed, like a server.
+     */
+    public Behavior runUntilKilled() {
+      this.exitDelayMillis = -1;
+      return this;
+    }
+
+    public Behavior exitCode(int exitCode) {
+      this.exitCode = exitCode;
+      return this;
+    }
+
+    /**
+     * Whether to print the command arguments, space separated, as the first line of standard
+     * output.
+     */
+    public Behavior echoArguments(boolean echoArguments) {
+      this.echoArguments = echoArguments;
+      return this;
+    }
+
+    // Written as sh variable assignments, which FakeSdkEmitter reads as properties.
+    private String toEnvironment(String readyLine) {
+      return "STDOUT_LINES=" + stdOutLines + "\n"
+          + "STDERR_LINES=" + stdErrLines + "\n"
+          + "LINE='" + Strings.repeat("x", lineLength) + "'\n"
+          + "LINES_PER_SECOND=" + linesPerSecond + "\n"
+          + "START_DELAY=" + seconds(startDelayMillis) + "\n"
+          + "EXIT_DELAY=" + (exitDelayMillis < 0 ? "-1" : seconds(exitDelayMillis)) + "\n"
+          + "EXIT_CODE=" + exitCode + "\n"
+          + "ECHO_ARGS=" + (echoArguments ? 1 : 0) + "\n"
+          + "READY_LINE='" + readyLine + "'\n";
+    }
+
+    private static String seconds(long millis) {
+      return String.format(Locale.ROOT, "%d.%03d", millis / 1000, millis % 1000);
+    }
+  }
+}
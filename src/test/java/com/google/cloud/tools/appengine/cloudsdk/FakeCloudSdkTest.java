@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import com.google.cloud.tools.appengine.cloudsdk.FakeCloudSdk.Behavior;
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ExitCodeRecorderProcessExitListener;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessOutputLineListener;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessStartListener;
+import com.google.cloud.tools.appengine.cloudsdk.serialization.CloudSdkComponent;
+import com.google.cloud.tools.appengine.cloudsdk.serialization.CloudSdkVersion;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests {@link FakeCloudSdk} through {@link CloudSdk}, which also covers the process handling of
+ * {@link CloudSdk}.
+ */
+public class FakeCloudSdkTest {
+
+  @Rule
+  public TemporaryFolder testDir = new TemporaryFolder();
+
+  private FakeCloudSdk fake;
+  private CollectingListener stdOut = new CollectingListener();
+  private CollectingListener stdErr = new CollectingListener();
+  private ExitCodeRecorderProcessExitListener exit = new ExitCodeRecorderProcessExitListener();
+
+  @Before
+  public void setUp() throws IOException {
+    assumeFalse(System.getProperty("os.name").contains("Windows"));
+    fake = new FakeCloudSdk(testDir.getRoot().toPath().resolve("sdk"));
+  }
+
+  @Test
+  public void testGetVersion() throws Exception {
+    fake.setVersion("151.0.1");
+    assertEquals(new CloudSdkVersion("151.0.1"), fake.newBuilder().build().getVersion());
+  }
+
+  @Test
+  public void testGetComponents() throws Exception {
+    List<CloudSdkComponent> components = fake.newBuilder().build().getComponents();
+
+    assertEquals(2, components.size());
+    assertEquals("app-engine-java", components.get(1).getId());
+    assertEquals("1.9.50", components.get(1).getCurrentVersion());
+  }
+
+  @Test
+  public void testRunAppCommand() throws Exception {
+    fake.setGcloudBehavior(new Behavior().echoArguments(true).stdOutLines(1000).stdErrLines(500)
+        .lineLength(10).exitCode(3));
+    CloudSdk sdk = fake.newBuilder().addStdOutLineListener(stdOut).addStdErrLineListener(stdErr)
+        .exitListener(exit).build();
+
+    sdk.runAppCommand(ImmutableList.of("versions", "list"));
+
+    assertEquals(1001, stdOut.lines.size());
+    assertEquals("app versions list --quiet", stdOut.lines.get(0));
+    assertEquals("xxxxxxxxxx", stdOut.lines.get(1000));
+    assertEquals(500, stdErr.lines.size());
+    assertEquals(Integer.valueOf(3), exit.getMostRecentExitCode());
+  }
+
+  @Test
+  public void testRunAppCommand_rateLimited() throws Exception {
+    fake.setGcloudBehavior(new Behavior().stdOutLines(30).linesPerSecond(100));
+    CloudSdk sdk = fake.newBuilder().addStdOutLineListener(stdOut).build();
+    sdk.validateCloudSdk();
+
+    long start = System.nanoTime();
+    sdk.runAppCommand(Collections.<String>emptyList());
+
+    // three batches of ten lines, 100ms apart
+    assertTrue(System.nanoTime() - start >= 190_000_000L);
+    assertEquals(30, stdOut.lines.size());
+  }
+
+  @Test
+  public void testRunDevAppServerCommand_waitsForStart() throws Exception {
+    fake.setDevAppServerBehavior(new Behavior().startDelayMillis(200).runUntilKilled());
+    final List<Process> processes = new ArrayList<>();
+    CloudSdk sdk = fake.newBuilder().async(true).runDevAppServerWait(10)
+        .addStdErrLineListener(stdErr)
+        .startListener(new ProcessStartListener() {
+          @Override
+          public void onStart(Process process) {
+            processes.add(process);
+          }
+        })
+        .build();
+
+    sdk.runDevAppServerCommand(ImmutableList.of("app.yaml"));
+
+    try {
+      assertEquals(FakeCloudSdk.DEV_APPSERVER_READY_LINE, stdErr.lines.get(0));
+      assertTrue(isAlive(processes.get(0)));
+    } finally {
+      processes.get(0).destroy();
+    }
+    processes.get(0).waitFor();
+    assertFalse(isAlive(processes.get(0)));
+  }
+
+  @Test
+  public void testRunAppCfgCommand() throws Exception {
+    fake.setAppCfgBehavior(new Behavior().echoArguments(true).stdOutLines(10).exitCode(2));
+    CloudSdk sdk = fake.newBuilder().addStdOutLineListener(stdOut).exitListener(exit).build();
+
+    sdk.runAppCfgCommand(ImmutableList.of("stage", "in", "out"));
+
+    assertEquals(11, stdOut.lines.size());
+    assertEquals("stage in out", stdOut.lines.get(0));
+    assertNotNull(sdk.getJarPath("appengine-tools-api.jar"));
+    assertEquals(Integer.valueOf(2), exit.getMostRecentExitCode());
+  }
+
+  private static boolean isAlive(Process process) {
+    try {
+      process.exitValue();
+      return false;
+    } catch (IllegalThreadStateException e) {
+      return true;
+    }
+  }
+
+  private static class CollectingListener implements ProcessOutputLineListener {
+    private final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public void onOutputLine(String line) {
+      lines.add(line);
+    }
+  }
+}
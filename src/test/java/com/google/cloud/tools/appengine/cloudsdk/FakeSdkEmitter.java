@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * The Java counterpart of the {@code emit.sh} script of {@link FakeCloudSdk}, run by the fake App
+ * Engine tools jar. It is copied into that jar, so it must only depend on the JDK.
+ */
+public class FakeSdkEmitter implements Runnable {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final PrintStream stream;
+  private final int lines;
+  private final String line;
+  private final int linesPerSecond;
+
+  private FakeSdkEmitter(PrintStream stream, int lines, String line, int linesPerSecond) {
+    this.stream = stream;
+    this.lines = lines;
+    this.line = line;
+    this.linesPerSecond = linesPerSecond;
+  }
+
+  /**
+   * Emits the output described by a behavior file.
+   *
+   * @param args the behavior file, followed by the arguments of the faked command
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Properties behavior = new Properties();
+    try (InputStream in = new FileInputStream(args[0])) {
+      behavior.load(in);
+    }
+    PrintStream out = new PrintStream(
+        new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), BUFFER_SIZE), false);
+    PrintStream err = new PrintStream(
+        new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), BUFFER_SIZE), false);
+
+    Thread.sleep(millis(behavior, "START_DELAY"));
+    if ("1".equals(string(behavior, "ECHO_ARGS"))) {
+      StringBuilder echo = new StringBuilder();
+      for (String argument : Arrays.asList(args).subList(1, args.length)) {
+        echo.append(echo.length() == 0 ? "" : " ").append(argument);
+      }
+      out.println(echo);
+      out.flush();
+    }
+    String readyLine = string(behavior, "READY_LINE");
+    if (!readyLine.isEmpty()) {
+      err.println(readyLine);
+      err.flush();
+    }
+
+    String line = string(behavior, "LINE");
+    int linesPerSecond = Integer.parseInt(string(behavior, "LINES_PER_SECOND"));
+    Thread stdOut = new Thread(new FakeSdkEmitter(
+        out, Integer.parseInt(string(behavior, "STDOUT_LINES")), line, linesPerSecond));
+    Thread stdErr = new Thread(new FakeSdkEmitter(
+        err, Integer.parseInt(string(behavior, "STDERR_LINES")), line, linesPerSecond));
+    stdOut.start();
+    stdErr.start();
+    stdOut.join();
+    stdErr.join();
+
+    long exitDelay = millis(behavior, "EXIT_DELAY");
+    Thread.sleep(exitDelay < 0 ? Long.MAX_VALUE : exitDelay);
+    System.exit(Integer.parseInt(string(behavior, "EXIT_CODE")));
+  }
+
+  @Override
+  public void run() {
+    // rate limited output is written in batches, ten times a second
+    int batch = linesPerSecond == 0 ? lines : (linesPerSecond + 9) / 10;
+    try {
+      for (int remaining = lines; remaining > 0; ) {
+        for (int i = Math.min(batch, remaining); i > 0; i--, remaining--) {
+          stream.println(line);
+        }
+        stream.flush();
+        if (remaining > 0) {
+          Thread.sleep(100);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Values are written for sh, so strings are single quoted.
+  private static String string(Properties behavior, String key) {
+    String value = behavior.getProperty(key, "").trim();
+    if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+      return value.substring(1, value.length() - 1);
+    }
+    return value;
+  }
+
+  // Delays are written in seconds, for sleep.
+  private static long millis(Properties behavior, String key) {
+    return Math.round(Double.parseDouble(string(behavior, key)) * 1000);
+  }
+}
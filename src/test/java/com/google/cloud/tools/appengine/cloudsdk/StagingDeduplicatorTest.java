@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.cloudsdk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import com.google.common.base.Charsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link StagingDeduplicator}.
+ */
+public class StagingDeduplicatorTest {
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Test
+  public void testDeduplicate_linksIdenticalFiles() throws IOException {
+    Path service1 = tmpDir.newFolder("service1").toPath();
+    Path service2 = tmpDir.newFolder("service2").toPath();
+    Path jar1 = write(service1.resolve("WEB-INF/lib/shared.jar"), "shared contents");
+    Path jar2 = write(service2.resolve("WEB-INF/lib/shared.jar"), "shared contents");
+    Path jar3 = write(service2.resolve("WEB-INF/lib/renamed.jar"), "shared contents");
+
+    StagingDeduplicator.Result result =
+        new StagingDeduplicator(2).deduplicate(Arrays.asList(service1, service2));
+
+    assertEquals(2, result.getLinkedFiles());
+    assertEquals(2 * "shared contents".length(), result.getSavedBytes());
+    assertEquals(fileKey(jar1), fileKey(jar2));
+    assertEquals(fileKey(jar1), fileKey(jar3));
+    assertArrayEquals("shared contents".getBytes(Charsets.UTF_8), Files.readAllBytes(jar2));
+  }
+
+  @Test
+  public void testDeduplicate_leavesDifferentFilesAlone() throws IOException {
+    Path service1 = tmpDir.newFolder("service1").toPath();
+    Path service2 = tmpDir.newFolder("service2").toPath();
+    // same size, different contents
+    Path jar1 = write(service1.resolve("a.jar"), "contents-1");
+    Path jar2 = write(service2.resolve("a.jar"), "contents-2");
+    write(service2.resolve("b.jar"), "longer contents");
+
+    StagingDeduplicator.Result result =
+        new StagingDeduplicator().deduplicate(Arrays.asList(service1, service2));
+
+    assertEquals(0, result.getLinkedFiles());
+    assertEquals(0, result.getSavedBytes());
+    assertNotEquals(fileKey(jar1), fileKey(jar2));
+  }
+
+  @Test
+  public void testDeduplicate_secondRunSavesNothing() throws IOException {
+    Path service1 = tmpDir.newFolder("service1").toPath();
+    Path service2 = tmpDir.newFolder("service2").toPath();
+    write(service1.resolve("a.jar"), "same");
+    write(service2.resolve("a.jar"), "same");
+
+    StagingDeduplicator deduplicator = new StagingDeduplicator();
+    assertEquals(1, deduplicator.deduplicate(Arrays.asList(service1, service2)).getLinkedFiles());
+
+    StagingDeduplicator.Result result = deduplicator.deduplicate(Arrays.asList(service1, service2));
+    assertEquals(0, result.getLinkedFiles());
+    assertEquals(0, result.getSavedBytes());
+  }
+
+  @Test
+  public void testDeduplicate_linkedDuplicatesSavedOnce() throws IOException {
+    Path service1 = tmpDir.newFolder("service1").toPath();
+    Path service2 = tmpDir.newFolder("service2").toPath();
+    Path jar1 = write(service1.resolve("a.jar"), "same");
+    Path jar2 = write(service2.resolve("a.jar"), "same");
+    // already a link of the second copy, which only frees its space once both are relinked
+    Path jar3 = Files.createLink(service2.resolve("b.jar"), jar2);
+
+    StagingDeduplicator.Result result =
+        new StagingDeduplicator().deduplicate(Arrays.asList(service1, service2));
+
+    assertEquals(2, result.getLinkedFiles());
+    assertEquals("same".length(), result.getSavedBytes());
+    assertEquals(fileKey(jar1), fileKey(jar3));
+  }
+
+  @Test
+  public void testDeduplicate_staleTemporaryLink() throws IOException {
+    Path service1 = tmpDir.newFolder("service1").toPath();
+    Path service2 = tmpDir.newFolder("service2").toPath();
+    Path jar1 = write(service1.resolve("a.jar"), "same");
+    Path jar2 = write(service2.resolve("a.jar"), "same");
+    // left behind by an interrupted run
+    Path stale = write(service2.resolve("a.jar.dedup-tmp"), "same");
+
+    StagingDeduplicator.Result result =
+        new StagingDeduplicator().deduplicate(Arrays.asList(service1, service2));
+
+    assertEquals(1, result.getLinkedFiles());
+    assertEquals(fileKey(jar1), fileKey(jar2));
+    assertFalse(Files.exists(stale));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDeduplicate_notADirectory() throws IOException {
+    Path file = tmpDir.newFile().toPath();
+    new StagingDeduplicator().deduplicate(Arrays.asList(file));
+  }
+
+  private static Path write(Path file, String contents) throws IOException {
+    Files.createDirectories(file.getParent());
+    return Files.write(file, contents.getBytes(Charsets.UTF_8));
+  }
+
+  private static Object fileKey(Path file) throws IOException {
+    return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.cloudsdk.classfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.annotation.ElementType;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link ClassFileReader}.
+ */
+public class ClassFileReaderTest {
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.TYPE)
+  @interface Sample {
+    String value();
+
+    int number() default 0;
+
+    long big() default 0;
+
+    boolean flag() default false;
+
+    String[] names() default {};
+
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    Class<?> type() default Object.class;
+
+    Nested[] nested() default {};
+  }
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @interface Nested {
+    String name();
+  }
+
+  @Sample(value = "hello", number = 42, big = 1L << 40, flag = true, names = {"a", "b"},
+      unit = TimeUnit.MINUTES, type = Map.class, nested = @Nested(name = "inner"))
+  static class Annotated implements Serializable, Runnable {
+    private static final long serialVersionUID = 1L;
+    private double ratio = 0.5;
+
+    @Override
+    public void run() {
+      System.out.println(ratio + "é中");
+    }
+  }
+
+  @Test
+  public void testRead_hierarchy() throws IOException {
+    ClassFile classFile = new ClassFileReader(bytes(Annotated.class)).read();
+
+    assertEquals(Annotated.class.getName(), classFile.getClassName());
+    assertEquals("java.lang.Object", classFile.getSuperClassName());
+    assertEquals(ImmutableList.of("java.io.Serializable", "java.lang.Runnable"),
+        classFile.getInterfaceNames());
+    assertTrue(classFile.getReferencedClassNames().contains("java.lang.System"));
+    assertFalse(classFile.getReferencedClassNames().contains(Annotated.class.getName()));
+  }
+
+  @Test
+  public void testRead_annotations() throws IOException {
+    ClassFile classFile = new ClassFileReader(bytes(Annotated.class)).read();
+
+    ClassFile.Annotation sample = classFile.getAnnotation(Sample.class.getName());
+    assertNotNull(sample);
+    assertEquals("hello", sample.getString("value"));
+    assertEquals("42", sample.getString("number"));
+    assertEquals(Long.toString(1L << 40), sample.getString("big"));
+    assertEquals("true", sample.getString("flag"));
+    assertEquals(ImmutableList.<Object>of("a", "b"), sample.getList("names"));
+    assertEquals("MINUTES", sample.getString("unit"));
+    assertEquals("java.util.Map", sample.getString("type"));
+    ClassFile.Annotation nested = (ClassFile.Annotation) sample.getList("nested").get(0);
+    assertEquals(Nested.class.getName(), nested.getTypeName());
+    assertEquals("inner", nested.getString("name"));
+    // defaults are not recorded
+    assertNull(classFile.getAnnotation(Nested.class.getName()));
+  }
+
+  @Test
+  public void testReadReferencedTypeNames() throws IOException {
+    ClassFileReader reader = new ClassFileReader(bytes(Annotated.class));
+
+    assertEquals(Annotated.class.getName(), reader.readClassName());
+    Set<String> referenced = reader.readReferencedTypeNames();
+    // the type of System.out only appears in the field reference descriptor
+    assertTrue(referenced.contains("java.io.PrintStream"));
+    assertTrue(referenced.contains("java.lang.System"));
+    assertFalse(referenced.contains(Annotated.class.getName()));
+  }
+
+  @Test
+  public void testContainsUtf8Prefix() throws IOException {
+    ClassFileReader reader = new ClassFileReader(bytes(Annotated.class));
+    assertTrue(reader.containsUtf8Prefix("Lcom/google/cloud/tools/appengine/cloudsdk/classfile"));
+    assertFalse(reader.containsUtf8Prefix("Ljavax/servlet/"));
+  }
+
+  @Test
+  public void testDescriptorToClassName() {
+    assertEquals("java.lang.String", ClassFileReader.descriptorToClassName("Ljava/lang/String;"));
+    assertEquals("java.util.Map", ClassFileReader.descriptorToClassName("[[Ljava/util/Map;"));
+    assertNull(ClassFileReader.descriptorToClassName("[I"));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotAClassFile() throws IOException {
+    new ClassFileReader(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedClassFile() throws IOException {
+    byte[] bytes = bytes(Annotated.class);
+    byte[] truncated = new byte[bytes.length / 2];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    new ClassFileReader(truncated).read();
+  }
+
+  static byte[] bytes(Class<?> clazz) throws IOException {
+    String resource = "/" + clazz.getName().replace('.', '/') + ".class";
+    try (InputStream in = clazz.getResourceAsStream(resource)) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+}
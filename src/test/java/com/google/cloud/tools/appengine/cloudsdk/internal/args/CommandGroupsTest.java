@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.internal.args;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * Tests for {@link CommandGroups}.
+ */
+public class CommandGroupsTest {
+
+  @Test
+  public void testGcloud() {
+    assertEquals("app deploy", CommandGroups.gcloud(ImmutableList.of("app"),
+        ImmutableList.of("deploy", "/app/app.yaml", "--version", "v1")));
+    assertEquals("app versions list", CommandGroups.gcloud(ImmutableList.of("app"),
+        ImmutableList.of("versions", "list", "--service", "default")));
+    assertEquals("app versions delete", CommandGroups.gcloud(ImmutableList.of("app"),
+        ImmutableList.of("versions", "delete", "v1", "v2")));
+    assertEquals("beta debug source gen-repo-info-file",
+        CommandGroups.gcloud(ImmutableList.of("beta", "debug", "source"),
+            ImmutableList.of("gen-repo-info-file", "--output-directory", "/out")));
+    assertEquals("components list", CommandGroups.gcloud(Collections.<String>emptyList(),
+        ImmutableList.of("components", "list", "--show-versions")));
+  }
+
+  @Test
+  public void testAppCfg() {
+    assertEquals("appcfg stage", CommandGroups.appCfg(
+        ImmutableList.of("--enable_quickstart", "stage", "/source", "/staging")));
+    assertEquals("appcfg", CommandGroups.appCfg(ImmutableList.of("--help")));
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.internal.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandInstrumentation;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessExitListener;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessOutputLineListener;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessStartListener;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for {@link DefaultProcessRunner}.
+ */
+public class DefaultProcessRunnerTest {
+
+  @Before
+  public void setUp() {
+    assumeFalse(System.getProperty("os.name").contains("Windows"));
+  }
+
+  @Test
+  public void testRun_tracedOutputLeftToCaller() throws Exception {
+    final AtomicReference<String> output = new AtomicReference<>();
+    ProcessStartListener reader = new ProcessStartListener() {
+      @Override
+      public void onStart(Process process) {
+        try {
+          output.set(new String(ByteStreams.toByteArray(process.getInputStream()),
+              Charsets.UTF_8));
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    DefaultProcessRunner runner = new DefaultProcessRunner(false,
+        Collections.<ProcessExitListener>emptyList(), ImmutableList.of(reader), false);
+    CommandTrace trace = new CommandTrace("echo", ImmutableList.<CommandInstrumentation>of(
+        new CommandInstrumentation() {
+          @Override
+          public void onCommandStart(CommandTrace trace) {
+          }
+
+          @Override
+          public void onCommandFinish(CommandTrace trace) {
+          }
+        }));
+
+    runner.run(new String[] {"sh", "-c", "echo hello"}, trace);
+
+    assertEquals("hello\n", output.get());
+    assertEquals(Integer.valueOf(0), trace.getExitCode());
+  }
+
+  @Test
+  public void testRun_interruptedRecordedAsFailure() throws Exception {
+    ProcessStartListener interrupter = new ProcessStartListener() {
+      @Override
+      public void onStart(Process process) {
+        Thread.currentThread().interrupt();
+      }
+    };
+    DefaultProcessRunner runner = new DefaultProcessRunner(false,
+        Collections.<ProcessExitListener>emptyList(), ImmutableList.of(interrupter), false);
+    final AtomicReference<Throwable> finishedFailure = new AtomicReference<>();
+    CommandTrace trace = new CommandTrace("sleep", ImmutableList.<CommandInstrumentation>of(
+        new CommandInstrumentation() {
+          @Override
+          public void onCommandStart(CommandTrace trace) {
+          }
+
+          @Override
+          public void onCommandFinish(CommandTrace trace) {
+            finishedFailure.set(trace.getFailure());
+          }
+        }));
+
+    try {
+      runner.run(new String[] {"sleep", "1"}, trace);
+      fail();
+    } catch (ProcessRunnerException e) {
+      assertTrue(e.getCause() instanceof InterruptedException);
+    } finally {
+      Thread.interrupted();
+    }
+
+    assertFalse(trace.isSuccessful());
+    assertTrue(finishedFailure.get() instanceof InterruptedException);
+  }
+
+  @Test
+  public void testRun_outputHeldByDescendant() throws Exception {
+    ExitCodeRecorderProcessExitListener exitListener = new ExitCodeRecorderProcessExitListener();
+    StringBuilderProcessOutputLineListener stdOut = new StringBuilderProcessOutputLineListener();
+    DefaultProcessRunner runner = new DefaultProcessRunner(false,
+        ImmutableList.<ProcessExitListener>of(exitListener),
+        Collections.<ProcessStartListener>emptyList(),
+        ImmutableList.<ProcessOutputLineListener>of(stdOut),
+        Collections.<ProcessOutputLineListener>emptyList());
+
+    long start = System.nanoTime();
+    // the background sleep inherits the standard output, and keeps it open after sh exits
+    runner.run(new String[] {"sh", "-c", "sleep 15 & echo started"});
+
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    assertEquals(Integer.valueOf(0), exitListener.getMostRecentExitCode());
+    assertEquals("started", stdOut.toString().trim());
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.internal.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import com.google.cloud.tools.appengine.cloudsdk.internal.process.ProcessRegistry.RunningCommand;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link ProcessRegistry}.
+ */
+public class ProcessRegistryTest {
+
+  @Rule
+  public TemporaryFolder testDir = new TemporaryFolder();
+
+  private final ProcessRegistry registry = new ProcessRegistry(50, 500);
+  private final List<Process> processes = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    assumeFalse(System.getProperty("os.name").contains("Windows"));
+  }
+
+  @After
+  public void tearDown() {
+    for (Process process : processes) {
+      process.destroy();
+    }
+  }
+
+  @Test
+  public void testGetRunningCommands() throws Exception {
+    Process first = start("sleep 30");
+    registry.register(first, ImmutableList.of("sleep", "30"), true);
+    Thread.sleep(20);
+    Process second = start("sleep 20");
+    registry.register(second, ImmutableList.of("sleep", "20"), false);
+
+    List<RunningCommand> commands = registry.getRunningCommands();
+
+    assertEquals(2, commands.size());
+    assertEquals(first, commands.get(0).getProcess());
+    assertEquals(ImmutableList.of("sleep", "30"), commands.get(0).getCommand());
+    assertTrue(commands.get(0).getAge(TimeUnit.MILLISECONDS)
+        >= commands.get(1).getAge(TimeUnit.MILLISECONDS));
+    assertEquals(second, commands.get(1).getProcess());
+
+    registry.unregister(first);
+    assertEquals(1, registry.getRunningCommands().size());
+  }
+
+  @Test
+  public void testReaperDropsExitedProcesses() throws Exception {
+    for (int run = 0; run < 2; run++) {
+      // the second time around, the reaper has stopped for lack of processes and restarts
+      Process process = start("exit 0");
+      registry.register(process, ImmutableList.of("true"), true);
+      assertTrue(registry.isTracked(process));
+      process.waitFor();
+      assertTrue(registry.getRunningCommands().isEmpty());
+
+      for (int i = 0; i < 500 && registry.isTracked(process); i++) {
+        Thread.sleep(10);
+      }
+      assertFalse(registry.isTracked(process));
+      Thread.sleep(200);
+    }
+  }
+
+  @Test
+  public void testDestroy_killsDescendants() throws Exception {
+    Path pids = testDir.getRoot().toPath().resolve("pids");
+    Process process = start("sleep 30 & echo $! > " + pids + "; wait");
+    registry.register(process, ImmutableList.of("sh"), false);
+    String child = awaitFile(pids);
+
+    assertTrue(registry.destroy(process));
+
+    assertFalse(ProcessTree.isAlive(process));
+    assertTrue(registry.getRunningCommands().isEmpty());
+    if (isJava9OrLater()) {
+      assertFalse(isAlive(child));
+    }
+  }
+
+  @Test
+  public void testDestroy_forcesAfterGracePeriod() throws Exception {
+    Path ready = testDir.getRoot().toPath().resolve("ready");
+    Process process = start("trap '' TERM; touch " + ready + "; while true; do sleep 0.05; done");
+    registry.register(process, ImmutableList.of("sh"), false);
+    awaitFile(ready);
+
+    long start = System.nanoTime();
+    assertTrue(registry.destroy(process));
+
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(500));
+    assertFalse(ProcessTree.isAlive(process));
+  }
+
+  @Test
+  public void testDestroyOnShutdown_spareOtherProcesses() throws Exception {
+    Process synchronous = start("sleep 30");
+    registry.register(synchronous, ImmutableList.of("sleep"), true);
+    Process server = start("sleep 30");
+    registry.register(server, ImmutableList.of("sleep"), false);
+
+    registry.destroyOnShutdown();
+
+    assertFalse(ProcessTree.isAlive(synchronous));
+    assertTrue(ProcessTree.isAlive(server));
+    assertEquals(server, registry.getRunningCommands().get(0).getProcess());
+  }
+
+  private Process start(String script) throws IOException {
+    Process process = new ProcessBuilder("sh", "-c", script).start();
+    processes.add(process);
+    return process;
+  }
+
+  private static String awaitFile(Path file) throws Exception {
+    for (int i = 0; i < 500 && !Files.exists(file); i++) {
+      Thread.sleep(10);
+    }
+    // the file may be seen before its contents
+    Thread.sleep(50);
+    return new String(Files.readAllBytes(file), Charsets.UTF_8).trim();
+  }
+
+  // zombies, which nobody may reap in a container, don't count
+  private static boolean isAlive(String pid) throws Exception {
+    Process ps = new ProcessBuilder("ps", "-o", "stat=", "-p", pid).start();
+    String state = new String(ByteStreams.toByteArray(ps.getInputStream()), Charsets.UTF_8).trim();
+    return ps.waitFor() == 0 && !state.startsWith("Z");
+  }
+
+  private static boolean isJava9OrLater() {
+    try {
+      Class.forName("java.lang.ProcessHandle");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.internal.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessExitListener;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessOutputLineListener;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessStartListener;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessTimeoutException;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessTimeoutException.Reason;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for {@link ProcessWatchdog}, through {@link DefaultProcessRunner}.
+ */
+public class ProcessWatchdogTest {
+
+  private final ExitCodeRecorderProcessExitListener exitListener =
+      new ExitCodeRecorderProcessExitListener();
+  private final StringBuilderProcessOutputLineListener stdOut =
+      new StringBuilderProcessOutputLineListener();
+  private final StringBuilderProcessOutputLineListener stdErr =
+      new StringBuilderProcessOutputLineListener();
+
+  @Before
+  public void setUp() {
+    assumeFalse(System.getProperty("os.name").contains("Windows"));
+  }
+
+  @Test
+  public void testNoTimeout() throws ProcessRunnerException {
+    newRunner(0, 0).run(new String[] {"sh", "-c", "echo done"});
+
+    assertEquals(Integer.valueOf(0), exitListener.getMostRecentExitCode());
+    assertEquals("done", stdOut.toString().trim());
+  }
+
+  @Test
+  public void testTimeout() throws ProcessRunnerException {
+    long start = System.nanoTime();
+    try {
+      newRunner(300, 0).run(
+          new String[] {"sh", "-c", "while true; do echo tick; sleep 0.01; done"});
+      fail();
+    } catch (ProcessRunnerException ex) {
+      ProcessTimeoutException e = (ProcessTimeoutException) ex.getCause();
+      assertEquals(Reason.WALL_CLOCK, e.getReason());
+      assertEquals(300, e.getTimeoutMillis());
+      assertEquals(ProcessWatchdog.TAIL_LINES, e.getOutputTail().size());
+      assertEquals("tick", e.getOutputTail().get(ProcessWatchdog.TAIL_LINES - 1));
+      assertTrue(e.getMessage().startsWith("Process did not finish within 300 ms"));
+    }
+    assertTrue(System.nanoTime() - start >= 300000000);
+    // the exit listeners still see the process exit
+    assertFalse(Integer.valueOf(0).equals(exitListener.getMostRecentExitCode()));
+  }
+
+  @Test
+  public void testInactivityTimeout() throws ProcessRunnerException {
+    try {
+      newRunner(0, 200).run(new String[] {"sh", "-c", "echo started; echo waiting >&2; sleep 30"});
+      fail();
+    } catch (ProcessRunnerException ex) {
+      ProcessTimeoutException e = (ProcessTimeoutException) ex.getCause();
+      assertEquals(Reason.INACTIVITY, e.getReason());
+      assertEquals(2, e.getOutputTail().size());
+      assertTrue(e.getOutputTail().contains("started"));
+      assertTrue(e.getOutputTail().contains("waiting"));
+    }
+  }
+
+  @Test
+  public void testInactivityTimeout_outputKeepsProcessAlive() throws ProcessRunnerException {
+    newRunner(0, 300).run(
+        new String[] {"sh", "-c", "for i in 1 2 3 4 5 6 7 8; do echo $i; sleep 0.1; done"});
+
+    assertEquals(Integer.valueOf(0), exitListener.getMostRecentExitCode());
+  }
+
+  @Test
+  public void testTimeout_killsDescendants() throws Exception {
+    try {
+      newRunner(300, 0).run(new String[] {"sh", "-c", "sh -c 'sleep 30'; echo survived"});
+      fail();
+    } catch (ProcessRunnerException ex) {
+      ProcessTimeoutException e = (ProcessTimeoutException) ex.getCause();
+      // the output would otherwise have been held open for 30 seconds, on Java 9+
+      assertEquals(Collections.<String>emptyList(), e.getOutputTail());
+      assertTrue(e.getMessage().endsWith("and wrote nothing"));
+    }
+  }
+
+  @Test
+  public void testTimeout_outputLeftToCaller() throws Exception {
+    final AtomicReference<String> output = new AtomicReference<>();
+    ProcessStartListener reader = new ProcessStartListener() {
+      @Override
+      public void onStart(Process process) {
+        try {
+          output.set(new String(ByteStreams.toByteArray(process.getInputStream()),
+              Charsets.UTF_8));
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    DefaultProcessRunner runner = new DefaultProcessRunner(false,
+        ImmutableList.<ProcessExitListener>of(exitListener),
+        ImmutableList.<ProcessStartListener>of(reader),
+        ImmutableList.<ProcessOutputLineListener>of(),
+        ImmutableList.<ProcessOutputLineListener>of());
+    // the inactivity timeout can't be enforced without reading the output, so it doesn't apply
+    runner.setTimeouts(10000, 100);
+
+    runner.run(new String[] {"sh", "-c", "echo hello; sleep 0.3; echo world"});
+
+    assertEquals("hello\nworld\n", output.get());
+    assertEquals(Integer.valueOf(0), exitListener.getMostRecentExitCode());
+  }
+
+  @Test
+  public void testStop() throws Exception {
+    Process process = new ProcessBuilder("sleep", "30").start();
+    try {
+      ProcessWatchdog watchdog = new ProcessWatchdog(process, 100, 0);
+      watchdog.start();
+      watchdog.stop();
+      Thread.sleep(300);
+
+      assertNull(watchdog.getTimeout());
+      assertTrue(ProcessTree.isAlive(process));
+    } finally {
+      process.destroy();
+    }
+  }
+
+  private DefaultProcessRunner newRunner(long timeoutMillis, long inactivityTimeoutMillis) {
+    DefaultProcessRunner runner = new DefaultProcessRunner(false,
+        ImmutableList.<ProcessExitListener>of(exitListener),
+        ImmutableList.<ProcessStartListener>of(),
+        ImmutableList.<ProcessOutputLineListener>of(stdOut),
+        ImmutableList.<ProcessOutputLineListener>of(stdErr));
+    runner.setTimeouts(timeoutMillis, inactivityTimeoutMillis);
+    return runner;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.loadtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Charsets;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Tests for {@link HttpResponseParser}.
+ */
+public class HttpResponseParserTest {
+
+  private final HttpResponseParser parser = new HttpResponseParser();
+
+  @Test
+  public void testContentLength_splitAcrossReads() throws IOException {
+    assertFalse(parse("HTTP/1.1 200 OK\r\nContent-Le"));
+    assertFalse(parse("ngth: 10\r\n\r\n01234"));
+    assertTrue(parse("56789"));
+    assertEquals(200, parser.getStatus());
+    assertFalse(parser.isConnectionClose());
+  }
+
+  @Test
+  public void testChunked() throws IOException {
+    assertFalse(parse("HTTP/1.1 404 Not Found\r\nTransfer-Encoding: chunked\r\n\r\n"
+        + "5;ext=1\r\nhello\r\nA\r\n0123"));
+    assertTrue(parse("456789\r\n0\r\nTrailer: x\r\n\r\n"));
+    assertEquals(404, parser.getStatus());
+  }
+
+  @Test
+  public void testCloseDelimited() throws IOException {
+    assertFalse(parse("HTTP/1.0 200 OK\r\n\r\nbody until the end"));
+    assertTrue(parser.onEndOfStream());
+    assertTrue(parser.isConnectionClose());
+  }
+
+  @Test
+  public void testNoBody() throws IOException {
+    assertTrue(parse("HTTP/1.1 204 No Content\r\nConnection: close\r\n\r\n"));
+    assertTrue(parser.isConnectionClose());
+
+    parser.reset(true);
+    assertTrue(parse("HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\n"));
+  }
+
+  @Test
+  public void testEndOfStreamInBody() throws IOException {
+    parse("HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\nshort");
+    try {
+      parser.onEndOfStream();
+      fail();
+    } catch (IOException e) {
+      assertEquals("Connection closed in body", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testBadStatusLine() {
+    try {
+      parse("SSH-2.0-OpenSSH\r\n");
+      fail();
+    } catch (IOException e) {
+      assertEquals("Bad status line: SSH-2.0-OpenSSH", e.getMessage());
+    }
+  }
+
+  private boolean parse(String bytes) throws IOException {
+    return parser.parse(ByteBuffer.wrap(bytes.getBytes(Charsets.ISO_8859_1)));
+  }
+}
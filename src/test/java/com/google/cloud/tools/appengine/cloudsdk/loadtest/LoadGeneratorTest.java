@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.loadtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.tools.appengine.api.devserver.DefaultRunConfiguration;
+import com.google.cloud.tools.appengine.cloudsdk.loadtest.LoadReport.Correction;
+import com.google.cloud.tools.appengine.cloudsdk.loadtest.LoadReport.Failure;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link LoadGenerator}, against an in-process HTTP server.
+ */
+public class LoadGeneratorTest {
+
+  private HttpServer server;
+  private volatile long delayMillis;
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 100);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        ByteStreams.toByteArray(exchange.getRequestBody());
+        if (delayMillis > 0) {
+          try {
+            Thread.sleep(delayMillis);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        byte[] body = "hello".getBytes(Charsets.UTF_8);
+        boolean failing = exchange.getRequestURI().getPath().equals("/fail");
+        // chunked for errors, with a length otherwise
+        exchange.sendResponseHeaders(failing ? 500 : 200, failing ? 0 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+    });
+    server.setExecutor(Executors.newFixedThreadPool(8));
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testConcurrency() throws IOException {
+    LoadReport report = builder()
+        .addRequest(LoadRequest.get("/ok"), 3)
+        .addRequest(LoadRequest.post("/fail", "text/plain", new byte[] {1}), 1)
+        .concurrency(4)
+        .warmUp(200, TimeUnit.MILLISECONDS)
+        .duration(500, TimeUnit.MILLISECONDS)
+        .seed(1)
+        .build()
+        .run();
+
+    assertEquals(LoadGenerator.Mode.CONCURRENCY, report.getMode());
+    assertEquals(Correction.EXPECTED_INTERVAL, report.getCorrection());
+    LoadReport.Stats ok = report.getByRequest().get("GET /ok");
+    LoadReport.Stats failing = report.getByRequest().get("POST /fail");
+    assertTrue(ok.getResponses() > 0);
+    assertEquals(0, ok.getErrors());
+    assertEquals(failing.getResponses(), failing.getErrors());
+    assertEquals(ok.getResponses(), (long) report.getStatusCounts().get(200));
+    assertEquals(failing.getResponses(), (long) report.getStatusCounts().get(500));
+    assertTrue(report.getFailureCounts().isEmpty());
+    assertTrue(report.getThroughput() > 0);
+  }
+
+  @Test
+  public void testRate() throws IOException {
+    LoadReport report = builder()
+        .addRequest(LoadRequest.get("/ok"), 1)
+        .rate(200, 32)
+        .duration(1, TimeUnit.SECONDS)
+        .build()
+        .run();
+
+    assertEquals(Correction.INTENDED_START, report.getCorrection());
+    long responses = report.getOverall().getResponses();
+    assertTrue("responses: " + responses, responses >= 190 && responses <= 201);
+    assertEquals(0, report.getOverall().getErrors());
+  }
+
+  @Test
+  public void testRate_latencyFromIntendedStart() throws IOException {
+    // one connection to a server taking 50 ms cannot keep up with 100 requests per second, so
+    // requests wait for the connection longer and longer
+    delayMillis = 50;
+    LoadReport report = builder()
+        .addRequest(LoadRequest.get("/ok"), 1)
+        .rate(100, 1)
+        .duration(1, TimeUnit.SECONDS)
+        .build()
+        .run();
+
+    LoadReport.Stats overall = report.getOverall();
+    assertTrue(overall.getResponses() < 30);
+    assertTrue(overall.getPercentile(90) > TimeUnit.MILLISECONDS.toMicros(400));
+    assertTrue(report.getFailureCounts().get(Failure.UNSENT) > 50);
+  }
+
+  @Test
+  public void testTimeout() throws IOException {
+    delayMillis = 2000;
+    LoadReport report = builder()
+        .addRequest(LoadRequest.get("/ok"), 1)
+        .concurrency(2)
+        .duration(200, TimeUnit.MILLISECONDS)
+        .requestTimeout(50, TimeUnit.MILLISECONDS)
+        .build()
+        .run();
+
+    assertEquals(0, report.getOverall().getResponses());
+    assertTrue(report.getFailureCounts().get(Failure.TIMEOUT) >= 2);
+  }
+
+  @Test
+  public void testConnectionRefused() throws IOException {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      port = socket.getLocalPort();
+    }
+    LoadReport report = LoadGenerator.builder("127.0.0.1", port)
+        .addRequest(LoadRequest.get("/"), 1)
+        .rate(50, 1)
+        .duration(200, TimeUnit.MILLISECONDS)
+        .build()
+        .run();
+
+    assertEquals(0, report.getOverall().getResponses());
+    assertTrue(report.getFailureCounts().get(Failure.CONNECT) > 0);
+  }
+
+  @Test
+  public void testBuilder_runConfiguration() throws IOException {
+    DefaultRunConfiguration configuration = new DefaultRunConfiguration();
+    configuration.setHost("127.0.0.1");
+    configuration.setPort(server.getAddress().getPort());
+
+    LoadReport report = LoadGenerator.builder(configuration)
+        .addRequest(LoadRequest.get("/"), 1)
+        .duration(100, TimeUnit.MILLISECONDS)
+        .build()
+        .run();
+
+    assertEquals("http://127.0.0.1:" + server.getAddress().getPort(), report.getTarget());
+    assertTrue(report.getOverall().getResponses() > 0);
+  }
+
+  @Test
+  public void testWrite() throws IOException {
+    LoadReport report = builder()
+        .addRequest(LoadRequest.get("/ok").named("home"), 1)
+        .rate(50, 2)
+        .warmUp(100, TimeUnit.MILLISECONDS)
+        .duration(200, TimeUnit.MILLISECONDS)
+        .build()
+        .run();
+
+    StringWriter writer = new StringWriter();
+    report.write(writer);
+    JsonObject json = new JsonParser().parse(writer.toString()).getAsJsonObject();
+    assertEquals("rate", json.get("mode").getAsString());
+    assertEquals(50, json.get("rate_per_second").getAsDouble(), 0);
+    assertEquals("intended_start", json.get("correction").getAsString());
+    assertEquals(report.getOverall().getResponses(),
+        json.getAsJsonObject("statuses").get("200").getAsLong());
+    JsonObject home = json.getAsJsonObject("requests").getAsJsonObject("home");
+    assertTrue(home.getAsJsonObject("latency_micros").has("p999"));
+  }
+
+  private LoadGenerator.Builder builder() {
+    return LoadGenerator.builder("127.0.0.1", server.getAddress().getPort());
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+import com.google.cloud.tools.appengine.api.AppEngineException;
+import com.google.cloud.tools.appengine.cloudsdk.CloudSdk;
+import com.google.cloud.tools.appengine.cloudsdk.FakeCloudSdk;
+import com.google.cloud.tools.appengine.cloudsdk.FakeCloudSdk.Behavior;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandInstrumentation;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace.Stream;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessOutputLineListener;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests {@link CommandMetrics} and the command instrumentation of {@link CloudSdk}, with a {@link
+ * FakeCloudSdk}.
+ */
+public class CommandMetricsTest {
+
+  @Rule
+  public TemporaryFolder testDir = new TemporaryFolder();
+
+  private final MetricsRegistry registry = new MetricsRegistry();
+  private final List<CommandTrace> traces =
+      Collections.synchronizedList(new ArrayList<CommandTrace>());
+  private FakeCloudSdk fake;
+
+  @Before
+  public void setUp() throws IOException {
+    assumeFalse(System.getProperty("os.name").contains("Windows"));
+    fake = new FakeCloudSdk(testDir.getRoot().toPath().resolve("sdk"));
+  }
+
+  @Test
+  public void testRunAppCommand() throws Exception {
+    fake.setGcloudBehavior(new Behavior().stdOutLines(3).stdErrLines(2).lineLength(9));
+    CloudSdk sdk = newBuilder().build();
+
+    sdk.runAppCommand(ImmutableList.of("deploy", "/app/app.yaml", "--version", "v1"));
+
+    // validation asks gcloud for its version, which is traced too
+    assertEquals(2, traces.size());
+    CommandTrace trace = traces.get(1);
+    assertEquals("app deploy", trace.getGroup());
+    assertTrue(trace.isSuccessful());
+    assertTrue(trace.getValidationNanos() > 0);
+    assertTrue(trace.getSpawnNanos() > 0);
+    assertTrue(trace.getTimeToFirstOutputNanos() > 0);
+    assertTrue(trace.getDurationNanos() >= trace.getValidationNanos() + trace.getSpawnNanos());
+    assertEquals(3, trace.getOutputLines(Stream.STDOUT));
+    assertEquals(30, trace.getOutputBytes(Stream.STDOUT));
+    assertEquals(2, trace.getOutputLines(Stream.STDERR));
+    assertTrue(trace.getCommand().contains("deploy"));
+
+    MetricKey group = MetricKey.of(CommandMetrics.DURATION, "group", "app deploy");
+    assertEquals(1, registry.getHistograms().get(group).getCount());
+    assertEquals(1, registry.getHistograms()
+        .get(MetricKey.of(CommandMetrics.DURATION, "group", "info")).getCount());
+    assertEquals(Long.valueOf(1), registry.getCounters()
+        .get(MetricKey.of(CommandMetrics.EXITS, "group", "app deploy", "exit_code", "0")));
+    assertEquals(Long.valueOf(3), registry.getCounters().get(MetricKey.of(
+        CommandMetrics.OUTPUT_LINES, "group", "app deploy", "stream", "stdout")));
+    assertEquals(Long.valueOf(0), registry.getGauges()
+        .get(MetricKey.of(CommandMetrics.IN_FLIGHT, "group", "app deploy")));
+  }
+
+  @Test
+  public void testRunAppCommand_exitCode() throws Exception {
+    fake.setGcloudBehavior(new Behavior().exitCode(3));
+    CloudSdk sdk = newBuilder().build();
+
+    sdk.runAppCommand(ImmutableList.of("versions", "list"));
+
+    assertEquals(Long.valueOf(1), registry.getCounters().get(
+        MetricKey.of(CommandMetrics.EXITS, "group", "app versions list", "exit_code", "3")));
+  }
+
+  @Test
+  public void testRunAppCommand_validationFailure() throws Exception {
+    CloudSdk sdk = new CloudSdk.Builder().sdkPath(Paths.get("/nonexistent"))
+        .addInstrumentation(new CommandMetrics(registry)).build();
+
+    try {
+      sdk.runAppCommand(ImmutableList.of("deploy"));
+      fail();
+    } catch (AppEngineException e) {
+      // expected
+    }
+
+    MetricKey group = MetricKey.of(CommandMetrics.DURATION, "group", "app deploy");
+    assertEquals(1, registry.getHistograms().get(group).getCount());
+    assertEquals(Long.valueOf(1), registry.getCounters().get(MetricKey.of(CommandMetrics.FAILURES,
+        "group", "app deploy", "type", "CloudSdkNotFoundException")));
+    assertEquals(null, registry.getHistograms()
+        .get(MetricKey.of(CommandMetrics.SPAWN, "group", "app deploy")));
+  }
+
+  @Test
+  public void testRunAppCfgCommand() throws Exception {
+    CloudSdk sdk = newBuilder().build();
+
+    sdk.runAppCfgCommand(ImmutableList.of("--enable_quickstart", "stage", "/source", "/staging"));
+
+    assertEquals(1, registry.getHistograms()
+        .get(MetricKey.of(CommandMetrics.DURATION, "group", "appcfg stage")).getCount());
+  }
+
+  private CloudSdk.Builder newBuilder() {
+    return fake.newBuilder()
+        .addStdOutLineListener(new NullListener())
+        .addStdErrLineListener(new NullListener())
+        .addInstrumentation(new CommandMetrics(registry))
+        .addInstrumentation(new CommandInstrumentation() {
+          @Override
+          public void onCommandStart(CommandTrace trace) {
+          }
+
+          @Override
+          public void onCommandFinish(CommandTrace trace) {
+            traces.add(trace);
+          }
+        });
+  }
+
+  private static class NullListener implements ProcessOutputLineListener {
+    @Override
+    public void onOutputLine(String line) {
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.cloud.tools.appengine.cloudsdk.metrics.DevServerRequestLog.Request;
+import com.google.cloud.tools.appengine.cloudsdk.metrics.DevServerRequestLog.RequestListener;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link DevServerRequestLog}.
+ */
+public class DevServerRequestLogTest {
+
+  private final MetricsRegistry registry = new MetricsRegistry();
+  private final DevServerRequestLog requestLog = new DevServerRequestLog(registry, 2);
+
+  @Test
+  public void testParse_pythonLog() {
+    Request request = DevServerRequestLog.parse("INFO     2016-10-19 12:00:00,000 module.py:788]"
+        + " backend: \"POST /tasks/run?id=3 HTTP/1.1\" 500 1234");
+
+    assertEquals("backend", request.getModule());
+    assertEquals("POST", request.getMethod());
+    assertEquals("/tasks/run", request.getPath());
+    assertEquals(500, request.getStatus());
+    assertEquals(-1, request.getLatencyMicros());
+  }
+
+  @Test
+  public void testParse_javaLogWithLatency() {
+    Request request = DevServerRequestLog.parse("127.0.0.1 - - [19/Oct/2016:12:00:00 +0000]"
+        + " \"GET /index.html HTTP/1.1\" 200 - \"-\" \"curl/7.50\" 12");
+
+    assertEquals(DevServerRequestLog.DEFAULT_MODULE, request.getModule());
+    assertEquals("/index.html", request.getPath());
+    assertEquals(200, request.getStatus());
+    assertEquals(12000, request.getLatencyMicros());
+  }
+
+  @Test
+  public void testParse_latencyUnits() {
+    assertEquals(12000, DevServerRequestLog.parse(
+        "default: \"GET / HTTP/1.1\" 200 5 0.012s").getLatencyMicros());
+    assertEquals(1500, DevServerRequestLog.parse(
+        "default: \"GET / HTTP/1.1\" 200 5 1.5ms").getLatencyMicros());
+    assertEquals(300, DevServerRequestLog.parse(
+        "default: \"GET / HTTP/1.1\" 200 5 300us").getLatencyMicros());
+  }
+
+  @Test
+  public void testParse_notARequest() {
+    assertNull(DevServerRequestLog.parse(
+        "INFO     2016-10-19 12:00:00,000 dispatcher.py:197] Starting module \"default\""));
+    assertNull(DevServerRequestLog.parse("Listening on HTTP/1.1 and HTTP/2"));
+  }
+
+  @Test
+  public void testOnOutputLine() {
+    final List<Request> requests = new ArrayList<>();
+    requestLog.addRequestListener(new RequestListener() {
+      @Override
+      public void onRequest(Request request) {
+        requests.add(request);
+      }
+    });
+
+    requestLog.onOutputLine("default: \"GET /a HTTP/1.1\" 200 5 10ms");
+    requestLog.onOutputLine("default: \"GET /a?b=c HTTP/1.1\" 503 5 30ms");
+    requestLog.onOutputLine("default: \"GET /a HTTP/1.1\" 200 5");
+    requestLog.onOutputLine("not a request");
+
+    assertEquals(3, requests.size());
+    Histogram latency = requestLog.getLatency("default", "/a");
+    assertEquals(2, latency.getCount());
+    assertEquals(30000, latency.getMax());
+    assertEquals(1, requestLog.getErrorCount("default", "/a"));
+    assertEquals(0, requestLog.getErrorCount("default", "/b"));
+    assertEquals(2L, (long) registry.getCounters().get(MetricKey.of(DevServerRequestLog.REQUESTS,
+        "module", "default", "path", "/a", "status", "200")));
+  }
+
+  @Test
+  public void testOnOutputLine_pathsBounded() {
+    requestLog.onOutputLine("default: \"GET /a HTTP/1.1\" 200 5 1ms");
+    requestLog.onOutputLine("default: \"GET /b HTTP/1.1\" 200 5 1ms");
+    requestLog.onOutputLine("default: \"GET /c HTTP/1.1\" 200 5 1ms");
+    requestLog.onOutputLine("default: \"GET /d HTTP/1.1\" 200 5 1ms");
+    requestLog.onOutputLine("default: \"GET /a HTTP/1.1\" 200 5 1ms");
+
+    assertEquals(2, requestLog.getLatency("default", "/a").getCount());
+    assertEquals(1, requestLog.getLatency("default", "/b").getCount());
+    assertEquals(2, requestLog.getLatency("default", DevServerRequestLog.OTHER_PATH).getCount());
+  }
+}
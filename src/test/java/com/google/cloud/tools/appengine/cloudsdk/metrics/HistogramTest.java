@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link Histogram}.
+ */
+public class HistogramTest {
+
+  @Test
+  public void testRecord() {
+    Histogram histogram = new Histogram(10, 100, 1000);
+    histogram.record(5);
+    histogram.record(10);
+    histogram.record(11);
+    histogram.record(5000);
+    histogram.record(-1);
+
+    assertArrayEquals(new long[] {3, 1, 0, 1}, histogram.getBucketCounts());
+    assertEquals(5, histogram.getCount());
+    assertEquals(5026, histogram.getSum());
+    assertEquals(5000, histogram.getMax());
+  }
+
+  @Test
+  public void testGetPercentile() {
+    Histogram histogram = new Histogram(10, 100, 1000);
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+
+    assertEquals(10, histogram.getPercentile(10));
+    assertEquals(100, histogram.getPercentile(50));
+    assertEquals(100, histogram.getPercentile(100));
+    assertEquals(1, new Histogram(10).getPercentile(0) + 1);
+  }
+
+  @Test
+  public void testGetPercentile_overflow() {
+    Histogram histogram = new Histogram(10);
+    histogram.record(1);
+    histogram.record(12345);
+
+    assertEquals(10, histogram.getPercentile(50));
+    assertEquals(12345, histogram.getPercentile(99));
+  }
+
+  @Test
+  public void testExponentialBounds() {
+    assertArrayEquals(new long[] {100, 200, 400, 800}, Histogram.exponentialBounds(100, 2, 4));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsortedBounds() {
+    new Histogram(10, 10);
+  }
+
+  @Test
+  public void testConcurrentRecord() throws InterruptedException {
+    final Histogram histogram = Histogram.ofDurationMicros();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          for (int value = 0; value < 10000; value++) {
+            histogram.record(value);
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(40000, histogram.getCount());
+    assertEquals(4 * (9999L * 10000 / 2), histogram.getSum());
+    assertEquals(9999, histogram.getMax());
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link MetricsRegistry} and {@link MetricKey}.
+ */
+public class MetricsRegistryTest {
+
+  private final MetricsRegistry registry = new MetricsRegistry();
+
+  @Test
+  public void testCounter() {
+    registry.counter(MetricKey.of("runs_total", "group", "app deploy")).incrementAndGet();
+    registry.counter(MetricKey.of("runs_total", "group", "app deploy")).incrementAndGet();
+    registry.counter(MetricKey.of("runs_total", "group", "info")).incrementAndGet();
+
+    assertEquals(Long.valueOf(2),
+        registry.getCounters().get(MetricKey.of("runs_total", "group", "app deploy")));
+    assertEquals(2, registry.getCounters().size());
+    assertTrue(registry.getGauges().isEmpty());
+  }
+
+  @Test
+  public void testHistogram() {
+    Histogram histogram = registry.histogram(MetricKey.of("run_micros"));
+    assertSame(histogram, registry.histogram(MetricKey.of("run_micros")));
+    assertSame(histogram, registry.getHistograms().get(MetricKey.of("run_micros")));
+  }
+
+  @Test
+  public void testMetricKey_labelOrder() {
+    MetricKey key = MetricKey.of("runs_total", "b", "2", "a", "1");
+    assertEquals(MetricKey.of("runs_total", "a", "1", "b", "2"), key);
+    assertEquals("runs_total{a=1,b=2}", key.toString());
+    assertEquals(ImmutableList.of("a", "b"), ImmutableList.copyOf(key.getLabels().keySet()));
+  }
+
+  @Test
+  public void testMetricKey_compareTo() {
+    List<MetricKey> keys = new ArrayList<>(ImmutableList.of(
+        MetricKey.of("b"),
+        MetricKey.of("a", "x", "2"),
+        MetricKey.of("a", "x", "1", "y", "1"),
+        MetricKey.of("a", "x", "1"),
+        MetricKey.of("a")));
+    Collections.sort(keys);
+
+    assertEquals(ImmutableList.of(
+        MetricKey.of("a"),
+        MetricKey.of("a", "x", "1"),
+        MetricKey.of("a", "x", "1", "y", "1"),
+        MetricKey.of("a", "x", "2"),
+        MetricKey.of("b")), keys);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMetricKey_badName() {
+    MetricKey.of("app deploy");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMetricKey_oddLabels() {
+    MetricKey.of("runs_total", "group");
+  }
+}
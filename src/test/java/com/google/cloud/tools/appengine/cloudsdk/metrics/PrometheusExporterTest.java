@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.tools.appengine.cloudsdk.classfile.ScanCache;
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link PrometheusExporter}.
+ */
+public class PrometheusExporterTest {
+
+  @Rule
+  public TemporaryFolder testDir = new TemporaryFolder();
+
+  private final MetricsRegistry registry = new MetricsRegistry();
+  private final PrometheusExporter exporter = new PrometheusExporter(registry);
+
+  @Test
+  public void testRender_counterAndGauge() {
+    registry.counter(MetricKey.of("command_exits_total", "group", "app deploy", "exit_code", "1"))
+        .addAndGet(2);
+    registry.counter(MetricKey.of("command_exits_total", "group", "info", "exit_code", "0"))
+        .incrementAndGet();
+    registry.gauge(MetricKey.of("commands_in_flight", "group", "say \"hi\"\\")).set(3);
+
+    String text = exporter.render();
+
+    assertContains(text, "# TYPE appengine_command_exits_total counter\n"
+        + "appengine_command_exits_total{exit_code=\"0\",group=\"info\"} 1\n"
+        + "appengine_command_exits_total{exit_code=\"1\",group=\"app deploy\"} 2\n");
+    assertContains(text, "# TYPE appengine_commands_in_flight gauge\n"
+        + "appengine_commands_in_flight{group=\"say \\\"hi\\\"\\\\\"} 3\n");
+    assertContains(text, "# TYPE appengine_processes_running gauge\n");
+  }
+
+  @Test
+  public void testRender_histogram() {
+    Histogram histogram = registry.histogram(MetricKey.of("command_duration_micros", "group", "x"));
+    histogram.record(50);
+    histogram.record(150);
+    histogram.record(Long.MAX_VALUE / 2);
+
+    String text = exporter.render();
+
+    assertContains(text, "# TYPE appengine_command_duration_seconds histogram\n"
+        + "appengine_command_duration_seconds_bucket{group=\"x\",le=\"0.0001\"} 1\n"
+        + "appengine_command_duration_seconds_bucket{group=\"x\",le=\"0.0002\"} 2\n"
+        + "appengine_command_duration_seconds_bucket{group=\"x\",le=\"0.0004\"} 2\n");
+    assertContains(text, "appengine_command_duration_seconds_bucket{group=\"x\",le=\"+Inf\"} 3\n"
+        + "appengine_command_duration_seconds_sum{group=\"x\"} 4611686018427.388103\n"
+        + "appengine_command_duration_seconds_count{group=\"x\"} 3\n");
+  }
+
+  @Test
+  public void testRender_scanCaches() {
+    ScanCache<String> cache = new ScanCache<>("prometheus-test", String.class, null);
+    HashCode hash = HashCode.fromInt(1);
+    cache.get(hash);
+    cache.put(hash, "result");
+    cache.get(hash);
+
+    String text = exporter.render();
+
+    assertContains(text, "appengine_scan_cache_hits_total{kind=\"prometheus-test\"} 1\n");
+    assertContains(text, "appengine_scan_cache_misses_total{kind=\"prometheus-test\"} 1\n");
+    assertContains(text, "appengine_scan_cache_hit_ratio{kind=\"prometheus-test\"} 0.5\n");
+  }
+
+  @Test
+  public void testRender_namespace() {
+    registry.counter(MetricKey.of("runs_total")).incrementAndGet();
+    assertContains(new PrometheusExporter(registry, "").render(), "\nruns_total 1\n");
+    assertContains(new PrometheusExporter(registry, "ci").render(), "\nci_runs_total 1\n");
+  }
+
+  @Test
+  public void testServe() throws Exception {
+    registry.counter(MetricKey.of("runs_total")).incrementAndGet();
+    try (PrometheusExporter.MetricsServer server =
+        exporter.serve(new InetSocketAddress("localhost", 0))) {
+      URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/metrics");
+      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+      assertEquals(200, connection.getResponseCode());
+      assertEquals(PrometheusExporter.CONTENT_TYPE, connection.getContentType());
+      try (InputStream body = connection.getInputStream()) {
+        assertContains(new String(ByteStreams.toByteArray(body), Charsets.UTF_8),
+            "appengine_runs_total 1\n");
+      }
+    }
+  }
+
+  @Test
+  public void testWriteTextFile() throws Exception {
+    Path file = testDir.getRoot().toPath().resolve("appengine.prom");
+    registry.counter(MetricKey.of("runs_total")).incrementAndGet();
+
+    exporter.writeTextFile(file);
+
+    assertContains(new String(Files.readAllBytes(file), Charsets.UTF_8),
+        "appengine_runs_total 1\n");
+    // no temporary files left behind
+    assertEquals(1, testDir.getRoot().list().length);
+  }
+
+  @Test
+  public void testWriteTextFilePeriodically() throws Exception {
+    Path file = testDir.getRoot().toPath().resolve("appengine.prom");
+    ScheduledFuture<?> task = exporter.writeTextFilePeriodically(file, 10, TimeUnit.MILLISECONDS);
+    try {
+      registry.counter(MetricKey.of("runs_total")).set(42);
+      long deadline = System.currentTimeMillis() + 5000;
+      while (!(Files.exists(file) && new String(Files.readAllBytes(file), Charsets.UTF_8)
+          .contains("appengine_runs_total 42\n")) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertContains(new String(Files.readAllBytes(file), Charsets.UTF_8),
+          "appengine_runs_total 42\n");
+    } finally {
+      task.cancel(false);
+    }
+  }
+
+  private static void assertContains(String text, String expected) {
+    assertTrue("expected\n" + expected + "in\n" + text, text.contains(expected));
+  }
+}
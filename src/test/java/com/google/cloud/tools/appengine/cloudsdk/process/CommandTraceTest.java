@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Tests for {@link CommandTrace}.
+ */
+public class CommandTraceTest {
+
+  @Test
+  public void testFlag() {
+    List<String> command = ImmutableList.of("gcloud", "app", "deploy", "--project", "my-project",
+        "--version=v1", "--promote");
+    assertEquals("my-project", CommandTrace.flag(command, "project"));
+    assertEquals("v1", CommandTrace.flag(command, "version"));
+    assertNull(CommandTrace.flag(command, "service"));
+    assertNull(CommandTrace.flag(command, "promote"));
+  }
+}
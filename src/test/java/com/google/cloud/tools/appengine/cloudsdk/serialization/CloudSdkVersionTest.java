@@ -23,11 +23,16 @@ import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static junit.framework.TestCase.assertNull;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(MockitoJUnitRunner.class)
 public class CloudSdkVersionTest {
@@ -173,4 +178,114 @@ public class CloudSdkVersionTest {
     assertTrue(new CloudSdkVersion("0.1.0-alpha.1.0.1")
         .compareTo(new CloudSdkVersion("0.1.0-omega")) < 0);
   }
+
+  @Test
+  public void testConstructor_numberTooLarge() {
+    assertEquals(Integer.MAX_VALUE, new CloudSdkVersion("2147483647.0.0").getMajorVersion());
+    try {
+      new CloudSdkVersion("2147483648.0.0");
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // like Integer.parseInt
+    }
+  }
+
+  @Test
+  public void testValueOf_cached() {
+    CloudSdkVersion version = CloudSdkVersion.valueOf("133.0.0-rc.1+build");
+    assertSame(version, CloudSdkVersion.valueOf(new String("133.0.0-rc.1+build")));
+    assertEquals(new CloudSdkVersion("133.0.0-rc.1+build"), version);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testValueOf_invalid() {
+    CloudSdkVersion.valueOf("1.0");
+  }
+
+  @Test
+  public void testCompareTo_preReleaseNumericBeyondInt() {
+    assertTrue(new CloudSdkVersion("1.0.0-99999999999")
+        .compareTo(new CloudSdkVersion("1.0.0-100000000000")) < 0);
+    assertTrue(new CloudSdkVersion("1.0.0-2")
+        .compareTo(new CloudSdkVersion("1.0.0-10")) < 0);
+  }
+
+  @Test
+  public void testConstructor_sameAsRegex_allShortStrings() {
+    char[] alphabet = {'0', '1', '.', '-', '+', 'a', 'Z', '_'};
+    int checked = 0;
+    for (int length = 1; length <= 6; length++) {
+      int[] digits = new int[length];
+      char[] chars = new char[length];
+      while (true) {
+        for (int i = 0; i < length; i++) {
+          chars[i] = alphabet[digits[i]];
+        }
+        assertSameAsRegex(new String(chars));
+        checked++;
+        int position = length - 1;
+        while (position >= 0 && ++digits[position] == alphabet.length) {
+          digits[position--] = 0;
+        }
+        if (position < 0) {
+          break;
+        }
+      }
+    }
+    assertEquals(299592, checked);
+  }
+
+  @Test
+  public void testConstructor_sameAsRegex_combinations() {
+    String[] cores = {"0.0.0", "1.2.3", "10.20.30", "01.0.0", "1.02.0", "1.0.00", "1.0", "1..0",
+        "2147483647.2147483647.2147483647", "2147483648.0.0", "0.99999999999.0", "a.0.0", ""};
+    String[] preReleases = {"", "-", "-0", "-00", "-01", "-10", "-1a", "-0a", "-a.b", "-a..b",
+        "-.a", "-a.", "-0.1.2", "-x-y", "--", "-a.01", "-a.-01", "-rc.1", "-\u00e9", "-a b"};
+    String[] builds = {"", "+", "+0", "+01", "+a.b", "+a..b", "+.a", "+a.", "+a+b", "+-",
+        "+build.20160101", "+\u00e9"};
+    for (String core : cores) {
+      for (String preRelease : preReleases) {
+        for (String build : builds) {
+          assertSameAsRegex(core + preRelease + build);
+        }
+      }
+    }
+  }
+
+  // The regular expression CloudSdkVersion used to parse versions with.
+  private static final Pattern LEGACY_PATTERN = Pattern.compile(
+      "^(?<major>(?:0|[1-9][0-9]*))\\.(?<minor>(?:0|[1-9][0-9]*))\\.(?<patch>(?:0|[1-9][0-9]*))"
+      + "(?:\\-(?<prerelease>(?:(?:(?:0|[1-9][0-9]*)|[-0-9A-Za-z]*[-A-Za-z]+[-0-9A-Za-z]*)"
+      + "(?:\\.(?:(?:0|[1-9][0-9]*)|[-0-9A-Za-z]*[-A-Za-z]+[-0-9A-Za-z]*))*)))?"
+      + "(?:\\+(?<build>(?:[-0-9A-Za-z]+(?:\\.[-0-9A-Za-z]+)*)))?$");
+
+  private static void assertSameAsRegex(String version) {
+    Matcher matcher = LEGACY_PATTERN.matcher(version);
+    boolean valid = matcher.matches();
+    if (valid) {
+      try {
+        Integer.parseInt(matcher.group("major"));
+        Integer.parseInt(matcher.group("minor"));
+        Integer.parseInt(matcher.group("patch"));
+      } catch (NumberFormatException e) {
+        valid = false;
+      }
+    }
+
+    CloudSdkVersion parsed;
+    try {
+      parsed = new CloudSdkVersion(version);
+    } catch (IllegalArgumentException e) {
+      assertFalse(version, valid);
+      return;
+    }
+    assertTrue(version, valid);
+    assertEquals(version, Integer.parseInt(matcher.group("major")), parsed.getMajorVersion());
+    assertEquals(version, Integer.parseInt(matcher.group("minor")), parsed.getMinorVerion());
+    assertEquals(version, Integer.parseInt(matcher.group("patch")), parsed.getPatchVersion());
+    assertEquals(version, matcher.group("prerelease"),
+        parsed.getPreRelease() == null ? null : parsed.getPreRelease().toString());
+    assertEquals(version, matcher.group("build"), parsed.getBuildIdentifier());
+    assertEquals(version, parsed.toString());
+  }
 }
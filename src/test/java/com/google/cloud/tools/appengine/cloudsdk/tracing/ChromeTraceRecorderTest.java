@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.tracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for {@link ChromeTraceRecorder}.
+ */
+public class ChromeTraceRecorderTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private ChromeTraceRecorder recorder = new ChromeTraceRecorder();
+
+  @Before
+  public void setUp() {
+    Tracing.addListener(recorder);
+  }
+
+  @After
+  public void tearDown() {
+    Tracing.removeListener(recorder);
+  }
+
+  @Test
+  public void testWrite_nestedSpans() throws IOException {
+    Span release = Tracing.start("pipeline", "release");
+    Span stage = Tracing.start(Span.STAGING, "stage standard");
+    Span command = Tracing.startDetached(Span.COMMAND, "appcfg stage");
+    command.attribute(Span.PROJECT, "my-project").attribute(Span.EXIT_CODE, 0);
+    command.end();
+    stage.failed(new IOException("disk full"));
+    stage.end();
+    release.end();
+
+    JsonObject trace = write();
+    Map<String, JsonObject> events = eventsByName(trace, "X");
+    assertEquals(3, events.size());
+
+    JsonObject releaseEvent = events.get("release");
+    JsonObject stageEvent = events.get("stage standard");
+    JsonObject commandEvent = events.get("appcfg stage");
+    assertEquals("pipeline", releaseEvent.get("cat").getAsString());
+    assertEquals(Thread.currentThread().getId(), stageEvent.get("tid").getAsLong());
+    assertFalse(releaseEvent.getAsJsonObject("args").has("parent_id"));
+    assertEquals(release.getId(),
+        stageEvent.getAsJsonObject("args").get("parent_id").getAsLong());
+    assertEquals(stage.getId(),
+        commandEvent.getAsJsonObject("args").get("parent_id").getAsLong());
+    assertEquals("java.io.IOException: disk full",
+        stageEvent.getAsJsonObject("args").get("failure").getAsString());
+    assertEquals("my-project", commandEvent.getAsJsonObject("args").get("project").getAsString());
+    assertEquals(0, commandEvent.getAsJsonObject("args").get("exit_code").getAsInt());
+
+    // children are drawn inside their parent
+    assertTrue(stageEvent.get("ts").getAsDouble() >= releaseEvent.get("ts").getAsDouble());
+    assertTrue(stageEvent.get("ts").getAsDouble() + stageEvent.get("dur").getAsDouble()
+        <= releaseEvent.get("ts").getAsDouble() + releaseEvent.get("dur").getAsDouble());
+
+    JsonObject threadName = eventsByName(trace, "M").get("thread_name");
+    assertEquals(Thread.currentThread().getName(),
+        threadName.getAsJsonObject("args").get("name").getAsString());
+  }
+
+  @Test
+  public void testWrite_spanEndedOnAnotherThread() throws Exception {
+    Span deploy = Tracing.start("pipeline", "deploy");
+    final Span server = Tracing.startDetached(Span.COMMAND, "dev_appserver");
+    deploy.end();
+    Thread exitThread = new Thread() {
+      @Override
+      public void run() {
+        server.end();
+      }
+    };
+    exitThread.start();
+    exitThread.join();
+
+    JsonObject trace = write();
+    assertEquals(1, eventsByName(trace, "X").size());
+    JsonObject begin = eventsByName(trace, "b").get("dev_appserver");
+    JsonObject end = eventsByName(trace, "e").get("dev_appserver");
+    assertEquals(server.getId(), begin.get("id").getAsLong());
+    assertEquals(server.getId(), end.get("id").getAsLong());
+    assertEquals(deploy.getId(), begin.getAsJsonObject("args").get("parent_id").getAsLong());
+    assertTrue(end.get("ts").getAsDouble() >= begin.get("ts").getAsDouble());
+  }
+
+  @Test
+  public void testWrite_file() throws IOException {
+    Tracing.start(Span.STAGING, "copy directory").end();
+    Path file = temporaryFolder.getRoot().toPath().resolve("trace.json");
+
+    recorder.write(file);
+
+    JsonObject trace = new JsonParser()
+        .parse(new String(Files.readAllBytes(file), Charsets.UTF_8)).getAsJsonObject();
+    assertEquals(1, eventsByName(trace, "X").size());
+    assertEquals(1, temporaryFolder.getRoot().list().length);
+  }
+
+  @Test
+  public void testOnSpanEnd_dropsSpansOverLimit() {
+    ChromeTraceRecorder small = new ChromeTraceRecorder(2);
+    Tracing.addListener(small);
+    try {
+      for (int i = 0; i < 5; i++) {
+        Tracing.start(Span.STAGING, "split jars").end();
+      }
+    } finally {
+      Tracing.removeListener(small);
+    }
+
+    assertEquals(2, small.getSpans().size());
+    assertEquals(3, small.getDropped());
+  }
+
+  private JsonObject write() throws IOException {
+    StringWriter writer = new StringWriter();
+    recorder.write(writer);
+    return new JsonParser().parse(writer.toString()).getAsJsonObject();
+  }
+
+  private static Map<String, JsonObject> eventsByName(JsonObject trace, String phase) {
+    Map<String, JsonObject> events = new HashMap<>();
+    for (JsonElement element : trace.getAsJsonArray("traceEvents")) {
+      JsonObject event = element.getAsJsonObject();
+      if (phase.equals(event.get("ph").getAsString())) {
+        events.put(event.get("name").getAsString(), event);
+      }
+    }
+    return events;
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.tracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandInstrumentation;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link FlightRecorderSpanListener}, which record the events with the Flight Recorder
+ * API through reflection, as the tests are compiled for Java 7 too.
+ */
+public class FlightRecorderSpanListenerTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Class<?> recordingClass;
+
+  @Before
+  public void setUp() {
+    try {
+      recordingClass = Class.forName("jdk.jfr.Recording");
+    } catch (ClassNotFoundException e) {
+      Assume.assumeNoException(e);
+    }
+    Assume.assumeTrue(Tracing.isFlightRecorderAvailable());
+  }
+
+  @Test
+  public void testIsEnabled_onlyWhileRecording() throws Exception {
+    final List<Boolean> enabled = new ArrayList<>();
+    record(new Runnable() {
+      @Override
+      public void run() {
+        enabled.add(Tracing.isEnabled());
+      }
+    });
+
+    assertEquals(Collections.singletonList(true), enabled);
+    assertFalse(Tracing.isEnabled());
+    assertFalse(Tracing.start(Span.STAGING, "copy directory").isRecording());
+  }
+
+  @Test
+  public void testSpan_emitsEvent() throws Exception {
+    List<Object> events = record(new Runnable() {
+      @Override
+      public void run() {
+        Span span = Tracing.start(Span.STAGING, "copy directory");
+        span.attribute("source", "/app");
+        span.failed(new IllegalStateException("disk full"));
+        span.end();
+      }
+    });
+
+    assertEquals(1, events.size());
+    Object event = events.get(0);
+    assertEquals(Span.STAGING, get(event, "category"));
+    assertEquals("copy directory", get(event, "name"));
+    assertEquals(null, get(event, "project"));
+    assertEquals(-1, get(event, "exitCode"));
+    assertEquals("java.lang.IllegalStateException: disk full", get(event, "failure"));
+    assertEquals("source=/app", get(event, "attributes"));
+  }
+
+  @Test
+  public void testCommandTrace_emitsEvent() throws Exception {
+    List<Object> events = record(new Runnable() {
+      @Override
+      public void run() {
+        CommandTrace trace = new CommandTrace("app services list",
+            Collections.<CommandInstrumentation>emptyList());
+        trace.start();
+        trace.validated();
+        trace.spawning();
+        trace.spawned(Arrays.asList("gcloud", "app", "services", "list", "--project=my-project",
+            "--service", "default"));
+        trace.exited(2);
+        trace.finish();
+      }
+    });
+
+    assertEquals(1, events.size());
+    Object event = events.get(0);
+    assertEquals(Span.COMMAND, get(event, "category"));
+    assertEquals("app services list", get(event, "name"));
+    assertEquals("my-project", get(event, "project"));
+    assertEquals("default", get(event, "service"));
+    assertEquals(2, get(event, "exitCode"));
+    assertTrue((Long) get(event, "validation") >= 0);
+    assertEquals(null, get(event, "attributes"));
+  }
+
+  // runs the operation while recording, and returns the events of the library
+  private List<Object> record(Runnable operation) throws Exception {
+    Object recording = recordingClass.getConstructor().newInstance();
+    try {
+      recordingClass.getMethod("enable", String.class)
+          .invoke(recording, FlightRecorderSpanListener.EVENT_NAME);
+      recordingClass.getMethod("start").invoke(recording);
+      operation.run();
+      recordingClass.getMethod("stop").invoke(recording);
+      Path file = temporaryFolder.newFile("recording.jfr").toPath();
+      recordingClass.getMethod("dump", Path.class).invoke(recording, file);
+
+      List<Object> events = new ArrayList<>();
+      for (Object event : (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+          .getMethod("readAllEvents", Path.class).invoke(null, file)) {
+        Object type = event.getClass().getMethod("getEventType").invoke(event);
+        if (FlightRecorderSpanListener.EVENT_NAME.equals(
+            type.getClass().getMethod("getName").invoke(type))) {
+          events.add(event);
+        }
+      }
+      return events;
+    } finally {
+      recordingClass.getMethod("close").invoke(recording);
+    }
+  }
+
+  private static Object get(Object event, String field) throws Exception {
+    return event.getClass().getMethod("getValue", String.class).invoke(event, field);
+  }
+}
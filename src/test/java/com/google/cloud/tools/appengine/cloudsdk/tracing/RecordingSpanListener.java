@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the spans it is notified of, for tests.
+ */
+public class RecordingSpanListener implements SpanListener {
+
+  private final List<Span> started = new ArrayList<>();
+  private final List<Span> ended = new ArrayList<>();
+
+  @Override
+  public synchronized void onSpanStart(Span span) {
+    started.add(span);
+  }
+
+  @Override
+  public synchronized void onSpanEnd(Span span) {
+    ended.add(span);
+  }
+
+  public synchronized List<Span> getStarted() {
+    return new ArrayList<>(started);
+  }
+
+  public synchronized List<Span> getEnded() {
+    return new ArrayList<>(ended);
+  }
+
+  /**
+   * Returns the names of the ended spans, in the order they ended.
+   */
+  public synchronized List<String> getEndedNames() {
+    List<String> names = new ArrayList<>();
+    for (Span span : ended) {
+      names.add(span.getName());
+    }
+    return names;
+  }
+}
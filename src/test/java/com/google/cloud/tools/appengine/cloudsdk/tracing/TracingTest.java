@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.cloud.tools.appengine.cloudsdk.tracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Tests for {@link Tracing} and {@link Span}.
+ */
+public class TracingTest {
+
+  private RecordingSpanListener listener = new RecordingSpanListener();
+
+  @Before
+  public void setUp() {
+    Tracing.addListener(listener);
+  }
+
+  @After
+  public void tearDown() {
+    Tracing.removeListener(listener);
+    assertNull(Tracing.current());
+  }
+
+  @Test
+  public void testStart_notifiesListeners() {
+    Span span = Tracing.start(Span.STAGING, "copy directory");
+    assertTrue(span.isRecording());
+    assertEquals(Collections.singletonList(span), listener.getStarted());
+    assertTrue(listener.getEnded().isEmpty());
+    assertEquals(-1, span.getDurationNanos());
+
+    span.attribute(Span.PROJECT, "my-project").attribute(Span.EXIT_CODE, 0)
+        .attribute(Span.SERVICE, null);
+    span.end();
+    span.end();
+
+    assertEquals(Collections.singletonList(span), listener.getEnded());
+    assertEquals(Span.STAGING, span.getCategory());
+    assertEquals("copy directory", span.getName());
+    assertEquals(Thread.currentThread().getName(), span.getThreadName());
+    assertEquals(ImmutableMap.of(Span.PROJECT, "my-project", Span.EXIT_CODE, 0),
+        span.getAttributes());
+    assertTrue(span.getDurationNanos() >= 0);
+    assertNull(span.getFailure());
+  }
+
+  @Test
+  public void testFailed_firstFailureWins() {
+    Span span = Tracing.start(Span.COMMAND, "app deploy");
+    IOException failure = new IOException("first");
+    span.failed(failure);
+    span.failed(new IOException("second"));
+    span.end();
+
+    assertSame(failure, listener.getEnded().get(0).getFailure());
+  }
+
+  @Test
+  public void testStart_listenerRemoved() {
+    Span span = Tracing.start(Span.STAGING, "stage standard");
+    Tracing.removeListener(listener);
+
+    // the listeners of a span are fixed when it starts
+    span.end();
+    assertEquals(Collections.singletonList(span), listener.getEnded());
+    Tracing.start(Span.STAGING, "stage flexible").end();
+    assertEquals(1, listener.getEnded().size());
+  }
+
+  @Test
+  public void testStart_failingListenerIgnored() {
+    SpanListener failing = new SpanListener() {
+      @Override
+      public void onSpanStart(Span span) {
+        throw new IllegalStateException();
+      }
+
+      @Override
+      public void onSpanEnd(Span span) {
+        throw new IllegalStateException();
+      }
+    };
+    Tracing.addListener(failing);
+    try {
+      Tracing.start(Span.STAGING, "split jars").end();
+    } finally {
+      Tracing.removeListener(failing);
+    }
+    assertEquals(Collections.singletonList("split jars"), listener.getEndedNames());
+  }
+
+  @Test
+  public void testStart_parentAndChildren() {
+    Span release = Tracing.start("pipeline", "release");
+    Span stage = Tracing.start(Span.STAGING, "stage standard");
+    assertSame(stage, Tracing.current());
+    Span command = Tracing.startDetached(Span.COMMAND, "appcfg stage");
+    assertSame(stage, Tracing.current());
+    stage.end();
+    assertSame(release, Tracing.current());
+    command.end();
+    Span deploy = Tracing.startDetached(Span.COMMAND, "app deploy");
+    deploy.end();
+    release.end();
+
+    assertNull(Tracing.current());
+    assertNull(release.getParent());
+    assertSame(release, stage.getParent());
+    assertSame(stage, command.getParent());
+    assertSame(release, deploy.getParent());
+    assertTrue(stage.isScoped());
+    assertFalse(command.isScoped());
+    assertTrue(release.getId() < stage.getId());
+  }
+
+  @Test
+  public void testDisabled() {
+    Span span = Tracing.disabled();
+    span.attribute(Span.PROJECT, "my-project");
+    span.failed(new IOException());
+    span.end();
+
+    assertFalse(span.isRecording());
+    assertTrue(span.getAttributes().isEmpty());
+    assertNull(span.getFailure());
+  }
+}
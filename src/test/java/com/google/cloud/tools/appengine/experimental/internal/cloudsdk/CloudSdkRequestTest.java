@@ -16,9 +16,16 @@
 
 package com.google.cloud.tools.appengine.experimental.internal.cloudsdk;
 
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandInstrumentation;
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace;
 import com.google.cloud.tools.appengine.experimental.AppEngineRequest;
 import com.google.cloud.tools.appengine.experimental.OutputHandler;
 import com.google.cloud.tools.appengine.experimental.internal.process.CliProcessManagerProvider;
@@ -29,11 +36,14 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 @RunWith(MockitoJUnitRunner.class)
 public class CloudSdkRequestTest {
@@ -57,8 +67,8 @@ public class CloudSdkRequestTest {
   @Before
   public void configureMocks() throws IOException {
     when(processFactory.newProcess()).thenReturn(process);
-    when(processManagerProvider.manage(process, resultConverter, outputHandler))
-        .thenReturn(manager);
+    when(processManagerProvider.manage(eq(process), eq(resultConverter), eq(outputHandler),
+        anyLong(), anyLong(), any(CommandTrace.class))).thenReturn(manager);
   }
 
   @Test
@@ -68,7 +78,37 @@ public class CloudSdkRequestTest {
     request.outputHandler(outputHandler);
     request.execute();
     verify(processFactory).newProcess();
-    verify(processManagerProvider).manage(process, resultConverter, outputHandler);
+    verify(processManagerProvider).manage(eq(process), eq(resultConverter), eq(outputHandler),
+        eq(0L), eq(0L), any(CommandTrace.class));
+  }
+
+  @Test
+  public void testExecute_timeouts() throws IOException {
+    AppEngineRequest<String> request = new CloudSdkRequest<String>(processFactory,
+        processManagerProvider, resultConverter);
+    request.outputHandler(outputHandler)
+        .timeout(10, TimeUnit.MINUTES)
+        .inactivityTimeout(30, TimeUnit.SECONDS);
+    request.execute();
+    verify(processManagerProvider).manage(eq(process), eq(resultConverter), eq(outputHandler),
+        eq(600000L), eq(30000L), any(CommandTrace.class));
+  }
+
+  @Test
+  public void testExecute_instrumentation() throws IOException {
+    when(processFactory.getCommand())
+        .thenReturn(Arrays.asList("gcloud", "app", "deploy", "/app/app.yaml", "--quiet"));
+    CommandInstrumentation instrumentation = mock(CommandInstrumentation.class);
+    AppEngineRequest<String> request = new CloudSdkRequest<String>(processFactory,
+        processManagerProvider, resultConverter);
+    request.instrumentation(instrumentation).execute();
+
+    ArgumentCaptor<CommandTrace> trace = ArgumentCaptor.forClass(CommandTrace.class);
+    verify(instrumentation).onCommandStart(trace.capture());
+    verify(processManagerProvider).manage(eq(process), eq(resultConverter),
+        any(OutputHandler.class), eq(0L), eq(0L), eq(trace.getValue()));
+    assertEquals("app deploy", trace.getValue().getGroup());
+    assertEquals(5, trace.getValue().getCommand().size());
   }
 
   @Test
@@ -18,6 +18,8 @@ package com.google.cloud.tools.appengine.experimental.process;
 
 import static org.junit.Assume.assumeTrue;
 
+import com.google.cloud.tools.appengine.cloudsdk.process.CommandTrace;
+import com.google.cloud.tools.appengine.cloudsdk.process.ProcessTimeoutException;
 import com.google.cloud.tools.appengine.experimental.OutputHandler;
 import com.google.cloud.tools.appengine.experimental.internal.process.CliProcessManager;
 import com.google.cloud.tools.appengine.experimental.process.io.CollectingOutputHandler;
@@ -92,9 +94,32 @@ public class CliProcessManagerTest {
     future.get();
   }
 
+  @Test
+  public void testManage_linuxInactivityTimeout() throws IOException, InterruptedException {
+    assumeTrue(!System.getProperty("os.name").startsWith("Windows"));
+
+    CollectingOutputHandler outputHandler = new CollectingOutputHandler();
+    Future<String> future = createTestProcess("echo 'stderr' 1>&2; sleep 10000", outputHandler,
+        0, 200);
+
+    try {
+      future.get();
+      Assert.fail();
+    } catch (ExecutionException e) {
+      ProcessTimeoutException timeout = (ProcessTimeoutException) e.getCause();
+      Assert.assertEquals(ProcessTimeoutException.Reason.INACTIVITY, timeout.getReason());
+      Assert.assertEquals(Collections.singletonList("stderr"), timeout.getOutputTail());
+    }
+  }
+
   // test specific helper
   private Future<String> createTestProcess(String commandFileContents, OutputHandler outputHandler)
       throws IOException {
+    return createTestProcess(commandFileContents, outputHandler, 0, 0);
+  }
+
+  private Future<String> createTestProcess(String commandFileContents, OutputHandler outputHandler,
+      long timeoutMillis, long inactivityTimeoutMillis) throws IOException {
     File echo = testRoot.newFile();
 
     Files.write(echo.toPath(), commandFileContents.getBytes(Charset.forName("UTF-8")));
@@ -103,6 +128,7 @@ public class CliProcessManagerTest {
         .command(Arrays.asList("sh", echo.getName()))
         .directory(testRoot.getRoot());
 
-    return new CliProcessManager.Provider<String>().manage(pb.start(), new DumbConverter(), outputHandler);
+    return new CliProcessManager.Provider<String>().manage(pb.start(), new DumbConverter(),
+        outputHandler, timeoutMillis, inactivityTimeoutMillis, CommandTrace.disabled());
   }
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.tools.appengine.cloudsdk.internal.JarSplitter;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Test for {@link JarSplitter}.
+ */
+public class JarSplitterTest {
+
+  @Rule
+  public TemporaryFolder testDir = new TemporaryFolder();
+
+  @Test
+  public void testParseExcludes() {
+    assertEquals(ImmutableSet.of(".txt", ".html"), JarSplitter.parseExcludes(".txt, .html,"));
+    assertTrue(JarSplitter.parseExcludes(null).isEmpty());
+    assertTrue(JarSplitter.parseExcludes("").isEmpty());
+  }
+
+  @Test
+  public void testSplit_largeJar() throws IOException {
+    Path jar = createJar(testDir.getRoot().toPath().resolve("big.jar"), 20, 1000);
+    Path out = testDir.newFolder("out").toPath();
+
+    List<Path> written =
+        new JarSplitter(5000, Collections.<String>emptySet(), 4).split(jar, out);
+
+    assertTrue(written.size() > 1);
+    assertEquals(out.resolve("big-0000.jar"), written.get(0));
+    List<String> entries = new ArrayList<>();
+    for (Path part : written) {
+      assertTrue(Files.size(part) <= 5000);
+      entries.addAll(entryNames(part));
+    }
+    // all entries, in the original order
+    assertEquals(entryNames(jar), entries);
+  }
+
+  @Test
+  public void testSplit_deterministic() throws IOException {
+    Path jar = createJar(testDir.getRoot().toPath().resolve("big.jar"), 20, 1000);
+    Path out1 = testDir.newFolder("out1").toPath();
+    Path out2 = testDir.newFolder("out2").toPath();
+
+    List<Path> first = new JarSplitter(5000, Collections.<String>emptySet(), 1).split(jar, out1);
+    List<Path> second = new JarSplitter(5000, Collections.<String>emptySet(), 8).split(jar, out2);
+
+    assertEquals(first.size(), second.size());
+    for (int i = 0; i < first.size(); i++) {
+      assertArrayEquals(Files.readAllBytes(first.get(i)), Files.readAllBytes(second.get(i)));
+    }
+  }
+
+  @Test
+  public void testSplit_recompressedPartsFit() throws IOException {
+    // compressed harder than the splitter recompresses, so parts come out larger than planned
+    Path jar = createCompressibleJar(testDir.getRoot().toPath().resolve("packed.jar"), 12);
+    List<String> entries = entryNames(jar);
+
+    for (long maxSize = 20000; maxSize <= 60000; maxSize += 1000) {
+      Path out = testDir.newFolder("out-" + maxSize).toPath();
+      List<Path> written =
+          new JarSplitter(maxSize, Collections.<String>emptySet(), 4).split(jar, out);
+
+      List<String> writtenEntries = new ArrayList<>();
+      for (Path part : written) {
+        assertTrue(part + " is larger than " + maxSize, Files.size(part) <= maxSize);
+        writtenEntries.addAll(entryNames(part));
+      }
+      assertEquals(entries, writtenEntries);
+    }
+  }
+
+  @Test
+  public void testSplit_smallJarUntouched() throws IOException {
+    Path jar = createJar(testDir.getRoot().toPath().resolve("small.jar"), 2, 100);
+    Path out = testDir.newFolder("out").toPath();
+
+    assertTrue(new JarSplitter(5000, ImmutableSet.of(".txt"), 2).split(jar, out).isEmpty());
+  }
+
+  @Test
+  public void testSplitDirectory_excludesAndReplaces() throws IOException {
+    Path lib = testDir.newFolder("lib").toPath();
+    createJar(lib.resolve("big.jar"), 20, 1000);
+    Path small = createJar(lib.resolve("small.jar"), 2, 100);
+
+    Set<String> excludes = ImmutableSet.of("1.class");
+    List<Path> written = new JarSplitter(5000, excludes, 4).splitDirectory(lib);
+
+    assertFalse(Files.exists(lib.resolve("big.jar")));
+    assertTrue(Files.exists(lib.resolve("big-0000.jar")));
+    assertTrue(written.contains(small));
+    assertEquals(Collections.singletonList("Class0.class"), entryNames(small));
+    for (Path part : written) {
+      for (String entry : entryNames(part)) {
+        assertFalse(entry.endsWith("1.class"));
+      }
+    }
+  }
+
+  @Test
+  public void testSplitDirectory_failureLeavesDirectoryUnchanged() throws IOException {
+    Path lib = testDir.newFolder("lib").toPath();
+    createJar(lib.resolve("big.jar"), 20, 1000);
+    Path broken = createJar(lib.resolve("broken.jar"), 20, 1000);
+    // the central directory still lists the entries, but the first one can't be read
+    byte[] bytes = Files.readAllBytes(broken);
+    bytes[0] = 0;
+    Files.write(broken, bytes);
+
+    try {
+      new JarSplitter(5000, Collections.<String>emptySet(), 4).splitDirectory(lib);
+      fail();
+    } catch (IOException ex) {
+      // expected
+    }
+
+    assertEquals(Arrays.asList(lib.resolve("big.jar"), broken), list(lib));
+  }
+
+  @Test
+  public void testSplitDirectory_partClash() throws IOException {
+    Path lib = testDir.newFolder("lib").toPath();
+    createJar(lib.resolve("big.jar"), 20, 1000);
+    Path unrelated = createJar(lib.resolve("big-0001.jar"), 2, 100);
+    byte[] unrelatedBytes = Files.readAllBytes(unrelated);
+
+    try {
+      new JarSplitter(5000, Collections.<String>emptySet(), 4).splitDirectory(lib);
+      fail();
+    } catch (FileAlreadyExistsException ex) {
+      assertEquals(unrelated.toString(), ex.getFile());
+    }
+
+    assertEquals(Arrays.asList(unrelated, lib.resolve("big.jar")), list(lib));
+    assertArrayEquals(unrelatedBytes, Files.readAllBytes(unrelated));
+  }
+
+  @Test
+  public void testSplitDirectory_missingDirectory() throws IOException {
+    Path lib = testDir.getRoot().toPath().resolve("missing");
+    assertTrue(new JarSplitter(5000, Collections.<String>emptySet(), 1)
+        .splitDirectory(lib).isEmpty());
+  }
+
+  // Creates a jar with incompressible entries, so sizes are predictable.
+  private static Path createJar(Path jar, int entries, int entrySize) throws IOException {
+    Random random = new Random(entries);
+    try (OutputStream out = Files.newOutputStream(jar);
+        ZipOutputStream zipOut = new ZipOutputStream(out)) {
+      for (int i = 0; i < entries; i++) {
+        ZipEntry entry = new ZipEntry("Class" + i + ".class");
+        entry.setTime(0);
+        zipOut.putNextEntry(entry);
+        byte[] bytes = new byte[entrySize];
+        random.nextBytes(bytes);
+        zipOut.write(bytes);
+        zipOut.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  // Creates a jar of compressible entries, deflated at the highest level.
+  private static Path createCompressibleJar(Path jar, int entries) throws IOException {
+    Random random = new Random(entries);
+    List<byte[]> records = new ArrayList<>();
+    for (int i = 0; i < 600; i++) {
+      byte[] record = new byte[6 + 8 * (1 + random.nextInt(4))];
+      for (int j = 0; j < record.length; j++) {
+        record[j] = j < 6 ? (byte) 'P' : (byte) ('A' + random.nextInt(26));
+      }
+      records.add(record);
+    }
+    try (OutputStream out = Files.newOutputStream(jar);
+        ZipOutputStream zipOut = new ZipOutputStream(out)) {
+      zipOut.setLevel(Deflater.BEST_COMPRESSION);
+      for (int i = 0; i < entries; i++) {
+        ZipEntry entry = new ZipEntry("Class" + i + ".class");
+        entry.setTime(0);
+        zipOut.putNextEntry(entry);
+        for (int j = 0; j < 2000; j++) {
+          zipOut.write(records.get(random.nextInt(1 + random.nextInt(records.size()))));
+        }
+        zipOut.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  private static List<Path> list(Path directory) throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (Path file : stream) {
+        files.add(file);
+      }
+    }
+    Collections.sort(files);
+    return files;
+  }
+
+  private static List<String> entryNames(Path jar) throws IOException {
+    List<String> names = new ArrayList<>();
+    try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        names.add(entries.nextElement().getName());
+      }
+    }
+    return names;
+  }
+}
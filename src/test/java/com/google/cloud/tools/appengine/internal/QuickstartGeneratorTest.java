@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.appengine.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.tools.appengine.cloudsdk.internal.QuickstartGenerator;
+import com.google.cloud.tools.appengine.cloudsdk.internal.QuickstartGenerator.WebComponent;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Test for {@link QuickstartGenerator}.
+ */
+public class QuickstartGeneratorTest {
+
+  private static final String[][] SOURCES = {
+      {"javax/servlet/annotation/WebServlet.java",
+          "package javax.servlet.annotation;\n"
+          + "@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME)\n"
+          + "public @interface WebServlet {\n"
+          + "  String name() default \"\"; String[] value() default {};\n"
+          + "  String[] urlPatterns() default {}; int loadOnStartup() default -1;\n"
+          + "}\n"},
+      {"javax/servlet/annotation/WebFilter.java",
+          "package javax.servlet.annotation;\n"
+          + "@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME)\n"
+          + "public @interface WebFilter {\n"
+          + "  String filterName() default \"\"; String[] value() default {};\n"
+          + "}\n"},
+      {"javax/servlet/annotation/WebListener.java",
+          "package javax.servlet.annotation;\n"
+          + "@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME)\n"
+          + "public @interface WebListener {}\n"},
+      {"app/HelloServlet.java",
+          "package app;\n"
+          + "@javax.servlet.annotation.WebServlet(name = \"hello\", urlPatterns = {\"/hello\"},"
+          + " loadOnStartup = 1)\n"
+          + "public class HelloServlet {}\n"},
+      {"app/Plain.java",
+          "package app;\n"
+          + "public class Plain {}\n"},
+      {"lib/AuditFilter.java",
+          "package lib;\n"
+          + "@javax.servlet.annotation.WebFilter(\"/*\")\n"
+          + "public class AuditFilter {}\n"},
+      {"lib/StartupListener.java",
+          "package lib;\n"
+          + "@javax.servlet.annotation.WebListener\n"
+          + "public class StartupListener {}\n"},
+  };
+
+  @Rule
+  public TemporaryFolder testDir = new TemporaryFolder();
+
+  private Path app;
+  private Path webInf;
+
+  @Before
+  public void setUp() throws IOException {
+    app = testDir.newFolder("app").toPath();
+    webInf = Files.createDirectories(app.resolve("WEB-INF"));
+    Path classes = Files.createDirectories(webInf.resolve("classes"));
+    compile(testDir.newFolder("src").toPath(), classes);
+
+    // move the library classes into a jar and drop the annotation stubs
+    Path lib = Files.createDirectories(webInf.resolve("lib"));
+    try (OutputStream out = Files.newOutputStream(lib.resolve("lib.jar"));
+        ZipOutputStream zipOut = new ZipOutputStream(out);
+        DirectoryStream<Path> libClasses = Files.newDirectoryStream(classes.resolve("lib"))) {
+      for (Path classFile : libClasses) {
+        zipOut.putNextEntry(new ZipEntry("lib/" + classFile.getFileName()));
+        zipOut.write(Files.readAllBytes(classFile));
+        zipOut.closeEntry();
+        Files.delete(classFile);
+      }
+    }
+    Files.delete(classes.resolve("lib"));
+    try (DirectoryStream<Path> stubs =
+        Files.newDirectoryStream(classes.resolve("javax/servlet/annotation"))) {
+      for (Path stub : stubs) {
+        Files.delete(stub);
+      }
+    }
+  }
+
+  @Test
+  public void testScan() throws IOException {
+    List<WebComponent> components = new QuickstartGenerator().scan(webInf);
+
+    List<String> classNames = new ArrayList<>();
+    for (WebComponent component : components) {
+      classNames.add(component.getClassName());
+    }
+    assertEquals(ImmutableList.of("app.HelloServlet", "lib.AuditFilter", "lib.StartupListener"),
+        classNames);
+    assertEquals("servlet", components.get(0).getKind());
+    assertEquals("hello", components.get(0).getName());
+    assertEquals(ImmutableList.of("/hello"), components.get(0).getUrlPatterns());
+    assertEquals("filter", components.get(1).getKind());
+    assertEquals("lib.AuditFilter", components.get(1).getName());
+    assertEquals(ImmutableList.of("/*"), components.get(1).getUrlPatterns());
+    assertEquals("listener", components.get(2).getKind());
+  }
+
+  @Test
+  public void testGenerate_mergesWebXml() throws IOException {
+    Files.write(webInf.resolve("web.xml"), ("<web-app xmlns=\"http://xmlns.jcp.org/xml/ns/javaee\""
+        + " version=\"3.1\"><servlet><servlet-name>hello</servlet-name>"
+        + "<servlet-class>app.Declared</servlet-class></servlet></web-app>")
+        .getBytes(Charsets.UTF_8));
+
+    Path output = new QuickstartGenerator().generate(app);
+
+    assertEquals(webInf.resolve("quickstart-web.xml"), output);
+    String xml = new String(Files.readAllBytes(output), Charsets.UTF_8);
+    assertTrue(xml.contains("metadata-complete=\"true\""));
+    assertTrue(xml.contains("xmlns=\"http://xmlns.jcp.org/xml/ns/javaee\""));
+    // web.xml wins over the annotation for the same servlet name
+    assertTrue(xml.contains("<servlet-class>app.Declared</servlet-class>"));
+    assertFalse(xml.contains("app.HelloServlet"));
+    assertTrue(xml.contains("<filter-class>lib.AuditFilter</filter-class>"));
+    assertTrue(xml.contains("<listener-class>lib.StartupListener</listener-class>"));
+  }
+
+  @Test
+  public void testGenerate_metadataComplete() throws IOException {
+    Files.write(webInf.resolve("web.xml"), ("<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\""
+        + " version=\"3.0\" metadata-complete=\"true\"/>").getBytes(Charsets.UTF_8));
+
+    String xml = new String(Files.readAllBytes(new QuickstartGenerator().generate(app)),
+        Charsets.UTF_8);
+
+    assertFalse(xml.contains("lib.AuditFilter"));
+    assertFalse(xml.contains("app.HelloServlet"));
+  }
+
+  @Test
+  public void testGenerate_noWebXml() throws IOException {
+    String xml = new String(Files.readAllBytes(new QuickstartGenerator().generate(app)),
+        Charsets.UTF_8);
+
+    assertTrue(xml.contains("<servlet-class>app.HelloServlet</servlet-class>"));
+    assertTrue(xml.contains("<load-on-startup>1</load-on-startup>"));
+    assertTrue(xml.contains("<url-pattern>/hello</url-pattern>"));
+  }
+
+  @Test
+  public void testScan_skipsMalformedClassFiles() throws IOException {
+    Files.write(webInf.resolve("classes/app/Broken.class"), "not a class".getBytes(Charsets.UTF_8));
+
+    List<WebComponent> components = new QuickstartGenerator().scan(webInf);
+
+    assertEquals(3, components.size());
+  }
+
+  @Test
+  public void testGenerate_doctypeIsNotFetched() throws IOException {
+    Files.write(webInf.resolve("web.xml"), ("<!DOCTYPE web-app PUBLIC"
+        + " \"-//Sun Microsystems, Inc.//DTD Web Application 2.3//EN\""
+        + " \"http://localhost:1/web-app_2_3.dtd\"><web-app/>").getBytes(Charsets.UTF_8));
+
+    String xml = new String(Files.readAllBytes(new QuickstartGenerator().generate(app)),
+        Charsets.UTF_8);
+
+    assertTrue(xml.contains("<servlet-class>app.HelloServlet</servlet-class>"));
+  }
+
+  @Test
+  public void testScan_persistentCache() throws IOException {
+    Path cache = testDir.newFolder("cache").toPath();
+    new QuickstartGenerator(cache, 2).scan(webInf);
+
+    List<Path> entries = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(cache, "quickstart-*.json")) {
+      for (Path entry : stream) {
+        entries.add(entry);
+      }
+    }
+    assertEquals(1, entries.size());
+
+    // a second generator with the same cache directory uses the stored result
+    Files.write(entries.get(0), "[]".getBytes(Charsets.UTF_8));
+    List<WebComponent> components = new QuickstartGenerator(cache, 2).scan(webInf);
+    assertEquals(1, components.size());
+    assertEquals("app.HelloServlet", components.get(0).getClassName());
+  }
+
+  private static void compile(Path sourceDirectory, Path classes) throws IOException {
+    List<String> arguments = new ArrayList<>(ImmutableList.of("-d", classes.toString()));
+    for (String[] source : SOURCES) {
+      Path file = sourceDirectory.resolve(source[0]);
+      Files.createDirectories(file.getParent());
+      Files.write(file, source[1].getBytes(Charsets.UTF_8));
+      arguments.add(file.toString());
+    }
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assertNotNull("tests require a JDK", compiler);
+    assertEquals(0, compiler.run(null, null, null, arguments.toArray(new String[0])));
+  }
+}
@@ -16,9 +16,13 @@
 
 package com.google.cloud.tools.project;
 
+import com.google.common.base.Strings;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.regex.Pattern;
+
 public class ProjectIdValidatorTest {
   
   @Test
@@ -64,4 +68,79 @@ public class ProjectIdValidatorTest {
     Assert.assertFalse(ProjectIdValidator.validate(null));
   }
 
+  @Test
+  public void testDotInDisplayProjectId() {
+    Assert.assertFalse(ProjectIdValidator.validate("google.com"));
+  }
+
+  @Test
+  public void testDotInPartition() {
+    Assert.assertFalse(ProjectIdValidator.validate("s.x~mystore"));
+  }
+
+  @Test
+  public void testEmptyPartitionAndDomain() {
+    Assert.assertTrue(ProjectIdValidator.validate("~:mystore"));
+  }
+
+  // The regular expression ProjectIdValidator used to check IDs with.
+  private static final Pattern LEGACY_PATTERN = Pattern.compile(
+      "(?:([a-z\\d\\-]{1,100})?\\~)?((?:([a-z\\d\\-\\.]{1,100})?\\:)?([a-z\\d\\-]{1,100}))",
+      Pattern.CASE_INSENSITIVE);
+
+  @Test
+  public void testSameAsRegex_allShortStrings() {
+    char[] alphabet = {'a', 'Z', '0', '-', '.', '~', ':', ' '};
+    for (int length = 0; length <= 6; length++) {
+      int[] digits = new int[length];
+      char[] chars = new char[length];
+      while (true) {
+        for (int i = 0; i < length; i++) {
+          chars[i] = alphabet[digits[i]];
+        }
+        assertSameAsRegex(new String(chars));
+        int position = length - 1;
+        while (position >= 0 && ++digits[position] == alphabet.length) {
+          digits[position--] = 0;
+        }
+        if (position < 0) {
+          break;
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSameAsRegex_lengths() {
+    int[] lengths = {0, 1, 99, 100, 101};
+    String[] partitions = {null, "p", "p.q"};
+    String[] domains = {null, "d", "d.e"};
+    for (String partition : partitions) {
+      for (String domain : domains) {
+        for (int partitionLength : lengths) {
+          for (int domainLength : lengths) {
+            for (int displayLength : lengths) {
+              StringBuilder id = new StringBuilder();
+              if (partition != null) {
+                id.append(Strings.padEnd(partition, partitionLength, 'x')
+                    .substring(0, partitionLength)).append('~');
+              }
+              if (domain != null) {
+                id.append(Strings.padEnd(domain, domainLength, 'y')
+                    .substring(0, domainLength)).append(':');
+              }
+              id.append(Strings.repeat("z", displayLength));
+              assertSameAsRegex(id.toString());
+              assertSameAsRegex(id.toString() + ".");
+              assertSameAsRegex("\u00e9" + id);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static void assertSameAsRegex(String id) {
+    Assert.assertEquals(id, LEGACY_PATTERN.matcher(id).matches(), ProjectIdValidator.validate(id));
+  }
 }